@@ -0,0 +1,38 @@
+package com.jiqiu.configapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * AppListAdapter.filterApps, run on every keystroke in the app search box
+ */
+@State(Scope.Benchmark)
+public class AppFilterBenchmark {
+
+    @Param({"500", "3000"})
+    public int appCount;
+
+    // "" = no query, "game" = many hits, "tencent.chat1" = few hits, "zzz" = none
+    @Param({"", "game", "tencent.chat1", "zzz"})
+    public String query;
+
+    @Param({"false", "true"})
+    public boolean hideSystemApps;
+
+    private List<AppInfo> apps;
+
+    @Setup
+    public void setUp() {
+        apps = BenchmarkData.apps(appCount);
+    }
+
+    @Benchmark
+    public List<AppInfo> filter() {
+        return AppFilter.filter(apps, query, hideSystemApps);
+    }
+}
@@ -0,0 +1,97 @@
+package com.jiqiu.configapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded input generators; the same seed always yields the same data so results compare
+ * across commits
+ */
+final class BenchmarkData {
+    static final long SEED = 0x5eed;
+
+    private static final String[] VENDORS = {"com.tencent", "com.android", "com.google.android", "org.example",
+            "com.netease", "com.miHoYo", "net.sample", "io.github"};
+    private static final String[] WORDS = {"game", "browser", "camera", "music", "mail", "maps", "notes",
+            "wallet", "reader", "launcher", "player", "chat"};
+
+    private BenchmarkData() {
+    }
+
+    static String packageName(Random random, int index) {
+        return VENDORS[random.nextInt(VENDORS.length)] + "." + WORDS[random.nextInt(WORDS.length)] + index;
+    }
+
+    /**
+     * {@code apps} enabled apps with {@code soPerApp} SO files each, drawn from a shared global list
+     */
+    static ConfigManager.ModuleConfig moduleConfig(int apps, int soPerApp) {
+        Random random = new Random(SEED);
+        ConfigManager.ModuleConfig config = new ConfigManager.ModuleConfig();
+        int globalCount = soPerApp * 4;
+        for (int i = 0; i < globalCount; i++) {
+            ConfigManager.SoFile so = new ConfigManager.SoFile();
+            so.name = "lib" + WORDS[i % WORDS.length] + i + ".so";
+            so.storedPath = ConfigManager.SO_STORAGE_DIR + "/" + so.name;
+            so.originalPath = "/data/local/tmp/" + so.name;
+            config.globalSoFiles.add(so);
+        }
+        config.globalGadgetConfig = new ConfigManager.GadgetConfig();
+        for (int i = 0; i < apps; i++) {
+            ConfigManager.AppConfig app = new ConfigManager.AppConfig();
+            app.enabled = random.nextInt(4) != 0;
+            app.injectionMethod = random.nextBoolean() ? "custom_linker" : "standard";
+            app.useGlobalGadget = random.nextInt(8) != 0;
+            if (!app.useGlobalGadget) {
+                app.gadgetConfig = new ConfigManager.GadgetConfig();
+                app.gadgetConfig.port = 27042 + i;
+            }
+            for (int j = 0; j < soPerApp; j++) {
+                ConfigManager.SoFile global = config.globalSoFiles.get(random.nextInt(globalCount));
+                ConfigManager.SoFile so = new ConfigManager.SoFile();
+                so.name = global.name;
+                so.storedPath = global.storedPath;
+                so.originalPath = global.originalPath;
+                so.loadGroup = random.nextInt(3);
+                app.soFiles.add(so);
+            }
+            config.perAppConfig.put(packageName(random, i), app);
+        }
+        return config;
+    }
+
+    static List<AppInfo> apps(int count) {
+        Random random = new Random(SEED);
+        List<AppInfo> apps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = Character.toUpperCase(WORDS[random.nextInt(WORDS.length)].charAt(0))
+                    + WORDS[random.nextInt(WORDS.length)].substring(1) + " " + i;
+            apps.add(new AppInfo(name, packageName(random, i), null, random.nextInt(3) == 0));
+        }
+        return apps;
+    }
+
+    /**
+     * Raw output of DirectoryListing.buildListCommand for a directory, in find -printf
+     * (NUL terminated) or stat fallback (newline terminated) form
+     */
+    static String listingOutput(int entries, boolean findFormat) {
+        Random random = new Random(SEED);
+        StringBuilder out = new StringBuilder(entries * 48);
+        char terminator = findFormat ? '\0' : '\n';
+        out.append(findFormat ? "d/4096/1700000000.0000000000/771/." : "directory/4096/1700000000/771/.")
+                .append(terminator);
+        for (int i = 0; i < entries; i++) {
+            boolean dir = random.nextInt(5) == 0;
+            String name = dir ? WORDS[random.nextInt(WORDS.length)] + i
+                    : "lib" + WORDS[random.nextInt(WORDS.length)] + i + (random.nextBoolean() ? ".so" : ".txt");
+            String type = findFormat ? (dir ? "d" : "f") : (dir ? "directory" : "regular file");
+            long mtime = 1700000000L + random.nextInt(10_000_000);
+            out.append(type).append('/').append(dir ? 4096 : random.nextInt(50_000_000)).append('/')
+                    .append(mtime).append(findFormat ? ".1234567890" : "").append('/')
+                    .append(dir ? "755" : "644").append('/').append(name).append(terminator);
+        }
+        return out.toString();
+    }
+}
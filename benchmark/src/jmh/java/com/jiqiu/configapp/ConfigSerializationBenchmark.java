@@ -0,0 +1,149 @@
+package com.jiqiu.configapp;
+
+import android.content.Context;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loading and saving a large config through ConfigManager against the fake shell
+ * saveConfig 包含 Gson 序列化、写缓存临时文件和一次（伪造的）发布往返；
+ * serialize / parse 只测流式读写本身，不经过文件和 shell。
+ * loadConfigAndReadOneApp 是启动后打开单个 app 的情形，每个 app 的配置段只在首次访问时解析，
+ * 和 parseAllApps 对比可以看出启动开销与配置的 app 数量无关的部分。
+ */
+@State(Scope.Benchmark)
+public class ConfigSerializationBenchmark {
+
+    // 2000 apps is ~5 MB in the old pretty-printed format, ~3.5 MB compact
+    @Param({"1000", "2000"})
+    public int apps;
+
+    @Param({"10"})
+    public int soPerApp;
+
+    private File cacheDir;
+    private Context context;
+    private FakeRootShell shell;
+    private FakeRootShell catShell;
+    private ConfigManager manager;
+    private Gson gson;
+    private ConfigManager.ModuleConfig config;
+    private List<String> catOutput;
+    private String samplePackage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        gson = new Gson();
+        config = BenchmarkData.moduleConfig(apps, soPerApp);
+        String json = gson.toJson(config);
+        catOutput = Collections.singletonList(json);
+        samplePackage = config.perAppConfig.keySet().iterator().next();
+        cacheDir = Files.createTempDirectory("config-bench").toFile();
+        context = new Context() {
+            @Override
+            public File getCacheDir() {
+                return cacheDir;
+            }
+        };
+        shell = new FakeRootShell(json);
+        catShell = new FakeRootShell(json, false);
+        manager = new ConfigManager(context, shell, new DeployMetrics());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    // Direct byte stream with the md5 check against config.gen
+    @Benchmark
+    public ConfigManager loadConfig() {
+        return new ConfigManager(context, shell, new DeployMetrics());
+    }
+
+    // The old path: cat through the shell, one String per output line
+    @Benchmark
+    public ConfigManager loadConfigViaCat() {
+        return new ConfigManager(context, catShell, new DeployMetrics());
+    }
+
+    @Benchmark
+    public List<ConfigManager.SoFile> loadConfigAndReadOneApp() {
+        return new ConfigManager(context, shell, new DeployMetrics()).getAppSoFiles(samplePackage);
+    }
+
+    @Benchmark
+    public ConfigGeneration saveConfig() {
+        manager.saveConfig();
+        return manager.getLoadedGeneration();
+    }
+
+    @Benchmark
+    public void serialize(Blackhole blackhole) throws IOException {
+        ConfigManager.writeConfig(gson, config, new BlackholeWriter(blackhole), false);
+    }
+
+    @Benchmark
+    public ConfigManager.ModuleConfig parse() throws IOException {
+        return ConfigManager.readConfig(gson, new LinesReader(catOutput));
+    }
+
+    // Every app decoded, what loading cost before per-app sections became lazy
+    @Benchmark
+    public ConfigManager.ModuleConfig parseAllApps() throws IOException {
+        ConfigManager.ModuleConfig parsed = ConfigManager.readConfig(gson, new LinesReader(catOutput));
+        ((AppConfigMap) parsed.perAppConfig).decodeAll();
+        return parsed;
+    }
+
+    // Consumes the serialized characters without keeping them, so only serialization is measured
+    private static final class BlackholeWriter extends Writer {
+        private final Blackhole blackhole;
+
+        BlackholeWriter(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(char[] buffer, int off, int len) {
+            blackhole.consume(buffer);
+            blackhole.consume(len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            blackhole.consume(str);
+            blackhole.consume(len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
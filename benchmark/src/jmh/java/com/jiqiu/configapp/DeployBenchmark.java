@@ -0,0 +1,104 @@
+package com.jiqiu.configapp;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end deploy of apps' SO files through the real command sequence, run by /bin/sh in a
+ * sandbox directory. 每次 shell 往返都是一个真实的 sh 进程，数值主要反映往返次数。
+ * deploy 逐个包部署（每个文件多次往返），deployBatched 是 APPLY_CONFIG 多包广播用的单次往返批量部署。
+ */
+@State(Scope.Benchmark)
+public class DeployBenchmark {
+
+    private static final String PACKAGE = "com.example.bench";
+
+    @Param({"1", "30"})
+    public int packages;
+
+    @Param({"1", "8"})
+    public int soFiles;
+
+    @Param({"65536"})
+    public int soSize;
+
+    private Path sandbox;
+    private ConfigManager manager;
+    private List<String> packageNames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sandbox = Files.createTempDirectory("deploy-bench");
+        LocalShellExecutor shell = new LocalShellExecutor(Files.createDirectory(sandbox.resolve("root")).toFile());
+        final File cacheDir = Files.createDirectory(sandbox.resolve("cache")).toFile();
+        Context context = new Context() {
+            @Override
+            public File getCacheDir() {
+                return cacheDir;
+            }
+        };
+
+        shell.resolve(ConfigManager.SO_STORAGE_DIR).mkdirs();
+        Random random = new Random(BenchmarkData.SEED);
+        StringBuilder soList = new StringBuilder();
+        for (int i = 0; i < soFiles; i++) {
+            String name = "libbench" + i + ".so";
+            String storedPath = ConfigManager.SO_STORAGE_DIR + "/" + name;
+            byte[] content = new byte[soSize];
+            random.nextBytes(content);
+            Files.write(shell.resolve(storedPath).toPath(), content);
+            soList.append(i > 0 ? "," : "")
+                    .append("{\"name\": \"").append(name).append("\", \"storedPath\": \"").append(storedPath).append("\"}");
+        }
+        packageNames = new ArrayList<>();
+        StringBuilder perApp = new StringBuilder();
+        for (int i = 0; i < packages; i++) {
+            String packageName = PACKAGE + i;
+            packageNames.add(packageName);
+            shell.resolve("/data/data/" + packageName).mkdirs();
+            perApp.append(i > 0 ? "," : "").append('"').append(packageName)
+                    .append("\": {\"enabled\": true, \"soFiles\": [").append(soList).append("]}");
+        }
+        Files.write(shell.resolve(ConfigManager.CONFIG_FILE).toPath(),
+                ("{\"perAppConfig\": {" + perApp + "}}").getBytes());
+
+        manager = new ConfigManager(context, shell, new DeployMetrics());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(sandbox)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public ConfigManager deploy() {
+        for (String packageName : packageNames) {
+            manager.deployForPackage(packageName);
+        }
+        return manager;
+    }
+
+    @Benchmark
+    public ConfigManager.DeployReport deployBatched() {
+        return manager.deployForPackages(packageNames);
+    }
+}
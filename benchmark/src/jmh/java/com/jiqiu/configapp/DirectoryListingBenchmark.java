@@ -0,0 +1,37 @@
+package com.jiqiu.configapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing a directory listing in FileBrowserActivity, for both find -printf and stat output
+ */
+@State(Scope.Benchmark)
+public class DirectoryListingBenchmark {
+
+    @Param({"100", "5000"})
+    public int entries;
+
+    @Param({"true", "false"})
+    public boolean findFormat;
+
+    private String output;
+
+    @Setup
+    public void setUp() {
+        output = BenchmarkData.listingOutput(entries, findFormat);
+    }
+
+    @Benchmark
+    public DirectoryListing.Listing parseAll() {
+        return DirectoryListing.parse("/data/local/tmp", output, null);
+    }
+
+    @Benchmark
+    public DirectoryListing.Listing parseSoOnly() {
+        return DirectoryListing.parse("/data/local/tmp", output, ".so");
+    }
+}
@@ -0,0 +1,80 @@
+package com.jiqiu.configapp;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ConfigManager's shell replaced by canned answers: config.json reads return a fixed document and
+ * the publish command reports a new generation. Every other command succeeds with no output.
+ * With {@code directRead} the document is also served as a byte stream, like libsu's SuFileInputStream.
+ */
+final class FakeRootShell implements ShellExecutor {
+    private final byte[] configBytes;
+    private final boolean directRead;
+    private long generation;
+
+    FakeRootShell(String configJson) {
+        this(configJson, true);
+    }
+
+    FakeRootShell(String configJson, boolean directRead) {
+        this.configBytes = configJson.getBytes(StandardCharsets.UTF_8);
+        this.directRead = directRead;
+    }
+
+    @Override
+    public boolean isRoot() {
+        return true;
+    }
+
+    @Override
+    public Shell.Result run(String... commands) {
+        String command = commands[0];
+        if (command.startsWith("cat " + ConfigManager.CONFIG_FILE)) {
+            return Shell.Result.of(0, readLines());
+        }
+        if (command.startsWith("cp ") && command.contains(ConfigGeneration.GEN_FILE)) {
+            generation++;
+            return Shell.Result.of(0, Arrays.asList("generation=" + generation,
+                    "digest=d41d8cd98f00b204e9800998ecf8427e"));
+        }
+        return Shell.Result.of(0, Collections.emptyList());
+    }
+
+    // What libsu does with the shell's stdout: decode it and split it into one String per line
+    private List<String> readLines() {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(configBytes), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return lines;
+    }
+
+    @Override
+    public InputStream openInputStream(String path) throws IOException {
+        if (!directRead) {
+            return ShellExecutor.super.openInputStream(path);
+        }
+        if (!path.equals(ConfigManager.CONFIG_FILE)) {
+            throw new FileNotFoundException(path);
+        }
+        return new ByteArrayInputStream(configBytes);
+    }
+}
@@ -0,0 +1,35 @@
+package com.jiqiu.configapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Rendering the gadget *.config.so content written on every deploy
+ */
+@State(Scope.Benchmark)
+public class GadgetConfigBenchmark {
+
+    private ConfigManager.GadgetConfig server;
+    private ConfigManager.GadgetConfig script;
+
+    @Setup
+    public void setUp() {
+        server = new ConfigManager.GadgetConfig();
+        server.port = 27043;
+        script = new ConfigManager.GadgetConfig();
+        script.mode = "script";
+        script.scriptPath = "/data/local/tmp/agent/hook.js";
+    }
+
+    @Benchmark
+    public String serverMode() {
+        return ConfigManager.buildGadgetConfigJson(server);
+    }
+
+    @Benchmark
+    public String scriptMode() {
+        return ConfigManager.buildGadgetConfigJson(script);
+    }
+}
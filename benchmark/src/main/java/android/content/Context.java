@@ -0,0 +1,14 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Only what ConfigManager uses: a writable cache directory for its temp files
+ */
+public abstract class Context {
+    public abstract File getCacheDir();
+
+    public Context getApplicationContext() {
+        return this;
+    }
+}
@@ -0,0 +1,7 @@
+package android.graphics.drawable;
+
+/**
+ * Type placeholder for AppInfo's icon; benchmarks always pass null
+ */
+public abstract class Drawable {
+}
@@ -0,0 +1,8 @@
+package com.jiqiu.configapp;
+
+/**
+ * Stand-in for the class the Android plugin generates for configapp
+ */
+public final class BuildConfig {
+    public static final boolean DEBUG = false;
+}
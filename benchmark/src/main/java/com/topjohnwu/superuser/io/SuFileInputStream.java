@@ -0,0 +1,17 @@
+package com.topjohnwu.superuser.io;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * Stand-in for libsu's SuFileInputStream; the JVM process reads the file directly
+ */
+public final class SuFileInputStream {
+    private SuFileInputStream() {
+    }
+
+    public static InputStream open(String path) throws FileNotFoundException {
+        return new FileInputStream(path);
+    }
+}
@@ -0,0 +1,119 @@
+package com.jiqiu.configapp;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.EditText;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static androidx.test.espresso.Espresso.onView;
+import static androidx.test.espresso.action.ViewActions.click;
+import static androidx.test.espresso.action.ViewActions.closeSoftKeyboard;
+import static androidx.test.espresso.action.ViewActions.typeText;
+import static androidx.test.espresso.matcher.ViewMatchers.withId;
+import static org.junit.Assert.*;
+
+/**
+ * Types a long script path into the gadget config dialog and measures frame times while the
+ * JSON preview follows along in the background.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GadgetConfigDialogTest {
+    private static final String TAG = "GadgetConfigDialogTest";
+
+    private static final String SCRIPT_PATH =
+            "/data/local/tmp/agents/com.example.target/hooks/network/ssl_pinning_bypass_with_logging.js";
+    // Three frames at 60 Hz; leaves room for slow emulators while still catching a re-render per keystroke
+    private static final long FRAME_BUDGET_P90_MS = 50;
+    private static final long PREVIEW_TIMEOUT_MS = 2_000;
+
+    /**
+     * Records the interval between consecutive frames while running
+     */
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+        private final List<Long> intervalsMs = new ArrayList<>();
+        private long lastFrameNanos;
+        private boolean running;
+
+        void start() {
+            running = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            running = false;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!running) {
+                return;
+            }
+            if (lastFrameNanos != 0) {
+                intervalsMs.add((frameTimeNanos - lastFrameNanos) / 1_000_000);
+            }
+            lastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        long percentile(int p) {
+            List<Long> sorted = new ArrayList<>(intervalsMs);
+            Collections.sort(sorted);
+            return sorted.get(Math.min(sorted.size() - 1, sorted.size() * p / 100));
+        }
+    }
+
+    @Test
+    public void typingStaysSmoothAndPreviewCatchesUp() {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            ConfigManager.GadgetConfig config = new ConfigManager.GadgetConfig();
+            config.mode = "script";
+            config.scriptPath = "";
+            scenario.onActivity(activity -> GadgetConfigDialog.newInstance(config)
+                    .show(activity.getSupportFragmentManager(), "gadget_config"));
+
+            FrameRecorder frames = new FrameRecorder();
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(frames::start);
+            onView(withId(R.id.editScriptPath)).perform(click(), typeText(SCRIPT_PATH), closeSoftKeyboard());
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(frames::stop);
+
+            // Every keystroke landed in order: the cursor was never moved by a preview update
+            onView(withId(R.id.editScriptPath)).check((view, noViewFound) -> {
+                EditText editText = (EditText) view;
+                assertEquals(SCRIPT_PATH, editText.getText().toString());
+                assertEquals(SCRIPT_PATH.length(), editText.getSelectionStart());
+            });
+            assertEquals(SCRIPT_PATH, config.scriptPath);
+
+            // The preview is rendered off the main thread once typing stops
+            String expected = GadgetConfigRenderer.render(config).json;
+            AtomicReference<String> preview = new AtomicReference<>();
+            long deadline = SystemClock.uptimeMillis() + PREVIEW_TIMEOUT_MS;
+            do {
+                SystemClock.sleep(50);
+                onView(withId(R.id.editJsonPreview)).check((view, noViewFound) ->
+                        preview.set(((EditText) view).getText().toString()));
+            } while (!expected.equals(preview.get()) && SystemClock.uptimeMillis() < deadline);
+            assertEquals(expected, preview.get());
+
+            long p50 = frames.percentile(50);
+            long p90 = frames.percentile(90);
+            long max = frames.percentile(100);
+            Log.i(TAG, "Frames while typing: " + frames.intervalsMs.size() + ", p50 " + p50 + " ms, p90 " + p90
+                    + " ms, max " + max + " ms");
+            assertFalse(frames.intervalsMs.isEmpty());
+            assertTrue("p90 frame time " + p90 + " ms", p90 <= FRAME_BUDGET_P90_MS);
+        }
+    }
+}
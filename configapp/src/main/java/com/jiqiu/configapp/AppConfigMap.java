@@ -0,0 +1,304 @@
+package com.jiqiu.configapp;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * perAppConfig with each app's section kept as raw JSON until it is first read
+ *
+ * 加载时只切分出每个包名对应的 JSON 片段；get 时才用 Gson 解析并按 schema 版本迁移。
+ * 保存时未被访问过的片段原样（去掉空白）写回，访问过的按当前对象重新序列化，
+ * 因为调用方拿到 AppConfig 后会直接修改字段，无法区分只读访问。
+ *
+ * 列表页在 AsyncTask 线程读取、UI 线程修改，所以访问方法都在本对象上同步，同一个包只会解析出一个对象，
+ * 不会出现修改落在另一个随后被覆盖的副本上。遍历 keySet/entrySet 时需要调用方自己同步。
+ *
+ * 解析失败（比如 "soFiles": {}）的片段当作不存在：get 返回 null，保存时原样写回，不影响其他应用。
+ */
+class AppConfigMap extends AbstractMap<String, ConfigManager.AppConfig> {
+
+    private static final String TAG = "AppConfigMap";
+
+    // Undecoded section: [start, end) of source
+    private static final class Raw {
+        final CharSequence source;
+        final int start;
+        final int end;
+        // Set once decoding failed, so the error is logged once and the section is kept for write-back
+        boolean undecodable;
+
+        Raw(CharSequence source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final LinkedHashMap<String, Object> entries = new LinkedHashMap<>();
+    private final Gson gson;
+    private final int sourceVersion;
+
+    AppConfigMap() {
+        this(null, ConfigSchema.CURRENT_VERSION);
+    }
+
+    private AppConfigMap(Gson gson, int sourceVersion) {
+        this.gson = gson;
+        this.sourceVersion = sourceVersion;
+    }
+
+    /**
+     * Split the perAppConfig object spanning [start, end) of {@code json} without decoding any app
+     */
+    static AppConfigMap parse(Gson gson, final CharSequence json, int start, int end, int sourceVersion) {
+        final AppConfigMap map = new AppConfigMap(gson, sourceVersion);
+        JsonSlices.forEachMember(json, start, end, (name, valueStart, valueEnd) ->
+                map.entries.put(name, new Raw(json, valueStart, valueEnd)));
+        return map;
+    }
+
+    // Caller holds the lock
+    private ConfigManager.AppConfig decode(String packageName, Object value) {
+        if (!(value instanceof Raw)) {
+            return (ConfigManager.AppConfig) value;
+        }
+        Raw raw = (Raw) value;
+        if (raw.undecodable) {
+            return null;
+        }
+        ConfigManager.AppConfig app;
+        try {
+            JsonReader reader = new JsonReader(JsonSlices.reader(raw.source, raw.start, raw.end));
+            app = gson.fromJson(reader, ConfigManager.AppConfig.class);
+        } catch (Exception e) {
+            Log.w(TAG, "Bad config for " + packageName + ", ignoring it", e);
+            raw.undecodable = true;
+            return null;
+        }
+        if (app != null) {
+            ConfigSchema.migrateApp(app, sourceVersion);
+        }
+        entries.put(packageName, app);
+        return app;
+    }
+
+    /**
+     * Whether {@code packageName}'s section has been decoded (or was added in memory)
+     */
+    synchronized boolean isDecoded(String packageName) {
+        Object value = entries.get(packageName);
+        return value != null && !(value instanceof Raw);
+    }
+
+    synchronized void decodeAll() {
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            if (entry.getValue() instanceof Raw) {
+                decode(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Packages whose section has {@code "enabled": true}, read from the raw slice without decoding it
+     */
+    synchronized List<String> enabledPackages() {
+        List<String> packages = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Raw ? isEnabled(entry.getKey(), (Raw) value)
+                    : value != null && ((ConfigManager.AppConfig) value).enabled) {
+                packages.add(entry.getKey());
+            }
+        }
+        return packages;
+    }
+
+    // Only a literal true counts; anything decode would reject leaves the app disabled
+    private boolean isEnabled(String packageName, final Raw raw) {
+        if (raw.undecodable) {
+            return false;
+        }
+        final boolean[] enabled = new boolean[1];
+        try {
+            JsonSlices.forEachMember(raw.source, raw.start, raw.end, (name, valueStart, valueEnd) -> {
+                if ("enabled".equals(name)) {
+                    enabled[0] = "true".contentEquals(raw.source.subSequence(valueStart, valueEnd));
+                }
+            });
+        } catch (JsonParseException e) {
+            // null sections land here as well; they decode to null and so are not enabled either
+            return false;
+        }
+        return enabled[0];
+    }
+
+    @Override
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return entries.containsKey(key);
+    }
+
+    @Override
+    public synchronized ConfigManager.AppConfig get(Object key) {
+        Object value = entries.get(key);
+        return value == null ? null : decode((String) key, value);
+    }
+
+    @Override
+    public synchronized ConfigManager.AppConfig put(String key, ConfigManager.AppConfig value) {
+        Object previous = entries.put(key, value);
+        return previous instanceof Raw ? null : (ConfigManager.AppConfig) previous;
+    }
+
+    @Override
+    public synchronized ConfigManager.AppConfig remove(Object key) {
+        Object previous = entries.remove(key);
+        return previous instanceof Raw ? null : (ConfigManager.AppConfig) previous;
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return entries.keySet();
+    }
+
+    // Entries decode on getValue, so iterating keys stays cheap
+    @Override
+    public Set<Map.Entry<String, ConfigManager.AppConfig>> entrySet() {
+        return new AbstractSet<Map.Entry<String, ConfigManager.AppConfig>>() {
+            @Override
+            public Iterator<Map.Entry<String, ConfigManager.AppConfig>> iterator() {
+                final Iterator<String> keys = entries.keySet().iterator();
+                return new Iterator<Map.Entry<String, ConfigManager.AppConfig>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, ConfigManager.AppConfig> next() {
+                        final String key = keys.next();
+                        return new Map.Entry<String, ConfigManager.AppConfig>() {
+                            @Override
+                            public String getKey() {
+                                return key;
+                            }
+
+                            @Override
+                            public ConfigManager.AppConfig getValue() {
+                                return get(key);
+                            }
+
+                            @Override
+                            public ConfigManager.AppConfig setValue(ConfigManager.AppConfig value) {
+                                return put(key, value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        keys.remove();
+                    }
+                };
+            }
+
+            @Override
+            public synchronized int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    synchronized void write(JsonWriter out, Gson writerGson) throws IOException {
+        // Sections from an older schema go through the migration before being written back
+        if (sourceVersion < ConfigSchema.CURRENT_VERSION) {
+            decodeAll();
+        }
+        TypeAdapter<ConfigManager.AppConfig> adapter = writerGson.getAdapter(ConfigManager.AppConfig.class);
+        out.beginObject();
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            out.name(entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Raw) {
+                Raw raw = (Raw) value;
+                out.jsonValue(JsonSlices.minify(raw.source, raw.start, raw.end));
+            } else {
+                adapter.write(out, (ConfigManager.AppConfig) value);
+            }
+        }
+        out.endObject();
+    }
+
+    /**
+     * Gson adapter for the perAppConfig field: raw sections are written back as they are,
+     * documents parsed directly by Gson (not through {@link ConfigSchema#decode}) are decoded eagerly
+     */
+    static class AdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(final Gson gson, TypeToken<T> type) {
+            final TypeAdapter<ConfigManager.AppConfig> appAdapter = gson.getAdapter(ConfigManager.AppConfig.class);
+            return (TypeAdapter<T>) new TypeAdapter<Map<String, ConfigManager.AppConfig>>() {
+                @Override
+                public void write(JsonWriter out, Map<String, ConfigManager.AppConfig> map) throws IOException {
+                    if (map == null) {
+                        out.nullValue();
+                        return;
+                    }
+                    if (map instanceof AppConfigMap) {
+                        ((AppConfigMap) map).write(out, gson);
+                        return;
+                    }
+                    out.beginObject();
+                    for (Map.Entry<String, ConfigManager.AppConfig> entry : map.entrySet()) {
+                        out.name(entry.getKey());
+                        appAdapter.write(out, entry.getValue());
+                    }
+                    out.endObject();
+                }
+
+                @Override
+                public Map<String, ConfigManager.AppConfig> read(JsonReader in) throws IOException {
+                    AppConfigMap map = new AppConfigMap();
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        return map;
+                    }
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        map.put(in.nextName(), appAdapter.read(in));
+                    }
+                    in.endObject();
+                    return map;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.jiqiu.configapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 应用列表的搜索/系统应用过滤，和 RecyclerView 无关，便于单独测试和压测
+ */
+public class AppFilter {
+
+    /**
+     * Apps matching {@code query} by name or package, case-insensitively, in their original order
+     */
+    public static List<AppInfo> filter(List<AppInfo> apps, String query, boolean hideSystemApps) {
+        List<AppInfo> result = new ArrayList<>(apps.size());
+        // 查询串只转换一次小写
+        String needle = query == null || query.isEmpty() ? null : query.toLowerCase(Locale.ROOT);
+        for (AppInfo app : apps) {
+            // 过滤系统应用
+            if (hideSystemApps && app.isSystemApp()) {
+                continue;
+            }
+            
+            // 搜索过滤
+            if (needle == null ||
+                app.getAppName().toLowerCase(Locale.ROOT).contains(needle) ||
+                app.getPackageName().toLowerCase(Locale.ROOT).contains(needle)) {
+                result.add(app);
+            }
+        }
+        return result;
+    }
+}
@@ -52,22 +52,7 @@ public class AppListAdapter extends RecyclerView.Adapter<AppListAdapter.AppViewH
     }
     
     public void filterApps(String query, boolean hideSystemApps) {
-        filteredAppList.clear();
-        
-        for (AppInfo app : appList) {
-            // 过滤系统应用
-            if (hideSystemApps && app.isSystemApp()) {
-                continue;
-            }
-            
-            // 搜索过滤
-            if (query == null || query.isEmpty() || 
-                app.getAppName().toLowerCase().contains(query.toLowerCase()) ||
-                app.getPackageName().toLowerCase().contains(query.toLowerCase())) {
-                filteredAppList.add(app);
-            }
-        }
-        
+        filteredAppList = AppFilter.filter(appList, query, hideSystemApps);
         notifyDataSetChanged();
     }
     
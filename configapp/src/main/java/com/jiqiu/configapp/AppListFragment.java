@@ -1,5 +1,6 @@
 package com.jiqiu.configapp;
 
+import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.AsyncTask;
@@ -12,10 +13,12 @@ import android.view.ViewGroup;
 import android.widget.ProgressBar;
 import android.app.Dialog;
 import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -30,7 +33,9 @@ import com.google.android.material.switchmaterial.SwitchMaterial;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 应用列表Fragment
@@ -45,6 +50,7 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
     private List<AppInfo> allApps;
     private boolean hideSystemApps = false;
     private ConfigManager configManager;
+    private final PackageChangeReceiver.Listener packageListener = this::onPackageChanged;
     
     @Nullable
     @Override
@@ -57,14 +63,14 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         
+        // 模块目录由 ConfigApplication 在后台创建，这里不等待 root shell
         configManager = new ConfigManager(requireContext());
-        // Ensure module directories exist
-        configManager.ensureModuleDirectories();
         
         initViews(view);
         setupRecyclerView();
         setupSearchView();
         loadApps();
+        PackageChangeReceiver.addListener(packageListener);
     }
     
     private void initViews(View view) {
@@ -103,6 +109,36 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
         new LoadAppsTask().execute();
     }
     
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        PackageChangeReceiver.removeListener(packageListener);
+    }
+    
+    // 安装/卸载/清除数据时只更新受影响的那一项，不重新加载整个列表
+    private void onPackageChanged(String packageName, boolean removed) {
+        if (allApps == null) {
+            // 首次加载还没完成，结果里已经包含这次变化
+            return;
+        }
+        if (removed) {
+            if (removeApp(packageName)) {
+                filterApps(searchEditText.getText().toString());
+            }
+        } else {
+            new UpdateAppTask(packageName).execute();
+        }
+    }
+    
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        // 切回本页时只在配置被其它页面或 APPLY_CONFIG 改过时刷新启用状态，应用列表本身保留
+        if (!hidden && allApps != null && configManager.isStale()) {
+            new RefreshEnabledTask().execute();
+        }
+    }
+    
     private void filterApps(String query) {
         if (adapter != null) {
             adapter.filterApps(query, hideSystemApps);
@@ -146,6 +182,14 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
         RadioButton radioUseCustomGadget = dialogView.findViewById(R.id.radioUseCustomGadget);
         TextView tvGlobalGadgetInfo = dialogView.findViewById(R.id.tvGlobalGadgetInfo);
         com.google.android.material.button.MaterialButton btnConfigureGadget = dialogView.findViewById(R.id.btnConfigureGadget);
+        RadioGroup injectionTriggerGroup = dialogView.findViewById(R.id.injectionTriggerGroup);
+        RadioButton radioTriggerDelay = dialogView.findViewById(R.id.radioTriggerDelay);
+        RadioButton radioTriggerImmediate = dialogView.findViewById(R.id.radioTriggerImmediate);
+        RadioButton radioTriggerLibrary = dialogView.findViewById(R.id.radioTriggerLibrary);
+        RadioButton radioTriggerFirstActivity = dialogView.findViewById(R.id.radioTriggerFirstActivity);
+        EditText editTriggerLibrary = dialogView.findViewById(R.id.editTriggerLibrary);
+        TextView tvTriggerDelayInfo = dialogView.findViewById(R.id.tvTriggerDelayInfo);
+        EditText editTriggerDelayMs = dialogView.findViewById(R.id.editTriggerDelayMs);
         
         appIcon.setImageDrawable(appInfo.getAppIcon());
         appName.setText(appInfo.getAppName());
@@ -161,6 +205,33 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
             radioStandardInjection.setChecked(true);
         }
         
+        // Load injection trigger
+        String injectionTrigger = configManager.getAppInjectionTrigger(appInfo.getPackageName());
+        if (ConfigManager.TRIGGER_IMMEDIATE.equals(injectionTrigger)) {
+            radioTriggerImmediate.setChecked(true);
+        } else if (ConfigManager.TRIGGER_LIBRARY_LOADED.equals(injectionTrigger)) {
+            radioTriggerLibrary.setChecked(true);
+            editTriggerLibrary.setEnabled(true);
+        } else if (ConfigManager.TRIGGER_FIRST_ACTIVITY.equals(injectionTrigger)) {
+            radioTriggerFirstActivity.setChecked(true);
+        } else {
+            radioTriggerDelay.setChecked(true);
+        }
+        tvTriggerDelayInfo.setText("在后台线程等待，不阻塞应用启动（全局: " + configManager.getInjectionDelay() + " 秒）");
+        Integer appDelayMs = configManager.getAppInjectionDelayMs(appInfo.getPackageName());
+        if (appDelayMs != null) {
+            editTriggerDelayMs.setText(String.valueOf(appDelayMs));
+        }
+        editTriggerDelayMs.setEnabled(radioTriggerDelay.isChecked());
+        String triggerLibrary = configManager.getAppTriggerLibrary(appInfo.getPackageName());
+        if (triggerLibrary != null) {
+            editTriggerLibrary.setText(triggerLibrary);
+        }
+        injectionTriggerGroup.setOnCheckedChangeListener((group, checkedId) -> {
+            editTriggerLibrary.setEnabled(checkedId == R.id.radioTriggerLibrary);
+            editTriggerDelayMs.setEnabled(checkedId == R.id.radioTriggerDelay);
+        });
+        
         // Load gadget config
         boolean useGlobalGadget = configManager.getAppUseGlobalGadget(appInfo.getPackageName());
         ConfigManager.GadgetConfig appSpecificGadget = configManager.getAppGadgetConfig(appInfo.getPackageName());
@@ -259,23 +330,48 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
                     } else {
                         selectedMethod = "standard";
                     }
-                    configManager.setAppInjectionMethod(appInfo.getPackageName(), selectedMethod);
+                    
+                    // Save injection trigger
+                    String selectedTrigger;
+                    String library = editTriggerLibrary.getText().toString().trim();
+                    if (radioTriggerImmediate.isChecked()) {
+                        selectedTrigger = ConfigManager.TRIGGER_IMMEDIATE;
+                    } else if (radioTriggerLibrary.isChecked() && !library.isEmpty()) {
+                        selectedTrigger = ConfigManager.TRIGGER_LIBRARY_LOADED;
+                    } else if (radioTriggerFirstActivity.isChecked()) {
+                        selectedTrigger = ConfigManager.TRIGGER_FIRST_ACTIVITY;
+                    } else {
+                        // 未填写库名时退回到延迟注入
+                        selectedTrigger = ConfigManager.TRIGGER_DELAY;
+                    }
+                    
+                    // Save per-app delay, empty means use the global delay
+                    String delayText = editTriggerDelayMs.getText().toString().trim();
+                    Integer delayMs = null;
+                    if (!delayText.isEmpty()) {
+                        try {
+                            delayMs = Integer.parseInt(delayText);
+                        } catch (NumberFormatException e) {
+                            // 输入无效时保留原来的延迟，不要清掉已有的覆盖值
+                            android.util.Log.w("AppListFragment", "Invalid delay: " + delayText);
+                            Toast.makeText(getContext(), "延迟无效，已保留原来的设置", Toast.LENGTH_SHORT).show();
+                            delayMs = configManager.getAppInjectionDelayMs(appInfo.getPackageName());
+                        }
+                    }
                     
                     // Save SO selection
+                    List<ConfigManager.SoFile> selectedSoFiles = null;
+                    Map<String, Integer> loadGroups = new HashMap<>();
                     if (soListRecyclerView.getAdapter() != null) {
                         SoSelectionAdapter adapter = (SoSelectionAdapter) soListRecyclerView.getAdapter();
-                        List<ConfigManager.SoFile> selectedSoFiles = adapter.getSelectedSoFiles();
-                        
-                        // Clear existing SO files for this app
-                        for (ConfigManager.SoFile existingSo : appSoFiles) {
-                            configManager.removeSoFileFromApp(appInfo.getPackageName(), existingSo);
-                        }
-                        
-                        // Add selected SO files
+                        selectedSoFiles = adapter.getSelectedSoFiles();
                         for (ConfigManager.SoFile soFile : selectedSoFiles) {
-                            configManager.addSoFileToApp(appInfo.getPackageName(), soFile);
+                            loadGroups.put(soFile.storedPath, adapter.getLoadGroup(soFile));
                         }
                     }
+                    
+                    new SaveAppConfigTask(appInfo.getPackageName(), selectedMethod, selectedTrigger, library,
+                            delayMs, appSoFiles, selectedSoFiles, loadGroups).execute();
                 })
                 .setNegativeButton("取消", null);
         
@@ -286,16 +382,26 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
     private static class SoSelectionAdapter extends RecyclerView.Adapter<SoSelectionAdapter.ViewHolder> {
         private List<ConfigManager.SoFile> globalSoFiles;
         private List<ConfigManager.SoFile> selectedSoFiles;
+        // storedPath -> load group
+        private final Map<String, Integer> loadGroups = new HashMap<>();
         
         public SoSelectionAdapter(List<ConfigManager.SoFile> globalSoFiles, List<ConfigManager.SoFile> appSoFiles) {
             this.globalSoFiles = globalSoFiles;
             this.selectedSoFiles = new ArrayList<>(appSoFiles);
+            for (ConfigManager.SoFile soFile : appSoFiles) {
+                loadGroups.put(soFile.storedPath, soFile.loadGroup);
+            }
         }
         
         public List<ConfigManager.SoFile> getSelectedSoFiles() {
             return new ArrayList<>(selectedSoFiles);
         }
         
+        public int getLoadGroup(ConfigManager.SoFile soFile) {
+            Integer group = loadGroups.get(soFile.storedPath);
+            return group != null ? group : 0;
+        }
+        
         @NonNull
         @Override
         public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -319,12 +425,14 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
             CheckBox checkBox;
             TextView nameText;
             TextView pathText;
+            TextView groupText;
             
             ViewHolder(@NonNull View itemView) {
                 super(itemView);
                 checkBox = itemView.findViewById(R.id.checkBox);
                 nameText = itemView.findViewById(R.id.textName);
                 pathText = itemView.findViewById(R.id.textPath);
+                groupText = itemView.findViewById(R.id.textGroup);
             }
             
             void bind(ConfigManager.SoFile soFile, List<ConfigManager.SoFile> selectedList) {
@@ -342,6 +450,8 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
                 
                 checkBox.setOnCheckedChangeListener(null);
                 checkBox.setChecked(isSelected);
+                groupText.setVisibility(isSelected ? View.VISIBLE : View.GONE);
+                groupText.setText("组 " + getLoadGroup(soFile));
                 
                 checkBox.setOnCheckedChangeListener((buttonView, isChecked) -> {
                     if (isChecked) {
@@ -349,6 +459,14 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
                     } else {
                         selectedList.removeIf(s -> s.storedPath.equals(soFile.storedPath));
                     }
+                    groupText.setVisibility(isChecked ? View.VISIBLE : View.GONE);
+                });
+                
+                // 点击切换加载组：同组按顺序加载，不同组并发加载
+                groupText.setOnClickListener(v -> {
+                    int next = (getLoadGroup(soFile) + 1) % Math.max(1, globalSoFiles.size());
+                    loadGroups.put(soFile.storedPath, next);
+                    groupText.setText("组 " + next);
                 });
                 
                 itemView.setOnClickListener(v -> checkBox.toggle());
@@ -356,6 +474,153 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
         }
     }
     
+    /**
+     * 重新读取配置，只更新已加载应用的启用状态
+     */
+    private class RefreshEnabledTask extends AsyncTask<Void, Void, Map<String, Boolean>> {
+        // 在主线程复制：allApps 会被 UpdateAppTask 和 removeApp 在主线程修改
+        private final List<AppInfo> apps = new ArrayList<>(allApps);
+        
+        @Override
+        protected Map<String, Boolean> doInBackground(Void... voids) {
+            configManager.reloadConfig();
+            Map<String, Boolean> enabled = new HashMap<>();
+            for (AppInfo app : apps) {
+                enabled.put(app.getPackageName(), configManager.isAppEnabled(app.getPackageName()));
+            }
+            return enabled;
+        }
+        
+        @Override
+        protected void onPostExecute(Map<String, Boolean> enabled) {
+            boolean changed = false;
+            for (AppInfo app : allApps) {
+                Boolean isEnabled = enabled.get(app.getPackageName());
+                if (isEnabled != null && isEnabled != app.isEnabled()) {
+                    app.setEnabled(isEnabled);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                filterApps(searchEditText.getText().toString());
+            }
+        }
+    }
+    
+    /**
+     * 在后台保存应用配置对话框的修改：注入方式、触发条件和延迟一起只保存一次，
+     * 与其它 AsyncTask 一样在串行线程上执行，不会和读取配置的任务交错
+     */
+    private class SaveAppConfigTask extends AsyncTask<Void, Void, Void> {
+        private final String packageName;
+        private final String method;
+        private final String trigger;
+        private final String library;
+        private final Integer delayMs;
+        private final List<ConfigManager.SoFile> previousSoFiles;
+        // null if the SO list was not shown
+        private final List<ConfigManager.SoFile> selectedSoFiles;
+        // storedPath -> load group
+        private final Map<String, Integer> loadGroups;
+        
+        SaveAppConfigTask(String packageName, String method, String trigger, String library, Integer delayMs,
+                          List<ConfigManager.SoFile> previousSoFiles, List<ConfigManager.SoFile> selectedSoFiles,
+                          Map<String, Integer> loadGroups) {
+            this.packageName = packageName;
+            this.method = method;
+            this.trigger = trigger;
+            this.library = library;
+            this.delayMs = delayMs;
+            this.previousSoFiles = previousSoFiles;
+            this.selectedSoFiles = selectedSoFiles;
+            this.loadGroups = loadGroups;
+        }
+        
+        @Override
+        protected Void doInBackground(Void... voids) {
+            configManager.setAppInjection(packageName, method, trigger, library, delayMs);
+            if (selectedSoFiles != null) {
+                // Clear existing SO files for this app
+                for (ConfigManager.SoFile existingSo : previousSoFiles) {
+                    configManager.removeSoFileFromApp(packageName, existingSo);
+                }
+                
+                // Add selected SO files
+                for (ConfigManager.SoFile soFile : selectedSoFiles) {
+                    configManager.addSoFileToApp(packageName, soFile, loadGroups.get(soFile.storedPath));
+                }
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * 单个应用安装、更新或清除数据后，只重新读取这一个应用并放回列表中的位置
+     */
+    private class UpdateAppTask extends AsyncTask<Void, Void, AppInfo> {
+        private final String packageName;
+        // Fragment 在后台执行期间可能已经 detach，getContext() 会返回 null
+        private final Context appContext;
+        
+        UpdateAppTask(String packageName) {
+            this.packageName = packageName;
+            this.appContext = requireContext().getApplicationContext();
+        }
+        
+        @Override
+        protected AppInfo doInBackground(Void... voids) {
+            PackageManager pm = appContext.getPackageManager();
+            try {
+                return createAppInfo(pm, pm.getApplicationInfo(packageName, PackageManager.GET_META_DATA));
+            } catch (PackageManager.NameNotFoundException e) {
+                return null;
+            }
+        }
+        
+        @Override
+        protected void onPostExecute(AppInfo app) {
+            if (allApps == null || !isAdded()) {
+                return;
+            }
+            removeApp(packageName);
+            if (app != null) {
+                int index = Collections.binarySearch(allApps, app, APP_NAME_ORDER);
+                allApps.add(index < 0 ? -index - 1 : index, app);
+            }
+            filterApps(searchEditText.getText().toString());
+        }
+    }
+    
+    private static final Comparator<AppInfo> APP_NAME_ORDER =
+            (o1, o2) -> o1.getAppName().compareToIgnoreCase(o2.getAppName());
+    
+    private AppInfo createAppInfo(PackageManager pm, ApplicationInfo appInfo) {
+        String appName = pm.getApplicationLabel(appInfo).toString();
+        String packageName = appInfo.packageName;
+        boolean isSystemApp = (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+        
+        AppInfo app = new AppInfo(
+            appName,
+            packageName,
+            pm.getApplicationIcon(appInfo),
+            isSystemApp
+        );
+        
+        // 从配置中加载启用状态
+        app.setEnabled(configManager.isAppEnabled(packageName));
+        return app;
+    }
+    
+    private boolean removeApp(String packageName) {
+        for (int i = 0; i < allApps.size(); i++) {
+            if (allApps.get(i).getPackageName().equals(packageName)) {
+                allApps.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+    
     /**
      * 异步加载应用列表
      */
@@ -370,21 +635,7 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
             
             for (ApplicationInfo appInfo : installedApps) {
                 try {
-                    String appName = pm.getApplicationLabel(appInfo).toString();
-                    String packageName = appInfo.packageName;
-                    boolean isSystemApp = (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
-                    
-                    AppInfo app = new AppInfo(
-                        appName,
-                        packageName,
-                        pm.getApplicationIcon(appInfo),
-                        isSystemApp
-                    );
-                    
-                    // 从配置中加载启用状态
-                    app.setEnabled(configManager.isAppEnabled(packageName));
-                    
-                    apps.add(app);
+                    apps.add(createAppInfo(pm, appInfo));
                 } catch (Exception e) {
                     // 忽略无法获取信息的应用
                     e.printStackTrace();
@@ -392,12 +643,7 @@ public class AppListFragment extends Fragment implements AppListAdapter.OnAppTog
             }
             
             // 按应用名称排序
-            Collections.sort(apps, new Comparator<AppInfo>() {
-                @Override
-                public int compare(AppInfo o1, AppInfo o2) {
-                    return o1.getAppName().compareToIgnoreCase(o2.getAppName());
-                }
-            });
+            Collections.sort(apps, APP_NAME_ORDER);
             
             return apps;
         }
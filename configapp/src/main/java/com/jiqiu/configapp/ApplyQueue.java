@@ -0,0 +1,336 @@
+package com.jiqiu.configapp;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Bounded, strictly serial queue for APPLY_CONFIG requests
+ * 所有请求在同一个工作线程上按顺序执行，不会有两个请求同时改 config.json 或同一个应用目录。
+ * 目标相同（同一个包、同一组包或“全部已启用”）还在排队的请求会合并成一个；新请求带 config.json 时合并结果移到队尾，
+ * 不带时留在原位，保证最后一次发布的 config.json 仍然最后生效。
+ * 队列满时新请求直接拒绝，由调用方决定是否重发。
+ */
+class ApplyQueue {
+    private static final String TAG = "ApplyQueue";
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    // Completion results, also used as the broadcast result code
+    public static final int RESULT_APPLIED = 1;
+    public static final int RESULT_FAILED = 2;
+    public static final int RESULT_REJECTED = 3;
+
+    /**
+     * Runs one request on the worker thread
+     */
+    interface Processor {
+        /**
+         * @return whether the request was applied successfully
+         */
+        boolean apply(Request request) throws Exception;
+    }
+
+    /**
+     * Called once per submitted request, on the worker thread (or the submitting thread if rejected)
+     */
+    interface Completion {
+        void onComplete(int result);
+    }
+
+    /**
+     * One APPLY_CONFIG broadcast, or several for the same targets merged together
+     */
+    static class Request {
+        // Key of a request for every package enabled in the config once it is applied
+        static final String ALL_ENABLED = "*";
+        // Key of a health scan that redeploys only what drifted, see {@link #repair(boolean)}
+        static final String REPAIR = "!repair";
+
+        // Empty for ALL_ENABLED
+        final List<String> packageNames;
+        // Package names joined by ',' or ALL_ENABLED; only requests with the same key merge
+        final String key;
+        final String tmpConfigPath;
+        final String tmpGadgetConfigPath;
+        final boolean deploy;
+        // Health scan and targeted repair of every enabled package instead of a deploy
+        final boolean repair;
+        final boolean deep;
+        // Set by the processor of a repair request: the first scan, and the scan after redeploying if anything drifted
+        volatile DeployHealth.Report scanned;
+        volatile DeployHealth.Report rescanned;
+        // Temp files of merged requests that were superseded and only need deleting
+        final List<String> stalePaths = new ArrayList<>();
+        // request_id extras of every broadcast this request stands for, oldest first
+        final List<String> requestIds = new ArrayList<>();
+        private final List<Completion> completions = new ArrayList<>();
+        private int mergedCount = 1;
+
+        Request(String packageName, String tmpConfigPath, String tmpGadgetConfigPath, boolean deploy) {
+            this(Collections.singletonList(packageName), false, tmpConfigPath, tmpGadgetConfigPath, deploy);
+        }
+
+        Request(List<String> packageNames, boolean allEnabled, String tmpConfigPath, String tmpGadgetConfigPath,
+                boolean deploy) {
+            this(packageNames, allEnabled, tmpConfigPath, tmpGadgetConfigPath, deploy, false, false);
+        }
+
+        private Request(List<String> packageNames, boolean allEnabled, String tmpConfigPath,
+                        String tmpGadgetConfigPath, boolean deploy, boolean repair, boolean deep) {
+            this.packageNames = allEnabled || repair ? Collections.<String>emptyList()
+                    : Collections.unmodifiableList(new ArrayList<>(packageNames));
+            this.key = repair ? REPAIR : allEnabled ? ALL_ENABLED : String.join(",", packageNames);
+            this.tmpConfigPath = emptyToNull(tmpConfigPath);
+            this.tmpGadgetConfigPath = emptyToNull(tmpGadgetConfigPath);
+            this.deploy = deploy;
+            this.repair = repair;
+            this.deep = deep;
+        }
+
+        /**
+         * Scan every enabled package's deployment and redeploy only the files that drifted
+         * @param deep also compare SO contents, not just size, time, owner, mode and label
+         */
+        static Request repair(boolean deep) {
+            return new Request(Collections.<String>emptyList(), false, null, null, false, true, deep);
+        }
+
+        /**
+         * Request for the broadcast extras: with deploy_only, deploy only if no config file came along
+         */
+        static Request fromBroadcast(List<String> packageNames, boolean allEnabled, String tmpConfigPath,
+                                     String tmpGadgetConfigPath, boolean deployOnly) {
+            boolean hasFiles = emptyToNull(tmpConfigPath) != null || emptyToNull(tmpGadgetConfigPath) != null;
+            return new Request(packageNames, allEnabled, tmpConfigPath, tmpGadgetConfigPath,
+                    !deployOnly || !hasFiles);
+        }
+
+        boolean isAllEnabled() {
+            return ALL_ENABLED.equals(key);
+        }
+
+        private static String emptyToNull(String s) {
+            return s == null || s.isEmpty() ? null : s;
+        }
+
+        Request addCompletion(Completion completion) {
+            completions.add(completion);
+            return this;
+        }
+
+        Request addRequestId(String requestId) {
+            requestIds.add(requestId);
+            return this;
+        }
+
+        /**
+         * How many broadcasts this request stands for
+         */
+        int getMergedCount() {
+            return mergedCount;
+        }
+
+        // Gadget configs are copied under their own file name, so two different names are two targets
+        boolean canMerge(Request newer) {
+            return tmpGadgetConfigPath == null || newer.tmpGadgetConfigPath == null
+                    || fileName(tmpGadgetConfigPath).equals(fileName(newer.tmpGadgetConfigPath));
+        }
+
+        private static String fileName(String path) {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        /**
+         * This request followed by {@code newer}: newer files win, older ones are only cleaned up
+         */
+        Request merge(Request newer) {
+            Request merged = new Request(packageNames, isAllEnabled(),
+                    newer.tmpConfigPath != null ? newer.tmpConfigPath : tmpConfigPath,
+                    newer.tmpGadgetConfigPath != null ? newer.tmpGadgetConfigPath : tmpGadgetConfigPath,
+                    deploy || newer.deploy, repair, deep || newer.deep);
+            for (Request request : new Request[]{this, newer}) {
+                merged.stalePaths.addAll(request.stalePaths);
+                if (request.tmpConfigPath != null && !request.tmpConfigPath.equals(merged.tmpConfigPath)) {
+                    merged.stalePaths.add(request.tmpConfigPath);
+                }
+                if (request.tmpGadgetConfigPath != null
+                        && !request.tmpGadgetConfigPath.equals(merged.tmpGadgetConfigPath)) {
+                    merged.stalePaths.add(request.tmpGadgetConfigPath);
+                }
+                merged.requestIds.addAll(request.requestIds);
+                merged.completions.addAll(request.completions);
+            }
+            merged.mergedCount = mergedCount + newer.mergedCount;
+            return merged;
+        }
+
+        private void complete(int result) {
+            for (Completion completion : completions) {
+                try {
+                    completion.onComplete(result);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Completion failed for " + key, e);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return key + (mergedCount > 1 ? " (x" + mergedCount + ")" : "");
+        }
+    }
+
+    private final Processor processor;
+    private final int capacity;
+    private final Object lock = new Object();
+    private final LinkedList<Request> pending = new LinkedList<>();
+    private boolean running;
+    private long submitted;
+    private long processed;
+    private long coalesced;
+    private long rejected;
+
+    ApplyQueue(Processor processor) {
+        this(processor, DEFAULT_CAPACITY);
+    }
+
+    ApplyQueue(Processor processor, int capacity) {
+        this.processor = processor;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Queue {@code request}, merging it into a pending request for the same targets when possible
+     * @return false if the queue is full; the request's completions have then already run
+     */
+    boolean submit(Request request) {
+        synchronized (lock) {
+            submitted++;
+            Request queued = findLastPending(request.key);
+            if (queued != null && queued.canMerge(request)) {
+                Request merged = queued.merge(request);
+                if (request.tmpConfigPath == null) {
+                    // 新请求不带 config.json，合并结果仍发布旧的那份，只能留在原位，不能排到后面更新的 config 之后
+                    pending.set(pending.indexOf(queued), merged);
+                } else {
+                    pending.remove(queued);
+                    enqueue(merged);
+                }
+                coalesced++;
+                return true;
+            }
+            if (pending.size() < capacity) {
+                enqueue(request);
+                return true;
+            }
+            rejected++;
+        }
+        // 在锁外回调，Completion 里再次 submit 也不会死锁
+        Log.w(TAG, "Apply queue full (" + capacity + "), rejecting " + request);
+        request.complete(RESULT_REJECTED);
+        return false;
+    }
+
+    private void enqueue(Request request) {
+        pending.addLast(request);
+        if (!running) {
+            running = true;
+            Thread worker = new Thread(this::drain, "config-apply");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private Request findLastPending(String key) {
+        Iterator<Request> it = pending.descendingIterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            if (request.key.equals(key)) {
+                return request;
+            }
+        }
+        return null;
+    }
+
+    private void drain() {
+        while (true) {
+            Request next;
+            synchronized (lock) {
+                next = pending.pollFirst();
+                if (next == null) {
+                    running = false;
+                    lock.notifyAll();
+                    return;
+                }
+            }
+            int result;
+            try {
+                result = processor.apply(next) ? RESULT_APPLIED : RESULT_FAILED;
+            } catch (Exception e) {
+                Log.e(TAG, "Error applying " + next, e);
+                result = RESULT_FAILED;
+            }
+            synchronized (lock) {
+                processed++;
+            }
+            next.complete(result);
+        }
+    }
+
+    /**
+     * Wait until every submitted request has completed
+     * @return false on timeout
+     */
+    boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (lock) {
+            while (running || !pending.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * One line summary for logs: submitted / processed / coalesced / rejected counts
+     */
+    String describe() {
+        synchronized (lock) {
+            return "submitted=" + submitted + " processed=" + processed + " coalesced=" + coalesced
+                    + " rejected=" + rejected + " pending=" + pending.size();
+        }
+    }
+
+    long getProcessedCount() {
+        synchronized (lock) {
+            return processed;
+        }
+    }
+
+    long getCoalescedCount() {
+        synchronized (lock) {
+            return coalesced;
+        }
+    }
+
+    long getRejectedCount() {
+        synchronized (lock) {
+            return rejected;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.jiqiu.configapp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Machine-readable progress of one APPLY_CONFIG request, written by {@link ApplyStatusStore}
+ *
+ * <pre>
+ * {"requestId":"r1","state":"done","target":"com.example.app","coalesced":1,
+ *  "queuedAt":1700000000000,"startedAt":1700000000020,"finishedAt":1700000000480,
+ *  "phaseMs":{"publish":40,"gadget_config":12,"deploy":380},
+ *  "files":[{"packageName":"com.example.app","name":"libgadget.so","status":"ok","bytes":21634952}]}
+ * </pre>
+ */
+public class ApplyStatus {
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+    public static final String REJECTED = "rejected";
+
+    public String requestId;
+    public String state;
+    public String target;             // Package list joined by ',' or "*" for all enabled apps
+    public int coalesced = 1;         // Broadcasts merged into the run that served this request
+    public long queuedAt;             // Wall clock, ms
+    public long startedAt;
+    public long finishedAt;
+    public Map<String, Long> phaseMs = new LinkedHashMap<>();
+    public List<ConfigManager.DeployedFile> files = new ArrayList<>();
+    public List<String> failedPackages = new ArrayList<>();
+    public String error;
+
+    public ApplyStatus() {
+    }
+
+    ApplyStatus(String requestId, String state, String target) {
+        this.requestId = requestId;
+        this.state = state;
+        this.target = target;
+    }
+
+    /**
+     * Whether the request will not change any more
+     */
+    public boolean isFinal() {
+        return DONE.equals(state) || FAILED.equals(state) || REJECTED.equals(state);
+    }
+}
@@ -0,0 +1,103 @@
+package com.jiqiu.configapp;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+/**
+ * One JSON file per request id under the app's files dir, replaced atomically on every update
+ * 外部工具轮询：adb shell su -c cat /data/data/com.jiqiu.configapp/files/apply_status/&lt;request_id&gt;.json
+ * 只保留最近 {@link #MAX_RECORDS} 条记录。
+ */
+public class ApplyStatusStore {
+    private static final String TAG = "ApplyStatusStore";
+
+    public static final String DIR_NAME = "apply_status";
+    public static final int MAX_RECORDS = 64;
+
+    // Ids become file names
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    private final File dir;
+    private final Gson gson = new Gson();
+
+    public ApplyStatusStore(File dir) {
+        this.dir = dir;
+    }
+
+    static boolean isValidId(String requestId) {
+        return requestId != null && VALID_ID.matcher(requestId).matches() && !requestId.startsWith(".");
+    }
+
+    public File getFile(String requestId) {
+        return new File(dir, requestId + ".json");
+    }
+
+    /**
+     * Write or replace the record; readers never see a partially written file
+     */
+    public synchronized void write(ApplyStatus status) {
+        if (!isValidId(status.requestId)) {
+            return;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Cannot create " + dir);
+            return;
+        }
+        File target = getFile(status.requestId);
+        File temp = new File(dir, status.requestId + ".json.tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            gson.toJson(status, writer);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write status " + status.requestId, e);
+            temp.delete();
+            return;
+        }
+        // 轮询的 shell 用户需要能读到（目录本身仍受 /data/data 权限保护）
+        temp.setReadable(true, false);
+        if (!temp.renameTo(target)) {
+            Log.e(TAG, "Failed to publish status " + status.requestId);
+            temp.delete();
+            return;
+        }
+        if (ApplyStatus.QUEUED.equals(status.state)) {
+            prune();
+        }
+    }
+
+    public synchronized ApplyStatus read(String requestId) {
+        if (!isValidId(requestId)) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(getFile(requestId)), StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, ApplyStatus.class);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Oldest records go first once there are more than MAX_RECORDS
+    private void prune() {
+        File[] records = dir.listFiles((d, name) -> name.endsWith(".json"));
+        if (records == null || records.length <= MAX_RECORDS) {
+            return;
+        }
+        Arrays.sort(records, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < records.length - MAX_RECORDS; i++) {
+            records[i].delete();
+        }
+    }
+}
@@ -2,39 +2,82 @@ package com.jiqiu.configapp;
 
 import android.annotation.SuppressLint;
 import android.app.Application;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.IntentFilter;
 import android.os.Build;
 import android.util.Log;
 
+import com.topjohnwu.superuser.Shell;
+
+import java.io.File;
+
 /**
  * Application class for dynamic receiver registration
  * 动态注册 BroadcastReceiver，避免被第三方 app 发现
  */
-public class ConfigApplication extends Application {
+public class ConfigApplication extends Application implements ShellExecutor.Provider {
     private static final String TAG = "ConfigApplication";
     private static final String ACTION_APPLY_CONFIG = "com.jiqiu.configapp.APPLY_CONFIG";
+    // 最多保留的备用 shell 数量，给 SO 搜索等需要独立 shell 的任务；用到时才创建，闲置后关闭
+    private static final int SPARE_SHELLS = 2;
     
     private ConfigApplyReceiver configReceiver;
+    private PackageChangeReceiver packageChangeReceiver;
+    private ShellExecutor shellExecutor;
     
-    @SuppressLint("UnspecifiedRegisterReceiverFlag")
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "Application onCreate - registering receiver dynamically");
         
+        // 所有组件共用的 shell，通过 ShellExecutor.of(context) 获取
+        LibsuShellExecutor libsu = LibsuShellExecutor.get();
+        shellExecutor = libsu;
+        
+        // 异步申请 root 并创建 shell，MainActivity 启动时不必等 su 授权
+        libsu.warmUp(SPARE_SHELLS);
+        // 模块目录和推送临时文件用的 /data/local/tmp 只需创建一次，放在后台等 shell 就绪后执行
+        Shell.EXECUTOR.execute(() -> {
+            new ConfigManager(this, shellExecutor).ensureModuleDirectories();
+            shellExecutor.run("mkdir -p /data/local/tmp && chmod 777 /data/local/tmp");
+        });
+        
+        // ADB 推送的配置和应用变化触发的重新部署共用一个串行队列
+        ApplyStatusStore statusStore = new ApplyStatusStore(new File(getFilesDir(), ApplyStatusStore.DIR_NAME));
+        ApplyQueue applyQueue = new ApplyQueue(
+                new ConfigApplier(this, shellExecutor, DeployMetrics.get(), statusStore));
+        
         // 动态注册 ConfigApplyReceiver
-        configReceiver = new ConfigApplyReceiver();
-        IntentFilter filter = new IntentFilter(ACTION_APPLY_CONFIG);
+        configReceiver = new ConfigApplyReceiver(applyQueue, statusStore);
+        register(configReceiver, new IntentFilter(ACTION_APPLY_CONFIG));
+        Log.d(TAG, "Receiver registered dynamically (UID check: shell/root only)");
+        Log.i(TAG, "ConfigApplyReceiver registered dynamically - invisible to third-party apps");
+        
+        // 安装、卸载、清除数据：增量更新应用列表，已启用的应用重新部署
+        packageChangeReceiver = new PackageChangeReceiver(this, shellExecutor, applyQueue);
+        register(packageChangeReceiver, PackageChangeReceiver.createFilter());
         
-        // 使用 RECEIVER_NOT_EXPORTED 标志，明确表示不导出
+        // 动态注册的 receiver 只在本进程存活时收到广播，应用没运行时的安装和清除数据会错过；
+        // 每次启动检查一次所有已启用应用的部署（一次 shell 往返），只补部署缺失或不一致的文件
+        applyQueue.submit(ApplyQueue.Request.repair(false)
+                .addCompletion(result -> Log.i(TAG, "Startup deployment check: "
+                        + (result == ApplyQueue.RESULT_APPLIED ? "healthy" : "drift remains (" + result + ")"))));
+    }
+    
+    @SuppressLint("UnspecifiedRegisterReceiverFlag")
+    private void register(BroadcastReceiver receiver, IntentFilter filter) {
+        // 使用 RECEIVER_NOT_EXPORTED 标志，明确表示不导出；系统广播仍然可以收到
         if (Build.VERSION.SDK_INT >= 33) {
-            registerReceiver(configReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
+            registerReceiver(receiver, filter, Context.RECEIVER_NOT_EXPORTED);
         } else {
-            registerReceiver(configReceiver, filter);
+            registerReceiver(receiver, filter);
         }
-        Log.d(TAG, "Receiver registered dynamically (UID check: shell/root only)");
-        Log.i(TAG, "ConfigApplyReceiver registered dynamically - invisible to third-party apps");
+    }
+    
+    @Override
+    public ShellExecutor getShellExecutor() {
+        return shellExecutor != null ? shellExecutor : LibsuShellExecutor.get();
     }
     
     @Override
@@ -42,9 +85,12 @@ public class ConfigApplication extends Application {
         super.onTerminate();
         
         // 注销 receiver（注意：onTerminate 在真实设备上通常不会被调用，仅在模拟器中）
-        if (configReceiver != null) {
+        for (BroadcastReceiver receiver : new BroadcastReceiver[]{configReceiver, packageChangeReceiver}) {
+            if (receiver == null) {
+                continue;
+            }
             try {
-                unregisterReceiver(configReceiver);
+                unregisterReceiver(receiver);
                 Log.d(TAG, "Receiver unregistered");
             } catch (IllegalArgumentException e) {
                 Log.w(TAG, "Receiver was not registered or already unregistered");
@@ -0,0 +1,261 @@
+package com.jiqiu.configapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies APPLY_CONFIG requests on the {@link ApplyQueue} worker thread
+ * 只在工作线程上使用，ConfigManager 在请求之间复用，config.gen 未变化时 reloadConfig 不会重新读取。
+ */
+class ConfigApplier implements ApplyQueue.Processor {
+    private static final String TAG = "ConfigApplier";
+    private static final String HEALTH_TAG = "DeployHealth";
+
+    private final Context context;
+    private final ShellExecutor shell;
+    private final DeployMetrics metrics;
+    // null: no status records
+    private final ApplyStatusStore statusStore;
+    private ConfigManager configManager;
+
+    ConfigApplier(Context context, ShellExecutor shell) {
+        this(context, shell, DeployMetrics.get());
+    }
+
+    ConfigApplier(Context context, ShellExecutor shell, DeployMetrics metrics) {
+        this(context, shell, metrics, null);
+    }
+
+    ConfigApplier(Context context, ShellExecutor shell, DeployMetrics metrics, ApplyStatusStore statusStore) {
+        this.context = context;
+        this.shell = shell;
+        this.metrics = metrics;
+        this.statusStore = statusStore;
+    }
+
+    private ConfigManager getConfigManager() {
+        if (configManager == null) {
+            configManager = new ConfigManager(context, shell, metrics);
+            // 确保目录存在
+            configManager.ensureModuleDirectories();
+        } else {
+            // 其他 ConfigManager（界面、上一个请求之外的写入）可能改过配置
+            configManager.reloadConfig();
+        }
+        return configManager;
+    }
+
+    @Override
+    public boolean apply(ApplyQueue.Request request) {
+        if (request.repair) {
+            return repair(request);
+        }
+        boolean success = true;
+        ApplyStatus status = new ApplyStatus(null, ApplyStatus.RUNNING, request.key);
+        status.coalesced = request.getMergedCount();
+        status.startedAt = System.currentTimeMillis();
+        writeStatus(request, status);
+        long phaseStart = System.nanoTime();
+        try (DeployMetrics.Span span = metrics.start("apply_config")) {
+            span.setLabel(request.key);
+            if (request.getMergedCount() > 1) {
+                Log.i(TAG, "Applying " + request.getMergedCount() + " coalesced requests for " + request.key);
+            }
+            ConfigManager configManager = getConfigManager();
+
+            // 如果提供了配置文件路径，复制到模块目录；多个包也只发布一次
+            String tmpConfigPath = request.tmpConfigPath;
+            if (tmpConfigPath != null) {
+                Shell.Result checkResult = shell.run("test -f \"" + tmpConfigPath + "\" && echo 'exists'");
+                if (checkResult.isSuccess() && !checkResult.getOut().isEmpty()) {
+                    Log.i(TAG, "Copying main config: " + tmpConfigPath + " -> " + ConfigManager.CONFIG_FILE);
+                    ConfigGeneration published = configManager.publishConfigFile(tmpConfigPath);
+
+                    if (published != null) {
+                        Log.i(TAG, "Main config copied successfully (" + published + ")");
+                        // 重新加载配置
+                        configManager.reloadConfig();
+                    } else {
+                        Log.e(TAG, "Failed to copy main config");
+                        success = false;
+                        status.error = "failed to publish " + ConfigManager.CONFIG_FILE;
+                    }
+                } else {
+                    Log.w(TAG, "Main config file not found at: " + tmpConfigPath);
+                    success = false;
+                    status.error = "config file not found: " + tmpConfigPath;
+                }
+                phaseStart = endPhase(status, "publish", phaseStart);
+            }
+
+            // "全部已启用" 以刚发布的配置为准
+            List<String> targets = request.isAllEnabled()
+                    ? configManager.getEnabledPackages() : request.packageNames;
+            Log.i(TAG, "Target packages: " + targets);
+
+            // 如果提供了 Gadget 配置文件，复制到每个目标应用的数据目录
+            String tmpGadgetConfigPath = request.tmpGadgetConfigPath;
+            if (tmpGadgetConfigPath != null && !targets.isEmpty()) {
+                Shell.Result checkResult = shell.run("test -f \"" + tmpGadgetConfigPath + "\" && echo 'exists'");
+                if (checkResult.isSuccess() && !checkResult.getOut().isEmpty()) {
+                    if (!copyGadgetConfig(tmpGadgetConfigPath, targets)) {
+                        success = false;
+                    }
+                } else {
+                    Log.w(TAG, "Gadget config file not found at: " + tmpGadgetConfigPath);
+                    success = false;
+                    status.error = "gadget config file not found: " + tmpGadgetConfigPath;
+                }
+                phaseStart = endPhase(status, "gadget_config", phaseStart);
+            }
+
+            if (request.deploy) {
+                Log.i(TAG, "Deploying SO files for " + targets.size() + " package(s)");
+                ConfigManager.DeployReport report = configManager.deployForPackages(targets);
+                status.files = report.files;
+                status.failedPackages = report.failedPackages;
+                endPhase(status, "deploy", phaseStart);
+                if (!report.failedPackages.isEmpty()) {
+                    Log.e(TAG, "Deployment failed for: " + report.failedPackages);
+                    success = false;
+                }
+                Log.i(TAG, "Deployment completed for: " + request.key);
+            } else {
+                Log.i(TAG, "Config updated, skipping deployment (deploy_only=true)");
+            }
+            if (!success) {
+                span.fail();
+            }
+        } catch (RuntimeException e) {
+            success = false;
+            status.error = String.valueOf(e);
+            throw e;
+        } finally {
+            status.state = success ? ApplyStatus.DONE : ApplyStatus.FAILED;
+            if (!success && status.error == null && !status.failedPackages.isEmpty()) {
+                status.error = "deployment failed for " + String.join(",", status.failedPackages);
+            }
+
+            // 清理临时文件，包括被合并掉的旧请求的文件
+            StringBuilder rm = new StringBuilder("rm -f");
+            int count = 0;
+            for (String path : new String[]{request.tmpConfigPath, request.tmpGadgetConfigPath}) {
+                if (path != null) {
+                    rm.append(" \"").append(path).append('"');
+                    count++;
+                }
+            }
+            for (String path : request.stalePaths) {
+                rm.append(" \"").append(path).append('"');
+                count++;
+            }
+            if (count > 0) {
+                shell.run(rm.toString());
+            }
+            status.finishedAt = System.currentTimeMillis();
+            writeStatus(request, status);
+        }
+        return success;
+    }
+
+    /**
+     * Scan every enabled package and redeploy only what drifted; both scans are left on the request
+     * @return whether the deployment is healthy afterwards
+     */
+    private boolean repair(ApplyQueue.Request request) {
+        boolean success = false;
+        ApplyStatus status = new ApplyStatus(null, ApplyStatus.RUNNING, request.key);
+        status.coalesced = request.getMergedCount();
+        status.startedAt = System.currentTimeMillis();
+        writeStatus(request, status);
+        long phaseStart = System.nanoTime();
+        try (DeployMetrics.Span span = metrics.start("repair")) {
+            ConfigManager configManager = getConfigManager();
+            DeployHealth.Report report = configManager.scanDeployments(request.deep);
+            request.scanned = report;
+            phaseStart = endPhase(status, "scan", phaseStart);
+            for (DeployHealth.Drift drift : report.drifts) {
+                Log.i(HEALTH_TAG, drift.toString());
+            }
+            if (!report.getRepairPlan().isEmpty()) {
+                ConfigManager.DeployReport deployReport = configManager.repairDrift(report);
+                status.files = deployReport.files;
+                status.failedPackages = deployReport.failedPackages;
+                phaseStart = endPhase(status, "deploy", phaseStart);
+                report = configManager.scanDeployments(request.deep);
+                request.rescanned = report;
+                endPhase(status, "rescan", phaseStart);
+            }
+            success = report.isHealthy();
+            if (!success) {
+                span.fail();
+                status.error = report.drifts.size() + " drifted";
+            }
+        } catch (RuntimeException e) {
+            status.error = String.valueOf(e);
+            throw e;
+        } finally {
+            status.state = success ? ApplyStatus.DONE : ApplyStatus.FAILED;
+            status.finishedAt = System.currentTimeMillis();
+            writeStatus(request, status);
+        }
+        return success;
+    }
+
+    private static long endPhase(ApplyStatus status, String phase, long phaseStart) {
+        long now = System.nanoTime();
+        status.phaseMs.put(phase, (now - phaseStart) / 1_000_000);
+        return now;
+    }
+
+    /**
+     * Same record under every request id the request stands for; queuedAt is kept from the receiver's record
+     */
+    private void writeStatus(ApplyQueue.Request request, ApplyStatus status) {
+        if (statusStore == null) {
+            return;
+        }
+        for (String requestId : request.requestIds) {
+            ApplyStatus previous = statusStore.read(requestId);
+            status.requestId = requestId;
+            status.queuedAt = previous != null ? previous.queuedAt : status.startedAt;
+            statusStore.write(status);
+        }
+    }
+
+    /**
+     * Copy the gadget config into each package's files dir in one round-trip
+     */
+    private boolean copyGadgetConfig(String tmpGadgetConfigPath, List<String> packageNames) {
+        // 从路径中提取文件名
+        String gadgetConfigFileName = tmpGadgetConfigPath.substring(tmpGadgetConfigPath.lastIndexOf('/') + 1);
+        List<String> commands = new ArrayList<>();
+        for (String packageName : packageNames) {
+            String filesDir = "/data/data/" + packageName + "/files";
+            String targetPath = filesDir + "/" + gadgetConfigFileName;
+            Log.i(TAG, "Copying gadget config: " + tmpGadgetConfigPath + " -> " + targetPath);
+            // 创建目录、复制并设置正确的所有权；失败的包输出一行 FAIL
+            commands.add("{ mkdir -p \"" + filesDir + "\" && cp \"" + tmpGadgetConfigPath + "\" \"" + targetPath + "\""
+                    + " && chmod 644 \"" + targetPath + "\" && {"
+                    + " uid=$(stat -c %u /data/data/" + packageName + ") && chown $uid:$uid \"" + targetPath + "\";"
+                    + " chcon u:object_r:app_data_file:s0 \"" + targetPath + "\"; true; }; } || echo \"FAIL " + packageName + "\"");
+        }
+        Shell.Result copyResult = shell.run(commands.toArray(new String[0]));
+        boolean copied = true;
+        for (String line : copyResult.getOut()) {
+            if (line.startsWith("FAIL ")) {
+                Log.e(TAG, "Failed to copy gadget config for " + line.substring(5));
+                copied = false;
+            }
+        }
+        if (copied) {
+            Log.i(TAG, "Gadget config copied successfully");
+        }
+        return copied;
+    }
+}
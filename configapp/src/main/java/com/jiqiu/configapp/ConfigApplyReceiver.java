@@ -4,11 +4,19 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
-import android.os.Process;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.topjohnwu.superuser.Shell;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * BroadcastReceiver to apply configurations pushed from ADB
  * 接收来自 ADB shell 的广播以应用配置
@@ -17,11 +25,28 @@ import com.topjohnwu.superuser.Shell;
  */
 public class ConfigApplyReceiver extends BroadcastReceiver {
     private static final String TAG = "ConfigApplyReceiver";
+    private static final String METRICS_TAG = "DeployMetrics";
+    private static final String HEALTH_TAG = "DeployHealth";
     
     // UID constants
     private static final int SHELL_UID = 2000;  // ADB shell user
     private static final int ROOT_UID = 0;       // Root user
     
+    // 广播结果码，am broadcast 会打印出来：1 applied, 2 failed, 3 rejected（队列已满）, 4 queued（仍在处理）
+    static final int RESULT_QUEUED = 4;
+    
+    // 后台广播的时限是 60 秒，前台 10 秒，留出余量
+    private static final long FINISH_TIMEOUT_MS = 8_000;
+    
+    private final ApplyQueue queue;
+    private final ApplyStatusStore statusStore;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    public ConfigApplyReceiver(ApplyQueue queue, ApplyStatusStore statusStore) {
+        this.queue = queue;
+        this.statusStore = statusStore;
+    }
+    
     @Override
     public void onReceive(Context context, Intent intent) {
         // 权限检查：只允许 shell 或 root 用户发送广播
@@ -40,112 +65,196 @@ public class ConfigApplyReceiver extends BroadcastReceiver {
             return;
         }
         
-        // 获取广播参数
-        String packageName = intent.getStringExtra("package_name");
+        // 获取广播参数：package_name 单个包，package_names 逗号分隔的多个包，all_enabled 配置中所有已启用的包
+        List<String> packageNames = readPackageNames(intent);
+        boolean allEnabled = readFlag(intent, "all_enabled");
         String tmpConfigPath = intent.getStringExtra("tmp_config_path");
         String tmpGadgetConfigPath = intent.getStringExtra("tmp_gadget_config_path");
         boolean deployOnly = intent.getBooleanExtra("deploy_only", false);
+        boolean dumpMetrics = intent.getBooleanExtra("dump_metrics", false);
+        boolean resetMetrics = intent.getBooleanExtra("reset_metrics", false);
+        boolean healthCheck = readFlag(intent, "health_check");
+        
+        final String target = allEnabled ? "all enabled" : String.join(",", packageNames);
+        // 调用方用 request_id 轮询 files/apply_status/<request_id>.json，未提供时生成一个
+        String requestIdExtra = intent.getStringExtra("request_id");
+        final String requestId = ApplyStatusStore.isValidId(requestIdExtra) ? requestIdExtra
+                : UUID.randomUUID().toString();
         
-        Log.i(TAG, "Processing config for package: " + packageName);
+        Log.i(TAG, "Processing config for package: " + target + " (request " + requestId + ")");
         Log.i(TAG, "Config path: " + tmpConfigPath);
         Log.i(TAG, "Gadget config path: " + tmpGadgetConfigPath);
         Log.i(TAG, "Deploy only: " + deployOnly);
         
-        if (packageName == null || packageName.isEmpty()) {
+        // 只查询/清空统计时不需要包名
+        if (packageNames.isEmpty() && !allEnabled && (dumpMetrics || resetMetrics)) {
+            if (dumpMetrics) {
+                dumpMetrics();
+            }
+            if (resetMetrics) {
+                DeployMetrics.get().reset();
+                Log.i(TAG, "Deploy metrics reset");
+            }
+            return;
+        }
+        
+        // 检查所有已启用应用的部署状态；只有 repair 需要排队
+        if (packageNames.isEmpty() && !allEnabled && healthCheck) {
+            checkHealth(context, readFlag(intent, "deep"), readFlag(intent, "repair"));
+            return;
+        }
+        
+        if (packageNames.isEmpty() && !allEnabled) {
             Log.e(TAG, "Package name is required");
             return;
         }
         
-        // 在后台线程处理，避免阻塞主线程
-        new Thread(() -> {
-            try {
-                ConfigManager configManager = new ConfigManager(context);
-                
-                // 确保目录存在
-                configManager.ensureModuleDirectories();
-                
-                // 如果提供了配置文件路径，复制到模块目录
-                if (tmpConfigPath != null && !tmpConfigPath.isEmpty()) {
-                    Shell.Result checkResult = Shell.cmd("test -f \"" + tmpConfigPath + "\" && echo 'exists'").exec();
-                    if (checkResult.isSuccess() && !checkResult.getOut().isEmpty()) {
-                        Log.i(TAG, "Copying main config: " + tmpConfigPath + " -> " + ConfigManager.CONFIG_FILE);
-                        Shell.Result copyResult = Shell.cmd(
-                            "cp \"" + tmpConfigPath + "\" \"" + ConfigManager.CONFIG_FILE + "\"",
-                            "chmod 644 \"" + ConfigManager.CONFIG_FILE + "\""
-                        ).exec();
-                        
-                        if (copyResult.isSuccess()) {
-                            Log.i(TAG, "Main config copied successfully");
-                            // 重新加载配置
-                            configManager.reloadConfig();
-                        } else {
-                            Log.e(TAG, "Failed to copy main config: " + String.join("\n", copyResult.getErr()));
-                        }
-                    } else {
-                        Log.w(TAG, "Main config file not found at: " + tmpConfigPath);
-                    }
-                }
-                
-                // 如果提供了 Gadget 配置文件，复制到应用数据目录
-                if (tmpGadgetConfigPath != null && !tmpGadgetConfigPath.isEmpty()) {
-                    Shell.Result checkResult = Shell.cmd("test -f \"" + tmpGadgetConfigPath + "\" && echo 'exists'").exec();
-                    if (checkResult.isSuccess() && !checkResult.getOut().isEmpty()) {
-                        String filesDir = "/data/data/" + packageName + "/files";
-                        
-                        // 从路径中提取文件名
-                        String gadgetConfigFileName = tmpGadgetConfigPath.substring(tmpGadgetConfigPath.lastIndexOf('/') + 1);
-                        String targetPath = filesDir + "/" + gadgetConfigFileName;
-                        
-                        Log.i(TAG, "Copying gadget config: " + tmpGadgetConfigPath + " -> " + targetPath);
-                        
-                        // 创建目录
-                        Shell.cmd("mkdir -p \"" + filesDir + "\"").exec();
-                        
-                        Shell.Result copyResult = Shell.cmd(
-                            "cp \"" + tmpGadgetConfigPath + "\" \"" + targetPath + "\"",
-                            "chmod 644 \"" + targetPath + "\""
-                        ).exec();
-                        
-                        if (copyResult.isSuccess()) {
-                            Log.i(TAG, "Gadget config copied successfully");
-                            
-                            // 设置正确的所有权
-                            Shell.Result uidResult = Shell.cmd("stat -c %u /data/data/" + packageName).exec();
-                            if (uidResult.isSuccess() && !uidResult.getOut().isEmpty()) {
-                                String uid = uidResult.getOut().get(0).trim();
-                                Shell.cmd("chown " + uid + ":" + uid + " \"" + targetPath + "\"").exec();
-                                Shell.cmd("chcon u:object_r:app_data_file:s0 \"" + targetPath + "\"").exec();
-                            }
-                        } else {
-                            Log.e(TAG, "Failed to copy gadget config: " + String.join("\n", copyResult.getErr()));
-                        }
-                    } else {
-                        Log.w(TAG, "Gadget config file not found at: " + tmpGadgetConfigPath);
-                    }
-                }
-                
-                // 如果不是仅部署模式，或者没有提供配置文件，执行部署
-                if (!deployOnly || (tmpConfigPath == null && tmpGadgetConfigPath == null)) {
-                    Log.i(TAG, "Deploying SO files for package: " + packageName);
-                    configManager.deployForPackage(packageName);
-                    Log.i(TAG, "Deployment completed for: " + packageName);
-                } else {
-                    Log.i(TAG, "Config updated, skipping deployment (deploy_only=true)");
-                }
-                
-                // 清理临时文件
-                if (tmpConfigPath != null && !tmpConfigPath.isEmpty()) {
-                    Shell.cmd("rm -f \"" + tmpConfigPath + "\"").exec();
+        // 交给串行队列处理；goAsync 让进程在广播结束前保持前台优先级，处理中途不会被回收
+        final PendingResult pendingResult = goAsync();
+        final AtomicBoolean finished = new AtomicBoolean();
+        final String resultData = target + " id=" + requestId;
+        final ApplyQueue.Request request = ApplyQueue.Request.fromBroadcast(
+                packageNames, allEnabled, tmpConfigPath, tmpGadgetConfigPath, deployOnly);
+        request.addRequestId(requestId);
+        request.addCompletion(result -> {
+            Log.i(TAG, describeResult(result) + " " + resultData + " [" + queue.describe() + "]");
+            if (result == ApplyQueue.RESULT_REJECTED) {
+                // 已处理的请求由 ConfigApplier 写 done/failed
+                ApplyStatus status = new ApplyStatus(requestId, ApplyStatus.REJECTED, request.key);
+                status.finishedAt = System.currentTimeMillis();
+                status.error = "apply queue full";
+                statusStore.write(status);
+            }
+            if (dumpMetrics) {
+                dumpMetrics();
+            }
+            finish(pendingResult, finished, result, resultData);
+        });
+        // 排在后面的请求可能超过广播时限，先结束广播，任务继续在队列里执行
+        mainHandler.postDelayed(() -> finish(pendingResult, finished, RESULT_QUEUED, resultData),
+                FINISH_TIMEOUT_MS);
+        // 必须在 submit 之前写，否则可能覆盖工作线程已经写入的 running
+        ApplyStatus queued = new ApplyStatus(requestId, ApplyStatus.QUEUED, request.key);
+        queued.queuedAt = System.currentTimeMillis();
+        statusStore.write(queued);
+        queue.submit(request);
+    }
+    
+    /**
+     * package_name plus package_names, given either as one comma/space separated string (--es)
+     * or as a string array (--esa)
+     */
+    static List<String> readPackageNames(Intent intent) {
+        Set<String> names = new LinkedHashSet<>();
+        addPackageNames(names, intent.getStringExtra("package_name"));
+        Object list = intent.getExtras() != null ? intent.getExtras().get("package_names") : null;
+        if (list instanceof String[]) {
+            for (String name : (String[]) list) {
+                addPackageNames(names, name);
+            }
+        } else if (list instanceof String) {
+            addPackageNames(names, (String) list);
+        }
+        return new ArrayList<>(names);
+    }
+    
+    private static void addPackageNames(Set<String> names, String value) {
+        if (value == null) {
+            return;
+        }
+        for (String name : value.split("[,\\s]+")) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+    }
+    
+    // auto_config.py 只用 --es 传参，布尔值也可能是字符串 "true"
+    private static boolean readFlag(Intent intent, String key) {
+        Object value = intent.getExtras() != null ? intent.getExtras().get(key) : null;
+        return Boolean.TRUE.equals(value) || "true".equalsIgnoreCase(String.valueOf(value));
+    }
+    
+    private static void finish(PendingResult pendingResult, AtomicBoolean finished, int result, String resultData) {
+        if (finished.compareAndSet(false, true)) {
+            pendingResult.setResult(result, describeResult(result) + " " + resultData, null);
+            pendingResult.finish();
+        }
+    }
+    
+    private static String describeResult(int result) {
+        switch (result) {
+            case ApplyQueue.RESULT_APPLIED:
+                return "applied";
+            case ApplyQueue.RESULT_FAILED:
+                return "failed";
+            case ApplyQueue.RESULT_REJECTED:
+                return "rejected";
+            default:
+                return "queued";
+        }
+    }
+    
+    /**
+     * Scan every enabled package's deployment in the background. Redeploying what drifted goes through the
+     * apply queue like any other deployment, so it never races a queued APPLY_CONFIG on the same files.
+     * adb logcat -s DeployHealth:*
+     */
+    private void checkHealth(Context context, boolean deep, boolean repair) {
+        final PendingResult pendingResult = goAsync();
+        if (repair) {
+            final AtomicBoolean finished = new AtomicBoolean();
+            final ApplyQueue.Request request = ApplyQueue.Request.repair(deep);
+            request.addCompletion(result -> {
+                String summary = describeResult(result) + ": " + summarize(request.scanned);
+                if (request.rescanned != null) {
+                    summary += "; repaired, now " + request.rescanned.drifts.size() + " drifted";
                 }
-                if (tmpGadgetConfigPath != null && !tmpGadgetConfigPath.isEmpty()) {
-                    Shell.cmd("rm -f \"" + tmpGadgetConfigPath + "\"").exec();
+                Log.i(HEALTH_TAG, summary);
+                finish(pendingResult, finished, result, summary);
+            });
+            mainHandler.postDelayed(() -> finish(pendingResult, finished, RESULT_QUEUED, "repair queued"),
+                    FINISH_TIMEOUT_MS);
+            queue.submit(request);
+            return;
+        }
+        // 只读扫描不改任何文件，不必排队
+        final Context appContext = context.getApplicationContext();
+        Shell.EXECUTOR.execute(() -> {
+            int result = ApplyQueue.RESULT_FAILED;
+            String summary = "health check failed";
+            try {
+                DeployHealth.Report report = new ConfigManager(appContext).scanDeployments(deep);
+                for (DeployHealth.Drift drift : report.drifts) {
+                    Log.i(HEALTH_TAG, drift.toString());
                 }
-                
-                Log.i(TAG, "Config application completed successfully");
-                
-            } catch (Exception e) {
-                Log.e(TAG, "Error applying config", e);
+                summary = summarize(report);
+                result = report.isHealthy() ? ApplyQueue.RESULT_APPLIED : ApplyQueue.RESULT_FAILED;
+                Log.i(HEALTH_TAG, (report.isHealthy() ? "healthy: " : "drift: ") + summary);
+            } catch (RuntimeException e) {
+                Log.e(HEALTH_TAG, "Health check failed", e);
+            } finally {
+                pendingResult.setResult(result, summary, null);
+                pendingResult.finish();
             }
-        }).start();
+        });
+    }
+    
+    private static String summarize(DeployHealth.Report report) {
+        if (report == null) {
+            return "no scan";
+        }
+        return report.packages + " packages, " + report.checkedFiles + " files, "
+                + report.drifts.size() + " drifted, " + report.elapsedMs + " ms";
+    }
+    
+    /**
+     * Print the deploy metrics to logcat, one line per entry
+     * adb logcat -s DeployMetrics:*
+     */
+    private static void dumpMetrics() {
+        for (String line : DeployMetrics.get().dump()) {
+            Log.i(METRICS_TAG, line);
+        }
     }
 }
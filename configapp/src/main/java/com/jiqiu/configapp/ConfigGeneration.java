@@ -0,0 +1,103 @@
+package com.jiqiu.configapp;
+
+/**
+ * Generation record published next to config.json
+ * config.gen 记录单调递增的版本号和 config.json 的 md5，读取方只需比较这个小文件即可判断配置是否变化
+ *
+ * 只有配置应用自己读取（判断配置是否被其它进程或 APPLY_CONFIG 改过）；注入进程每次都完整读取 config.json。格式：
+ * <pre>
+ * generation=12
+ * digest=9e107d9d372bb6826bd81d3542a419d6
+ * </pre>
+ */
+public class ConfigGeneration {
+    public static final String GEN_FILE = ConfigManager.MODULE_PATH + "/config.gen";
+
+    // 由 buildReadCommand 追加，表示 config.json 在 config.gen 之后被外部直接修改过
+    private static final String STALE_MARKER = "stale=1";
+
+    public final long generation;
+    public final String digest;
+    public final boolean stale;
+
+    ConfigGeneration(long generation, String digest, boolean stale) {
+        this.generation = generation;
+        this.digest = digest;
+        this.stale = stale;
+    }
+
+    /**
+     * Same published generation and digest; a stale record never matches
+     */
+    public boolean isSameAs(ConfigGeneration other) {
+        return other != null && !stale && !other.stale
+                && generation == other.generation
+                && digest != null && digest.equals(other.digest);
+    }
+
+    /**
+     * Whether a config loaded at {@code loaded} has to be re-read given the record now on disk
+     */
+    public static boolean needsReload(ConfigGeneration loaded, ConfigGeneration current) {
+        if (loaded == null || current == null || current.generation <= 0) {
+            return true;
+        }
+        return !loaded.isSameAs(current);
+    }
+
+    /**
+     * Parse the output of {@link #buildReadCommand(String, String)}, null if there is no record
+     */
+    public static ConfigGeneration parse(Iterable<String> lines) {
+        long generation = 0;
+        String digest = null;
+        boolean stale = false;
+        for (String line : lines) {
+            line = line.trim();
+            if (line.startsWith("generation=")) {
+                try {
+                    generation = Long.parseLong(line.substring("generation=".length()));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            } else if (line.startsWith("digest=")) {
+                digest = line.substring("digest=".length());
+            } else if (STALE_MARKER.equals(line)) {
+                stale = true;
+            }
+        }
+        if (generation <= 0 || digest == null || digest.isEmpty()) {
+            return null;
+        }
+        return new ConfigGeneration(generation, digest, stale);
+    }
+
+    /**
+     * Read the record, flagging it stale if the config file is newer than it
+     */
+    public static String buildReadCommand(String configFile, String genFile) {
+        return "cat \"" + genFile + "\" 2>/dev/null; "
+                + "[ \"" + configFile + "\" -nt \"" + genFile + "\" ] && echo " + STALE_MARKER + "; true";
+    }
+
+    /**
+     * Install {@code srcFile} as the config and bump the generation in one shell round-trip.
+     * The new record is written to a temp file and renamed so readers never see a partial one.
+     * Prints the new record on success.
+     */
+    public static String buildPublishCommand(String srcFile, String configFile, String genFile) {
+        String tmp = genFile + ".tmp";
+        return "cp \"" + srcFile + "\" \"" + configFile + "\" && chmod 644 \"" + configFile + "\" && "
+                + "d=$(md5sum \"" + configFile + "\" | cut -d' ' -f1) && "
+                + "g=$(sed -n 's/^generation=//p' \"" + genFile + "\" 2>/dev/null || true) && "
+                + "g=$(( ${g:-0} + 1 )) && "
+                + "printf 'generation=%s\\ndigest=%s\\n' \"$g\" \"$d\" > \"" + tmp + "\" && "
+                + "chmod 644 \"" + tmp + "\" && mv -f \"" + tmp + "\" \"" + genFile + "\" && "
+                + "cat \"" + genFile + "\"";
+    }
+
+    @Override
+    public String toString() {
+        return "generation=" + generation + ", digest=" + digest + (stale ? " (stale)" : "");
+    }
+}
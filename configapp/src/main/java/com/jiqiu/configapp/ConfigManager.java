@@ -4,45 +4,123 @@ import android.content.Context;
 import android.util.Log;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonWriter;
 import com.topjohnwu.superuser.Shell;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ConfigManager {
     private static final String TAG = "ConfigManager";
     public static final String MODULE_PATH = "/data/adb/modules/zygisk-myinjector";
     public static final String CONFIG_FILE = MODULE_PATH + "/config.json";
     public static final String SO_STORAGE_DIR = MODULE_PATH + "/so_files";
+    // 每个应用一个文件，记录部署到其 files 目录的文件名（每行一个），清理时据此删除，不依赖当前配置
+    public static final String DEPLOY_MANIFEST_DIR = MODULE_PATH + "/deployed";
+    
+    // 注入时机，native 端在后台线程等待触发条件，不再阻塞应用主线程
+    public static final String TRIGGER_IMMEDIATE = "immediate";
+    public static final String TRIGGER_DELAY = "delay";
+    public static final String TRIGGER_LIBRARY_LOADED = "library_loaded";
+    public static final String TRIGGER_FIRST_ACTIVITY = "first_activity";
+    
+    // 单个应用的延迟上限，与全局设置的 60 秒一致
+    public static final int MAX_INJECTION_DELAY_MS = 60_000;
+    
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
     
     private final Context context;
     private final Gson gson;
-    private ModuleConfig config;
+    private final ShellExecutor shell;
+    private final DeployMetrics metrics;
+    // 本进程内每发布一次 config.json 加一，界面切换时据此判断是否需要重新读取，不用调用 shell
+    private static final AtomicLong publishCount = new AtomicLong();
     
-    static {
-        // Configure Shell to use root
-        Shell.enableVerboseLogging = BuildConfig.DEBUG;
-        Shell.setDefaultBuilder(Shell.Builder.create()
-                .setFlags(Shell.FLAG_REDIRECT_STDERR | Shell.FLAG_MOUNT_MASTER)
-                .setTimeout(30));
-    }
+    // 首次用到时才读取，构造 ConfigManager 不需要等 root shell
+    private volatile ModuleConfig config;
+    private ConfigGeneration loadedGeneration;
+    private volatile long loadedPublishCount;
     
     public ConfigManager(Context context) {
+        this(context, ShellExecutor.of(context));
+    }
+    
+    public ConfigManager(Context context, ShellExecutor shell) {
+        this(context, shell, DeployMetrics.get());
+    }
+    
+    ConfigManager(Context context, ShellExecutor shell, DeployMetrics metrics) {
         this.context = context;
-        this.gson = new GsonBuilder().setPrettyPrinting().create();
-        
-        // Ensure we get root shell on creation
-        Shell.getShell();
-        
-        loadConfig();
+        this.gson = new Gson();
+        this.shell = shell;
+        this.metrics = metrics;
+    }
+    
+    private ModuleConfig config() {
+        ModuleConfig current = config;
+        if (current == null) {
+            synchronized (this) {
+                if (config == null) {
+                    loadConfig();
+                }
+                current = config;
+            }
+        }
+        return current;
     }
     
     public boolean isRootAvailable() {
-        return Shell.getShell().isRoot();
+        return shell.isRoot();
+    }
+    
+    /**
+     * Executor all of this manager's commands run through
+     */
+    public ShellExecutor getShell() {
+        return shell;
+    }
+    
+    /**
+     * Metrics this manager records into, shared process-wide unless injected
+     */
+    public DeployMetrics getMetrics() {
+        return metrics;
+    }
+    
+    // 所有 shell 往返都经过这里，计入当前 span
+    private Shell.Result exec(String... commands) {
+        long start = System.nanoTime();
+        Shell.Result result = shell.run(commands);
+        metrics.recordShell(commands.length, System.nanoTime() - start, result.isSuccess());
+        return result;
     }
     
     public void ensureModuleDirectories() {
@@ -53,40 +131,89 @@ public class ConfigManager {
         }
         
         // Create module directories
-        Shell.Result result1 = Shell.cmd("mkdir -p " + MODULE_PATH).exec();
+        Shell.Result result1 = exec("mkdir -p " + MODULE_PATH);
         if (!result1.isSuccess()) {
             Log.e(TAG, "Failed to create module directory: " + MODULE_PATH);
         }
         
-        Shell.Result result2 = Shell.cmd("mkdir -p " + SO_STORAGE_DIR).exec();
+        Shell.Result result2 = exec("mkdir -p " + SO_STORAGE_DIR);
         if (!result2.isSuccess()) {
             Log.e(TAG, "Failed to create SO storage directory: " + SO_STORAGE_DIR);
         }
         
         // Set permissions
-        Shell.cmd("chmod 755 " + MODULE_PATH).exec();
-        Shell.cmd("chmod 755 " + SO_STORAGE_DIR).exec();
+        exec("chmod 755 " + MODULE_PATH);
+        exec("chmod 755 " + SO_STORAGE_DIR);
         
         // Verify directories exist
-        Shell.Result verify = Shell.cmd("ls -la " + MODULE_PATH).exec();
+        Shell.Result verify = exec("ls -la " + MODULE_PATH);
         if (verify.isSuccess()) {
             Log.i(TAG, "Module directory ready: " + String.join("\n", verify.getOut()));
         }
     }
     
     private void loadConfig() {
-        Shell.Result result = Shell.cmd("cat " + CONFIG_FILE).exec();
-        if (result.isSuccess() && !result.getOut().isEmpty()) {
-            String json = String.join("\n", result.getOut());
-            try {
-                config = gson.fromJson(json, ModuleConfig.class);
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to parse config", e);
-                config = new ModuleConfig();
-            }
-        } else {
-            config = new ModuleConfig();
+        loadedPublishCount = publishCount.get();
+        // 先读 generation 再读内容：若两次读取之间配置被改写，记录的旧 generation 只会导致下次多读一次
+        loadedGeneration = readGeneration();
+        ModuleConfig loaded = null;
+        try {
+            loaded = readConfigStream();
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, "No config file yet: " + CONFIG_FILE);
+        } catch (IOException e) {
+            // 当前 shell 不支持直接打开文件时退回 cat
+            Log.w(TAG, "Direct read of config failed, falling back to cat: " + e.getMessage());
+            loaded = readConfigCat();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to parse config", e);
+        }
+        config = loaded != null ? loaded : new ModuleConfig();
+    }
+    
+    /**
+     * Parse config.json straight from a root file stream, checking it against config.gen's digest
+     */
+    private ModuleConfig readConfigStream() throws IOException {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        ModuleConfig loaded;
+        try (InputStream in = new DigestInputStream(
+                new BufferedInputStream(shell.openInputStream(CONFIG_FILE), STREAM_BUFFER_SIZE), md5)) {
+            loaded = readConfig(gson, new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+        String digest = toHex(md5.digest());
+        if (loadedGeneration != null && !loadedGeneration.stale && !digest.equals(loadedGeneration.digest)) {
+            // 内容和 config.gen 不一致（读取期间被改写，或被外部直接修改），下次 reloadConfig 必定重新读取
+            Log.w(TAG, "Config digest " + digest + " does not match " + loadedGeneration);
+            loadedGeneration = null;
         }
+        return loaded;
+    }
+    
+    private ModuleConfig readConfigCat() {
+        Shell.Result result = exec("cat " + CONFIG_FILE);
+        if (!result.isSuccess() || result.getOut().isEmpty()) {
+            return null;
+        }
+        try {
+            return readConfig(gson, new LinesReader(result.getOut()));
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to parse config", e);
+            return null;
+        }
+    }
+    
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
     }
     
     /**
@@ -94,40 +221,151 @@ public class ConfigManager {
      * 从文件重新加载配置（用于外部更新配置后）
      */
     public void reloadConfig() {
+        long count = publishCount.get();
+        ConfigGeneration current = readGeneration();
+        if (!ConfigGeneration.needsReload(loadedGeneration, current)) {
+            Log.i(TAG, "Configuration unchanged (" + current + "), skipping reload");
+            loadedPublishCount = count;
+            return;
+        }
         loadConfig();
         Log.i(TAG, "Configuration reloaded");
     }
     
+    /**
+     * Generation of the config currently held in memory, null if config.gen was missing when loaded
+     */
+    public ConfigGeneration getLoadedGeneration() {
+        config();
+        return loadedGeneration;
+    }
+    
+    /**
+     * Whether another ConfigManager in this process published config.json after this one loaded it.
+     * Costs no shell call; edits made outside the app are only seen by {@link #reloadConfig()}.
+     */
+    public boolean isStale() {
+        return config != null && loadedPublishCount != publishCount.get();
+    }
+    
+    private ConfigGeneration readGeneration() {
+        Shell.Result result = exec(ConfigGeneration.buildReadCommand(CONFIG_FILE, ConfigGeneration.GEN_FILE));
+        return ConfigGeneration.parse(result.getOut());
+    }
+    
+    /**
+     * Copy {@code srcFile} over config.json and publish a new generation
+     * @return the new generation, or null if the copy failed
+     */
+    public ConfigGeneration publishConfigFile(String srcFile) {
+        ConfigGeneration published = parsePublishResult(exec(
+                ConfigGeneration.buildPublishCommand(srcFile, CONFIG_FILE, ConfigGeneration.GEN_FILE)));
+        if (published != null) {
+            publishCount.incrementAndGet();
+        }
+        return published;
+    }
+    
+    private static ConfigGeneration parsePublishResult(Shell.Result result) {
+        if (!result.isSuccess()) {
+            Log.e(TAG, "Failed to publish config: " + String.join("\n", result.getOut()));
+            return null;
+        }
+        return ConfigGeneration.parse(result.getOut());
+    }
+    
+    /**
+     * Parse a config document from {@code reader}, null if it is empty. Does not close the reader.
+     * Per-app sections are decoded lazily, see {@link ConfigSchema#decode}.
+     */
+    static ModuleConfig readConfig(Gson gson, Reader reader) throws IOException {
+        // 直接读进最终的字符数组：切分各段和 Gson 解析都在这一份字符上进行，不再转成 String 或拼接副本
+        char[] json = new char[8192];
+        int length = 0;
+        int n;
+        while ((n = reader.read(json, length, json.length - length)) != -1) {
+            length += n;
+            if (length == json.length) {
+                json = Arrays.copyOf(json, json.length * 2);
+            }
+        }
+        return ConfigSchema.decode(gson, CharBuffer.wrap(json, 0, length));
+    }
+    
+    /**
+     * Stream {@code config} to {@code writer} without building the document in memory
+     * @param pretty indent for humans; the module only ever reads the compact form
+     */
+    static void writeConfig(Gson gson, ModuleConfig config, Writer writer, boolean pretty) throws IOException {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        if (pretty) {
+            jsonWriter.setIndent("  ");
+        }
+        gson.toJson(config, ModuleConfig.class, jsonWriter);
+        jsonWriter.flush();
+    }
+    
+    /**
+     * Write the current config as indented JSON, for sharing or inspection
+     */
+    public void exportConfig(Writer writer) throws IOException {
+        // Raw sections would keep their compact form; decode them so the whole export is indented
+        if (config().perAppConfig instanceof AppConfigMap) {
+            ((AppConfigMap) config().perAppConfig).decodeAll();
+        }
+        writeConfig(gson, config(), writer, true);
+    }
+    
+    // The serialize span only times the write; its bytes are counted on save_config once the file is closed
+    @SuppressWarnings("try")
     public void saveConfig() {
-        String json = gson.toJson(config);
-        // Write to temp file first
-        String tempFile = context.getCacheDir() + "/config.json";
-        try {
-            java.io.FileWriter writer = new java.io.FileWriter(tempFile);
-            writer.write(json);
-            writer.close();
-            
-            // Copy to module directory with root
-            Shell.cmd("cp " + tempFile + " " + CONFIG_FILE).exec();
-            Shell.cmd("chmod 644 " + CONFIG_FILE).exec();
-            
-            // Clean up temp file
-            new File(tempFile).delete();
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to save config", e);
+        try (DeployMetrics.Span span = metrics.start("save_config")) {
+            // Serialize straight into the temp file, then publish it with root
+            File tempFile = new File(context.getCacheDir(), "config.json");
+            try {
+                try (DeployMetrics.Span serialize = metrics.start("serialize");
+                     Writer writer = new BufferedWriter(new OutputStreamWriter(
+                             new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+                    writeConfig(gson, config(), writer, false);
+                }
+                span.addBytes(tempFile.length());
+                
+                // Copy to module directory with root and bump config.gen in the same round-trip
+                ConfigGeneration published;
+                try (DeployMetrics.Span publish = metrics.start("publish")) {
+                    published = parsePublishResult(exec(ConfigGeneration.buildPublishCommand(
+                            tempFile.getPath(), CONFIG_FILE, ConfigGeneration.GEN_FILE)));
+                    if (published == null) {
+                        publish.fail();
+                    }
+                }
+                if (published != null) {
+                    loadedGeneration = published;
+                    // 内存中的配置就是刚发布的内容
+                    loadedPublishCount = publishCount.incrementAndGet();
+                } else {
+                    span.fail();
+                }
+            } catch (Exception e) {
+                span.fail();
+                Log.e(TAG, "Failed to save config", e);
+            } finally {
+                // Clean up temp file
+                tempFile.delete();
+            }
         }
     }
     
     public boolean isAppEnabled(String packageName) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
+        AppConfig appConfig = config().perAppConfig.get(packageName);
         return appConfig != null && appConfig.enabled;
     }
     
     public void setAppEnabled(String packageName, boolean enabled) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
+        AppConfig appConfig = config().perAppConfig.get(packageName);
         if (appConfig == null) {
             appConfig = new AppConfig();
-            config.perAppConfig.put(packageName, appConfig);
+            config().perAppConfig.put(packageName, appConfig);
         }
         appConfig.enabled = enabled;
         saveConfig();
@@ -141,7 +379,7 @@ public class ConfigManager {
     }
     
     public List<SoFile> getAppSoFiles(String packageName) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
+        AppConfig appConfig = config().perAppConfig.get(packageName);
         if (appConfig == null) {
             return new ArrayList<>();
         }
@@ -149,15 +387,24 @@ public class ConfigManager {
     }
     
     public List<SoFile> getAllSoFiles() {
-        if (config.globalSoFiles == null) {
-            config.globalSoFiles = new ArrayList<>();
+        if (config().globalSoFiles == null) {
+            config().globalSoFiles = new ArrayList<>();
         }
-        return new ArrayList<>(config.globalSoFiles);
+        return new ArrayList<>(config().globalSoFiles);
     }
     
     public void addGlobalSoFile(String originalPath, boolean deleteOriginal) {
-        if (config.globalSoFiles == null) {
-            config.globalSoFiles = new ArrayList<>();
+        try (DeployMetrics.Span span = metrics.start("add_so")) {
+            span.setLabel(new File(originalPath).getName());
+            if (!importGlobalSoFile(originalPath, deleteOriginal, span)) {
+                span.fail();
+            }
+        }
+    }
+    
+    private boolean importGlobalSoFile(String originalPath, boolean deleteOriginal, DeployMetrics.Span span) {
+        if (config().globalSoFiles == null) {
+            config().globalSoFiles = new ArrayList<>();
         }
         
         // Keep original filename
@@ -165,68 +412,163 @@ public class ConfigManager {
         String storedPath = SO_STORAGE_DIR + "/" + fileName;
         
         // Check if file already exists with same name
-        for (SoFile existing : config.globalSoFiles) {
+        for (SoFile existing : config().globalSoFiles) {
             if (existing.name.equals(fileName)) {
                 Log.w(TAG, "SO file with same name already exists: " + fileName);
-                return;
+                return false;
             }
         }
         
         // Ensure SO storage directory exists
-        Shell.cmd("mkdir -p " + SO_STORAGE_DIR).exec();
-        Shell.cmd("chmod 755 " + SO_STORAGE_DIR).exec();
+        exec("mkdir -p " + SO_STORAGE_DIR);
+        exec("chmod 755 " + SO_STORAGE_DIR);
         
         // Copy SO file to our storage
         Log.i(TAG, "Copying SO file from: " + originalPath + " to: " + storedPath);
-        Shell.Result result = Shell.cmd("cp \"" + originalPath + "\" \"" + storedPath + "\"").exec();
+        Shell.Result result;
+        try (DeployMetrics.Span copy = metrics.start("copy")) {
+            result = exec("cp \"" + originalPath + "\" \"" + storedPath + "\"");
+            if (!result.isSuccess()) {
+                copy.fail();
+            }
+        }
         
         if (result.isSuccess()) {
-            // Verify the file was actually copied
-            Shell.Result verifyResult = Shell.cmd("test -f \"" + storedPath + "\" && echo 'exists'").exec();
-            if (!verifyResult.isSuccess() || verifyResult.getOut().isEmpty()) {
-                Log.e(TAG, "File copy appeared successful but file not found at: " + storedPath);
-                return;
+            // Verify the file was actually copied, its size is what we account as copied bytes
+            try (DeployMetrics.Span verify = metrics.start("verify")) {
+                long size = statSize(storedPath);
+                if (size < 0) {
+                    Log.e(TAG, "File copy appeared successful but file not found at: " + storedPath);
+                    verify.fail();
+                    return false;
+                }
+                span.addBytes(size);
             }
             
             // Set proper permissions for SO file (readable and executable)
-            Shell.Result chmodResult = Shell.cmd("chmod 755 \"" + storedPath + "\"").exec();
+            Shell.Result chmodResult = exec("chmod 755 \"" + storedPath + "\"");
             if (!chmodResult.isSuccess()) {
                 Log.e(TAG, "Failed to set permissions on SO file: " + String.join("\n", chmodResult.getErr()));
             }
             
+            // Precompute custom linker preflight data next to the stored SO
+            try (DeployMetrics.Span preflight = metrics.start("preflight")) {
+                writePreflightSidecar(storedPath, preflight);
+            }
+            
             SoFile soFile = new SoFile();
             soFile.name = fileName;
             soFile.storedPath = storedPath;
             soFile.originalPath = originalPath;
-            config.globalSoFiles.add(soFile);
+            config().globalSoFiles.add(soFile);
             
             Log.i(TAG, "Successfully added SO file: " + fileName + " to storage");
             
             if (deleteOriginal) {
-                Shell.cmd("rm \"" + originalPath + "\"").exec();
+                exec("rm \"" + originalPath + "\"");
                 Log.i(TAG, "Deleted original file: " + originalPath);
             }
             
             saveConfig();
+            return true;
         } else {
             Log.e(TAG, "Failed to copy SO file: " + String.join("\n", result.getErr()));
+            return false;
+        }
+    }
+    
+    /**
+     * Size of a regular file via stat, -1 if it does not exist
+     */
+    private long statSize(String path) {
+        Shell.Result result = exec("test -f \"" + path + "\" && stat -c %s \"" + path + "\"");
+        if (!result.isSuccess() || result.getOut().isEmpty()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(result.getOut().get(0).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * Analyze the stored SO and store its preflight sidecar beside it
+     * 预计算 custom_linker 使用的段布局/重定位信息，失败时不影响导入
+     * @param span failed if the SO could not be analyzed; an unsupported ELF only means no sidecar
+     */
+    private void writePreflightSidecar(String storedPath, DeployMetrics.Span span) {
+        String sidecarPath = storedPath + SoPreflight.SIDECAR_SUFFIX;
+        File tempSo = null;
+        File tempSidecar = null;
+        try {
+            // Unique names: two imports running at once must not share staging files
+            tempSo = File.createTempFile("preflight_input", ".so", context.getCacheDir());
+            tempSidecar = File.createTempFile("preflight_output", SoPreflight.SIDECAR_SUFFIX, context.getCacheDir());
+            // Stored SO is only readable by root, copy it somewhere we can map it
+            Shell.Result copyResult = exec(
+                "cp \"" + storedPath + "\" \"" + tempSo.getAbsolutePath() + "\"",
+                "chmod 644 \"" + tempSo.getAbsolutePath() + "\""
+            );
+            if (!copyResult.isSuccess()) {
+                Log.w(TAG, "Failed to stage SO for preflight: " + String.join("\n", copyResult.getErr()));
+                span.fail();
+                return;
+            }
+            
+            SoPreflight preflight = SoPreflight.analyze(tempSo);
+            if (preflight == null) {
+                Log.w(TAG, "Unsupported ELF, no preflight sidecar for: " + storedPath);
+                exec("rm -f \"" + sidecarPath + "\"");
+                return;
+            }
+            
+            try (Writer writer = new FileWriter(tempSidecar)) {
+                writer.write(preflight.toSidecar());
+            }
+            
+            exec(
+                "cp \"" + tempSidecar.getAbsolutePath() + "\" \"" + sidecarPath + "\"",
+                "chmod 644 \"" + sidecarPath + "\""
+            );
+            Log.i(TAG, "Wrote preflight sidecar: " + sidecarPath + " (load size " + preflight.loadSize
+                    + ", " + preflight.requiredSymbols.size() + " imported symbols)");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to create preflight sidecar", e);
+            span.fail();
+        } finally {
+            if (tempSo != null) {
+                tempSo.delete();
+            }
+            if (tempSidecar != null) {
+                tempSidecar.delete();
+            }
         }
     }
     
     public void removeGlobalSoFile(SoFile soFile) {
-        if (config.globalSoFiles == null) return;
+        if (config().globalSoFiles == null) return;
         
-        config.globalSoFiles.remove(soFile);
-        // Delete the stored file
-        Shell.cmd("rm \"" + soFile.storedPath + "\"").exec();
+        config().globalSoFiles.remove(soFile);
+        // Delete the stored file and its preflight sidecar
+        exec("rm \"" + soFile.storedPath + "\"",
+                "rm -f \"" + soFile.storedPath + SoPreflight.SIDECAR_SUFFIX + "\"");
         saveConfig();
     }
     
     public void addSoFileToApp(String packageName, SoFile globalSoFile) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
+        addSoFileToApp(packageName, globalSoFile, 0);
+    }
+    
+    /**
+     * Add a SO to an app in a load group
+     * @param loadGroup 同组按列表顺序加载，不同组在注入进程中并发加载
+     */
+    public void addSoFileToApp(String packageName, SoFile globalSoFile, int loadGroup) {
+        AppConfig appConfig = config().perAppConfig.get(packageName);
         if (appConfig == null) {
             appConfig = new AppConfig();
-            config.perAppConfig.put(packageName, appConfig);
+            config().perAppConfig.put(packageName, appConfig);
         }
         
         // Check if already added
@@ -236,8 +578,13 @@ public class ConfigManager {
             }
         }
         
-        // Add reference to the global SO file
-        appConfig.soFiles.add(globalSoFile);
+        // Add a per-app copy so the load group doesn't leak into the global list
+        SoFile appSoFile = new SoFile();
+        appSoFile.name = globalSoFile.name;
+        appSoFile.storedPath = globalSoFile.storedPath;
+        appSoFile.originalPath = globalSoFile.originalPath;
+        appSoFile.loadGroup = Math.max(0, loadGroup);
+        appConfig.soFiles.add(appSoFile);
         saveConfig();
         
         // If app is enabled, deploy the new SO file
@@ -247,7 +594,7 @@ public class ConfigManager {
     }
     
     public void removeSoFileFromApp(String packageName, SoFile soFile) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
+        AppConfig appConfig = config().perAppConfig.get(packageName);
         if (appConfig == null) return;
         
         appConfig.soFiles.removeIf(s -> s.storedPath.equals(soFile.storedPath));
@@ -260,16 +607,16 @@ public class ConfigManager {
     }
     
     public boolean getHideInjection() {
-        return config.hideInjection;
+        return config().hideInjection;
     }
     
     public void setHideInjection(boolean hide) {
-        config.hideInjection = hide;
+        config().hideInjection = hide;
         saveConfig();
     }
     
     public String getAppInjectionMethod(String packageName) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
+        AppConfig appConfig = config().perAppConfig.get(packageName);
         if (appConfig == null) {
             return "standard"; // Default to standard
         }
@@ -277,34 +624,113 @@ public class ConfigManager {
     }
     
     public void setAppInjectionMethod(String packageName, String method) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
+        AppConfig appConfig = config().perAppConfig.get(packageName);
         if (appConfig == null) {
             appConfig = new AppConfig();
-            config.perAppConfig.put(packageName, appConfig);
+            config().perAppConfig.put(packageName, appConfig);
         }
         appConfig.injectionMethod = method;
         saveConfig();
     }
     
+    public String getAppInjectionTrigger(String packageName) {
+        AppConfig appConfig = config().perAppConfig.get(packageName);
+        if (appConfig == null || appConfig.injectionTrigger == null) {
+            return TRIGGER_DELAY;
+        }
+        return appConfig.injectionTrigger;
+    }
+    
+    public String getAppTriggerLibrary(String packageName) {
+        AppConfig appConfig = config().perAppConfig.get(packageName);
+        return appConfig != null ? appConfig.triggerLibrary : null;
+    }
+    
+    /**
+     * Set when injection starts for an app
+     * @param library library name waited on by {@link #TRIGGER_LIBRARY_LOADED}, ignored otherwise
+     */
+    public void setAppInjectionTrigger(String packageName, String trigger, String library) {
+        AppConfig appConfig = config().perAppConfig.get(packageName);
+        if (appConfig == null) {
+            appConfig = new AppConfig();
+            config().perAppConfig.put(packageName, appConfig);
+        }
+        appConfig.injectionTrigger = trigger;
+        appConfig.triggerLibrary = TRIGGER_LIBRARY_LOADED.equals(trigger) ? library : null;
+        saveConfig();
+    }
+    
+    /**
+     * Per-app delay override in milliseconds, null if the app uses the global delay
+     */
+    public Integer getAppInjectionDelayMs(String packageName) {
+        AppConfig appConfig = config().perAppConfig.get(packageName);
+        return appConfig != null ? appConfig.injectionDelayMs : null;
+    }
+    
+    /**
+     * Effective delay for an app in milliseconds, falling back to the global delay in seconds
+     */
+    public int getEffectiveInjectionDelayMs(String packageName) {
+        Integer override = getAppInjectionDelayMs(packageName);
+        return override != null ? override : config().injectionDelay * 1000;
+    }
+    
+    public void setAppInjectionDelayMs(String packageName, Integer delayMs) {
+        AppConfig appConfig = config().perAppConfig.get(packageName);
+        if (appConfig == null) {
+            appConfig = new AppConfig();
+            config().perAppConfig.put(packageName, appConfig);
+        }
+        if (delayMs != null) {
+            delayMs = Math.max(0, Math.min(delayMs, MAX_INJECTION_DELAY_MS));
+        }
+        appConfig.injectionDelayMs = delayMs;
+        saveConfig();
+    }
+    
+    /**
+     * Set an app's injection method, trigger and delay together with a single save, as the app dialog does
+     * @param library library name waited on by {@link #TRIGGER_LIBRARY_LOADED}, ignored otherwise
+     * @param delayMs per-app delay override, null to use the global delay
+     */
+    public void setAppInjection(String packageName, String method, String trigger, String library,
+                                Integer delayMs) {
+        AppConfig appConfig = config().perAppConfig.get(packageName);
+        if (appConfig == null) {
+            appConfig = new AppConfig();
+            config().perAppConfig.put(packageName, appConfig);
+        }
+        appConfig.injectionMethod = method;
+        appConfig.injectionTrigger = trigger;
+        appConfig.triggerLibrary = TRIGGER_LIBRARY_LOADED.equals(trigger) ? library : null;
+        if (delayMs != null) {
+            delayMs = Math.max(0, Math.min(delayMs, MAX_INJECTION_DELAY_MS));
+        }
+        appConfig.injectionDelayMs = delayMs;
+        saveConfig();
+    }
+    
     public int getInjectionDelay() {
-        return config.injectionDelay;
+        return config().injectionDelay;
     }
     
     public void setInjectionDelay(int delay) {
-        config.injectionDelay = delay;
+        config().injectionDelay = delay;
         saveConfig();
     }
     
     public GadgetConfig getAppGadgetConfig(String packageName) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
+        AppConfig appConfig = config().perAppConfig.get(packageName);
         if (appConfig == null) {
             // If no app config, return global gadget config
-            return config.globalGadgetConfig;
+            return config().globalGadgetConfig;
         }
         
         // If app is set to use global gadget, return global config
         if (appConfig.useGlobalGadget) {
-            return config.globalGadgetConfig;
+            return config().globalGadgetConfig;
         }
         
         // Otherwise return app-specific gadget config
@@ -312,16 +738,16 @@ public class ConfigManager {
     }
     
     public GadgetConfig getGlobalGadgetConfig() {
-        return config.globalGadgetConfig;
+        return config().globalGadgetConfig;
     }
     
     public void setGlobalGadgetConfig(GadgetConfig gadgetConfig) {
-        config.globalGadgetConfig = gadgetConfig;
+        config().globalGadgetConfig = gadgetConfig;
         saveConfig();
     }
     
     public boolean getAppUseGlobalGadget(String packageName) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
+        AppConfig appConfig = config().perAppConfig.get(packageName);
         if (appConfig == null) {
             return true; // Default to use global
         }
@@ -329,20 +755,20 @@ public class ConfigManager {
     }
     
     public void setAppUseGlobalGadget(String packageName, boolean useGlobal) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
+        AppConfig appConfig = config().perAppConfig.get(packageName);
         if (appConfig == null) {
             appConfig = new AppConfig();
-            config.perAppConfig.put(packageName, appConfig);
+            config().perAppConfig.put(packageName, appConfig);
         }
         appConfig.useGlobalGadget = useGlobal;
         saveConfig();
     }
     
     public void setAppGadgetConfig(String packageName, GadgetConfig gadgetConfig) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
+        AppConfig appConfig = config().perAppConfig.get(packageName);
         if (appConfig == null) {
             appConfig = new AppConfig();
-            config.perAppConfig.put(packageName, appConfig);
+            config().perAppConfig.put(packageName, appConfig);
         }
         
         // Remove old gadget from SO list if exists
@@ -357,7 +783,7 @@ public class ConfigManager {
         if (gadgetConfig != null) {
             // Check if gadget SO file exists in global storage
             String gadgetPath = SO_STORAGE_DIR + "/" + gadgetConfig.gadgetName;
-            Shell.Result checkResult = Shell.cmd("test -f \"" + gadgetPath + "\" && echo 'exists'").exec();
+            Shell.Result checkResult = exec("test -f \"" + gadgetPath + "\" && echo 'exists'");
             
             if (checkResult.isSuccess() && !checkResult.getOut().isEmpty()) {
                 // Add gadget as a SO file
@@ -387,279 +813,349 @@ public class ConfigManager {
         
         saveConfig();
         
-        // If app is enabled, deploy both gadget SO and config file
+        // If app is enabled, re-deploy all SO files including gadget, plus its config file
         if (appConfig.enabled) {
-            if (gadgetConfig != null) {
-                deployGadgetConfigFile(packageName, gadgetConfig);
-            }
-            // Re-deploy all SO files including gadget
             deploySoFilesToApp(packageName);
         }
     }
     
-    private void deployGadgetConfigFile(String packageName, GadgetConfig gadgetConfig) {
-        try {
-            // Create gadget config JSON
-            String configJson;
-            if ("script".equals(gadgetConfig.mode)) {
-                configJson = String.format(
-                    "{\n" +
-                    "  \"interaction\": {\n" +
-                    "    \"type\": \"script\",\n" +
-                    "    \"path\": \"%s\"\n" +
-                    "  }\n" +
-                    "}",
-                    gadgetConfig.scriptPath
-                );
-            } else {
-                configJson = String.format(
-                    "{\n" +
-                    "  \"interaction\": {\n" +
-                    "    \"type\": \"listen\",\n" +
-                    "    \"address\": \"%s\",\n" +
-                    "    \"port\": %d,\n" +
-                    "    \"on_port_conflict\": \"%s\",\n" +
-                    "    \"on_load\": \"%s\"\n" +
-                    "  }\n" +
-                    "}",
-                    gadgetConfig.address,
-                    gadgetConfig.port,
-                    gadgetConfig.onPortConflict,
-                    gadgetConfig.onLoad
-                );
-            }
-            
-            // Write to temp file
-            String tempFile = context.getCacheDir() + "/" + gadgetConfig.gadgetName + ".config";
-            java.io.FileWriter writer = new java.io.FileWriter(tempFile);
-            writer.write(configJson);
-            writer.close();
-            
-            // Copy to app's files directory
-            String filesDir = "/data/data/" + packageName + "/files";
-            String gadgetConfigName = gadgetConfig.gadgetName.replace(".so", ".config.so");
-            String targetPath = filesDir + "/" + gadgetConfigName;
-            
-            Shell.Result copyResult = Shell.cmd("cp " + tempFile + " " + targetPath).exec();
-            if (copyResult.isSuccess()) {
-                // Set permissions
-                Shell.cmd("chmod 644 " + targetPath).exec();
-                Log.i(TAG, "Deployed gadget config to: " + targetPath);
-            } else {
-                Log.e(TAG, "Failed to deploy gadget config: " + String.join("\n", copyResult.getErr()));
-            }
-            
-            // Clean up temp file
-            new java.io.File(tempFile).delete();
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to create gadget config file", e);
-        }
+    /**
+     * Gadget config file content (the *.config.so next to the gadget) for {@code gadgetConfig}
+     */
+    static String buildGadgetConfigJson(GadgetConfig gadgetConfig) {
+        return GadgetConfigRenderer.render(gadgetConfig).json;
     }
     
     // Copy SO files directly to app's data directory
+    // 和批量部署走同一个脚本：单个应用也只需要一次 shell 往返
     private void deploySoFilesToApp(String packageName) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
-        if (appConfig == null || appConfig.soFiles.isEmpty()) {
-            Log.w(TAG, "No SO files to deploy for: " + packageName);
-            return;
-        }
-        
-        // First check if we have root access
-        if (!Shell.getShell().isRoot()) {
-            Log.e(TAG, "No root access available!");
-            return;
-        }
-        
-        // Create files directory in app's data dir
-        String filesDir = "/data/data/" + packageName + "/files";
-        
-        Log.i(TAG, "Deploying SO files to: " + filesDir);
-        
-        // Create directory without su -c for better compatibility
-        Shell.Result mkdirResult = Shell.cmd("mkdir -p " + filesDir).exec();
-        if (!mkdirResult.isSuccess()) {
-            Log.e(TAG, "Failed to create directory: " + filesDir);
-            Log.e(TAG, "Error: " + String.join("\n", mkdirResult.getErr()));
-            return;
-        }
-        
-        // Set proper permissions and ownership for the files directory
-        Shell.cmd("chmod 771 " + filesDir).exec();
-        
-        // Get UID and GID for the package
-        Shell.Result uidResult = Shell.cmd("stat -c %u /data/data/" + packageName).exec();
-        String uid = "";
-        if (uidResult.isSuccess() && !uidResult.getOut().isEmpty()) {
-            uid = uidResult.getOut().get(0).trim();
-            Log.i(TAG, "Package UID: " + uid);
-            
-            // Set ownership of files directory to match app
-            Shell.Result chownDirResult = Shell.cmd("chown " + uid + ":" + uid + " \"" + filesDir + "\"").exec();
-            if (!chownDirResult.isSuccess()) {
-                Log.e(TAG, "Failed to set directory ownership: " + String.join("\n", chownDirResult.getErr()));
-            }
-            
-            // Set SELinux context for the directory
-            Shell.cmd("chcon u:object_r:app_data_file:s0 \"" + filesDir + "\"").exec();
+        DeployReport report = deployBatch(Collections.singletonList(packageName), null);
+        if (!report.failedPackages.isEmpty()) {
+            Log.e(TAG, "Deployment incomplete for: " + packageName);
         } else {
-            Log.e(TAG, "Failed to get package UID");
+            Log.i(TAG, "Deployment complete for: " + packageName);
         }
-        
-        // Copy each SO file configured for this app
-        for (SoFile soFile : appConfig.soFiles) {
-            // Use original filename
-            String destPath = filesDir + "/" + soFile.name;
-            
-            // Check if source file exists
-            Shell.Result checkResult = Shell.cmd("test -f \"" + soFile.storedPath + "\" && echo 'exists'").exec();
-            if (!checkResult.isSuccess() || checkResult.getOut().isEmpty()) {
-                Log.e(TAG, "Source SO file not found: " + soFile.storedPath);
-                // Log more details about the missing file
-                Shell.Result lsResult = Shell.cmd("ls -la \"" + SO_STORAGE_DIR + "\"").exec();
-                Log.e(TAG, "Contents of SO storage dir: " + String.join("\n", lsResult.getOut()));
-                continue;
+    }
+    
+    // Clean up deployed SO files when app is disabled
+    private void cleanupAppSoFiles(String packageName) {
+        cleanupPackages(Collections.singletonList(packageName));
+    }
+    
+    // $1 package, then names to remove besides the ones in its manifest
+    private static final String CLEAN_APP_FUNCTION = "clean_app() {"
+            + " p=$1; shift; d=\"/data/data/$p/files\"; m=\"" + DEPLOY_MANIFEST_DIR + "/$p\";"
+            + " if [ -f \"$m\" ]; then while IFS= read -r n; do [ -n \"$n\" ] && set -- \"$@\" \"$n\"; done < \"$m\"; fi;"
+            + " left=0; if [ -d \"$d\" ] && [ $# -gt 0 ]; then (cd \"$d\" && rm -f -- \"$@\");"
+            + " for n; do if [ -e \"$d/$n\" ]; then echo \"LEFT $p $n\"; left=1; fi; done; fi;"
+            + " [ $left = 0 ] && rm -f \"$m\"; echo \"CLEANED $p $#\"; }";
+    
+    /**
+     * Remove everything deployed to these packages' files dirs in one shell round-trip
+     * 按部署清单删除（包括配置里已经移除的 SO），当前配置中的文件名也一并删除以兼容没有清单的旧部署；
+     * 删除后在同一个脚本里检查，全部删除后才删掉清单。
+     * @return packages with at least one file left behind
+     */
+    public List<String> cleanupPackages(Collection<String> packageNames) {
+        List<String> failed = new ArrayList<>();
+        if (packageNames.isEmpty()) {
+            return failed;
+        }
+        try (DeployMetrics.Span span = metrics.start("cleanup")) {
+            span.setLabel(packageNames.size() == 1 ? packageNames.iterator().next()
+                    : packageNames.size() + " packages");
+            if (!shell.isRoot()) {
+                Log.e(TAG, "No root access available!");
+                span.fail();
+                failed.addAll(packageNames);
+                return failed;
             }
             
-            Log.i(TAG, "Copying: " + soFile.storedPath + " to " + destPath);
-            
-            // First, ensure the destination directory exists and has proper permissions
-            Shell.cmd("mkdir -p \"" + filesDir + "\"").exec();
-            Shell.cmd("chmod 755 \"" + filesDir + "\"").exec();
-            
-            // Copy file using cp with force flag
-            Shell.Result result = Shell.cmd("cp -f \"" + soFile.storedPath + "\" \"" + destPath + "\"").exec();
-            
-            if (!result.isSuccess()) {
-                Log.e(TAG, "Failed with cp, trying cat method");
-                Log.e(TAG, "cp error: " + String.join("\n", result.getErr()));
-                // Fallback to cat method
-                result = Shell.cmd("cat \"" + soFile.storedPath + "\" > \"" + destPath + "\"").exec();
-                
-                if (!result.isSuccess()) {
-                    Log.e(TAG, "Also failed with cat method");
-                    Log.e(TAG, "cat error: " + String.join("\n", result.getErr()));
+            List<String> script = new ArrayList<>();
+            script.add(CLEAN_APP_FUNCTION);
+            for (String packageName : new LinkedHashSet<>(packageNames)) {
+                StringBuilder line = new StringBuilder("clean_app ").append(packageName);
+                AppConfig appConfig = config().perAppConfig.get(packageName);
+                if (appConfig != null) {
+                    for (String name : deployedNames(appConfig.soFiles)) {
+                        line.append(" \"").append(name).append('"');
+                    }
                 }
+                GadgetConfig gadgetConfig = getAppGadgetConfig(packageName);
+                if (gadgetConfig != null) {
+                    line.append(" \"").append(gadgetConfig.gadgetName.replace(".so", ".config.so")).append('"');
+                }
+                script.add(line.toString());
             }
             
-            // Set permissions - SO files need to be readable and executable
-            Shell.Result chmodResult = Shell.cmd("chmod 755 \"" + destPath + "\"").exec();
-            if (!chmodResult.isSuccess()) {
-                Log.e(TAG, "Failed to set permissions: " + String.join("\n", chmodResult.getErr()));
-            }
-            
-            // Set ownership to match the app's UID
-            if (!uid.isEmpty()) {
-                Shell.Result chownResult = Shell.cmd("chown " + uid + ":" + uid + " \"" + destPath + "\"").exec();
-                if (!chownResult.isSuccess()) {
-                    Log.e(TAG, "Failed to set ownership: " + String.join("\n", chownResult.getErr()));
-                    // Try alternative method
-                    Shell.cmd("chown " + uid + ".app_" + uid + " \"" + destPath + "\"").exec();
+            Shell.Result result = exec(script.toArray(new String[0]));
+            for (String line : result.getOut()) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length < 3) {
+                    continue;
+                }
+                if ("LEFT".equals(parts[0])) {
+                    Log.e(TAG, "Failed to delete " + parts[2] + " for " + parts[1]);
+                    if (!failed.contains(parts[1])) {
+                        failed.add(parts[1]);
+                    }
+                } else if ("CLEANED".equals(parts[0])) {
+                    Log.i(TAG, "Cleanup complete for: " + parts[1]);
                 }
             }
-            
-            // Set SELinux context to match app's data files
-            Shell.Result contextResult = Shell.cmd("chcon u:object_r:app_data_file:s0 \"" + destPath + "\"").exec();
-            if (!contextResult.isSuccess()) {
-                Log.w(TAG, "Failed to set SELinux context (this may be normal on some devices)");
+            if (!result.isSuccess() && result.getOut().isEmpty()) {
+                Log.e(TAG, "Cleanup failed: " + String.join("\n", result.getErr()));
+                failed.addAll(packageNames);
             }
-            
-            // Verify the file was copied with correct permissions
-            Shell.Result verifyResult = Shell.cmd("ls -laZ \"" + destPath + "\" 2>/dev/null").exec();
-            if (verifyResult.isSuccess() && !verifyResult.getOut().isEmpty()) {
-                Log.i(TAG, "Successfully deployed: " + String.join(" ", verifyResult.getOut()));
-            } else {
-                // Fallback verification without SELinux context
-                verifyResult = Shell.cmd("ls -la \"" + destPath + "\" 2>/dev/null").exec();
-                if (verifyResult.isSuccess() && !verifyResult.getOut().isEmpty()) {
-                    Log.i(TAG, "Successfully deployed: " + String.join(" ", verifyResult.getOut()));
-                } else {
-                    Log.e(TAG, "Failed to verify SO file copy: " + destPath);
-                }
+            if (!failed.isEmpty()) {
+                span.fail();
             }
         }
-        
-        Log.i(TAG, "Deployment complete for: " + packageName);
-        
-        // Deploy gadget config if configured
-        ConfigManager.GadgetConfig gadgetToUse = getAppGadgetConfig(packageName);
-        if (gadgetToUse != null) {
-            deployGadgetConfigFile(packageName, gadgetToUse);
+        return failed;
+    }
+    
+    // SO names plus their sidecars; a sidecar that was never deployed is simply not there to remove
+    private static List<String> deployedNames(List<SoFile> soFiles) {
+        List<String> names = new ArrayList<>();
+        for (SoFile soFile : soFiles) {
+            names.add(soFile.name);
+            names.add(soFile.name + SoPreflight.SIDECAR_SUFFIX);
         }
+        return names;
     }
     
-    // Clean up deployed SO files when app is disabled
-    private void cleanupAppSoFiles(String packageName) {
-        AppConfig appConfig = config.perAppConfig.get(packageName);
-        if (appConfig == null || appConfig.soFiles.isEmpty()) {
-            Log.w(TAG, "No SO files to clean up for: " + packageName);
-            return;
+    /**
+     * Shell command adding {@code names} to the package's deployment manifest, each name once
+     */
+    static String buildRecordCommand(String packageName, Collection<String> names) {
+        String manifest = "\"" + DEPLOY_MANIFEST_DIR + "/" + packageName + "\"";
+        StringBuilder command = new StringBuilder("mkdir -p \"" + DEPLOY_MANIFEST_DIR + "\" && printf '%s\\n'");
+        for (String name : names) {
+            command.append(" \"").append(name).append('"');
         }
-        
-        // First check if we have root access
-        if (!Shell.getShell().isRoot()) {
-            Log.e(TAG, "No root access available!");
-            return;
+        return command.append(" >> ").append(manifest).append(" && sort -u -o ").append(manifest).append(' ')
+                .append(manifest).toString();
+    }
+    
+    // Deploy SO files for all enabled apps
+    public void deployAllSoFiles() {
+        deployForPackages(getEnabledPackages());
+    }
+    
+    /**
+     * Packages whose per-app config is enabled, in config order
+     */
+    public List<String> getEnabledPackages() {
+        // Read from the raw sections, so listing them does not decode every app
+        if (config().perAppConfig instanceof AppConfigMap) {
+            return ((AppConfigMap) config().perAppConfig).enabledPackages();
         }
-        
-        String filesDir = "/data/data/" + packageName + "/files";
-        
-        // Only delete the SO files we deployed, not the entire directory
-        for (SoFile soFile : appConfig.soFiles) {
-            // Use original filename
-            String filePath = filesDir + "/" + soFile.name;
-            
-            Log.i(TAG, "Cleaning up: " + filePath);
+        List<String> packages = new ArrayList<>();
+        for (Map.Entry<String, AppConfig> entry : config().perAppConfig.entrySet()) {
+            if (entry.getValue() != null && entry.getValue().enabled) {
+                packages.add(entry.getKey());
+            }
+        }
+        return packages;
+    }
+    
+    // Shell function for one SO in a batched deploy: $1 files dir, $2 uid, $3 source, $4 name, $5 package
+    private static final String DEPLOY_SO_FUNCTION = "deploy_so() {"
+            + " if [ ! -f \"$3\" ]; then echo \"MISSING $5 $4\"; return; fi;"
+            + " if cp -f \"$3\" \"$1/$4\" || cat \"$3\" > \"$1/$4\"; then"
+            + " chmod 755 \"$1/$4\"; [ -n \"$2\" ] && chown $2:$2 \"$1/$4\";"
+            + " chcon u:object_r:app_data_file:s0 \"$1/$4\";"
+            + " if [ -f \"$3" + SoPreflight.SIDECAR_SUFFIX + "\" ]; then"
+            + " cp -f \"$3" + SoPreflight.SIDECAR_SUFFIX + "\" \"$1/$4" + SoPreflight.SIDECAR_SUFFIX + "\""
+            + " && chmod 644 \"$1/$4" + SoPreflight.SIDECAR_SUFFIX + "\";"
+            + " [ -n \"$2\" ] && chown $2:$2 \"$1/$4" + SoPreflight.SIDECAR_SUFFIX + "\";"
+            + " chcon u:object_r:app_data_file:s0 \"$1/$4" + SoPreflight.SIDECAR_SUFFIX + "\"; fi;"
+            + " echo \"OK $5 $(stat -c %s \"$3\") $4\";"
+            + " else echo \"FAIL $5 $4\"; fi; }";
+    
+    /**
+     * Deploy several packages in one shell round-trip
+     * 每个包的目录准备、所有 SO 的复制/权限/SELinux 以及 gadget 配置都写进同一个脚本，
+     * 脚本按行回报每个文件的结果；30 个应用只需要一次往返，而不是每个文件十来次。
+     * @return one entry per SO file, and the packages with at least one file that could not be deployed
+     */
+    public DeployReport deployForPackages(Collection<String> packageNames) {
+        return deployBatch(packageNames, null);
+    }
+    
+    /**
+     * @param only per package, the SO names to deploy plus {@link DeployHealth#KIND_GADGET_CONFIG} for the
+     *             gadget config; null deploys everything
+     */
+    private DeployReport deployBatch(Collection<String> packageNames, Map<String, Set<String>> only) {
+        DeployReport report = new DeployReport();
+        List<String> failed = report.failedPackages;
+        if (packageNames.isEmpty()) {
+            return report;
+        }
+        long start = System.nanoTime();
+        try (DeployMetrics.Span span = metrics.start("deploy_batch")) {
+            span.setLabel(packageNames.size() + " packages");
+            if (!shell.isRoot()) {
+                Log.e(TAG, "No root access available!");
+                span.fail();
+                failed.addAll(packageNames);
+                return report;
+            }
             
-            // Check if file exists before trying to delete
-            Shell.Result checkResult = Shell.cmd("test -f \"" + filePath + "\" && echo 'exists'").exec();
-            if (checkResult.isSuccess() && !checkResult.getOut().isEmpty()) {
-                // Try to remove the file
-                Shell.Result result = Shell.cmd("rm -f \"" + filePath + "\"").exec();
-                
-                // Verify deletion
-                Shell.Result verifyResult = Shell.cmd("test -f \"" + filePath + "\" && echo 'still_exists'").exec();
-                if (!verifyResult.isSuccess() || verifyResult.getOut().isEmpty()) {
-                    Log.i(TAG, "Successfully deleted SO file: " + filePath);
-                } else {
-                    Log.e(TAG, "Failed to delete SO file: " + filePath);
-                    // Try with su -c
-                    Shell.cmd("su -c 'rm -f \"" + filePath + "\"'").exec();
+            List<String> script = new ArrayList<>();
+            Map<String, Integer> expected = new LinkedHashMap<>();
+            script.add(DEPLOY_SO_FUNCTION);
+            for (String packageName : new LinkedHashSet<>(packageNames)) {
+                AppConfig appConfig = config().perAppConfig.get(packageName);
+                if (appConfig == null || appConfig.soFiles.isEmpty()) {
+                    Log.w(TAG, "No SO files to deploy for: " + packageName);
+                    continue;
                 }
-            } else {
-                Log.w(TAG, "SO file not found for cleanup: " + filePath);
+                Set<String> names = only != null ? only.get(packageName) : null;
+                if (only != null && names == null) {
+                    continue;
+                }
+                String filesDir = "/data/data/" + packageName + "/files";
+                StringBuilder block = new StringBuilder()
+                        .append("d=\"").append(filesDir).append("\"; uid=$(stat -c %u /data/data/").append(packageName)
+                        .append(" 2>/dev/null); if mkdir -p \"$d\"; then chmod 771 \"$d\";")
+                        .append(" [ -n \"$uid\" ] && chown $uid:$uid \"$d\"; chcon u:object_r:app_data_file:s0 \"$d\";");
+                int soCount = 0;
+                List<String> recorded = new ArrayList<>();
+                for (SoFile soFile : appConfig.soFiles) {
+                    if (names != null && !names.contains(soFile.name)) {
+                        continue;
+                    }
+                    recorded.add(soFile.name);
+                    recorded.add(soFile.name + SoPreflight.SIDECAR_SUFFIX);
+                    block.append(" deploy_so \"$d\" \"$uid\" \"").append(soFile.storedPath).append("\" \"")
+                            .append(soFile.name).append("\" ").append(packageName).append(';');
+                    soCount++;
+                }
+                GadgetConfig gadgetToUse = getAppGadgetConfig(packageName);
+                if (gadgetToUse != null && (names == null || names.contains(DeployHealth.KIND_GADGET_CONFIG))) {
+                    String gadgetConfigName = gadgetToUse.gadgetName.replace(".so", ".config.so");
+                    recorded.add(gadgetConfigName);
+                    block.append(' ').append(GadgetConfigRenderer.buildWriteCommand(packageName,
+                            "$d/" + gadgetConfigName, GadgetConfigRenderer.render(gadgetToUse))).append(';');
+                }
+                if (!recorded.isEmpty()) {
+                    block.append(' ').append(buildRecordCommand(packageName, recorded)).append(';');
+                }
+                block.append(" else echo \"NODIR ").append(packageName).append("\"; fi");
+                script.add(block.toString());
+                expected.put(packageName, soCount);
+            }
+            if (expected.isEmpty()) {
+                return report;
             }
-        }
-        
-        // Clean up gadget config file if exists
-        ConfigManager.GadgetConfig gadgetToUse = getAppGadgetConfig(packageName);
-        if (gadgetToUse != null) {
-            String gadgetConfigName = gadgetToUse.gadgetName.replace(".so", ".config.so");
-            String configPath = filesDir + "/" + gadgetConfigName;
             
-            Shell.Result checkConfigResult = Shell.cmd("test -f \"" + configPath + "\" && echo 'exists'").exec();
-            if (checkConfigResult.isSuccess() && !checkConfigResult.getOut().isEmpty()) {
-                Shell.Result deleteResult = Shell.cmd("rm -f \"" + configPath + "\"").exec();
-                if (deleteResult.isSuccess()) {
-                    Log.i(TAG, "Deleted gadget config: " + configPath);
+            Shell.Result result = exec(script.toArray(new String[0]));
+            
+            // 按脚本输出统计：每个 SO 一行 OK / MISSING / FAIL，目录创建失败一行 NODIR，gadget 配置写入失败一行 GADGET_FAIL
+            Map<String, Integer> deployed = new HashMap<>();
+            Set<String> gadgetFailed = new HashSet<>();
+            for (String line : result.getOut()) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length < 2 || !expected.containsKey(parts[1])) {
+                    continue;
+                }
+                if ("GADGET_WRITTEN".equals(parts[0])) {
+                    metrics.increment(DeployMetrics.GADGET_CONFIG_WRITES, 1);
+                    continue;
+                }
+                if ("GADGET_FAIL".equals(parts[0])) {
+                    Log.e(TAG, "Failed to deploy gadget config for: " + parts[1]);
+                    gadgetFailed.add(parts[1]);
+                    continue;
+                }
+                DeployedFile file = new DeployedFile();
+                file.packageName = parts[1];
+                if ("OK".equals(parts[0]) && parts.length == 3) {
+                    // OK <package> <size> <name>
+                    String[] sizeAndName = parts[2].split(" ", 2);
+                    file.status = DeployedFile.OK;
+                    file.name = sizeAndName.length > 1 ? sizeAndName[1] : sizeAndName[0];
+                    deployed.merge(parts[1], 1, Integer::sum);
+                    try {
+                        file.bytes = Long.parseLong(sizeAndName[0]);
+                        span.addBytes(file.bytes);
+                    } catch (NumberFormatException e) {
+                        // stat unavailable, only the byte counts are affected
+                    }
+                    report.files.add(file);
                 } else {
-                    // Try with su -c
-                    Shell.cmd("su -c 'rm -f \"" + configPath + "\"'").exec();
+                    Log.e(TAG, "Deploy " + line);
+                    if (parts.length == 3 && ("MISSING".equals(parts[0]) || "FAIL".equals(parts[0]))) {
+                        file.status = "MISSING".equals(parts[0]) ? DeployedFile.MISSING : DeployedFile.FAILED;
+                        file.name = parts[2];
+                        report.files.add(file);
+                    }
+                }
+            }
+            for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+                int count = deployed.getOrDefault(entry.getKey(), 0);
+                if (count < entry.getValue() || gadgetFailed.contains(entry.getKey())) {
+                    failed.add(entry.getKey());
                 }
             }
+            Log.i(TAG, "Batched deploy of " + expected.size() + " packages, " + failed.size() + " failed");
+            if (!failed.isEmpty()) {
+                span.fail();
+            }
+        } finally {
+            report.elapsedMs = (System.nanoTime() - start) / 1_000_000;
         }
-        
-        Log.i(TAG, "Cleanup complete for: " + packageName);
+        return report;
     }
     
-    // Deploy SO files for all enabled apps
-    public void deployAllSoFiles() {
-        for (Map.Entry<String, AppConfig> entry : config.perAppConfig.entrySet()) {
-            if (entry.getValue().enabled) {
-                deploySoFilesToApp(entry.getKey());
+    /**
+     * Check every enabled package's deployed files against the config in one shell round-trip
+     * @param deep also compare SO contents byte for byte, instead of size and modification time only
+     */
+    public DeployHealth.Report scanDeployments(boolean deep) {
+        long start = System.nanoTime();
+        try (DeployMetrics.Span span = metrics.start("health_scan")) {
+            List<DeployHealth.Entry> entries = new ArrayList<>();
+            for (String packageName : getEnabledPackages()) {
+                AppConfig appConfig = config().perAppConfig.get(packageName);
+                // null when the section is enabled but fails to decode
+                if (appConfig == null || appConfig.soFiles.isEmpty()) {
+                    continue;
+                }
+                GadgetConfig gadget = getAppGadgetConfig(packageName);
+                entries.addAll(DeployHealth.buildEntries(packageName, appConfig.soFiles,
+                        gadget != null ? gadget.gadgetName : null,
+                        gadget != null ? GadgetConfigRenderer.render(gadget).md5 : null));
             }
+            span.setLabel(entries.size() + " files");
+            DeployHealth.Report report;
+            if (entries.isEmpty()) {
+                report = new DeployHealth.Report();
+            } else {
+                Shell.Result result = exec(DeployHealth.buildScanScript(entries, deep).toArray(new String[0]));
+                report = DeployHealth.parse(entries, result.getOut());
+            }
+            report.elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            Log.i(TAG, "Health scan: " + report.packages + " packages, " + report.checkedFiles + " files, "
+                    + report.drifts.size() + " drifted in " + report.elapsedMs + " ms");
+            if (!report.isHealthy()) {
+                span.fail();
+            }
+            return report;
         }
     }
     
+    /**
+     * Redeploy only the drifted entries of {@code report}, in one batched round-trip
+     */
+    public DeployReport repairDrift(DeployHealth.Report report) {
+        Map<String, Set<String>> plan = report.getRepairPlan();
+        Log.i(TAG, "Repairing " + plan.size() + " packages: " + plan);
+        return deployBatch(plan.keySet(), plan);
+    }
+    
     /**
      * Public method to deploy SO files for a specific package
      * 为指定包名部署 SO 文件（外部调用）
@@ -675,12 +1171,15 @@ public class ConfigManager {
     
     // Data classes
     public static class ModuleConfig {
+        public int schemaVersion = ConfigSchema.CURRENT_VERSION;
         public boolean enabled = true;
         public boolean hideInjection = false;
         public int injectionDelay = 2; // Default 2 seconds
         public List<SoFile> globalSoFiles = new ArrayList<>();
-        public Map<String, AppConfig> perAppConfig = new HashMap<>();
         public GadgetConfig globalGadgetConfig = null; // Global gadget configuration
+        // Must stay last: the native parser takes everything up to the final '}' as perAppConfig
+        @JsonAdapter(value = AppConfigMap.AdapterFactory.class, nullSafe = false)
+        public Map<String, AppConfig> perAppConfig = new AppConfigMap();
     }
     
     public static class AppConfig {
@@ -689,12 +1188,36 @@ public class ConfigManager {
         public String injectionMethod = "standard"; // "standard", "riru" or "custom_linker"
         public GadgetConfig gadgetConfig = null;
         public boolean useGlobalGadget = true; // Whether to use global gadget settings
+        public String injectionTrigger = TRIGGER_DELAY; // "immediate", "delay", "library_loaded" or "first_activity"
+        public String triggerLibrary = null; // Library waited on by "library_loaded", e.g. libil2cpp.so
+        public Integer injectionDelayMs = null; // Per-app delay for "delay", null uses the global injectionDelay
+    }
+    
+    /**
+     * Outcome of {@link #deployForPackages}
+     */
+    public static class DeployReport {
+        public final List<String> failedPackages = new ArrayList<>();
+        public final List<DeployedFile> files = new ArrayList<>();
+        public long elapsedMs;
+    }
+    
+    public static class DeployedFile {
+        public static final String OK = "ok";
+        public static final String MISSING = "missing"; // Not in SO storage
+        public static final String FAILED = "failed";
+        
+        public String packageName;
+        public String name;
+        public String status;
+        public long bytes;
     }
     
     public static class SoFile {
         public String name;
         public String storedPath;
         public String originalPath;
+        public int loadGroup = 0; // Only used in AppConfig.soFiles: same group loads in order, groups load concurrently
         
         @Override
         public boolean equals(Object obj) {
@@ -716,5 +1239,21 @@ public class ConfigManager {
         public String scriptPath = "/data/local/tmp/script.js";
         // Common config
         public String gadgetName = "libgadget.so";
+        
+        GadgetConfig copy() {
+            GadgetConfig copy = new GadgetConfig();
+            copy.assign(this);
+            return copy;
+        }
+        
+        void assign(GadgetConfig other) {
+            mode = other.mode;
+            address = other.address;
+            port = other.port;
+            onPortConflict = other.onPortConflict;
+            onLoad = other.onLoad;
+            scriptPath = other.scriptPath;
+            gadgetName = other.gadgetName;
+        }
     }
 }
\ No newline at end of file
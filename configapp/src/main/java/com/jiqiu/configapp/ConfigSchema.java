@@ -0,0 +1,100 @@
+package com.jiqiu.configapp;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+
+/**
+ * Versioned decoding of config.json
+ *
+ * 版本 1：没有 schemaVersion 字段的旧配置，字段可能为 null；
+ * 版本 2：带 schemaVersion，perAppConfig 放在最后，每个 app 的段在首次访问时才解析（见 {@link AppConfigMap}）。
+ */
+final class ConfigSchema {
+    private static final String TAG = "ConfigSchema";
+
+    static final int CURRENT_VERSION = 2;
+
+    private ConfigSchema() {
+    }
+
+    /**
+     * Decode a config document, null if it is empty. Only the top level is decoded here;
+     * perAppConfig keeps each app's section raw until it is accessed.
+     */
+    static ConfigManager.ModuleConfig decode(Gson gson, CharSequence json) {
+        int start = JsonSlices.skipWhitespace(json, 0, json.length());
+        if (start == json.length()) {
+            return null;
+        }
+        if (json.charAt(start) != '{') {
+            // Not an object ("null" and the like): let Gson decide
+            return gson.fromJson(JsonSlices.reader(json, 0, json.length()), ConfigManager.ModuleConfig.class);
+        }
+
+        final int[] version = {1};
+        final int[] perApp = {-1, -1};
+        JsonSlices.forEachMember(json, start, json.length(), (name, valueStart, valueEnd) -> {
+            if ("schemaVersion".equals(name)) {
+                try {
+                    version[0] = Integer.parseInt(json.subSequence(valueStart, valueEnd).toString());
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Bad schemaVersion: " + json.subSequence(valueStart, valueEnd));
+                }
+            } else if ("perAppConfig".equals(name) && json.charAt(valueStart) == '{') {
+                perApp[0] = valueStart;
+                perApp[1] = valueEnd;
+            }
+        });
+
+        ConfigManager.ModuleConfig config;
+        if (perApp[0] < 0) {
+            config = gson.fromJson(JsonSlices.reader(json, 0, json.length()), ConfigManager.ModuleConfig.class);
+        } else {
+            // Decode everything but perAppConfig, whose members are only sliced; Gson reads around it in place
+            config = gson.fromJson(JsonSlices.splice(json, perApp[0], perApp[1], "{}"),
+                    ConfigManager.ModuleConfig.class);
+            config.perAppConfig = AppConfigMap.parse(gson, json, perApp[0], perApp[1], version[0]);
+        }
+        migrate(config, version[0]);
+        return config;
+    }
+
+    /**
+     * Bring the top level of a config read as {@code version} up to {@link #CURRENT_VERSION}
+     */
+    static void migrate(ConfigManager.ModuleConfig config, int version) {
+        if (version > CURRENT_VERSION) {
+            // 新版本 app 写的配置：按已知字段读取，保存时会以当前版本写回
+            Log.w(TAG, "Config schema " + version + " is newer than " + CURRENT_VERSION);
+        }
+        if (version < 2) {
+            if (config.globalSoFiles == null) {
+                config.globalSoFiles = new ArrayList<>();
+            }
+            if (config.perAppConfig == null) {
+                config.perAppConfig = new AppConfigMap();
+            }
+        }
+        config.schemaVersion = CURRENT_VERSION;
+    }
+
+    /**
+     * Bring one app's section read as {@code version} up to {@link #CURRENT_VERSION}
+     */
+    static void migrateApp(ConfigManager.AppConfig app, int version) {
+        if (version < 2) {
+            if (app.soFiles == null) {
+                app.soFiles = new ArrayList<>();
+            }
+            if (app.injectionMethod == null) {
+                app.injectionMethod = "standard";
+            }
+            if (app.injectionTrigger == null) {
+                app.injectionTrigger = ConfigManager.TRIGGER_DELAY;
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.jiqiu.configapp;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares what the config says is deployed with what is in each app's files dir
+ *
+ * 扫描脚本对每个应用输出一行 P（数据目录属主），对每个期望的文件输出一行 F（SO、sidecar）或 C（gadget 配置），
+ * 全部在一次 shell 往返中完成；解析后只报告不一致的条目，修复时也只重新部署这些条目。
+ * 默认只比较大小、修改时间、属主、权限和 SELinux 类型；deep 模式额外逐字节比较 SO 内容。
+ */
+public class DeployHealth {
+
+    public static final String KIND_SO = "so";
+    public static final String KIND_SIDECAR = "sidecar";
+    public static final String KIND_GADGET_CONFIG = "gadget_config";
+
+    // Drift reasons
+    public static final String NO_APP = "no_app";                 // /data/data/<pkg> does not exist
+    public static final String SOURCE_MISSING = "source_missing"; // Not in SO storage; cannot be repaired
+    public static final String ABSENT = "absent";
+    public static final String SIZE = "size";
+    public static final String STALE = "stale";                   // Older than the stored copy
+    public static final String CONTENT = "content";
+    public static final String OWNER = "owner";
+    public static final String MODE = "mode";
+    public static final String LABEL = "label";
+
+    static final String SO_MODE = "755";
+    static final String DATA_MODE = "644";
+    static final String LABEL_TYPE = "app_data_file";
+
+    /**
+     * One file that should exist in a package's files dir
+     */
+    public static class Entry {
+        public final String packageName;
+        public final String name;
+        public final String kind;
+        // Stored copy for SO/sidecar; null for the gadget config
+        public final String source;
+        // Expected md5 of the gadget config; null otherwise
+        public final String md5;
+
+        Entry(String packageName, String name, String kind, String source, String md5) {
+            this.packageName = packageName;
+            this.name = name;
+            this.kind = kind;
+            this.source = source;
+            this.md5 = md5;
+        }
+
+        String getMode() {
+            return KIND_SO.equals(kind) ? SO_MODE : DATA_MODE;
+        }
+    }
+
+    public static class Drift {
+        public final String packageName;
+        public final String name;
+        public final String kind;
+        public final String reason;
+        public final String detail;
+
+        Drift(Entry entry, String reason, String detail) {
+            this(entry.packageName, entry.name, entry.kind, reason, detail);
+        }
+
+        Drift(String packageName, String name, String kind, String reason, String detail) {
+            this.packageName = packageName;
+            this.name = name;
+            this.kind = kind;
+            this.reason = reason;
+            this.detail = detail;
+        }
+
+        public boolean isRepairable() {
+            return !NO_APP.equals(reason) && !SOURCE_MISSING.equals(reason);
+        }
+
+        @Override
+        public String toString() {
+            return packageName + "/" + name + ": " + reason + (detail != null ? " (" + detail + ")" : "");
+        }
+    }
+
+    public static class Report {
+        public int packages;
+        public int checkedFiles;
+        public final List<Drift> drifts = new ArrayList<>();
+        public long elapsedMs;
+
+        public boolean isHealthy() {
+            return drifts.isEmpty();
+        }
+
+        /**
+         * Packages with at least one repairable drift, mapped to the SO names to redeploy;
+         * a drifted sidecar redeploys its SO, a drifted gadget config is listed under {@link #KIND_GADGET_CONFIG}
+         */
+        public Map<String, Set<String>> getRepairPlan() {
+            Map<String, Set<String>> plan = new LinkedHashMap<>();
+            for (Drift drift : drifts) {
+                if (!drift.isRepairable()) {
+                    continue;
+                }
+                String name = drift.name;
+                if (KIND_SIDECAR.equals(drift.kind)) {
+                    name = name.substring(0, name.length() - SoPreflight.SIDECAR_SUFFIX.length());
+                } else if (KIND_GADGET_CONFIG.equals(drift.kind)) {
+                    name = KIND_GADGET_CONFIG;
+                }
+                plan.computeIfAbsent(drift.packageName, k -> new LinkedHashSet<>()).add(name);
+            }
+            return plan;
+        }
+    }
+
+    // $1 package, $2 files dir, $3 source, $4 name, $5 1 = skip silently if the source is missing, $6 1 = deep
+    // 源文件和部署文件用同一次 stat，每个文件只 fork 一次（deep 模式再加一次 cmp）
+    private static final String CHECK_FUNCTION = "chk() {"
+            + " if [ ! -f \"$3\" ]; then [ \"$5\" = 1 ] || echo \"F $1 missing $4\"; return; fi;"
+            + " t=\"$2/$4\"; if [ ! -f \"$t\" ]; then echo \"F $1 absent $4\"; return; fi;"
+            + " c=-; if [ \"$6\" = 1 ]; then cmp -s \"$3\" \"$t\" && c=1 || c=0; fi;"
+            + " r=$(stat -c '%s %Y %u %a %C' \"$3\" \"$t\" 2>/dev/null); echo \"F $1\" $r \"$c $4\"; }";
+
+    // $1 package, $2 target
+    private static final String CONFIG_FUNCTION = "chkcfg() {"
+            + " if [ ! -f \"$2\" ]; then echo \"C $1 absent ${2##*/}\"; return; fi;"
+            + " m=$(md5sum \"$2\"); r=$(stat -c '%u %a %C' \"$2\" 2>/dev/null);"
+            + " echo \"C $1 ${m%% *}\" $r \"${2##*/}\"; }";
+
+    /**
+     * Everything to check for one package: its SO files, their sidecars and the gadget config
+     * @param gadgetConfigMd5 md5 of the content the gadget config should have, null if the package has none
+     */
+    public static List<Entry> buildEntries(String packageName, List<ConfigManager.SoFile> soFiles,
+                                           String gadgetName, String gadgetConfigMd5) {
+        List<Entry> entries = new ArrayList<>();
+        for (ConfigManager.SoFile soFile : soFiles) {
+            entries.add(new Entry(packageName, soFile.name, KIND_SO, soFile.storedPath, null));
+            entries.add(new Entry(packageName, soFile.name + SoPreflight.SIDECAR_SUFFIX, KIND_SIDECAR,
+                    soFile.storedPath + SoPreflight.SIDECAR_SUFFIX, null));
+        }
+        if (gadgetConfigMd5 != null) {
+            entries.add(new Entry(packageName, gadgetName.replace(".so", ".config.so"), KIND_GADGET_CONFIG,
+                    null, gadgetConfigMd5));
+        }
+        return entries;
+    }
+
+    /**
+     * The scan as one script, entries grouped by package in the given order
+     */
+    public static List<String> buildScanScript(List<Entry> entries, boolean deep) {
+        List<String> script = new ArrayList<>();
+        script.add(CHECK_FUNCTION);
+        script.add(CONFIG_FUNCTION);
+        Map<String, List<Entry>> byPackage = groupByPackage(entries);
+        for (Map.Entry<String, List<Entry>> group : byPackage.entrySet()) {
+            String packageName = group.getKey();
+            String filesDir = "/data/data/" + packageName + "/files";
+            StringBuilder block = new StringBuilder()
+                    .append("u=$(stat -c %u /data/data/").append(packageName).append(" 2>/dev/null);")
+                    .append(" echo \"P ").append(packageName).append(" ${u:--}\";")
+                    .append(" if [ -n \"$u\" ]; then");
+            for (Entry entry : group.getValue()) {
+                if (KIND_GADGET_CONFIG.equals(entry.kind)) {
+                    block.append(" chkcfg ").append(packageName).append(" \"").append(filesDir).append('/')
+                            .append(entry.name).append("\";");
+                } else {
+                    block.append(" chk ").append(packageName).append(" \"").append(filesDir).append("\" \"")
+                            .append(entry.source).append("\" \"").append(entry.name).append("\" ")
+                            .append(KIND_SIDECAR.equals(entry.kind) ? '1' : '0').append(' ')
+                            .append(deep && KIND_SO.equals(entry.kind) ? '1' : '0').append(';');
+                }
+            }
+            block.append(" fi");
+            script.add(block.toString());
+        }
+        return script;
+    }
+
+    /**
+     * Compare the scan output with {@code entries}; entries without a line count as not checked
+     */
+    public static Report parse(List<Entry> entries, Iterable<String> lines) {
+        Map<String, List<Entry>> byPackage = groupByPackage(entries);
+        Map<String, Entry> byKey = new HashMap<>();
+        for (Entry entry : entries) {
+            byKey.put(entry.packageName + "/" + entry.name, entry);
+        }
+        Map<String, String> owners = new HashMap<>();
+        Report report = new Report();
+        report.packages = byPackage.size();
+        for (String line : lines) {
+            String[] parts = line.split(" ");
+            if (parts.length < 3) {
+                continue;
+            }
+            String packageName = parts[1];
+            if ("P".equals(parts[0])) {
+                owners.put(packageName, parts[2]);
+                if ("-".equals(parts[2]) && byPackage.containsKey(packageName)) {
+                    report.drifts.add(new Drift(packageName, "", "", NO_APP, null));
+                }
+            } else if ("F".equals(parts[0]) && (parts.length == 4 || parts.length == 14)) {
+                Entry entry = byKey.get(packageName + "/" + parts[parts.length - 1]);
+                if (entry != null) {
+                    report.checkedFiles++;
+                    checkFile(report, entry, parts, owners.get(packageName));
+                }
+            } else if ("C".equals(parts[0]) && (parts.length == 4 || parts.length == 7)) {
+                Entry entry = byKey.get(packageName + "/" + parts[parts.length - 1]);
+                if (entry != null) {
+                    report.checkedFiles++;
+                    checkConfig(report, entry, parts, owners.get(packageName));
+                }
+            }
+        }
+        return report;
+    }
+
+    // F <pkg> missing|absent <name>
+    // F <pkg> <size> <mtime> <uid> <mode> <label> (stored copy) <size> <mtime> <uid> <mode> <label> (deployed) <same> <name>
+    private static void checkFile(Report report, Entry entry, String[] parts, String owner) {
+        if (parts.length == 4) {
+            report.drifts.add("missing".equals(parts[2])
+                    ? new Drift(entry, SOURCE_MISSING, entry.source) : new Drift(entry, ABSENT, null));
+            return;
+        }
+        if (!parts[2].equals(parts[7])) {
+            report.drifts.add(new Drift(entry, SIZE, parts[7] + " != " + parts[2]));
+        } else if ("0".equals(parts[12])) {
+            report.drifts.add(new Drift(entry, CONTENT, null));
+        } else if (compareNumbers(parts[8], parts[3]) < 0) {
+            // cp 不保留时间戳，部署后的文件比仓库中的旧说明仓库里的 SO 被替换过
+            report.drifts.add(new Drift(entry, STALE, null));
+        }
+        checkAttributes(report, entry, owner, parts[9], parts[10], parts[11]);
+    }
+
+    // C <pkg> absent <name>
+    // C <pkg> <md5> <uid> <mode> <label> <name>
+    private static void checkConfig(Report report, Entry entry, String[] parts, String owner) {
+        if (parts.length == 4) {
+            report.drifts.add(new Drift(entry, ABSENT, null));
+            return;
+        }
+        if (!parts[2].equalsIgnoreCase(entry.md5)) {
+            report.drifts.add(new Drift(entry, CONTENT, null));
+        }
+        checkAttributes(report, entry, owner, parts[3], parts[4], parts[5]);
+    }
+
+    private static void checkAttributes(Report report, Entry entry, String owner, String uid, String mode,
+                                        String label) {
+        if (owner != null && !"-".equals(owner) && !owner.equals(uid)) {
+            report.drifts.add(new Drift(entry, OWNER, uid + " != " + owner));
+        }
+        if (!entry.getMode().equals(mode)) {
+            report.drifts.add(new Drift(entry, MODE, mode));
+        }
+        // 没有 SELinux 时 stat 输出 '?'；应用数据文件可能带 MLS 类别，只比较类型
+        if (!"?".equals(label)) {
+            String[] fields = label.split(":");
+            if (fields.length < 3 || !LABEL_TYPE.equals(fields[2])) {
+                report.drifts.add(new Drift(entry, LABEL, label));
+            }
+        }
+    }
+
+    private static int compareNumbers(String a, String b) {
+        try {
+            return Long.compare(Long.parseLong(a), Long.parseLong(b));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Map<String, List<Entry>> groupByPackage(List<Entry> entries) {
+        Map<String, List<Entry>> byPackage = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            byPackage.computeIfAbsent(entry.packageName, k -> new ArrayList<>()).add(entry);
+        }
+        return byPackage;
+    }
+
+    static String md5Hex(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
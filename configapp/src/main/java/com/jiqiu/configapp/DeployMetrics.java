@@ -0,0 +1,355 @@
+package com.jiqiu.configapp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Spans, counters and histograms for deployment work in {@link ConfigManager}
+ * 进程内共享一份；每个线程有自己的当前 span，shell 往返自动记到当前 span 上。
+ *
+ * <pre>
+ * try (DeployMetrics.Span span = metrics.start("deploy")) {
+ *     span.setLabel(packageName);
+ *     ...
+ * }
+ * </pre>
+ */
+public class DeployMetrics {
+
+    public static final int MAX_RECENT_SPANS = 32;
+
+    // Shared counter / histogram names
+    public static final String SHELL_ROUND_TRIPS = "shell.round_trips";
+    public static final String SHELL_COMMANDS = "shell.commands";
+    public static final String SHELL_FAILURES = "shell.failures";
+    public static final String SHELL_ROUND_TRIP_MS = "shell.round_trip_ms";
+    public static final String BYTES_COPIED = "bytes.copied";
+    public static final String GADGET_CONFIG_WRITES = "gadget_config.writes";
+
+    private static final DeployMetrics INSTANCE = new DeployMetrics();
+
+    public static DeployMetrics get() {
+        return INSTANCE;
+    }
+
+    private final ThreadLocal<Span> current = new ThreadLocal<>();
+    private final Map<String, Long> counters = new TreeMap<>();
+    private final Map<String, Histogram> histograms = new TreeMap<>();
+    private final ArrayDeque<Span> recentSpans = new ArrayDeque<>();
+
+    public class Span implements AutoCloseable {
+        public final String name;
+        public final Span parent;
+        private final long startNanos;
+        private long endNanos = -1;
+        private String label;
+        private int shellCalls;
+        private long shellNanos;
+        private long bytes;
+        private boolean failed;
+        private final List<Span> children = new ArrayList<>();
+
+        Span(String name, Span parent) {
+            this.name = name;
+            this.parent = parent;
+            this.startNanos = System.nanoTime();
+        }
+
+        public void setLabel(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public void addBytes(long count) {
+            bytes += count;
+            increment(BYTES_COPIED, count);
+        }
+
+        public void fail() {
+            failed = true;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Shell round-trips made while this span was the innermost one
+         */
+        public int getShellCalls() {
+            return shellCalls;
+        }
+
+        /**
+         * Shell round-trips of this span and all of its children
+         */
+        public int getTotalShellCalls() {
+            int total = shellCalls;
+            for (Span child : getChildren()) {
+                total += child.getTotalShellCalls();
+            }
+            return total;
+        }
+
+        public long getDurationNanos() {
+            return (endNanos < 0 ? System.nanoTime() : endNanos) - startNanos;
+        }
+
+        public List<Span> getChildren() {
+            synchronized (children) {
+                return new ArrayList<>(children);
+            }
+        }
+
+        public List<Span> getChildren(String childName) {
+            List<Span> result = new ArrayList<>();
+            for (Span child : getChildren()) {
+                if (child.name.equals(childName)) {
+                    result.add(child);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void close() {
+            if (endNanos >= 0) {
+                return;
+            }
+            endNanos = System.nanoTime();
+            if (current.get() == this) {
+                current.set(parent);
+            }
+            record("span." + name + "_ms", getDurationNanos() / 1_000_000);
+            if (parent == null) {
+                synchronized (recentSpans) {
+                    recentSpans.addLast(this);
+                    while (recentSpans.size() > MAX_RECENT_SPANS) {
+                        recentSpans.removeFirst();
+                    }
+                }
+            }
+        }
+
+        // 同名子 span 合并成一行，避免每个 SO 文件都占几行
+        void dump(List<String> out, String indent) {
+            out.add(String.format(Locale.US, "%s%s%s %.1fms shell=%d (%.1fms)%s%s", indent, name,
+                    label != null ? " [" + label + "]" : "", getDurationNanos() / 1e6, shellCalls,
+                    shellNanos / 1e6, bytes > 0 ? " bytes=" + bytes : "", failed ? " FAILED" : ""));
+            Map<String, List<Span>> byName = new LinkedHashMap<>();
+            for (Span child : getChildren()) {
+                List<Span> group = byName.get(child.name);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    byName.put(child.name, group);
+                }
+                group.add(child);
+            }
+            for (List<Span> group : byName.values()) {
+                if (group.size() == 1) {
+                    group.get(0).dump(out, indent + "  ");
+                    continue;
+                }
+                long nanos = 0, groupShellNanos = 0, groupBytes = 0;
+                int calls = 0, failures = 0;
+                for (Span span : group) {
+                    nanos += span.getDurationNanos();
+                    calls += span.getTotalShellCalls();
+                    groupShellNanos += span.shellNanos;
+                    groupBytes += span.bytes;
+                    failures += span.failed ? 1 : 0;
+                }
+                out.add(String.format(Locale.US, "%s  %s x%d %.1fms shell=%d (%.1fms)%s%s", indent,
+                        group.get(0).name, group.size(), nanos / 1e6, calls, groupShellNanos / 1e6,
+                        groupBytes > 0 ? " bytes=" + groupBytes : "",
+                        failures > 0 ? " FAILED=" + failures : ""));
+            }
+        }
+    }
+
+    /**
+     * Fixed exponential buckets in milliseconds, enough for shell round-trips and whole deploys
+     */
+    public static class Histogram {
+        static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+        private final long[] buckets = new long[BOUNDS.length + 1];
+        private long count;
+        private long sum;
+        private long max;
+
+        synchronized void add(long value) {
+            int i = 0;
+            while (i < BOUNDS.length && value > BOUNDS[i]) {
+                i++;
+            }
+            buckets[i]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getSum() {
+            return sum;
+        }
+
+        public synchronized long getMax() {
+            return max;
+        }
+
+        /**
+         * Upper bound of the bucket holding the p-th percentile, capped at the observed max
+         */
+        public synchronized long percentile(int p) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(p / 100.0 * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return i < BOUNDS.length ? Math.min(BOUNDS[i], max) : max;
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Start a span nested in this thread's current span; close it to end it
+     */
+    public Span start(String name) {
+        Span parent = current.get();
+        Span span = new Span(name, parent);
+        if (parent != null) {
+            synchronized (parent.children) {
+                parent.children.add(span);
+            }
+        }
+        current.set(span);
+        return span;
+    }
+
+    public Span current() {
+        return current.get();
+    }
+
+    /**
+     * Account one shell round-trip to the counters and to this thread's current span
+     */
+    public void recordShell(int commands, long nanos, boolean success) {
+        increment(SHELL_ROUND_TRIPS, 1);
+        increment(SHELL_COMMANDS, commands);
+        if (!success) {
+            increment(SHELL_FAILURES, 1);
+        }
+        record(SHELL_ROUND_TRIP_MS, nanos / 1_000_000);
+        Span span = current.get();
+        if (span != null) {
+            span.shellCalls++;
+            span.shellNanos += nanos;
+        }
+    }
+
+    public void increment(String counter, long delta) {
+        synchronized (counters) {
+            Long value = counters.get(counter);
+            counters.put(counter, (value != null ? value : 0) + delta);
+        }
+    }
+
+    public long getCounter(String counter) {
+        synchronized (counters) {
+            Long value = counters.get(counter);
+            return value != null ? value : 0;
+        }
+    }
+
+    public void record(String histogram, long valueMs) {
+        Histogram target;
+        synchronized (histograms) {
+            target = histograms.get(histogram);
+            if (target == null) {
+                target = new Histogram();
+                histograms.put(histogram, target);
+            }
+        }
+        target.add(valueMs);
+    }
+
+    public Histogram getHistogram(String histogram) {
+        synchronized (histograms) {
+            return histograms.get(histogram);
+        }
+    }
+
+    /**
+     * Finished top-level spans, oldest first
+     */
+    public List<Span> getRecentSpans() {
+        synchronized (recentSpans) {
+            return new ArrayList<>(recentSpans);
+        }
+    }
+
+    public void reset() {
+        synchronized (counters) {
+            counters.clear();
+        }
+        synchronized (histograms) {
+            histograms.clear();
+        }
+        synchronized (recentSpans) {
+            recentSpans.clear();
+        }
+    }
+
+    /**
+     * Human readable snapshot: counters, histograms, then the recent span trees
+     */
+    public List<String> dump() {
+        List<String> out = new ArrayList<>();
+        out.add("== counters ==");
+        synchronized (counters) {
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                out.add(entry.getKey() + " = " + entry.getValue());
+            }
+        }
+        out.add("== histograms (ms) ==");
+        Map<String, Histogram> snapshot;
+        synchronized (histograms) {
+            snapshot = new TreeMap<>(histograms);
+        }
+        for (Map.Entry<String, Histogram> entry : snapshot.entrySet()) {
+            Histogram h = entry.getValue();
+            out.add(String.format(Locale.US, "%s count=%d sum=%d p50<=%d p90<=%d p99<=%d max=%d",
+                    entry.getKey(), h.getCount(), h.getSum(), h.percentile(50), h.percentile(90),
+                    h.percentile(99), h.getMax()));
+        }
+        out.add("== recent spans ==");
+        List<Span> spans = getRecentSpans();
+        Collections.reverse(spans);
+        for (Span span : spans) {
+            span.dump(out, "");
+        }
+        return out;
+    }
+}
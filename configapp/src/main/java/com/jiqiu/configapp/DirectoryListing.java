@@ -0,0 +1,186 @@
+package com.jiqiu.configapp;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Root-backed directory listing in a single shell round-trip
+ * 一次 root 调用获取目录下所有条目的名称、类型、大小和修改时间
+ *
+ * 输出格式为每条记录 "type/size/mtime/mode/name"，find -printf 用 NUL 结尾，
+ * 不支持 -printf 的 toybox 回退到 stat -c（换行结尾）。文件名中不可能出现 '/'，
+ * 所以用它做字段分隔符是安全的。目录自身以 "." 记录输出，用于取得目录 mtime。
+ */
+public class DirectoryListing {
+
+    public static class Listing {
+        public final String path;
+        public final long mtime; // mtime of the directory itself, -1 if unknown
+        public final List<Entry> entries;
+
+        Listing(String path, long mtime, List<Entry> entries) {
+            this.path = path;
+            this.mtime = mtime;
+            this.entries = entries;
+        }
+    }
+
+    public static class Entry {
+        public final String name;
+        public final boolean isDirectory;
+        public final long size;
+        public final long mtime; // seconds since epoch
+        public final int mode;
+
+        Entry(String name, boolean isDirectory, long size, long mtime, int mode) {
+            this.name = name;
+            this.isDirectory = isDirectory;
+            this.size = size;
+            this.mtime = mtime;
+            this.mode = mode;
+        }
+
+        public boolean isReadable() {
+            return (mode & 0400) != 0;
+        }
+    }
+
+    /**
+     * Build the shell command listing {@code path} in one pass
+     */
+    public static String buildListCommand(String path) {
+        return "cd " + quote(path) + " && if find / -maxdepth 0 -printf '' >/dev/null 2>&1; then "
+                + "find . -maxdepth 1 -printf '%Y/%s/%T@/%m/%f\\0' 2>/dev/null; "
+                + "else stat -L -c '%F/%s/%Y/%a/%n' -- . * .[!.]* 2>/dev/null; fi";
+    }
+
+    /**
+     * Build the shell command printing only the directory's mtime in seconds
+     */
+    public static String buildMtimeCommand(String path) {
+        return "stat -L -c %Y " + quote(path) + " 2>/dev/null";
+    }
+
+    private static String quote(String path) {
+        return "\"" + path.replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * List a directory through the root shell. Must not be called on the main thread.
+     * @param fileFilter file name suffix to keep (directories are always kept), or null for all
+     */
+    public static Listing list(ShellExecutor shell, String path, String fileFilter) {
+        Shell.Result result = shell.run(buildListCommand(path));
+        // libsu splits stdout on '\n'; joining restores the raw NUL/newline separated stream
+        return parse(path, String.join("\n", result.getOut()), fileFilter);
+    }
+
+    /**
+     * Read a directory's mtime through the root shell, -1 if it cannot be determined
+     */
+    public static long getMtime(ShellExecutor shell, String path) {
+        Shell.Result result = shell.run(buildMtimeCommand(path));
+        if (!result.isSuccess() || result.getOut().isEmpty()) {
+            return -1;
+        }
+        String line = result.getOut().get(0).trim();
+        return line.isEmpty() ? -1 : parseLong(line, 0, line.length());
+    }
+
+    /**
+     * Parse the output of {@link #buildListCommand(String)}
+     * @param fileFilter file name suffix to keep (directories are always kept), or null for all
+     */
+    public static Listing parse(String path, String output, String fileFilter) {
+        List<Entry> entries = new ArrayList<>();
+        long dirMtime = -1;
+        if (output == null || output.isEmpty()) {
+            return new Listing(path, dirMtime, entries);
+        }
+
+        char terminator = output.indexOf('\0') >= 0 ? '\0' : '\n';
+        int length = output.length();
+        int start = 0;
+        while (start < length) {
+            int end = output.indexOf(terminator, start);
+            if (end < 0) end = length;
+            if (end > start) {
+                Entry entry = parseRecord(output, start, end, fileFilter);
+                if (entry == null) {
+                    // skipped
+                } else if (".".equals(entry.name)) {
+                    dirMtime = entry.mtime;
+                } else {
+                    entries.add(entry);
+                }
+            }
+            start = end + 1;
+        }
+        return new Listing(path, dirMtime, entries);
+    }
+
+    private static Entry parseRecord(String s, int start, int end, String fileFilter) {
+        int s1 = s.indexOf('/', start);
+        int s2 = s1 < 0 ? -1 : s.indexOf('/', s1 + 1);
+        int s3 = s2 < 0 ? -1 : s.indexOf('/', s2 + 1);
+        int s4 = s3 < 0 ? -1 : s.indexOf('/', s3 + 1);
+        if (s4 < 0 || s4 >= end) {
+            return null;
+        }
+
+        String name = s.substring(s4 + 1, end);
+        if (name.isEmpty() || "..".equals(name)) {
+            return null;
+        }
+
+        boolean isDirectory;
+        char type = s.charAt(start);
+        if (s1 - start == 1) {
+            // find %Y: d = directory, f = regular file, anything else is skipped
+            if (type == 'd') {
+                isDirectory = true;
+            } else if (type == 'f') {
+                isDirectory = false;
+            } else {
+                return null;
+            }
+        } else if (s.startsWith("directory", start)) {
+            isDirectory = true;
+        } else if (s.startsWith("regular", start)) {
+            isDirectory = false;
+        } else {
+            return null;
+        }
+
+        if (!isDirectory && fileFilter != null && !name.endsWith(fileFilter)) {
+            return null;
+        }
+
+        long size = parseLong(s, s1 + 1, s2);
+        long mtime = parseLong(s, s2 + 1, s3); // %T@ has a fractional part, parseLong stops at '.'
+        int mode = (int) parseOctal(s, s3 + 1, s4);
+        return new Entry(name, isDirectory, size, mtime, mode);
+    }
+
+    private static long parseLong(String s, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') break;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long parseOctal(String s, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '7') break;
+            value = value * 8 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,115 @@
+package com.jiqiu.configapp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of directory listings, validated against the directory's mtime
+ * 目录的 mtime 在增删/重命名条目时变化，命中缓存只需一次 stat 而不是完整列举
+ *
+ * 注意：文件内容变化不会改变目录 mtime，缓存中的文件大小可能过期，
+ * 需要最新数据时调用 {@link #invalidate(String)}。
+ */
+public class DirectoryListingCache {
+
+    /**
+     * Where listings and directory mtimes come from, the root shell in production
+     */
+    public interface Source {
+        DirectoryListing.Listing list(String path);
+
+        long getMtime(String path);
+    }
+
+    /**
+     * Listings read through {@code shell}
+     */
+    public static Source shellSource(final ShellExecutor shell) {
+        return new Source() {
+            @Override
+            public DirectoryListing.Listing list(String path) {
+                return DirectoryListing.list(shell, path, null);
+            }
+
+            @Override
+            public long getMtime(String path) {
+                return DirectoryListing.getMtime(shell, path);
+            }
+        };
+    }
+
+    private final Source source;
+    private final LinkedHashMap<String, DirectoryListing.Listing> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public DirectoryListingCache(final int capacity, Source source) {
+        this.source = source;
+        this.cache = new LinkedHashMap<String, DirectoryListing.Listing>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DirectoryListing.Listing> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the cached listing without touching the shell, or null.
+     * 用于立即显示，之后应在后台调用 {@link #get(String)} 校验。
+     */
+    public synchronized DirectoryListing.Listing peek(String path) {
+        return cache.get(path);
+    }
+
+    /**
+     * Return a listing that is current as of the directory's mtime.
+     * Must not be called on the main thread.
+     */
+    public DirectoryListing.Listing get(String path) {
+        DirectoryListing.Listing cached = peek(path);
+        if (cached != null && cached.mtime >= 0 && source.getMtime(path) == cached.mtime) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        return load(path);
+    }
+
+    /**
+     * Load {@code path} into the cache if it isn't there yet. Not counted as a hit or miss.
+     */
+    public void prefetch(String path) {
+        if (peek(path) == null) {
+            load(path);
+        }
+    }
+
+    public synchronized void invalidate(String path) {
+        cache.remove(path);
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    private DirectoryListing.Listing load(String path) {
+        DirectoryListing.Listing listing = source.list(path);
+        synchronized (this) {
+            cache.put(path, listing);
+        }
+        return listing;
+    }
+}
@@ -3,7 +3,10 @@ package com.jiqiu.configapp;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
+import android.text.format.Formatter;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
@@ -13,15 +16,19 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.topjohnwu.superuser.Shell;
-
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class FileBrowserActivity extends AppCompatActivity {
     
@@ -38,6 +45,22 @@ public class FileBrowserActivity extends AppCompatActivity {
     private String currentPath;
     private String fileFilter = ".so";
     
+    // Shared across browser instances so reopening the picker is instant too
+    private static final int CACHE_CAPACITY = 32;
+    private static final int PREFETCH_CHILDREN = 3;
+    private static DirectoryListingCache sharedCache;
+    private static ShellExecutor sharedCacheShell;
+    
+    private ShellExecutor shell;
+    private DirectoryListingCache listingCache;
+    
+    private final ExecutorService listExecutor = Executors.newSingleThreadExecutor();
+    // 预取在单独的线程上排队，切换目录时丢弃尚未开始的任务
+    private final ThreadPoolExecutor prefetchExecutor = new ThreadPoolExecutor(
+            1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    private volatile int loadGeneration = 0;
+    private SoSearch activeSearch;
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -66,8 +89,11 @@ public class FileBrowserActivity extends AppCompatActivity {
             fileFilter = ".so";
         }
         
+        shell = ShellExecutor.of(this);
+        listingCache = getListingCache(shell);
+        
         // Check if we have root access
-        if (!Shell.getShell().isRoot()) {
+        if (!shell.isRoot()) {
             Toast.makeText(this, "需要Root权限才能浏览文件", Toast.LENGTH_LONG).show();
             Log.e(TAG, "No root access");
         }
@@ -76,94 +102,53 @@ public class FileBrowserActivity extends AppCompatActivity {
         loadFiles();
     }
     
+    // 缓存跟随 shell：换了执行器（例如测试里的本地沙盒）就不能复用旧的列表
+    private static synchronized DirectoryListingCache getListingCache(ShellExecutor shell) {
+        if (sharedCache == null || sharedCacheShell != shell) {
+            sharedCache = new DirectoryListingCache(CACHE_CAPACITY, DirectoryListingCache.shellSource(shell));
+            sharedCacheShell = shell;
+        }
+        return sharedCache;
+    }
+    
     private void loadFiles() {
+        cancelSearch();
         currentPathText.setText(currentPath);
         
-        List<FileItem> items = new ArrayList<>();
-        
-        // Add parent directory if not root
-        if (!"/".equals(currentPath)) {
-            items.add(new FileItem("..", true, true));
-        }
-        
-        // List files using root
-        Log.d(TAG, "Loading files from: " + currentPath);
-        Shell.Result result = Shell.cmd("ls -la " + currentPath + " 2>/dev/null").exec();
-        Log.d(TAG, "ls command success: " + result.isSuccess() + ", output lines: " + result.getOut().size());
+        // Listing runs on the background executor; drop results for directories we already left
+        final String path = currentPath;
+        final String filter = fileFilter;
+        final int generation = ++loadGeneration;
+        prefetchExecutor.getQueue().clear();
         
-        if (result.isSuccess()) {
-            for (String line : result.getOut()) {
-                // Skip empty lines, total line, and symbolic links
-                if (line.trim().isEmpty() || line.startsWith("total") || line.contains("->")) {
-                    continue;
-                }
-                
-                // Try to parse ls output - handle different formats
-                String name = null;
-                boolean isDirectory = false;
-                boolean isReadable = true;
-                
-                // Check if line starts with permissions (drwxr-xr-x format)
-                if (line.matches("^[dlrwxst-]{10}.*")) {
-                    String[] parts = line.split("\\s+", 9);
-                    if (parts.length >= 9) {
-                        String permissions = parts[0];
-                        name = parts[parts.length - 1];
-                        isDirectory = permissions.startsWith("d");
-                        isReadable = permissions.length() > 1 && permissions.charAt(1) == 'r';
-                    }
-                } else {
-                    // Simple format, just the filename
-                    name = line.trim();
-                    // Check if it's a directory by trying to list it
-                    Shell.Result dirCheck = Shell.cmd("test -d \"" + currentPath + "/" + name + "\" && echo 'dir'").exec();
-                    isDirectory = dirCheck.isSuccess() && !dirCheck.getOut().isEmpty();
-                }
-                
-                if (name != null && !".".equals(name) && !"..".equals(name)) {
-                    // Filter files by extension
-                    if (!isDirectory && fileFilter != null && !name.endsWith(fileFilter)) {
-                        continue;
-                    }
-                    
-                    items.add(new FileItem(name, isDirectory, isReadable));
-                }
+        listExecutor.execute(() -> {
+            if (generation != loadGeneration) {
+                return;
             }
-        } else {
-            // If ls fails, try a simpler approach
-            Shell.Result simpleResult = Shell.cmd("cd " + currentPath + " && for f in *; do echo \"$f\"; done").exec();
-            if (simpleResult.isSuccess()) {
-                for (String name : simpleResult.getOut()) {
-                    if (!name.trim().isEmpty() && !"*".equals(name)) {
-                        Shell.Result dirCheck = Shell.cmd("test -d \"" + currentPath + "/" + name + "\" && echo 'dir'").exec();
-                        boolean isDirectory = dirCheck.isSuccess() && !dirCheck.getOut().isEmpty();
-                        
-                        // Filter files by extension
-                        if (!isDirectory && fileFilter != null && !name.endsWith(fileFilter)) {
-                            continue;
-                        }
-                        
-                        items.add(new FileItem(name, isDirectory, true));
-                    }
-                }
+            // Show the cached listing right away, then confirm it against the directory mtime
+            DirectoryListing.Listing cached = listingCache.peek(path);
+            if (cached != null) {
+                showItems(generation, buildItems(cached, path, filter));
             }
-        }
-        
-        // If still no items and not root, add some common directories to try
-        if (items.size() <= 1 && "/data/local/tmp".equals(currentPath)) {
-            // Try to create a test file to verify access
-            Shell.cmd("touch /data/local/tmp/test_access.tmp && rm /data/local/tmp/test_access.tmp").exec();
             
-            // Add any .so files we can find
-            Shell.Result findResult = Shell.cmd("find " + currentPath + " -maxdepth 1 -name '*.so' -type f 2>/dev/null").exec();
-            if (findResult.isSuccess()) {
-                for (String path : findResult.getOut()) {
-                    if (!path.trim().isEmpty()) {
-                        String name = path.substring(path.lastIndexOf('/') + 1);
-                        items.add(new FileItem(name, false, true));
-                    }
-                }
+            Log.d(TAG, "Loading files from: " + path);
+            DirectoryListing.Listing listing = listingCache.get(path);
+            if (listing != cached) {
+                Log.d(TAG, "Listed " + listing.entries.size() + " entries in " + path);
+                showItems(generation, buildItems(listing, path, filter));
             }
+            
+            schedulePrefetch(generation, listing);
+        });
+    }
+    
+    private List<FileItem> buildItems(DirectoryListing.Listing listing, String path, String filter) {
+        List<FileItem> items = new ArrayList<>(listing.entries.size() + 1);
+        for (DirectoryListing.Entry entry : listing.entries) {
+            if (!entry.isDirectory && filter != null && !entry.name.endsWith(filter)) {
+                continue;
+            }
+            items.add(new FileItem(entry.name, entry.isDirectory, entry.isReadable(), entry.size));
         }
         
         Collections.sort(items, (a, b) -> {
@@ -173,8 +158,151 @@ public class FileBrowserActivity extends AppCompatActivity {
             return a.name.compareToIgnoreCase(b.name);
         });
         
-        adapter.setItems(items);
-        emptyView.setVisibility(items.isEmpty() || (items.size() == 1 && "..".equals(items.get(0).name)) ? View.VISIBLE : View.GONE);
+        // Add parent directory if not root
+        if (!"/".equals(path)) {
+            items.add(0, new FileItem("..", true, true));
+        }
+        return items;
+    }
+    
+    private void showItems(int generation, List<FileItem> items) {
+        runOnUiThread(() -> {
+            if (generation != loadGeneration || isFinishing()) {
+                return;
+            }
+            adapter.setItems(items);
+            emptyView.setVisibility(items.isEmpty() || (items.size() == 1 && "..".equals(items.get(0).name)) ? View.VISIBLE : View.GONE);
+        });
+    }
+    
+    /**
+     * 预取父目录和最近修改的几个子目录，它们最可能是下一步打开的目录
+     */
+    private void schedulePrefetch(int generation, DirectoryListing.Listing listing) {
+        List<String> targets = new ArrayList<>();
+        if (!"/".equals(listing.path)) {
+            targets.add(parentOf(listing.path));
+        }
+        
+        List<DirectoryListing.Entry> dirs = new ArrayList<>();
+        for (DirectoryListing.Entry entry : listing.entries) {
+            if (entry.isDirectory && entry.isReadable()) {
+                dirs.add(entry);
+            }
+        }
+        Collections.sort(dirs, (a, b) -> Long.compare(b.mtime, a.mtime));
+        for (int i = 0; i < dirs.size() && i < PREFETCH_CHILDREN; i++) {
+            targets.add(childOf(listing.path, dirs.get(i).name));
+        }
+        
+        for (String target : targets) {
+            prefetchExecutor.execute(() -> {
+                if (generation == loadGeneration) {
+                    listingCache.prefetch(target);
+                }
+            });
+        }
+    }
+    
+    private static String parentOf(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return lastSlash > 0 ? path.substring(0, lastSlash) : "/";
+    }
+    
+    private static String childOf(String path, String name) {
+        return "/".equals(path) ? "/" + name : path + "/" + name;
+    }
+    
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_file_browser, menu);
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint("在当前目录下递归搜索");
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                startSearch(query);
+                searchView.clearFocus();
+                return true;
+            }
+            
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                return false;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+            
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                // Leaving search mode returns to the directory we searched from
+                loadFiles();
+                return true;
+            }
+        });
+        return true;
+    }
+    
+    /**
+     * 从当前目录开始递归搜索，结果逐条追加到列表中
+     */
+    private void startSearch(String query) {
+        cancelSearch();
+        final String root = currentPath;
+        final int generation = ++loadGeneration;
+        prefetchExecutor.getQueue().clear();
+        
+        adapter.setItems(new ArrayList<>());
+        emptyView.setVisibility(View.GONE);
+        currentPathText.setText("正在搜索 " + root + " …");
+        
+        activeSearch = SoSearch.start(shell, root, query, fileFilter, SoSearch.DEFAULT_MAX_DEPTH,
+                SoSearch.DEFAULT_TIMEOUT_MS, new SoSearch.Listener() {
+            @Override
+            public void onMatch(String path) {
+                if (generation != loadGeneration) {
+                    return;
+                }
+                int lastSlash = path.lastIndexOf('/');
+                FileItem item = new FileItem(path.substring(lastSlash + 1), false, true, -1);
+                item.fullPath = path;
+                adapter.addItem(item);
+                currentPathText.setText("正在搜索 " + root + " … (" + adapter.getItemCount() + ")");
+            }
+            
+            @Override
+            public void onFinished(int matchCount, boolean cancelled, boolean timedOut) {
+                if (generation != loadGeneration || cancelled) {
+                    return;
+                }
+                if (timedOut) {
+                    currentPathText.setText("搜索超时，已找到 " + matchCount + " 个结果: " + root);
+                } else {
+                    currentPathText.setText("找到 " + matchCount + " 个结果: " + root);
+                }
+                emptyView.setVisibility(matchCount == 0 ? View.VISIBLE : View.GONE);
+            }
+        });
+    }
+    
+    private void cancelSearch() {
+        if (activeSearch != null) {
+            activeSearch.cancel();
+            activeSearch = null;
+        }
+    }
+    
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cancelSearch();
+        listExecutor.shutdownNow();
+        prefetchExecutor.shutdownNow();
     }
     
     @Override
@@ -187,11 +315,18 @@ public class FileBrowserActivity extends AppCompatActivity {
         String name;
         boolean isDirectory;
         boolean isReadable;
+        long size;
+        String fullPath; // set for recursive search results
         
         FileItem(String name, boolean isDirectory, boolean isReadable) {
+            this(name, isDirectory, isReadable, 0);
+        }
+        
+        FileItem(String name, boolean isDirectory, boolean isReadable, long size) {
             this.name = name;
             this.isDirectory = isDirectory;
             this.isReadable = isReadable;
+            this.size = size;
         }
     }
     
@@ -203,6 +338,11 @@ public class FileBrowserActivity extends AppCompatActivity {
             notifyDataSetChanged();
         }
         
+        void addItem(FileItem item) {
+            items.add(item);
+            notifyItemInserted(items.size() - 1);
+        }
+        
         @NonNull
         @Override
         public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -239,9 +379,12 @@ public class FileBrowserActivity extends AppCompatActivity {
                 if (item.isDirectory) {
                     icon.setImageResource(android.R.drawable.ic_menu_agenda);
                     info.setText("文件夹");
+                } else if (item.fullPath != null) {
+                    icon.setImageResource(android.R.drawable.ic_menu_save);
+                    info.setText(item.fullPath.substring(0, Math.max(item.fullPath.lastIndexOf('/'), 1)));
                 } else {
                     icon.setImageResource(android.R.drawable.ic_menu_save);
-                    info.setText("SO文件");
+                    info.setText("SO文件 · " + Formatter.formatShortFileSize(itemView.getContext(), item.size));
                 }
                 
                 if (!item.isReadable) {
@@ -253,12 +396,7 @@ public class FileBrowserActivity extends AppCompatActivity {
                 itemView.setOnClickListener(v -> {
                     if ("..".equals(item.name)) {
                         // Go to parent directory
-                        int lastSlash = currentPath.lastIndexOf('/');
-                        if (lastSlash > 0) {
-                            currentPath = currentPath.substring(0, lastSlash);
-                        } else {
-                            currentPath = "/";
-                        }
+                        currentPath = parentOf(currentPath);
                         loadFiles();
                     } else if (item.isDirectory) {
                         if (!item.isReadable) {
@@ -266,15 +404,11 @@ public class FileBrowserActivity extends AppCompatActivity {
                                     "没有权限访问此目录", Toast.LENGTH_SHORT).show();
                             return;
                         }
-                        if ("/".equals(currentPath)) {
-                            currentPath = "/" + item.name;
-                        } else {
-                            currentPath = currentPath + "/" + item.name;
-                        }
+                        currentPath = childOf(currentPath, item.name);
                         loadFiles();
                     } else {
                         // File selected
-                        String selectedPath = currentPath + "/" + item.name;
+                        String selectedPath = item.fullPath != null ? item.fullPath : childOf(currentPath, item.name);
                         Intent resultIntent = new Intent();
                         resultIntent.putExtra(EXTRA_SELECTED_PATH, selectedPath);
                         setResult(Activity.RESULT_OK, resultIntent);
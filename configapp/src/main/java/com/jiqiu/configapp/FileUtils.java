@@ -67,7 +67,7 @@ public class FileUtils {
             }
             
             // Check if the path exists
-            Shell.Result result = Shell.cmd("test -f \"" + path + "\" && echo 'exists'").exec();
+            Shell.Result result = ShellExecutor.of(context).run("test -f \"" + path + "\" && echo 'exists'");
             if (result.isSuccess() && !result.getOut().isEmpty()) {
                 return path;
             }
@@ -117,10 +117,10 @@ public class FileUtils {
             
             // First copy to /data/local/tmp as a temporary location
             String tempTargetPath = "/data/local/tmp/" + fileName;
-            Shell.Result result = Shell.cmd(
+            Shell.Result result = ShellExecutor.of(context).run(
                 "cp \"" + tempFile.getAbsolutePath() + "\" \"" + tempTargetPath + "\"",
                 "chmod 644 \"" + tempTargetPath + "\""
-            ).exec();
+            );
             
             // Clean up temp file
             tempFile.delete();
@@ -2,7 +2,10 @@ package com.jiqiu.configapp;
 
 import android.app.Dialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.LayoutInflater;
@@ -27,8 +30,8 @@ import androidx.fragment.app.DialogFragment;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GadgetConfigDialog extends DialogFragment {
     
@@ -62,6 +65,18 @@ public class GadgetConfigDialog extends DialogFragment {
     // Flag to prevent recursive updates
     private boolean isUpdatingUI = false;
     
+    // 表单和 JSON 预览的同步：编辑先改 config，停顿 SYNC_DELAY_MS 后在后台渲染或解析，
+    // 回到主线程时只应用最新一次编辑的结果
+    private static final long SYNC_DELAY_MS = 150;
+    private static final ExecutorService syncExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable renderPreviewTask = this::renderPreview;
+    private final Runnable parsePreviewTask = this::parsePreview;
+    // Bumped on every edit; background results from an older edit are dropped
+    private int syncGeneration;
+    // The last edit was typed into the JSON preview, which the form has not caught up with yet
+    private boolean previewEdited;
+    
     // Activity result launchers
     private ActivityResultLauncher<Intent> fileBrowserLauncher;
     private ActivityResultLauncher<Intent> filePickerLauncher;
@@ -108,7 +123,7 @@ public class GadgetConfigDialog extends DialogFragment {
                     if (selectedPath != null) {
                         editScriptPath.setText(selectedPath);
                         config.scriptPath = selectedPath;
-                        updateJsonPreview();
+                        schedulePreviewRender();
                     }
                 }
             }
@@ -125,7 +140,7 @@ public class GadgetConfigDialog extends DialogFragment {
                         if (path != null) {
                             editScriptPath.setText(path);
                             config.scriptPath = path;
-                            updateJsonPreview();
+                            schedulePreviewRender();
                         } else {
                             Toast.makeText(getContext(), "无法获取文件路径", Toast.LENGTH_SHORT).show();
                         }
@@ -143,7 +158,8 @@ public class GadgetConfigDialog extends DialogFragment {
         initViews(view);
         loadConfig();
         setupListeners();
-        updateJsonPreview();
+        // 首次直接显示（渲染结果有缓存），之后的更新走后台
+        showPreview(GadgetConfigRenderer.render(config).json);
         
         String title = customTitle != null ? customTitle : "Gadget 配置";
         
@@ -155,6 +171,12 @@ public class GadgetConfigDialog extends DialogFragment {
                 .create();
     }
     
+    @Override
+    public void onDismiss(@NonNull DialogInterface dialog) {
+        cancelSync();
+        super.onDismiss(dialog);
+    }
+    
     private void initViews(View view) {
         modeRadioGroup = view.findViewById(R.id.modeRadioGroup);
         radioModeServer = view.findViewById(R.id.radioModeServer);
@@ -201,16 +223,18 @@ public class GadgetConfigDialog extends DialogFragment {
         // Load address
         if ("127.0.0.1".equals(config.address)) {
             radioAddressLocal.setChecked(true);
+            editCustomAddress.setEnabled(false);
         } else if ("0.0.0.0".equals(config.address)) {
             radioAddressAll.setChecked(true);
+            editCustomAddress.setEnabled(false);
         } else {
             radioAddressCustom.setChecked(true);
-            editCustomAddress.setText(config.address);
+            setTextIfChanged(editCustomAddress, config.address);
             editCustomAddress.setEnabled(true);
         }
         
         // Load port
-        editPort.setText(String.valueOf(config.port));
+        setTextIfChanged(editPort, String.valueOf(config.port));
         
         // Load port conflict handling
         if ("pick-next".equals(config.onPortConflict)) {
@@ -227,10 +251,10 @@ public class GadgetConfigDialog extends DialogFragment {
         }
         
         // Load script path
-        editScriptPath.setText(config.scriptPath);
+        setTextIfChanged(editScriptPath, config.scriptPath);
         
         // Load gadget name
-        editGadgetName.setText(config.gadgetName);
+        setTextIfChanged(editGadgetName, config.gadgetName);
         
         isUpdatingUI = false;
     }
@@ -248,7 +272,7 @@ public class GadgetConfigDialog extends DialogFragment {
                     serverModeLayout.setVisibility(View.VISIBLE);
                     scriptModeLayout.setVisibility(View.GONE);
                 }
-                updateJsonPreview();
+                schedulePreviewRender();
             }
         });
         
@@ -265,7 +289,7 @@ public class GadgetConfigDialog extends DialogFragment {
                     } else if (checkedId == R.id.radioAddressLocal) {
                         config.address = "127.0.0.1";
                     }
-                    updateJsonPreview();
+                    schedulePreviewRender();
                 }
             }
         });
@@ -282,7 +306,7 @@ public class GadgetConfigDialog extends DialogFragment {
             public void afterTextChanged(Editable s) {
                 if (!isUpdatingUI && radioAddressCustom.isChecked()) {
                     config.address = s.toString().trim();
-                    updateJsonPreview();
+                    schedulePreviewRender();
                 }
             }
         });
@@ -302,7 +326,7 @@ public class GadgetConfigDialog extends DialogFragment {
                         int port = Integer.parseInt(s.toString());
                         if (port >= 1 && port <= 65535) {
                             config.port = port;
-                            updateJsonPreview();
+                            schedulePreviewRender();
                         }
                     } catch (NumberFormatException e) {
                         // Ignore invalid input
@@ -315,7 +339,7 @@ public class GadgetConfigDialog extends DialogFragment {
         portConflictRadioGroup.setOnCheckedChangeListener((group, checkedId) -> {
             if (!isUpdatingUI) {
                 config.onPortConflict = (checkedId == R.id.radioConflictPickNext) ? "pick-next" : "fail";
-                updateJsonPreview();
+                schedulePreviewRender();
             }
         });
         
@@ -323,7 +347,7 @@ public class GadgetConfigDialog extends DialogFragment {
         onLoadRadioGroup.setOnCheckedChangeListener((group, checkedId) -> {
             if (!isUpdatingUI) {
                 config.onLoad = (checkedId == R.id.radioLoadResume) ? "resume" : "wait";
-                updateJsonPreview();
+                schedulePreviewRender();
             }
         });
         
@@ -339,7 +363,7 @@ public class GadgetConfigDialog extends DialogFragment {
             public void afterTextChanged(Editable s) {
                 if (!isUpdatingUI) {
                     config.scriptPath = s.toString().trim();
-                    updateJsonPreview();
+                    schedulePreviewRender();
                 }
             }
         });
@@ -371,112 +395,102 @@ public class GadgetConfigDialog extends DialogFragment {
             @Override
             public void afterTextChanged(Editable s) {
                 if (!isUpdatingUI) {
-                    parseJsonAndUpdateUI(s.toString());
+                    schedulePreviewParse();
                 }
             }
         });
     }
     
-    private void updateJsonPreview() {
+    /**
+     * Re-render the preview from config once the user pauses
+     */
+    private void schedulePreviewRender() {
         if (isUpdatingUI) return;
-        
-        try {
-            JSONObject root = new JSONObject();
-            JSONObject interaction = new JSONObject();
-            
-            if ("script".equals(config.mode)) {
-                interaction.put("type", "script");
-                interaction.put("path", config.scriptPath);
-            } else {
-                interaction.put("type", "listen");
-                interaction.put("address", config.address);
-                interaction.put("port", config.port);
-                interaction.put("on_port_conflict", config.onPortConflict);
-                interaction.put("on_load", config.onLoad);
-            }
-            
-            root.put("interaction", interaction);
-            
-            isUpdatingUI = true;
-            editJsonPreview.setText(root.toString(2));
-            isUpdatingUI = false;
-        } catch (JSONException e) {
-            // Should not happen
-            e.printStackTrace();
-        }
+        previewEdited = false;
+        restartSync(renderPreviewTask);
     }
     
-    private void parseJsonAndUpdateUI(String json) {
-        try {
-            JSONObject root = new JSONObject(json);
-            JSONObject interaction = root.getJSONObject("interaction");
-            
-            isUpdatingUI = true;
-            
-            // Update mode
-            String type = interaction.getString("type");
-            if ("script".equals(type)) {
-                config.mode = "script";
-                radioModeScript.setChecked(true);
-                serverModeLayout.setVisibility(View.GONE);
-                scriptModeLayout.setVisibility(View.VISIBLE);
-                
-                // Update script path
-                if (interaction.has("path")) {
-                    config.scriptPath = interaction.getString("path");
-                    editScriptPath.setText(config.scriptPath);
+    /**
+     * Parse the hand-edited preview into config once the user pauses
+     */
+    private void schedulePreviewParse() {
+        previewEdited = true;
+        restartSync(parsePreviewTask);
+    }
+    
+    private void restartSync(Runnable task) {
+        syncGeneration++;
+        mainHandler.removeCallbacks(renderPreviewTask);
+        mainHandler.removeCallbacks(parsePreviewTask);
+        mainHandler.postDelayed(task, SYNC_DELAY_MS);
+    }
+    
+    private void cancelSync() {
+        syncGeneration++;
+        mainHandler.removeCallbacks(renderPreviewTask);
+        mainHandler.removeCallbacks(parsePreviewTask);
+    }
+    
+    private void renderPreview() {
+        final int generation = syncGeneration;
+        final ConfigManager.GadgetConfig snapshot = config.copy();
+        syncExecutor.execute(() -> {
+            String json = GadgetConfigRenderer.render(snapshot).json;
+            mainHandler.post(() -> {
+                if (generation == syncGeneration) {
+                    showPreview(json);
                 }
-            } else {
-                config.mode = "server";
-                radioModeServer.setChecked(true);
-                serverModeLayout.setVisibility(View.VISIBLE);
-                scriptModeLayout.setVisibility(View.GONE);
-                
-            // Update address
-            String address = interaction.getString("address");
-            config.address = address;
-            if ("0.0.0.0".equals(address)) {
-                radioAddressAll.setChecked(true);
-                editCustomAddress.setEnabled(false);
-            } else if ("127.0.0.1".equals(address)) {
-                radioAddressLocal.setChecked(true);
-                editCustomAddress.setEnabled(false);
-            } else {
-                radioAddressCustom.setChecked(true);
-                editCustomAddress.setText(address);
-                editCustomAddress.setEnabled(true);
-            }
-            
-            // Update port
-            config.port = interaction.getInt("port");
-            editPort.setText(String.valueOf(config.port));
-            
-            // Update port conflict
-            String onPortConflict = interaction.getString("on_port_conflict");
-            config.onPortConflict = onPortConflict;
-            if ("pick-next".equals(onPortConflict)) {
-                radioConflictPickNext.setChecked(true);
-            } else {
-                radioConflictFail.setChecked(true);
-            }
-            
-            // Update on load
-            String onLoad = interaction.getString("on_load");
-            config.onLoad = onLoad;
-            if ("resume".equals(onLoad)) {
-                radioLoadResume.setChecked(true);
-            } else {
-                radioLoadWait.setChecked(true);
-            }
+            });
+        });
+    }
+    
+    private void parsePreview() {
+        final int generation = syncGeneration;
+        final String json = editJsonPreview.getText().toString();
+        final ConfigManager.GadgetConfig base = config.copy();
+        syncExecutor.execute(() -> {
+            ConfigManager.GadgetConfig parsed = GadgetConfigRenderer.parse(json, base);
+            if (parsed == null) {
+                return;
             }
-            
-            isUpdatingUI = false;
-        } catch (JSONException e) {
-            // Invalid JSON, ignore
+            mainHandler.post(() -> {
+                if (generation == syncGeneration) {
+                    applyParsedConfig(parsed);
+                }
+            });
+        });
+    }
+    
+    // 预览内容没变时不 setText，正在编辑的位置不会被重置
+    private void showPreview(String json) {
+        isUpdatingUI = true;
+        setTextIfChanged(editJsonPreview, json);
+        isUpdatingUI = false;
+    }
+    
+    private void applyParsedConfig(ConfigManager.GadgetConfig parsed) {
+        // gadgetName 不在 JSON 里，解析期间可能已被修改
+        parsed.gadgetName = config.gadgetName;
+        config.assign(parsed);
+        loadConfig();
+    }
+    
+    private static void setTextIfChanged(EditText editText, String text) {
+        if (!editText.getText().toString().equals(text)) {
+            editText.setText(text);
         }
     }
     
     private void saveConfig() {
+        // 预览里刚输入、还没同步到表单的内容也要保存
+        if (previewEdited) {
+            ConfigManager.GadgetConfig parsed = GadgetConfigRenderer.parse(
+                    editJsonPreview.getText().toString(), config);
+            if (parsed != null) {
+                config.assign(parsed);
+            }
+        }
+        cancelSync();
         if (listener != null) {
             // Ensure gadget name is not empty
             if (config.gadgetName == null || config.gadgetName.trim().isEmpty()) {
@@ -578,7 +592,7 @@ public class GadgetConfigDialog extends DialogFragment {
                     if (!path.isEmpty()) {
                         editScriptPath.setText(path);
                         config.scriptPath = path;
-                        updateJsonPreview();
+                        schedulePreviewRender();
                     }
                 })
                 .setNegativeButton("取消", null)
@@ -601,7 +615,8 @@ public class GadgetConfigDialog extends DialogFragment {
         
         loadConfig();
         setupListeners();
-        updateJsonPreview();
+        // 首次直接显示（渲染结果有缓存），之后的更新走后台
+        showPreview(GadgetConfigRenderer.render(config).json);
         
         String title = customTitle != null ? customTitle : "Gadget 配置";
         
@@ -610,6 +625,7 @@ public class GadgetConfigDialog extends DialogFragment {
                 .setView(view)
                 .setPositiveButton("保存", (dialog, which) -> saveConfig())
                 .setNegativeButton("取消", null)
+                .setOnDismissListener(dialog -> cancelSync())
                 .show();
     }
     
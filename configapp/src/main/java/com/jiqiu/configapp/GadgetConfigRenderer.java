@@ -0,0 +1,155 @@
+package com.jiqiu.configapp;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Canonical content of a gadget *.config.so, shared by deployment and the config dialog preview
+ *
+ * 同一组字段总是得到完全相同的字节，部署时先比较目标文件的 md5，相同就不再写入。
+ * 渲染结果按影响输出的字段缓存（gadgetName 不影响内容），批量部署多个使用同一配置的应用只渲染一次。
+ */
+public final class GadgetConfigRenderer {
+
+    private static final int CACHE_SIZE = 32;
+
+    /**
+     * Rendered config file; immutable
+     */
+    public static final class Rendered {
+        public final String json;
+        // md5 of the UTF-8 bytes, compared with md5sum of the deployed file
+        public final String md5;
+
+        private Rendered(String json) {
+            this.json = json;
+            this.md5 = DeployHealth.md5Hex(json);
+        }
+    }
+
+    // access order: least recently used first
+    private static final Map<String, Rendered> cache = new LinkedHashMap<String, Rendered>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Rendered> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private GadgetConfigRenderer() {
+    }
+
+    public static Rendered render(ConfigManager.GadgetConfig gadgetConfig) {
+        String key = cacheKey(gadgetConfig);
+        synchronized (cache) {
+            Rendered rendered = cache.get(key);
+            if (rendered == null) {
+                rendered = new Rendered(renderJson(gadgetConfig));
+                cache.put(key, rendered);
+            }
+            return rendered;
+        }
+    }
+
+    // Only the fields the output depends on
+    private static String cacheKey(ConfigManager.GadgetConfig gadgetConfig) {
+        if (isScriptMode(gadgetConfig)) {
+            return "script\0" + gadgetConfig.scriptPath;
+        }
+        return "listen\0" + gadgetConfig.address + '\0' + gadgetConfig.port + '\0' + gadgetConfig.onPortConflict
+                + '\0' + gadgetConfig.onLoad;
+    }
+
+    private static boolean isScriptMode(ConfigManager.GadgetConfig gadgetConfig) {
+        return "script".equals(gadgetConfig.mode);
+    }
+
+    private static String renderJson(ConfigManager.GadgetConfig gadgetConfig) {
+        StringBuilder json = new StringBuilder(160).append("{\n  \"interaction\": {\n");
+        if (isScriptMode(gadgetConfig)) {
+            json.append("    \"type\": \"script\",\n");
+            appendField(json, "path", gadgetConfig.scriptPath, false);
+        } else {
+            json.append("    \"type\": \"listen\",\n");
+            appendField(json, "address", gadgetConfig.address, true);
+            json.append("    \"port\": ").append(gadgetConfig.port).append(",\n");
+            appendField(json, "on_port_conflict", gadgetConfig.onPortConflict, true);
+            appendField(json, "on_load", gadgetConfig.onLoad, false);
+        }
+        return json.append("  }\n}").toString();
+    }
+
+    private static void appendField(StringBuilder json, String name, String value, boolean more) {
+        json.append("    \"").append(name).append("\": ");
+        appendString(json, value);
+        json.append(more ? ",\n" : "\n");
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c == '\n') {
+                json.append("\\n");
+            } else if (c == '\t') {
+                json.append("\\t");
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * {@code base} with the fields from a hand-edited config file
+     * @return null if {@code json} is not a complete config; the caller keeps its current values
+     */
+    public static ConfigManager.GadgetConfig parse(String json, ConfigManager.GadgetConfig base) {
+        try {
+            JsonObject interaction = JsonParser.parseString(json).getAsJsonObject().getAsJsonObject("interaction");
+            ConfigManager.GadgetConfig parsed = base.copy();
+            if ("script".equals(interaction.get("type").getAsString())) {
+                parsed.mode = "script";
+                if (interaction.has("path")) {
+                    parsed.scriptPath = interaction.get("path").getAsString();
+                }
+            } else {
+                parsed.mode = "server";
+                parsed.address = interaction.get("address").getAsString();
+                parsed.port = interaction.get("port").getAsInt();
+                parsed.onPortConflict = interaction.get("on_port_conflict").getAsString();
+                parsed.onLoad = interaction.get("on_load").getAsString();
+            }
+            return parsed;
+        } catch (RuntimeException e) {
+            // 手动编辑中途的 JSON 大多不完整
+            return null;
+        }
+    }
+
+    /**
+     * Shell command writing the config to {@code target} unless it already holds the same bytes;
+     * prints "GADGET_WRITTEN package" after a write and "GADGET_FAIL package" if the write failed.
+     * Uses {@code $uid} for the owner when it is set.
+     */
+    static String buildWriteCommand(String packageName, String target, Rendered rendered) {
+        // 单引号内只有单引号本身需要转义
+        String quoted = "'" + rendered.json.replace("'", "'\\''") + "'";
+        return "t=\"" + target + "\"; m=$(md5sum \"$t\" 2>/dev/null);"
+                + " if [ \"${m%% *}\" != \"" + rendered.md5 + "\" ]; then"
+                + " if printf '%s' " + quoted + " > \"$t\"; then chmod 644 \"$t\";"
+                + " [ -n \"$uid\" ] && chown $uid:$uid \"$t\"; chcon u:object_r:app_data_file:s0 \"$t\";"
+                + " echo \"GADGET_WRITTEN " + packageName + "\";"
+                + " else echo \"GADGET_FAIL " + packageName + "\"; fi; fi";
+    }
+}
@@ -0,0 +1,226 @@
+package com.jiqiu.configapp;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Finds value boundaries in a JSON document without decoding the values
+ * 只识别结构（字符串、括号嵌套），用于按段切分配置，段内内容留给 Gson 按需解析。
+ */
+final class JsonSlices {
+
+    private JsonSlices() {
+    }
+
+    /**
+     * Callback for {@link #forEachMember(CharSequence, int, int, Member)}
+     */
+    interface Member {
+        void accept(String name, int valueStart, int valueEnd);
+    }
+
+    static int skipWhitespace(CharSequence s, int i, int end) {
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Index just past the value starting at {@code i}
+     */
+    static int skipValue(CharSequence s, int i, int end) {
+        if (i >= end) {
+            throw new JsonSyntaxException("Value expected at " + i);
+        }
+        char c = s.charAt(i);
+        if (c == '"') {
+            return skipString(s, i, end);
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (i < end) {
+                c = s.charAt(i);
+                if (c == '"') {
+                    i = skipString(s, i, end);
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return i + 1;
+                    }
+                }
+                i++;
+            }
+            throw new JsonSyntaxException("Unterminated object or array");
+        }
+        // Number, true, false or null
+        int start = i;
+        while (i < end) {
+            c = s.charAt(i);
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            i++;
+        }
+        if (i == start) {
+            throw new JsonSyntaxException("Value expected at " + start);
+        }
+        return i;
+    }
+
+    private static int skipString(CharSequence s, int i, int end) {
+        for (i++; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i + 1;
+            }
+        }
+        throw new JsonSyntaxException("Unterminated string");
+    }
+
+    /**
+     * Visit the members of the object spanning [start, end)
+     */
+    static void forEachMember(CharSequence s, int start, int end, Member member) {
+        int i = skipWhitespace(s, start, end);
+        if (i >= end || s.charAt(i) != '{') {
+            throw new JsonSyntaxException("Object expected at " + i);
+        }
+        i = skipWhitespace(s, i + 1, end);
+        if (i < end && s.charAt(i) == '}') {
+            return;
+        }
+        while (i < end) {
+            if (s.charAt(i) != '"') {
+                throw new JsonSyntaxException("Name expected at " + i);
+            }
+            int nameEnd = skipString(s, i, end);
+            String name = decodeString(s, i, nameEnd);
+            i = skipWhitespace(s, nameEnd, end);
+            if (i >= end || s.charAt(i) != ':') {
+                throw new JsonSyntaxException("':' expected at " + i);
+            }
+            int valueStart = skipWhitespace(s, i + 1, end);
+            int valueEnd = skipValue(s, valueStart, end);
+            member.accept(name, valueStart, valueEnd);
+            i = skipWhitespace(s, valueEnd, end);
+            if (i < end && s.charAt(i) == ',') {
+                i = skipWhitespace(s, i + 1, end);
+            } else if (i < end && s.charAt(i) == '}') {
+                return;
+            } else {
+                throw new JsonSyntaxException("',' or '}' expected at " + i);
+            }
+        }
+        throw new JsonSyntaxException("Unterminated object");
+    }
+
+    // Package names never need unescaping in practice; only fall back to JsonReader when they do
+    private static String decodeString(CharSequence s, int start, int end) {
+        boolean escaped = false;
+        for (int i = start + 1; i < end - 1 && !escaped; i++) {
+            escaped = s.charAt(i) == '\\';
+        }
+        if (!escaped) {
+            return s.subSequence(start + 1, end - 1).toString();
+        }
+        try {
+            JsonReader reader = new JsonReader(reader(s, start, end));
+            reader.setLenient(true);
+            return reader.nextString();
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * The slice without whitespace outside of strings
+     */
+    static String minify(CharSequence s, int start, int end) {
+        StringBuilder out = new StringBuilder(end - start);
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                int stringEnd = skipString(s, i, end);
+                out.append(s, i, stringEnd);
+                i = stringEnd;
+                continue;
+            }
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                out.append(c);
+            }
+            i++;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Reader over [start, end) of {@code s}, without copying the slice
+     */
+    static Reader reader(CharSequence s, int start, int end) {
+        return new SliceReader(new CharSequence[]{s}, new int[]{start}, new int[]{end});
+    }
+
+    /**
+     * Reader over all of {@code s} with [start, end) replaced by {@code replacement}, without copying {@code s}
+     */
+    static Reader splice(CharSequence s, int start, int end, String replacement) {
+        return new SliceReader(new CharSequence[]{s, replacement, s},
+                new int[]{0, 0, end}, new int[]{start, replacement.length(), s.length()});
+    }
+
+    // Reads parts[i][starts[i], ends[i]) one after the other
+    private static final class SliceReader extends Reader {
+        private final CharSequence[] parts;
+        private final int[] starts;
+        private final int[] ends;
+        private int part;
+        private int pos;
+
+        SliceReader(CharSequence[] parts, int[] starts, int[] ends) {
+            this.parts = parts;
+            this.starts = starts;
+            this.ends = ends;
+            this.pos = starts[0];
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            while (pos >= ends[part]) {
+                if (++part == parts.length) {
+                    part--;
+                    return -1;
+                }
+                pos = starts[part];
+            }
+            int n = Math.min(len, ends[part] - pos);
+            CharSequence s = parts[part];
+            if (s instanceof String) {
+                ((String) s).getChars(pos, pos + n, cbuf, off);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    cbuf[off + i] = s.charAt(pos + i);
+                }
+            }
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.jiqiu.configapp;
+
+import android.util.Log;
+
+import com.topjohnwu.superuser.Shell;
+import com.topjohnwu.superuser.io.SuFileInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link ShellExecutor} backed by libsu's shared root shell
+ * {@link #warmUp} 在后台申请 root 并创建 shell，界面线程只有真正执行命令时才会等待。
+ */
+public class LibsuShellExecutor implements ShellExecutor {
+    private static final String TAG = "LibsuShellExecutor";
+
+    // 备用 shell 闲置这么久没人取就关掉，不让多余的 su 进程一直留着
+    private static final long SPARE_IDLE_MS = 30_000;
+
+    // libsu gives up on su after this long
+    private static final long SHELL_TIMEOUT_S = 30;
+    // 预热的回调只在成功时调用，等这么久还没有就不再等它
+    private static final long MAIN_SHELL_WAIT_S = SHELL_TIMEOUT_S + 5;
+
+    // Every shell this class creates, main and spare, comes from the same configuration
+    private static final Shell.Builder BUILDER = Shell.Builder.create()
+            .setFlags(Shell.FLAG_REDIRECT_STDERR | Shell.FLAG_MOUNT_MASTER)
+            .setTimeout(SHELL_TIMEOUT_S);
+
+    private static final LibsuShellExecutor INSTANCE = new LibsuShellExecutor();
+
+    static {
+        // Configure Shell to use root
+        Shell.enableVerboseLogging = BuildConfig.DEBUG;
+        Shell.setDefaultBuilder(BUILDER);
+    }
+
+    public static LibsuShellExecutor get() {
+        return INSTANCE;
+    }
+
+    private final AtomicBoolean warmUpStarted = new AtomicBoolean();
+    private final CompletableFuture<Shell> mainShell = new CompletableFuture<>();
+    // Spare shells for work that runs next to the main shell (searches); each is used once and closed
+    private final LinkedBlockingDeque<Shell> spareShells = new LinkedBlockingDeque<>();
+    private volatile int spareShellCount;
+    // Closes spares nobody took; its thread goes away when there is nothing scheduled
+    private final ScheduledThreadPoolExecutor idleCloser = new ScheduledThreadPoolExecutor(1);
+    private ScheduledFuture<?> pendingRelease;
+
+    private LibsuShellExecutor() {
+        idleCloser.setKeepAliveTime(SPARE_IDLE_MS, TimeUnit.MILLISECONDS);
+        idleCloser.allowCoreThreadTimeOut(true);
+        idleCloser.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Start creating the main root shell without blocking the caller, and allow up to {@code spares}
+     * extra shells to be kept ready once {@link #acquireShell} is in use
+     * 备用 shell 不在启动时创建：第一次 acquireShell 之后才在后台补上，闲置 {@link #SPARE_IDLE_MS} 后关闭。
+     * 只有第一次调用生效
+     */
+    public void warmUp(int spares) {
+        if (!warmUpStarted.compareAndSet(false, true)) {
+            return;
+        }
+        spareShellCount = spares;
+        final long start = System.nanoTime();
+        // Shell.EXECUTOR 上回调，不占用主线程
+        Shell.getShell(Shell.EXECUTOR, shell -> {
+            Log.i(TAG, "Main shell ready in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                    + " ms (root: " + shell.isRoot() + ")");
+            mainShell.complete(shell);
+        });
+    }
+
+    /**
+     * The main shell: the warmed-up one if it is still alive, otherwise whatever libsu hands out (may block)
+     */
+    private Shell mainShell() {
+        if (warmUpStarted.get()) {
+            try {
+                Shell shell = mainShell.get(MAIN_SHELL_WAIT_S, TimeUnit.SECONDS);
+                if (shell.isAlive()) {
+                    return shell;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (TimeoutException e) {
+                // libsu 创建失败（NoShellException）时不会回调；只让第一个调用方等，之后直接走 Shell.getShell()
+                if (mainShell.completeExceptionally(e)) {
+                    Log.w(TAG, "Main shell not ready after " + MAIN_SHELL_WAIT_S + " s, falling back");
+                }
+            } catch (ExecutionException e) {
+                // Timed out earlier and already logged
+            }
+        }
+        return Shell.getShell();
+    }
+
+    /**
+     * A root shell of its own for long-running or cancellable work; the caller closes it when done
+     * 优先取预热好的 shell，取完在后台补上（搜索通常接连发起）
+     */
+    @Override
+    public Shell acquireShell() {
+        Shell shell;
+        while ((shell = spareShells.poll()) != null) {
+            if (shell.isAlive()) {
+                break;
+            }
+        }
+        if (spareShellCount > 0 && mainShell().isRoot()) {
+            Shell.EXECUTOR.execute(this::refillSpareShells);
+        }
+        return shell != null ? shell : BUILDER.build();
+    }
+
+    private synchronized void refillSpareShells() {
+        while (spareShells.size() < spareShellCount) {
+            try {
+                spareShells.add(BUILDER.build());
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to create spare shell", e);
+                break;
+            }
+        }
+        if (pendingRelease != null) {
+            pendingRelease.cancel(false);
+        }
+        pendingRelease = idleCloser.schedule(this::releaseSpareShells, SPARE_IDLE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void releaseSpareShells() {
+        pendingRelease = null;
+        Shell shell;
+        while ((shell = spareShells.poll()) != null) {
+            try {
+                shell.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close spare shell", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRoot() {
+        return mainShell().isRoot();
+    }
+
+    @Override
+    public Shell.Result run(String... commands) {
+        return mainShell().newJob().add(commands).exec();
+    }
+
+    // libsu 对无权限的文件用 root shell 的 cat 写入 FIFO，本进程直接按字节读取
+    @Override
+    public InputStream openInputStream(String path) throws IOException {
+        return SuFileInputStream.open(path);
+    }
+}
@@ -0,0 +1,47 @@
+package com.jiqiu.configapp;
+
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reader over shell output lines, rejoined with '\n' on the fly
+ * 避免先把 cat 的输出拼成一个大字符串再解析
+ */
+class LinesReader extends Reader {
+    private final List<String> lines;
+    private int line = 0;
+    private int offset = 0;
+
+    LinesReader(List<String> lines) {
+        this.lines = lines;
+    }
+
+    @Override
+    public int read(char[] buffer, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int written = 0;
+        while (written < len && line < lines.size()) {
+            String current = lines.get(line);
+            if (offset < current.length()) {
+                int n = Math.min(len - written, current.length() - offset);
+                current.getChars(offset, offset + n, buffer, off + written);
+                offset += n;
+                written += n;
+            } else {
+                // Separator between lines, none after the last one (same as String.join)
+                if (line + 1 < lines.size()) {
+                    buffer[off + written++] = '\n';
+                }
+                line++;
+                offset = 0;
+            }
+        }
+        return written == 0 ? -1 : written;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -15,6 +15,11 @@ import com.google.android.material.bottomnavigation.BottomNavigationView;
 
 public class MainActivity extends AppCompatActivity implements SettingsFragment.OnSettingsChangeListener {
 
+    // 各页面只创建一次，切换时 show/hide，列表和 root 检查结果不会丢失
+    private static final String TAG_APPS = "apps";
+    private static final String TAG_SO_MANAGER = "so_manager";
+    private static final String TAG_SETTINGS = "settings";
+
     private BottomNavigationView bottomNavigationView;
     private AppListFragment appListFragment;
     private SettingsFragment settingsFragment;
@@ -34,6 +39,15 @@ public class MainActivity extends AppCompatActivity implements SettingsFragment.
         initViews();
         setupBottomNavigation();
 
+        // 重建时 FragmentManager 已经恢复了之前添加的页面及其显示状态
+        FragmentManager fragmentManager = getSupportFragmentManager();
+        appListFragment = (AppListFragment) fragmentManager.findFragmentByTag(TAG_APPS);
+        soManagerFragment = (SoManagerFragment) fragmentManager.findFragmentByTag(TAG_SO_MANAGER);
+        settingsFragment = (SettingsFragment) fragmentManager.findFragmentByTag(TAG_SETTINGS);
+        if (settingsFragment != null) {
+            settingsFragment.setOnSettingsChangeListener(this);
+        }
+
         // 默认显示应用列表
         if (savedInstanceState == null) {
             showAppListFragment();
@@ -65,14 +79,14 @@ public class MainActivity extends AppCompatActivity implements SettingsFragment.
         if (appListFragment == null) {
             appListFragment = new AppListFragment();
         }
-        showFragment(appListFragment);
+        showFragment(appListFragment, TAG_APPS);
     }
 
     private void showSoManagerFragment() {
         if (soManagerFragment == null) {
             soManagerFragment = new SoManagerFragment();
         }
-        showFragment(soManagerFragment);
+        showFragment(soManagerFragment, TAG_SO_MANAGER);
     }
 
     private void showSettingsFragment() {
@@ -80,14 +94,25 @@ public class MainActivity extends AppCompatActivity implements SettingsFragment.
             settingsFragment = new SettingsFragment();
             settingsFragment.setOnSettingsChangeListener(this);
         }
-        showFragment(settingsFragment);
+        showFragment(settingsFragment, TAG_SETTINGS);
     }
 
-    private void showFragment(Fragment fragment) {
+    private void showFragment(Fragment fragment, String tag) {
         FragmentManager fragmentManager = getSupportFragmentManager();
         FragmentTransaction transaction = fragmentManager.beginTransaction();
-        transaction.replace(R.id.nav_host_fragment, fragment);
-        transaction.commit();
+        transaction.setReorderingAllowed(true);
+        for (Fragment other : new Fragment[]{appListFragment, soManagerFragment, settingsFragment}) {
+            if (other != null && other != fragment && other.isAdded() && !other.isHidden()) {
+                transaction.hide(other);
+            }
+        }
+        if (!fragment.isAdded()) {
+            transaction.add(R.id.nav_host_fragment, fragment, tag);
+        } else {
+            transaction.show(fragment);
+        }
+        // 立即执行，连续点击时 isAdded() 已经是最新状态，不会重复添加
+        transaction.commitNow();
     }
 
     @Override
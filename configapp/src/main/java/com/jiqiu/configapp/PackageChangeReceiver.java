@@ -0,0 +1,117 @@
+package com.jiqiu.configapp;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.util.Log;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Follows installs, uninstalls, updates and data clears
+ * 已启用的应用被重新安装或清除数据后，部署的 SO 会随数据目录一起消失，这里只为这些应用重新排队部署；
+ * 同时通知界面增量更新应用列表，不必整体重新加载。
+ *
+ * 只在 ConfigApplication 运行时动态注册，进程不在时发生的变化收不到；这部分由启动时的部署检查
+ * （{@link ApplyQueue.Request#repair(boolean)}）补上。
+ */
+public class PackageChangeReceiver extends BroadcastReceiver {
+    private static final String TAG = "PackageChangeReceiver";
+
+    /**
+     * Called on the main thread for every package event this receiver sees
+     */
+    public interface Listener {
+        /**
+         * @param removed true when the package is gone, false when it was added, updated or had its data cleared
+         */
+        void onPackageChanged(String packageName, boolean removed);
+    }
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public static IntentFilter createFilter() {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_DATA_CLEARED);
+        filter.addDataScheme("package");
+        return filter;
+    }
+
+    private final Context context;
+    private final ShellExecutor shell;
+    private final ApplyQueue queue;
+    // Only touched on Shell.EXECUTOR; a single manager keeps config.json reads down to one per change
+    private ConfigManager configManager;
+
+    public PackageChangeReceiver(Context context, ShellExecutor shell, ApplyQueue queue) {
+        this.context = context;
+        this.shell = shell;
+        this.queue = queue;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Uri data = intent.getData();
+        String packageName = data != null ? data.getSchemeSpecificPart() : null;
+        String action = intent.getAction();
+        if (packageName == null || action == null || packageName.equals(context.getPackageName())) {
+            return;
+        }
+        boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+        // 更新安装会依次收到 REMOVED(replacing)、ADDED(replacing)、REPLACED，只处理最后一个
+        if (replacing && !Intent.ACTION_PACKAGE_REPLACED.equals(action)) {
+            return;
+        }
+        final boolean removed = Intent.ACTION_PACKAGE_REMOVED.equals(action);
+        Log.i(TAG, action + ": " + packageName);
+
+        for (Listener listener : listeners) {
+            listener.onPackageChanged(packageName, removed);
+        }
+
+        // 更新安装保留数据目录，已部署的文件还在；新安装（含卸载后重装）和清除数据都需要重新部署
+        boolean dataLost = Intent.ACTION_PACKAGE_ADDED.equals(action)
+                || Intent.ACTION_PACKAGE_DATA_CLEARED.equals(action);
+        if (dataLost) {
+            final PendingResult pendingResult = goAsync();
+            Shell.EXECUTOR.execute(() -> {
+                try {
+                    redeployIfEnabled(packageName);
+                } finally {
+                    pendingResult.finish();
+                }
+            });
+        }
+    }
+
+    private synchronized void redeployIfEnabled(String packageName) {
+        if (configManager == null) {
+            configManager = new ConfigManager(context, shell);
+        } else {
+            configManager.reloadConfig();
+        }
+        if (!configManager.isAppEnabled(packageName)) {
+            return;
+        }
+        Log.i(TAG, "Re-queueing deployment for " + packageName);
+        queue.submit(new ApplyQueue.Request(packageName, null, null, true)
+                .addCompletion(result -> Log.i(TAG, "Redeploy " + packageName + ": "
+                        + (result == ApplyQueue.RESULT_APPLIED ? "applied" : "failed (" + result + ")"))));
+    }
+}
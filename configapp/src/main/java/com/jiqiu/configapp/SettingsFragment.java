@@ -1,7 +1,9 @@
 package com.jiqiu.configapp;
 
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -32,6 +34,7 @@ public class SettingsFragment extends Fragment {
     private EditText editInjectionDelay;
     private TextView tvGlobalGadgetStatus;
     private Button btnConfigureGlobalGadget;
+    private Button btnOpenTelemetry;
     private ConfigManager configManager;
     
     private SharedPreferences sharedPreferences;
@@ -65,6 +68,7 @@ public class SettingsFragment extends Fragment {
         editInjectionDelay = view.findViewById(R.id.editInjectionDelay);
         tvGlobalGadgetStatus = view.findViewById(R.id.tvGlobalGadgetStatus);
         btnConfigureGlobalGadget = view.findViewById(R.id.btnConfigureGlobalGadget);
+        btnOpenTelemetry = view.findViewById(R.id.btnOpenTelemetry);
         
         configManager = new ConfigManager(getContext());
     }
@@ -126,7 +130,10 @@ public class SettingsFragment extends Fragment {
                         if (delay < 0) delay = 0;
                         if (delay > 60) delay = 60;
                         
-                        configManager.setInjectionDelay(delay);
+                        // 回填已保存的值时不再重复保存
+                        if (delay != configManager.getInjectionDelay()) {
+                            configManager.setInjectionDelay(delay);
+                        }
                     } catch (NumberFormatException e) {
                         // Ignore invalid input
                     }
@@ -138,6 +145,42 @@ public class SettingsFragment extends Fragment {
         btnConfigureGlobalGadget.setOnClickListener(v -> {
             showGlobalGadgetConfigDialog();
         });
+        
+        btnOpenTelemetry.setOnClickListener(v -> {
+            startActivity(new Intent(getContext(), TelemetryActivity.class));
+        });
+    }
+    
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        // 页面被保留，切回来时只在配置已被其它页面改过时重新读取
+        if (!hidden && configManager != null && configManager.isStale()) {
+            new ReloadConfigTask().execute();
+        }
+    }
+    
+    /**
+     * 在后台重新读取配置，读完后回填注入延迟和全局 Gadget 状态
+     */
+    private class ReloadConfigTask extends AsyncTask<Void, Void, Void> {
+        @Override
+        protected Void doInBackground(Void... voids) {
+            configManager.reloadConfig();
+            return null;
+        }
+        
+        @Override
+        protected void onPostExecute(Void result) {
+            if (!isAdded()) {
+                return;
+            }
+            String delay = String.valueOf(configManager.getInjectionDelay());
+            if (!delay.equals(editInjectionDelay.getText().toString().trim())) {
+                editInjectionDelay.setText(delay);
+            }
+            updateGlobalGadgetStatus();
+        }
     }
     
     public void setOnSettingsChangeListener(OnSettingsChangeListener listener) {
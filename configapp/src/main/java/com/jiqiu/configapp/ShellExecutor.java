@@ -0,0 +1,62 @@
+package com.jiqiu.configapp;
+
+import android.content.Context;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Runs shell commands for the config app
+ * 生产环境是 libsu 的 root shell（{@link LibsuShellExecutor}），
+ * 单元测试里换成沙盒目录中的 /bin/sh（测试源码中的 {@code LocalShellExecutor}）。
+ */
+public interface ShellExecutor {
+
+    /**
+     * Whether commands run with root privileges; may block while the shell is being created
+     */
+    boolean isRoot();
+
+    /**
+     * Run the commands as one job; the result's code is the exit status of the last command
+     */
+    Shell.Result run(String... commands);
+
+    /**
+     * Open a file with this executor's privileges as a byte stream, without going through stdout lines
+     * @throws java.io.FileNotFoundException if the file does not exist
+     * @throws IOException if it cannot be opened, including executors without direct file access
+     */
+    default InputStream openInputStream(String path) throws IOException {
+        throw new IOException("Direct file access not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * A shell of its own for long-running or cancellable work, so closing it does not affect {@link #run};
+     * the caller closes it when done
+     * @throws IOException if this executor cannot hand out separate shells
+     */
+    default Shell acquireShell() throws IOException {
+        throw new IOException("Separate shells not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Implemented by the Application to hand its executor to activities and receivers
+     */
+    interface Provider {
+        ShellExecutor getShellExecutor();
+    }
+
+    /**
+     * The executor provided by the context's application, libsu if it does not provide one
+     */
+    static ShellExecutor of(Context context) {
+        Context app = context != null ? context.getApplicationContext() : null;
+        if (app instanceof Provider) {
+            return ((Provider) app).getShellExecutor();
+        }
+        return LibsuShellExecutor.get();
+    }
+}
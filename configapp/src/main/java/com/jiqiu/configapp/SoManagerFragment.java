@@ -3,6 +3,7 @@ package com.jiqiu.configapp;
 import android.app.Activity;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -42,9 +43,8 @@ public class SoManagerFragment extends Fragment {
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
+        // 模块目录由 ConfigApplication 在后台创建，这里不等待 root shell
         configManager = new ConfigManager(requireContext());
-        // Ensure module directories exist
-        configManager.ensureModuleDirectories();
         
         // Initialize file picker
         filePickerLauncher = registerForActivityResult(
@@ -98,18 +98,41 @@ public class SoManagerFragment extends Fragment {
         // Setup FAB
         fabAdd.setOnClickListener(v -> showAddSoDialog());
         
-        // Check root access
+        // Check root access; 模块目录和 /data/local/tmp 由 ConfigApplication 启动时创建
         if (!configManager.isRootAvailable()) {
             Toast.makeText(getContext(), "需要Root权限", Toast.LENGTH_LONG).show();
         } else {
-            configManager.ensureModuleDirectories();
-            // Also ensure common directories exist
-            Shell.cmd("mkdir -p /data/local/tmp").exec();
-            Shell.cmd("chmod 777 /data/local/tmp").exec();
             loadSoFiles();
         }
     }
     
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        // 页面被保留，切回来时只在配置已被其它页面改过时重新读取
+        if (!hidden && configManager.isStale()) {
+            new ReloadConfigTask().execute();
+        }
+    }
+    
+    /**
+     * 在后台重新读取配置，读完后刷新 SO 列表
+     */
+    private class ReloadConfigTask extends AsyncTask<Void, Void, Void> {
+        @Override
+        protected Void doInBackground(Void... voids) {
+            configManager.reloadConfig();
+            return null;
+        }
+        
+        @Override
+        protected void onPostExecute(Void result) {
+            if (isAdded()) {
+                loadSoFiles();
+            }
+        }
+    }
+    
     private void loadSoFiles() {
         // Load global SO files from config
         globalSoFiles = configManager.getAllSoFiles();
@@ -250,7 +273,7 @@ public class SoManagerFragment extends Fragment {
     
     private void addSoFile(String path, boolean deleteOriginal) {
         // Verify file exists
-        Shell.Result result = Shell.cmd("test -f \"" + path + "\" && echo 'exists'").exec();
+        Shell.Result result = configManager.getShell().run("test -f \"" + path + "\" && echo 'exists'");
         if (!result.isSuccess() || result.getOut().isEmpty()) {
             Toast.makeText(getContext(), "文件不存在: " + path, Toast.LENGTH_SHORT).show();
             return;
@@ -0,0 +1,279 @@
+package com.jiqiu.configapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * SO 预检信息：导入时预先计算 custom_linker 需要的段布局、映射大小、重定位数量和外部符号，
+ * 以 sidecar 文件（&lt;so&gt;.preflight）形式与 SO 一起存储和部署。
+ *
+ * sidecar 带有格式版本、文件大小和 ELF 摘要（ELF 头、program header 表和 PT_DYNAMIC 内容的 CRC32）。
+ * 段布局和重定位数量都来自这几部分，native 端加载时对已映射的同样字节重新计算摘要，不一致就不使用 sidecar；
+ * 只读几 KB，不需要每次读整个文件。
+ */
+public class SoPreflight {
+    public static final int FORMAT_VERSION = 2;
+    public static final String SIDECAR_SUFFIX = ".preflight";
+
+    private static final int PAGE_SIZE = 4096;
+
+    private static final int PT_LOAD = 1;
+    private static final int PT_DYNAMIC = 2;
+
+    private static final long DT_NULL = 0;
+    private static final long DT_NEEDED = 1;
+    private static final long DT_PLTRELSZ = 2;
+    private static final long DT_STRTAB = 5;
+    private static final long DT_SYMTAB = 6;
+    private static final long DT_RELA = 7;
+    private static final long DT_RELASZ = 8;
+    private static final long DT_JMPREL = 23;
+
+    private static final int EHDR64_SIZE = 64;
+    private static final int PHDR64_SIZE = 56;
+    private static final int DYN64_SIZE = 16;
+    private static final int SYM64_SIZE = 24;
+    private static final int RELA64_SIZE = 24;
+    private static final int SHN_UNDEF = 0;
+
+    public static class Segment {
+        public long vaddr;
+        public long memsz;
+        public long filesz;
+        public long offset;
+        public int flags;
+    }
+
+    // CRC32 of the ELF header, the program header table and the PT_DYNAMIC bytes, in that order
+    public long elfCrc32;
+    public long fileSize;
+    public long minVaddr;
+    public long loadSize;
+    public List<Segment> segments = new ArrayList<>();
+    public long relaCount;
+    public long pltRelaCount;
+    public List<String> neededLibs = new ArrayList<>();
+    public List<String> requiredSymbols = new ArrayList<>();
+
+    /**
+     * Analyze a 64-bit little-endian ELF shared object.
+     * @param file SO file readable by the app
+     * @return preflight info, or null if the file is not a supported ELF
+     */
+    public static SoPreflight analyze(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return analyze(buf);
+        }
+    }
+
+    public static SoPreflight analyze(ByteBuffer buf) {
+        buf = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int size = buf.limit();
+        if (size < 64 || buf.get(0) != 0x7f || buf.get(1) != 'E' || buf.get(2) != 'L' || buf.get(3) != 'F') {
+            return null;
+        }
+        // Only ELFCLASS64 / ELFDATA2LSB is supported by the custom linker
+        if (buf.get(4) != 2 || buf.get(5) != 1) {
+            return null;
+        }
+
+        SoPreflight info = new SoPreflight();
+        info.fileSize = size;
+
+        long phoff = buf.getLong(0x20);
+        int phentsize = buf.getShort(0x36) & 0xffff;
+        int phnum = buf.getShort(0x38) & 0xffff;
+        if (phentsize != PHDR64_SIZE || phnum == 0 || phoff + (long) phnum * PHDR64_SIZE > size) {
+            return null;
+        }
+
+        long minAddr = Long.MAX_VALUE;
+        long maxAddr = 0;
+        long dynVaddr = -1;
+        long dynMemsz = 0;
+        long dynOffset = 0;
+        long dynFilesz = 0;
+        for (int i = 0; i < phnum; i++) {
+            int p = (int) (phoff + (long) i * PHDR64_SIZE);
+            int type = buf.getInt(p);
+            if (type == PT_LOAD) {
+                Segment seg = new Segment();
+                seg.flags = buf.getInt(p + 4);
+                seg.offset = buf.getLong(p + 8);
+                seg.vaddr = buf.getLong(p + 16);
+                seg.filesz = buf.getLong(p + 32);
+                seg.memsz = buf.getLong(p + 40);
+                info.segments.add(seg);
+                minAddr = Math.min(minAddr, seg.vaddr);
+                maxAddr = Math.max(maxAddr, seg.vaddr + seg.memsz);
+            } else if (type == PT_DYNAMIC) {
+                dynOffset = buf.getLong(p + 8);
+                dynVaddr = buf.getLong(p + 16);
+                dynFilesz = buf.getLong(p + 32);
+                dynMemsz = buf.getLong(p + 40);
+            }
+        }
+        if (info.segments.isEmpty()) {
+            return null;
+        }
+        // A PT_DYNAMIC outside the file is not digested, the native side skips it the same way
+        if (dynVaddr >= 0 && (dynOffset < 0 || dynFilesz < 0 || dynOffset + dynFilesz > size)) {
+            dynFilesz = 0;
+        }
+        info.elfCrc32 = elfDigest(buf, phoff, phnum, dynVaddr >= 0 ? dynOffset : 0, dynVaddr >= 0 ? dynFilesz : 0);
+
+        // Same page rounding as MemoryManager::phdr_table_get_load_size
+        info.minVaddr = minAddr & ~(long) (PAGE_SIZE - 1);
+        info.loadSize = ((maxAddr + PAGE_SIZE - 1) & ~(long) (PAGE_SIZE - 1)) - info.minVaddr;
+
+        if (dynVaddr >= 0) {
+            parseDynamic(info, buf, dynVaddr, dynMemsz);
+        }
+        return info;
+    }
+
+    /**
+     * Must match Preflight::ElfDigest in mylinker
+     */
+    static long elfDigest(ByteBuffer buf, long phoff, int phnum, long dynOffset, long dynFilesz) {
+        CRC32 crc = new CRC32();
+        update(crc, buf, 0, EHDR64_SIZE);
+        update(crc, buf, phoff, (long) phnum * PHDR64_SIZE);
+        update(crc, buf, dynOffset, dynFilesz);
+        return crc.getValue();
+    }
+
+    // CRC32.update(ByteBuffer) needs API 26, copy the range out instead
+    private static void update(CRC32 crc, ByteBuffer buf, long offset, long length) {
+        byte[] bytes = new byte[(int) length];
+        ByteBuffer in = buf.duplicate();
+        in.position((int) offset);
+        in.get(bytes);
+        crc.update(bytes);
+    }
+
+    private static void parseDynamic(SoPreflight info, ByteBuffer buf, long dynVaddr, long dynMemsz) {
+        long dynOff = toFileOffset(info, dynVaddr);
+        if (dynOff < 0) {
+            return;
+        }
+
+        long strtab = -1, symtab = -1, rela = -1, relasz = 0, jmprel = -1, pltrelsz = 0;
+        List<Long> needed = new ArrayList<>();
+        long count = dynMemsz / DYN64_SIZE;
+        for (long i = 0; i < count; i++) {
+            long p = dynOff + i * DYN64_SIZE;
+            if (p + DYN64_SIZE > buf.limit()) break;
+            long tag = buf.getLong((int) p);
+            long val = buf.getLong((int) p + 8);
+            if (tag == DT_NULL) break;
+            if (tag == DT_NEEDED) needed.add(val);
+            else if (tag == DT_STRTAB) strtab = val;
+            else if (tag == DT_SYMTAB) symtab = val;
+            else if (tag == DT_RELA) rela = val;
+            else if (tag == DT_RELASZ) relasz = val;
+            else if (tag == DT_JMPREL) jmprel = val;
+            else if (tag == DT_PLTRELSZ) pltrelsz = val;
+        }
+
+        info.relaCount = rela >= 0 ? relasz / RELA64_SIZE : 0;
+        info.pltRelaCount = jmprel >= 0 ? pltrelsz / RELA64_SIZE : 0;
+
+        long strOff = strtab >= 0 ? toFileOffset(info, strtab) : -1;
+        if (strOff < 0) {
+            return;
+        }
+        for (long n : needed) {
+            String name = readString(buf, strOff + n);
+            if (name != null) info.neededLibs.add(name);
+        }
+
+        long symOff = symtab >= 0 ? toFileOffset(info, symtab) : -1;
+        if (symOff < 0) {
+            return;
+        }
+        Set<String> symbols = new LinkedHashSet<>();
+        collectUndefinedSymbols(symbols, buf, toFileOffset(info, rela), info.relaCount, symOff, strOff);
+        collectUndefinedSymbols(symbols, buf, toFileOffset(info, jmprel), info.pltRelaCount, symOff, strOff);
+        info.requiredSymbols.addAll(symbols);
+    }
+
+    private static void collectUndefinedSymbols(Set<String> out, ByteBuffer buf, long relaOff, long count,
+                                                long symOff, long strOff) {
+        if (relaOff < 0) {
+            return;
+        }
+        for (long i = 0; i < count; i++) {
+            long p = relaOff + i * RELA64_SIZE;
+            if (p + RELA64_SIZE > buf.limit()) return;
+            long sym = buf.getLong((int) p + 8) >>> 32;
+            if (sym == 0) continue;
+            long s = symOff + sym * SYM64_SIZE;
+            if (s + SYM64_SIZE > buf.limit()) continue;
+            int shndx = buf.getShort((int) s + 6) & 0xffff;
+            if (shndx != SHN_UNDEF) continue;
+            String name = readString(buf, strOff + (buf.getInt((int) s) & 0xffffffffL));
+            if (name != null && !name.isEmpty()) out.add(name);
+        }
+    }
+
+    private static long toFileOffset(SoPreflight info, long vaddr) {
+        if (vaddr < 0) {
+            return -1;
+        }
+        for (Segment seg : info.segments) {
+            if (vaddr >= seg.vaddr && vaddr < seg.vaddr + seg.filesz) {
+                return vaddr - seg.vaddr + seg.offset;
+            }
+        }
+        return -1;
+    }
+
+    private static String readString(ByteBuffer buf, long off) {
+        if (off < 0 || off >= buf.limit()) {
+            return null;
+        }
+        int end = (int) off;
+        while (end < buf.limit() && buf.get(end) != 0) end++;
+        byte[] bytes = new byte[end - (int) off];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = buf.get((int) off + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Serialize to the line based sidecar format read by mylinker's Preflight::Load
+     */
+    public String toSidecar() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("version=").append(FORMAT_VERSION).append('\n');
+        sb.append("elf_crc32=").append(String.format("%08x", elfCrc32)).append('\n');
+        sb.append("file_size=").append(fileSize).append('\n');
+        sb.append("min_vaddr=").append(minVaddr).append('\n');
+        sb.append("load_size=").append(loadSize).append('\n');
+        for (Segment seg : segments) {
+            sb.append("segment=").append(seg.vaddr).append(',').append(seg.memsz).append(',')
+                    .append(seg.filesz).append(',').append(seg.offset).append(',').append(seg.flags).append('\n');
+        }
+        sb.append("rela_count=").append(relaCount).append('\n');
+        sb.append("plt_rela_count=").append(pltRelaCount).append('\n');
+        for (String lib : neededLibs) {
+            sb.append("needed=").append(lib).append('\n');
+        }
+        for (String symbol : requiredSymbols) {
+            sb.append("symbol=").append(symbol).append('\n');
+        }
+        return sb.toString();
+    }
+}
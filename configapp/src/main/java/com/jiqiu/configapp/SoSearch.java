@@ -0,0 +1,206 @@
+package com.jiqiu.configapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.topjohnwu.superuser.CallbackList;
+import com.topjohnwu.superuser.Shell;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Recursive file search running in a dedicated root shell
+ * 在独立的 root shell 中递归查找文件，匹配结果逐行流式返回
+ *
+ * 匹配条件为文件名模式 + 可选的 ELF 魔数校验。使用独立 shell 是为了
+ * 取消时可以直接关闭它，不会阻塞主 shell 上的其它命令。
+ */
+public class SoSearch {
+    private static final String TAG = "SoSearch";
+
+    public static final int DEFAULT_MAX_DEPTH = 12;
+    public static final long DEFAULT_TIMEOUT_MS = 30_000;
+
+    // 巨大或无意义的目录树：伪文件系统、以及 /sdcard 在 /storage 和 /mnt 下的重复挂载
+    public static final String[] PRUNE_PATHS = {
+            "/proc", "/sys", "/dev", "/acct", "/config",
+            "/storage/emulated", "/storage/self", "/mnt/runtime", "/mnt/user", "/mnt/pass_through",
+            "/data/media/0/Android/data", "/data/media/0/Android/obb",
+    };
+
+    private static final Executor shellExecutor = Executors.newCachedThreadPool();
+
+    public interface Listener {
+        /** Called on the main thread for every match as it is found */
+        void onMatch(String path);
+
+        /** Called once on the main thread; {@code timedOut} implies the walk was stopped early */
+        void onFinished(int matchCount, boolean cancelled, boolean timedOut);
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ShellExecutor executor;
+    private final Listener listener;
+    private volatile Shell shell;
+    private volatile boolean cancelled;
+    private volatile boolean stopped;
+    private boolean finished;
+    private boolean timedOut;
+    private int matchCount;
+
+    private SoSearch(ShellExecutor executor, Listener listener) {
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    /**
+     * Build the shell command for the walk. Each match is printed as an absolute path on its own line.
+     * @param namePattern find -name glob
+     * @param suffix required file name suffix, or null
+     * @param requireElf only report files starting with the ELF magic
+     */
+    public static String buildSearchCommand(String root, String namePattern, String suffix,
+                                            int maxDepth, boolean requireElf, String[] prunePaths) {
+        StringBuilder cmd = new StringBuilder("find ").append(quote(root));
+        cmd.append(" -maxdepth ").append(maxDepth);
+        if (prunePaths != null && prunePaths.length > 0) {
+            cmd.append(" \\(");
+            for (int i = 0; i < prunePaths.length; i++) {
+                if (i > 0) cmd.append(" -o");
+                cmd.append(" -path ").append(quote(prunePaths[i]));
+            }
+            cmd.append(" \\) -prune -o");
+        }
+        cmd.append(" -type f -name ").append(quote(namePattern));
+        if (suffix != null && !suffix.isEmpty()) {
+            cmd.append(" -name ").append(quote("*" + suffix));
+        }
+        cmd.append(" -print 2>/dev/null");
+        if (requireElf) {
+            // 名称匹配的候选才读 4 字节魔数，避免对整棵树逐个 fork
+            cmd.append(" | while IFS= read -r f; do ")
+                    .append("[ \"$(head -c 4 \"$f\" 2>/dev/null)\" = \"$(printf '\\177ELF')\" ] && echo \"$f\"; ")
+                    .append("done");
+        }
+        return cmd.toString();
+    }
+
+    /**
+     * Turn user input into a find glob; plain text matches anywhere in the name
+     */
+    public static String toNamePattern(String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return "*";
+        }
+        query = query.trim();
+        if (query.indexOf('*') >= 0 || query.indexOf('?') >= 0 || query.indexOf('[') >= 0) {
+            return query;
+        }
+        return "*" + query + "*";
+    }
+
+    static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Start a search under {@code root}. Results and completion are delivered on the main thread.
+     * @param executor hands out the search's own shell through {@link ShellExecutor#acquireShell}
+     */
+    public static SoSearch start(ShellExecutor executor, String root, String query, String suffix, int maxDepth,
+                                 long timeoutMs, Listener listener) {
+        SoSearch search = new SoSearch(executor, listener);
+        boolean requireElf = ".so".equals(suffix);
+        String cmd = buildSearchCommand(root, toNamePattern(query), suffix, maxDepth, requireElf, PRUNE_PATHS);
+        search.run(cmd, timeoutMs);
+        return search;
+    }
+
+    private void run(String cmd, long timeoutMs) {
+        mainHandler.postDelayed(() -> {
+            if (!finished) {
+                Log.w(TAG, "Search timed out after " + timeoutMs + " ms");
+                timedOut = true;
+                stop();
+            }
+        }, timeoutMs);
+
+        shellExecutor.execute(() -> {
+            Shell s;
+            try {
+                s = executor.acquireShell();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to start search shell", e);
+                mainHandler.post(() -> finish(false));
+                return;
+            }
+            shell = s;
+            if (stopped) {
+                closeShell();
+                return;
+            }
+
+            Log.d(TAG, "Searching: " + cmd);
+            // CallbackList 默认在主线程回调，每读到一行就回调一次
+            CallbackList<String> out = new CallbackList<String>() {
+                @Override
+                public void onAddElement(String line) {
+                    if (finished || line.isEmpty()) {
+                        return;
+                    }
+                    matchCount++;
+                    listener.onMatch(line);
+                }
+            };
+            s.newJob().add(cmd).to(out).submit(result -> {
+                finish(false);
+                closeShell();
+            });
+        });
+    }
+
+    /**
+     * Stop the walk. Matches already delivered stay valid; no further callbacks except onFinished.
+     */
+    public void cancel() {
+        if (!finished) {
+            cancelled = true;
+            stop();
+        }
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private void stop() {
+        stopped = true;
+        finish(true);
+        shellExecutor.execute(this::closeShell);
+    }
+
+    private void finish(boolean early) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        mainHandler.removeCallbacksAndMessages(null);
+        Log.d(TAG, "Search finished: " + matchCount + " matches" + (early ? " (stopped early)" : ""));
+        listener.onFinished(matchCount, cancelled, timedOut);
+    }
+
+    private void closeShell() {
+        Shell s = shell;
+        shell = null;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close search shell", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.jiqiu.configapp;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Per-app injection latency and failure rate, read incrementally from the native telemetry ring
+ */
+public class TelemetryActivity extends AppCompatActivity {
+
+    private static final String TAG = "TelemetryActivity";
+    private static final long POLL_INTERVAL_MS = 5000;
+
+    private TextView summaryText;
+    private RecyclerView recyclerView;
+    private View emptyView;
+    private StatsAdapter adapter;
+
+    // Reader and stats survive onPause so resuming only reads what was appended meanwhile
+    private TelemetryReader reader;
+    private final TelemetryStats stats = new TelemetryStats();
+    private final ExecutorService pollExecutor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private boolean polling = false;
+    private boolean pollInFlight = false;
+    private long totalRecords = 0;
+
+    private final Runnable pollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            poll();
+            handler.postDelayed(this, POLL_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_telemetry);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        getSupportActionBar().setTitle(R.string.title_telemetry);
+
+        summaryText = findViewById(R.id.tvTelemetrySummary);
+        recyclerView = findViewById(R.id.recyclerView);
+        emptyView = findViewById(R.id.emptyView);
+
+        reader = new TelemetryReader(ShellExecutor.of(this));
+        adapter = new StatsAdapter();
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.setAdapter(adapter);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (!polling) {
+            polling = true;
+            handler.post(pollRunnable);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        polling = false;
+        handler.removeCallbacks(pollRunnable);
+    }
+
+    private void poll() {
+        // 上一次读取还没完成时跳过，避免慢 shell 下任务堆积
+        if (pollInFlight) {
+            return;
+        }
+        pollInFlight = true;
+        pollExecutor.execute(() -> {
+            List<TelemetryReader.Record> records = reader.poll();
+            if (reader.wasReset()) {
+                stats.clear();
+            }
+            stats.addAll(records);
+            List<TelemetryStats.AppStats> snapshot = records.isEmpty() && !reader.wasReset()
+                    ? null : stats.snapshot();
+            if (!records.isEmpty()) {
+                Log.d(TAG, "Read " + records.size() + " new records up to seq " + reader.getLastSeq());
+            }
+            runOnUiThread(() -> {
+                pollInFlight = false;
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                if (snapshot != null) {
+                    adapter.setItems(snapshot);
+                }
+                totalRecords = reader.getLastSeq();
+                updateSummary();
+            });
+        });
+    }
+
+    private void updateSummary() {
+        boolean empty = adapter.getItemCount() == 0;
+        emptyView.setVisibility(empty ? View.VISIBLE : View.GONE);
+        recyclerView.setVisibility(empty ? View.GONE : View.VISIBLE);
+        summaryText.setText(String.format(Locale.US, "共 %d 次注入记录，%d 个应用 · 每 %d 秒刷新",
+                totalRecords, adapter.getItemCount(), POLL_INTERVAL_MS / 1000));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(pollRunnable);
+        pollExecutor.shutdownNow();
+    }
+
+    @Override
+    public boolean onSupportNavigateUp() {
+        onBackPressed();
+        return true;
+    }
+
+    class StatsAdapter extends RecyclerView.Adapter<StatsAdapter.ViewHolder> {
+        private List<TelemetryStats.AppStats> items = new ArrayList<>();
+
+        void setItems(List<TelemetryStats.AppStats> items) {
+            this.items = items;
+            notifyDataSetChanged();
+        }
+
+        @NonNull
+        @Override
+        public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.item_telemetry, parent, false);
+            return new ViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+            holder.bind(items.get(position));
+        }
+
+        @Override
+        public int getItemCount() {
+            return items.size();
+        }
+
+        class ViewHolder extends RecyclerView.ViewHolder {
+            TextView packageName;
+            TextView latency;
+            TextView details;
+            int detailsColor;
+
+            ViewHolder(@NonNull View itemView) {
+                super(itemView);
+                packageName = itemView.findViewById(R.id.tvPackageName);
+                latency = itemView.findViewById(R.id.tvLatency);
+                details = itemView.findViewById(R.id.tvDetails);
+                detailsColor = details.getCurrentTextColor();
+            }
+
+            void bind(TelemetryStats.AppStats item) {
+                packageName.setText(item.packageName);
+                // 加载：触发后到全部 SO 加载完；总计：还包含等待触发的时间
+                latency.setText(String.format(Locale.US,
+                        "加载 p50 %dms · p90 %dms · p99 %dms\n总计 p50 %dms · p90 %dms · p99 %dms",
+                        item.p50LoadMs, item.p90LoadMs, item.p99LoadMs, item.p50Ms, item.p90Ms, item.p99Ms));
+
+                String lastSeen = DateUtils.getRelativeTimeSpanString(item.lastTimeMs,
+                        System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS).toString();
+                details.setText(String.format(Locale.US, "%d 次启动 · 失败率 %.1f%% · 等待 p50 %dms · %s/%s · %s",
+                        item.count, item.getFailureRate() * 100, item.p50WaitMs,
+                        item.lastMethod, item.lastTrigger, lastSeen));
+                details.setTextColor(item.failures > 0
+                        ? itemView.getContext().getColor(android.R.color.holo_red_dark)
+                        : detailsColor);
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.jiqiu.configapp;
+
+import android.util.Log;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tail reader for the injection telemetry ring written by native telemetry.cpp
+ * 文件由定长槽组成：slot 0 是头部 {@code RING|v1|slots=256|slot=512|seq=N}，
+ * 第 s 条记录位于 slot {@code 1 + (s - 1) % slots}。
+ *
+ * 每次 {@link #poll()} 先只读头部，只有 seq 前进时才用 dd 读取新增的槽，
+ * 历史再长也最多读取一圈（slots * slot 字节）。
+ */
+public class TelemetryReader {
+    private static final String TAG = "TelemetryReader";
+
+    public static final String RING_FILE = ConfigManager.MODULE_PATH + "/telemetry.ring";
+
+    private static final String HEADER_MAGIC = "RING";
+    private static final String RECORD_VERSION = "v1";
+    // 读到头部之前还不知道槽大小，native 端固定为 512
+    private static final int HEADER_READ_SIZE = 512;
+
+    public static class Header {
+        public final int slots;
+        public final int slotSize;
+        public final long seq;
+
+        Header(int slots, int slotSize, long seq) {
+            this.slots = slots;
+            this.slotSize = slotSize;
+            this.seq = seq;
+        }
+    }
+
+    public static class LibraryTiming {
+        public final String name;
+        public final long loadMs;
+        public final boolean ok;
+
+        LibraryTiming(String name, long loadMs, boolean ok) {
+            this.name = name;
+            this.loadMs = loadMs;
+            this.ok = ok;
+        }
+    }
+
+    public static class Record {
+        public final long seq;
+        public final long timeMs;
+        public final String packageName;
+        public final String method;
+        public final String trigger;
+        public final long waitMs;
+        public final long totalMs;
+        public final boolean ok;
+        public final List<LibraryTiming> libraries;
+
+        Record(long seq, long timeMs, String packageName, String method, String trigger,
+               long waitMs, long totalMs, boolean ok, List<LibraryTiming> libraries) {
+            this.seq = seq;
+            this.timeMs = timeMs;
+            this.packageName = packageName;
+            this.method = method;
+            this.trigger = trigger;
+            this.waitMs = waitMs;
+            this.totalMs = totalMs;
+            this.ok = ok;
+            this.libraries = libraries;
+        }
+
+        /**
+         * Time spent loading after the trigger fired; totalMs also counts the wait for the trigger
+         */
+        public long getLoadMs() {
+            return Math.max(0, totalMs - waitMs);
+        }
+    }
+
+    private final ShellExecutor shell;
+    private final String ringFile;
+    private long lastSeq = 0;
+    private boolean reset = false;
+
+    public TelemetryReader(ShellExecutor shell) {
+        this(shell, RING_FILE);
+    }
+
+    public TelemetryReader(ShellExecutor shell, String ringFile) {
+        this.shell = shell;
+        this.ringFile = ringFile;
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * True if the last poll found the ring recreated, previously returned records are gone
+     */
+    public boolean wasReset() {
+        return reset;
+    }
+
+    /**
+     * Records appended since the previous poll, oldest first. Must not run on the main thread.
+     */
+    public List<Record> poll() {
+        reset = false;
+        Shell.Result headerResult = shell.run(buildHeaderCommand(ringFile));
+        if (!headerResult.isSuccess() || headerResult.getOut().isEmpty()) {
+            return Collections.emptyList();
+        }
+        Header header = parseHeader(headerResult.getOut().get(0));
+        if (header == null) {
+            Log.w(TAG, "Unrecognised telemetry header in " + ringFile);
+            return Collections.emptyList();
+        }
+        if (header.seq < lastSeq) {
+            // 文件被删除后重新创建
+            Log.i(TAG, "Telemetry ring restarted at seq " + header.seq);
+            lastSeq = 0;
+            reset = true;
+        }
+        String command = buildReadCommand(ringFile, header, lastSeq);
+        if (command == null) {
+            return Collections.emptyList();
+        }
+        Shell.Result result = shell.run(command);
+        if (!result.isSuccess()) {
+            Log.e(TAG, "Failed to read telemetry ring: " + result.getErr());
+            return Collections.emptyList();
+        }
+        List<Record> records = parseRecords(result.getOut(), firstSeq(header, lastSeq), header.seq);
+        lastSeq = header.seq;
+        return records;
+    }
+
+    public static String buildHeaderCommand(String ringFile) {
+        return "dd if=\"" + ringFile + "\" bs=" + HEADER_READ_SIZE + " count=1 2>/dev/null";
+    }
+
+    /**
+     * First record worth reading: everything after {@code lastSeq} that has not been overwritten
+     */
+    static long firstSeq(Header header, long lastSeq) {
+        return Math.max(lastSeq + 1, Math.max(1, header.seq - header.slots + 1));
+    }
+
+    /**
+     * dd commands for the slots holding records (lastSeq, header.seq], at most two contiguous
+     * ranges when the ring wraps; null if there is nothing new
+     */
+    public static String buildReadCommand(String ringFile, Header header, long lastSeq) {
+        long first = firstSeq(header, lastSeq);
+        if (first > header.seq) {
+            return null;
+        }
+        int count = (int) (header.seq - first + 1);
+        int firstSlot = slotOf(header, first);
+        int tail = Math.min(count, header.slots - firstSlot + 1);
+        StringBuilder command = new StringBuilder(dd(ringFile, header.slotSize, firstSlot, tail));
+        if (count > tail) {
+            command.append("; ").append(dd(ringFile, header.slotSize, 1, count - tail));
+        }
+        return command.toString();
+    }
+
+    private static String dd(String ringFile, int slotSize, int skip, int count) {
+        return "dd if=\"" + ringFile + "\" bs=" + slotSize + " skip=" + skip + " count=" + count + " 2>/dev/null";
+    }
+
+    static int slotOf(Header header, long seq) {
+        return 1 + (int) ((seq - 1) % header.slots);
+    }
+
+    public static Header parseHeader(String line) {
+        if (line == null) {
+            return null;
+        }
+        String[] parts = line.trim().split("\\|");
+        if (parts.length != 5 || !HEADER_MAGIC.equals(parts[0]) || !RECORD_VERSION.equals(parts[1])) {
+            return null;
+        }
+        try {
+            int slots = Integer.parseInt(value(parts[2], "slots="));
+            int slotSize = Integer.parseInt(value(parts[3], "slot="));
+            long seq = Long.parseLong(value(parts[4], "seq="));
+            if (slots <= 0 || slotSize <= 0 || seq < 0) {
+                return null;
+            }
+            return new Header(slots, slotSize, seq);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String value(String part, String key) {
+        if (!part.startsWith(key)) {
+            throw new NumberFormatException(part);
+        }
+        return part.substring(key.length());
+    }
+
+    /**
+     * Keep only records in [fromSeq, toSeq]; slots overwritten between the header read and
+     * the slot read carry a newer seq and are dropped here
+     */
+    static List<Record> parseRecords(List<String> lines, long fromSeq, long toSeq) {
+        List<Record> records = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            Record record = parseRecord(line);
+            if (record != null && record.seq >= fromSeq && record.seq <= toSeq) {
+                records.add(record);
+            }
+        }
+        Collections.sort(records, (a, b) -> Long.compare(a.seq, b.seq));
+        return records;
+    }
+
+    public static Record parseRecord(String line) {
+        if (line == null) {
+            return null;
+        }
+        String[] parts = line.trim().split("\\|", -1);
+        if (parts.length != 10 || !RECORD_VERSION.equals(parts[0])) {
+            return null;
+        }
+        try {
+            List<LibraryTiming> libraries = new ArrayList<>();
+            if (!parts[9].isEmpty()) {
+                for (String entry : parts[9].split(";")) {
+                    String[] fields = entry.split(":");
+                    if (fields.length != 3) {
+                        return null;
+                    }
+                    libraries.add(new LibraryTiming(fields[0], Long.parseLong(fields[1]), "1".equals(fields[2])));
+                }
+            }
+            return new Record(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3], parts[4],
+                    parts[5], Long.parseLong(parts[6]), Long.parseLong(parts[7]), "1".equals(parts[8]),
+                    libraries);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
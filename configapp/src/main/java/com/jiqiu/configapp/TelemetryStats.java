@@ -0,0 +1,139 @@
+package com.jiqiu.configapp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-app aggregation of telemetry records
+ * 每个应用只保留最近 {@code windowSize} 次启动，百分位和失败率都基于这个窗口计算。
+ * 总耗时包含等待注入时机（延迟、等库、等 Activity）的时间，加载耗时不含，两者分别统计。
+ */
+public class TelemetryStats {
+
+    public static final int DEFAULT_WINDOW_SIZE = 200;
+
+    public static class AppStats {
+        public final String packageName;
+        public final int count;
+        public final int failures;
+        public final long p50Ms;
+        public final long p90Ms;
+        public final long p99Ms;
+        // Same percentiles without the wait for the trigger
+        public final long p50LoadMs;
+        public final long p90LoadMs;
+        public final long p99LoadMs;
+        public final long p50WaitMs;
+        public final String lastMethod;
+        public final String lastTrigger;
+        public final long lastTimeMs;
+
+        AppStats(String packageName, int count, int failures, long p50Ms, long p90Ms, long p99Ms,
+                 long p50LoadMs, long p90LoadMs, long p99LoadMs, long p50WaitMs,
+                 String lastMethod, String lastTrigger, long lastTimeMs) {
+            this.packageName = packageName;
+            this.count = count;
+            this.failures = failures;
+            this.p50Ms = p50Ms;
+            this.p90Ms = p90Ms;
+            this.p99Ms = p99Ms;
+            this.p50LoadMs = p50LoadMs;
+            this.p90LoadMs = p90LoadMs;
+            this.p99LoadMs = p99LoadMs;
+            this.p50WaitMs = p50WaitMs;
+            this.lastMethod = lastMethod;
+            this.lastTrigger = lastTrigger;
+            this.lastTimeMs = lastTimeMs;
+        }
+
+        public double getFailureRate() {
+            return count == 0 ? 0 : (double) failures / count;
+        }
+    }
+
+    private final int windowSize;
+    private final Map<String, ArrayDeque<TelemetryReader.Record>> windows = new HashMap<>();
+
+    public TelemetryStats() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public TelemetryStats(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public synchronized void add(TelemetryReader.Record record) {
+        ArrayDeque<TelemetryReader.Record> window = windows.get(record.packageName);
+        if (window == null) {
+            window = new ArrayDeque<>();
+            windows.put(record.packageName, window);
+        }
+        window.addLast(record);
+        while (window.size() > windowSize) {
+            window.removeFirst();
+        }
+    }
+
+    public synchronized void addAll(List<TelemetryReader.Record> records) {
+        for (TelemetryReader.Record record : records) {
+            add(record);
+        }
+    }
+
+    public synchronized void clear() {
+        windows.clear();
+    }
+
+    /**
+     * Snapshot of every app, most recently injected first
+     */
+    public synchronized List<AppStats> snapshot() {
+        List<AppStats> result = new ArrayList<>(windows.size());
+        for (Map.Entry<String, ArrayDeque<TelemetryReader.Record>> entry : windows.entrySet()) {
+            result.add(summarize(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(result, (a, b) -> Long.compare(b.lastTimeMs, a.lastTimeMs));
+        return result;
+    }
+
+    private static AppStats summarize(String packageName, ArrayDeque<TelemetryReader.Record> window) {
+        long[] totals = new long[window.size()];
+        long[] loads = new long[window.size()];
+        long[] waits = new long[window.size()];
+        int failures = 0;
+        int i = 0;
+        for (TelemetryReader.Record record : window) {
+            totals[i] = record.totalMs;
+            loads[i] = record.getLoadMs();
+            waits[i] = record.waitMs;
+            if (!record.ok) {
+                failures++;
+            }
+            i++;
+        }
+        Arrays.sort(totals);
+        Arrays.sort(loads);
+        Arrays.sort(waits);
+        TelemetryReader.Record last = window.peekLast();
+        return new AppStats(packageName, totals.length, failures,
+                percentile(totals, 50), percentile(totals, 90), percentile(totals, 99),
+                percentile(loads, 50), percentile(loads, 90), percentile(loads, 99),
+                percentile(waits, 50), last.method, last.trigger, last.timeMs);
+    }
+
+    /**
+     * Nearest-rank percentile of an ascending array, 0 when empty
+     */
+    static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+}
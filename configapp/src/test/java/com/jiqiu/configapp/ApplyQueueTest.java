@@ -0,0 +1,342 @@
+package com.jiqiu.configapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * Floods the apply queue with requests and checks that work is serialised, coalesced per package,
+ * and ends in the state of the last request sent.
+ */
+public class ApplyQueueTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void floodIsSerialisedAndCoalesced() throws Exception {
+        final int requests = 500;
+        final int packages = 10;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final Map<String, String> applied = Collections.synchronizedMap(new HashMap<>());
+        ApplyQueue queue = new ApplyQueue(request -> {
+            if (active.incrementAndGet() > 1) {
+                overlaps.incrementAndGet();
+            }
+            Thread.sleep(2);
+            applied.put(request.key, request.tmpConfigPath);
+            active.decrementAndGet();
+            return true;
+        });
+
+        // Four senders, like several scripts firing broadcasts at once
+        final AtomicIntegerArray completions = new AtomicIntegerArray(requests);
+        final Map<String, String> lastSent = new HashMap<>();
+        final Object sendLock = new Object();
+        final AtomicInteger next = new AtomicInteger();
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread sender = new Thread(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < requests) {
+                    final int id = i;
+                    String packageName = "com.example.app" + (i % packages);
+                    ApplyQueue.Request request = new ApplyQueue.Request(
+                            packageName, "/data/local/tmp/config_" + i + ".json", null, true)
+                            .addCompletion(result -> {
+                                assertEquals(ApplyQueue.RESULT_APPLIED, result);
+                                completions.incrementAndGet(id);
+                            });
+                    // Submission order per package is what "last" means
+                    synchronized (sendLock) {
+                        lastSent.put(packageName, request.tmpConfigPath);
+                        assertTrue(queue.submit(request));
+                    }
+                }
+            });
+            senders.add(sender);
+            sender.start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        assertTrue(queue.awaitIdle(10_000));
+
+        assertEquals(0, overlaps.get());
+        for (int i = 0; i < requests; i++) {
+            assertEquals("completion of request " + i, 1, completions.get(i));
+        }
+        assertEquals(lastSent, applied);
+        // Every request either ran or was folded into one that ran
+        assertEquals(requests, queue.getProcessedCount() + queue.getCoalescedCount());
+        // Ten packages, one worker: most requests are folded into one still waiting
+        assertTrue(queue.describe(), queue.getCoalescedCount() > 0);
+        assertTrue(queue.describe(), queue.getProcessedCount() < requests);
+    }
+
+    @Test
+    public void configLessRequestDoesNotReorderPublishes() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> published = Collections.synchronizedList(new ArrayList<>());
+        ApplyQueue queue = new ApplyQueue(request -> {
+            started.countDown();
+            release.await();
+            if (request.tmpConfigPath != null) {
+                published.add(request.tmpConfigPath);
+            }
+            return true;
+        });
+        List<String> a = Collections.singletonList("com.a");
+        List<String> b = Collections.singletonList("com.b");
+
+        // Holds the worker so the rest stays pending
+        assertTrue(queue.submit(ApplyQueue.Request.fromBroadcast(Collections.singletonList("com.busy"), false,
+                null, null, false)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(queue.submit(ApplyQueue.Request.fromBroadcast(a, false, "/t/c1.json", null, false)));
+        assertTrue(queue.submit(ApplyQueue.Request.fromBroadcast(b, false, "/t/c2.json", null, false)));
+        // What PackageChangeReceiver sends: deploy only, no config
+        assertTrue(queue.submit(ApplyQueue.Request.fromBroadcast(a, false, null, null, true)));
+        assertEquals(2, queue.getPendingCount());
+
+        release.countDown();
+        assertTrue(queue.awaitIdle(5_000));
+        assertEquals(Arrays.asList("/t/c1.json", "/t/c2.json"), published);
+        assertEquals(1, queue.getCoalescedCount());
+
+        // A newer config for the same package still moves behind everything queued before it
+        final CountDownLatch started2 = new CountDownLatch(1);
+        final CountDownLatch release2 = new CountDownLatch(1);
+        final List<String> published2 = Collections.synchronizedList(new ArrayList<>());
+        ApplyQueue queue2 = new ApplyQueue(request -> {
+            started2.countDown();
+            release2.await();
+            published2.add(request.tmpConfigPath);
+            return true;
+        });
+        assertTrue(queue2.submit(ApplyQueue.Request.fromBroadcast(Collections.singletonList("com.busy"), false,
+                "/t/c0.json", null, false)));
+        assertTrue(started2.await(5, TimeUnit.SECONDS));
+        assertTrue(queue2.submit(ApplyQueue.Request.fromBroadcast(a, false, "/t/c1.json", null, false)));
+        assertTrue(queue2.submit(ApplyQueue.Request.fromBroadcast(b, false, "/t/c2.json", null, false)));
+        assertTrue(queue2.submit(ApplyQueue.Request.fromBroadcast(a, false, "/t/c3.json", null, false)));
+        release2.countDown();
+        assertTrue(queue2.awaitIdle(5_000));
+        assertEquals(Arrays.asList("/t/c0.json", "/t/c2.json", "/t/c3.json"), published2);
+    }
+
+    @Test
+    public void fullQueueRejects() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ApplyQueue queue = new ApplyQueue(request -> {
+            started.countDown();
+            release.await();
+            return true;
+        }, 2);
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+
+        assertTrue(queue.submit(new ApplyQueue.Request("com.a", null, null, true).addCompletion(results::add)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(queue.submit(new ApplyQueue.Request("com.b", null, null, true).addCompletion(results::add)));
+        assertTrue(queue.submit(new ApplyQueue.Request("com.c", null, null, true).addCompletion(results::add)));
+        assertFalse(queue.submit(new ApplyQueue.Request("com.d", null, null, true).addCompletion(results::add)));
+        assertEquals(Collections.singletonList(ApplyQueue.RESULT_REJECTED), results);
+        // Still accepted when it merges into a pending request
+        assertTrue(queue.submit(new ApplyQueue.Request("com.b", null, null, true).addCompletion(results::add)));
+        assertEquals(2, queue.getPendingCount());
+
+        release.countDown();
+        assertTrue(queue.awaitIdle(5_000));
+        assertEquals(5, results.size());
+        assertEquals(1, queue.getRejectedCount());
+        assertEquals(3, queue.getProcessedCount());
+    }
+
+    @Test
+    public void mergeKeepsNewestFilesAndCleansUpTheRest() {
+        List<String> a = Collections.singletonList("com.a");
+        ApplyQueue.Request first = ApplyQueue.Request.fromBroadcast(a, false, "/t/c1.json", "/t/g.config", true);
+        ApplyQueue.Request second = ApplyQueue.Request.fromBroadcast(a, false, "/t/c2.json", null, true);
+        assertFalse(first.deploy);
+        assertTrue(ApplyQueue.Request.fromBroadcast(a, false, "", null, true).deploy);
+
+        ApplyQueue.Request merged = first.merge(second);
+        assertEquals("/t/c2.json", merged.tmpConfigPath);
+        assertEquals("/t/g.config", merged.tmpGadgetConfigPath);
+        assertEquals(Collections.singletonList("/t/c1.json"), merged.stalePaths);
+        assertEquals(2, merged.getMergedCount());
+        assertFalse(merged.deploy);
+
+        assertFalse(first.canMerge(ApplyQueue.Request.fromBroadcast(a, false, null, "/t/other.config", false)));
+        assertTrue(first.canMerge(ApplyQueue.Request.fromBroadcast(a, false, null, "/u/g.config", false)));
+
+        // Package lists and "all enabled" are keys of their own
+        assertEquals("com.a,com.b", ApplyQueue.Request.fromBroadcast(
+                Arrays.asList("com.a", "com.b"), false, null, null, false).key);
+        ApplyQueue.Request all = ApplyQueue.Request.fromBroadcast(a, true, null, null, false);
+        assertTrue(all.isAllEnabled());
+        assertTrue(all.packageNames.isEmpty());
+        assertTrue(all.merge(all).isAllEnabled());
+    }
+
+    @Test
+    public void appliesInSandbox() throws Exception {
+        Sandbox sandbox = new Sandbox(tmp);
+        sandbox.mkdirs("/data/local/tmp");
+        sandbox.storeSo("liba.so", "ELF-a");
+        String[] packages = {"com.example.one", "com.example.two", "com.example.three"};
+        for (String packageName : packages) {
+            sandbox.installApp(packageName);
+        }
+
+        ApplyQueue queue = new ApplyQueue(new ConfigApplier(sandbox.context, sandbox.shell, new DeployMetrics()));
+        final AtomicInteger failures = new AtomicInteger();
+        int requests = 150;
+        String lastConfig = null;
+        for (int i = 0; i < requests; i++) {
+            String packageName = packages[i % packages.length];
+            // Every config enables all three apps; only injectionDelay tells them apart
+            StringBuilder json = new StringBuilder("{\"injectionDelay\":" + i + ",\"perAppConfig\":{");
+            for (int p = 0; p < packages.length; p++) {
+                json.append(p > 0 ? "," : "").append('"').append(packages[p]).append("\":{\"enabled\":true,"
+                        + "\"soFiles\":[").append(Sandbox.soFile("liba.so")).append("]}");
+            }
+            lastConfig = json.append("}}").toString();
+            String tmpPath = "/data/local/tmp/config_" + i + ".json";
+            sandbox.write(tmpPath, lastConfig);
+            // Every tenth request targets all enabled apps at once
+            queue.submit(ApplyQueue.Request.fromBroadcast(Collections.singletonList(packageName), i % 10 == 0,
+                    tmpPath, null, false)
+                    .addCompletion(result -> {
+                        if (result != ApplyQueue.RESULT_APPLIED) {
+                            failures.incrementAndGet();
+                        }
+                    }));
+        }
+        assertTrue(queue.awaitIdle(60_000));
+
+        assertEquals(0, failures.get());
+        assertEquals(lastConfig, sandbox.read(ConfigManager.CONFIG_FILE));
+        for (String packageName : packages) {
+            assertTrue(sandbox.resolve(Sandbox.filesDir(packageName) + "/liba.so").exists());
+        }
+        // Temp configs of merged requests are removed too
+        String[] left = sandbox.resolve("/data/local/tmp").list();
+        assertNotNull(left);
+        assertEquals(0, left.length);
+        assertTrue(queue.describe(), queue.getProcessedCount() < requests);
+    }
+
+    @Test
+    public void repairRunsOnTheQueue() throws Exception {
+        Sandbox sandbox = new Sandbox(tmp);
+        sandbox.installApp("com.example.one");
+        sandbox.storeSo("liba.so", "ELF-a");
+        sandbox.writeConfig("{\"perAppConfig\":{\"com.example.one\":{\"enabled\":true,\"soFiles\":["
+                + Sandbox.soFile("liba.so") + "]}}}");
+        ApplyQueue queue = new ApplyQueue(new ConfigApplier(sandbox.context, sandbox.shell, new DeployMetrics()));
+
+        // Data cleared while nothing was listening
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+        ApplyQueue.Request repair = ApplyQueue.Request.repair(false).addCompletion(results::add);
+        assertEquals(ApplyQueue.Request.REPAIR, repair.key);
+        assertTrue(queue.submit(repair));
+        assertTrue(queue.awaitIdle(10_000));
+
+        assertEquals(Collections.singletonList(ApplyQueue.RESULT_APPLIED), results);
+        assertTrue(sandbox.resolve(Sandbox.filesDir("com.example.one") + "/liba.so").exists());
+        assertEquals(DeployHealth.ABSENT, repair.scanned.drifts.get(0).reason);
+        assertTrue(repair.rescanned.isHealthy());
+
+        // Nothing drifted: no redeploy, no second scan
+        ApplyQueue.Request again = ApplyQueue.Request.repair(true);
+        assertTrue(queue.submit(again));
+        assertTrue(queue.awaitIdle(10_000));
+        assertTrue(again.scanned.isHealthy());
+        assertNull(again.rescanned);
+    }
+
+    @Test
+    public void statusRecordsFollowEveryRequestId() throws Exception {
+        Sandbox sandbox = new Sandbox(tmp);
+        sandbox.mkdirs("/data/local/tmp");
+        sandbox.installApp("com.example.one");
+        sandbox.storeSo("liba.so", "ELF-a");
+        String json = "{\"perAppConfig\":{\"com.example.one\":{\"enabled\":true,\"soFiles\":["
+                + Sandbox.soFile("liba.so") + "," + Sandbox.soFile("gone.so") + "]}}}";
+        ApplyStatusStore store = new ApplyStatusStore(tmp.newFolder("apply_status"));
+        ApplyQueue queue = new ApplyQueue(
+                new ConfigApplier(sandbox.context, sandbox.shell, new DeployMetrics(), store));
+
+        List<String> ids = Arrays.asList("r1", "r2", "r3");
+        for (String id : ids) {
+            String tmpPath = "/data/local/tmp/config_" + id + ".json";
+            sandbox.write(tmpPath, json);
+            ApplyStatus queued = new ApplyStatus(id, ApplyStatus.QUEUED, "com.example.one");
+            queued.queuedAt = 42;
+            store.write(queued);
+            queue.submit(ApplyQueue.Request.fromBroadcast(Collections.singletonList("com.example.one"), false,
+                    tmpPath, null, false).addRequestId(id));
+        }
+        assertTrue(queue.awaitIdle(10_000));
+
+        // Coalesced or not, every id ends in a final record describing the run that served it
+        for (String id : ids) {
+            ApplyStatus status = store.read(id);
+            assertNotNull(id, status);
+            assertEquals(id, status.requestId);
+            assertEquals(ApplyStatus.FAILED, status.state);
+            assertTrue(status.isFinal());
+            assertEquals(42, status.queuedAt);
+            assertTrue(status.finishedAt >= status.startedAt);
+            assertTrue(status.phaseMs.containsKey("publish"));
+            assertTrue(status.phaseMs.containsKey("deploy"));
+            assertEquals(Collections.singletonList("com.example.one"), status.failedPackages);
+            assertNotNull(status.error);
+            Map<String, String> files = new HashMap<>();
+            for (ConfigManager.DeployedFile file : status.files) {
+                files.put(file.name, file.status);
+            }
+            assertEquals(ConfigManager.DeployedFile.OK, files.get("liba.so"));
+            assertEquals(ConfigManager.DeployedFile.MISSING, files.get("gone.so"));
+        }
+        assertNull(store.read("../r1"));
+    }
+
+    @Test
+    public void statusStoreKeepsTheNewestRecords() throws Exception {
+        File dir = tmp.newFolder("apply_status");
+        ApplyStatusStore store = new ApplyStatusStore(dir);
+        int total = ApplyStatusStore.MAX_RECORDS + 10;
+        for (int i = 0; i < total; i++) {
+            File previous = store.getFile("r" + (i - 1));
+            store.write(new ApplyStatus("r" + i, ApplyStatus.QUEUED, "com.a"));
+            // File times only need to be ordered, not real
+            store.getFile("r" + i).setLastModified(previous.exists() ? previous.lastModified() + 1000 : 1000);
+        }
+        String[] left = dir.list();
+        assertNotNull(left);
+        assertEquals(ApplyStatusStore.MAX_RECORDS, left.length);
+        assertNotNull(store.read("r" + (total - 1)));
+        assertNull(store.read("r0"));
+        assertFalse(ApplyStatusStore.isValidId("../x"));
+        assertFalse(ApplyStatusStore.isValidId(""));
+    }
+}
@@ -0,0 +1,106 @@
+package com.jiqiu.configapp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Publishes and reads config.gen with the host /bin/sh, the same commands ConfigManager runs as root.
+ */
+public class ConfigGenerationTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private String configFile;
+    private String genFile;
+
+    @Before
+    public void setUp() {
+        configFile = new File(tmp.getRoot(), "config.json").getPath();
+        genFile = new File(tmp.getRoot(), "config.gen").getPath();
+    }
+
+    private List<String> sh(String command) throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", command).start();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        assertEquals("exit code of: " + command, 0, process.waitFor());
+        return lines;
+    }
+
+    private String writeSource(String json) throws IOException {
+        File src = tmp.newFile();
+        try (FileWriter writer = new FileWriter(src)) {
+            writer.write(json);
+        }
+        return src.getPath();
+    }
+
+    private ConfigGeneration publish(String json) throws Exception {
+        return ConfigGeneration.parse(sh(ConfigGeneration.buildPublishCommand(writeSource(json), configFile, genFile)));
+    }
+
+    private ConfigGeneration read() throws Exception {
+        return ConfigGeneration.parse(sh(ConfigGeneration.buildReadCommand(configFile, genFile)));
+    }
+
+    @Test
+    public void publishIncrementsGeneration() throws Exception {
+        ConfigGeneration first = publish("{\"enabled\": true}");
+        ConfigGeneration second = publish("{\"enabled\": false}");
+
+        assertEquals(1, first.generation);
+        assertEquals(2, second.generation);
+        assertEquals(32, first.digest.length());
+        assertNotEquals(first.digest, second.digest);
+    }
+
+    @Test
+    public void reloadSkippedWhenGenerationUnchanged() throws Exception {
+        ConfigGeneration loaded = publish("{\"injectionDelay\": 2}");
+
+        assertFalse(ConfigGeneration.needsReload(loaded, read()));
+        assertFalse(ConfigGeneration.needsReload(read(), read()));
+
+        publish("{\"injectionDelay\": 5}");
+        assertTrue(ConfigGeneration.needsReload(loaded, read()));
+    }
+
+    @Test
+    public void externalEditMarksRecordStale() throws Exception {
+        ConfigGeneration loaded = publish("{}");
+        assertTrue(new File(configFile).setLastModified(System.currentTimeMillis() + 5_000));
+
+        ConfigGeneration current = read();
+        assertTrue(current.stale);
+        assertTrue(ConfigGeneration.needsReload(loaded, current));
+    }
+
+    @Test
+    public void missingRecordAlwaysReloads() throws Exception {
+        assertNull(read());
+        assertTrue(ConfigGeneration.needsReload(null, null));
+        assertNull(ConfigGeneration.parse(Arrays.asList("generation=abc", "digest=x")));
+        assertNull(ConfigGeneration.parse(Arrays.asList("generation=3")));
+    }
+}
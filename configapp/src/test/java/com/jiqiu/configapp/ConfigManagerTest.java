@@ -0,0 +1,231 @@
+package com.jiqiu.configapp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs ConfigManager's real deploy and persistence commands with the host /bin/sh inside a
+ * sandbox directory standing in for the device's file system.
+ */
+public class ConfigManagerTest {
+
+    private static final String PACKAGE = "com.example.target";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Sandbox sandbox;
+
+    @Before
+    public void setUp() throws Exception {
+        sandbox = new Sandbox(tmp);
+        sandbox.installApp(PACKAGE);
+        sandbox.storeSo("liba.so", "ELF-a");
+        sandbox.storeSo("libb.so", "ELF-bb");
+        sandbox.writeConfig("{\"perAppConfig\": {\"" + PACKAGE + "\": {\"enabled\": true,"
+                + " \"soFiles\": [" + Sandbox.soFile("liba.so") + "," + Sandbox.soFile("libb.so") + "]}}}");
+    }
+
+    @Test
+    public void deploysAndCleansUpInSandbox() throws Exception {
+        DeployMetrics metrics = new DeployMetrics();
+        ConfigManager manager = sandbox.newManager(metrics);
+        assertEquals(2, manager.getAppSoFiles(PACKAGE).size());
+
+        manager.deployForPackage(PACKAGE);
+        String filesDir = "/data/data/" + PACKAGE + "/files";
+        assertEquals("ELF-a", sandbox.read(filesDir + "/liba.so"));
+        assertEquals("ELF-bb", sandbox.read(filesDir + "/libb.so"));
+        DeployMetrics.Span deploy = metrics.getRecentSpans().get(0);
+        assertFalse(deploy.isFailed());
+        assertEquals(11, metrics.getCounter(DeployMetrics.BYTES_COPIED));
+
+        manager.setAppEnabled(PACKAGE, false);
+        assertFalse(sandbox.resolve(filesDir + "/liba.so").exists());
+        assertFalse(sandbox.resolve(filesDir + "/libb.so").exists());
+    }
+
+    @Test
+    public void batchedDeployUsesOneRoundTrip() throws Exception {
+        String[] others = {"com.example.two", "com.example.three"};
+        StringBuilder json = new StringBuilder("{\"perAppConfig\": {");
+        for (String packageName : new String[]{PACKAGE, others[0], others[1]}) {
+            sandbox.installApp(packageName);
+            json.append('"').append(packageName).append("\": {\"enabled\": true, \"soFiles\": [")
+                    .append(Sandbox.soFile("liba.so"))
+                    .append(others[1].equals(packageName)
+                            ? "," + Sandbox.soFile("gone.so") : "")
+                    .append(']')
+                    .append(others[0].equals(packageName)
+                            ? ", \"useGlobalGadget\": false, \"gadgetConfig\": {\"gadgetName\": \"libgadget.so\"}" : "")
+                    .append("},");
+        }
+        json.setLength(json.length() - 1);
+        sandbox.writeConfig(json.append("}}").toString());
+        sandbox.storeSo("liba.so" + SoPreflight.SIDECAR_SUFFIX, "sidecar");
+
+        DeployMetrics metrics = new DeployMetrics();
+        ConfigManager manager = sandbox.newManager(metrics);
+        assertEquals(3, manager.getEnabledPackages().size());
+        long before = metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS);
+        ConfigManager.DeployReport report = manager.deployForPackages(manager.getEnabledPackages());
+        assertEquals(1, metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS) - before);
+
+        // The missing SO fails only its own package; everything else is in place
+        assertEquals(Collections.singletonList(others[1]), report.failedPackages);
+        int ok = 0;
+        for (ConfigManager.DeployedFile file : report.files) {
+            if ("gone.so".equals(file.name)) {
+                assertEquals(others[1], file.packageName);
+                assertEquals(ConfigManager.DeployedFile.MISSING, file.status);
+            } else if ("liba.so".equals(file.name)) {
+                assertEquals(ConfigManager.DeployedFile.OK, file.status);
+                assertEquals(5, file.bytes);
+                ok++;
+            }
+        }
+        assertEquals(3, ok);
+        for (String packageName : new String[]{PACKAGE, others[0], others[1]}) {
+            String filesDir = Sandbox.filesDir(packageName);
+            assertEquals("ELF-a", sandbox.read(filesDir + "/liba.so"));
+            assertEquals("sidecar", sandbox.read(filesDir + "/liba.so" + SoPreflight.SIDECAR_SUFFIX));
+        }
+        assertTrue(sandbox.read("/data/data/" + others[0] + "/files/libgadget.config.so").contains("\"listen\""));
+        assertEquals(15, metrics.getCounter(DeployMetrics.BYTES_COPIED));
+        assertTrue(metrics.getRecentSpans().get(0).isFailed());
+    }
+
+    @Test
+    public void cleanupFollowsManifestInOneRoundTrip() throws Exception {
+        String other = "com.example.two";
+        sandbox.installApp(other);
+        sandbox.storeSo("liba.so" + SoPreflight.SIDECAR_SUFFIX, "sidecar");
+        sandbox.writeConfig("{\"perAppConfig\": {"
+                + "\"" + PACKAGE + "\": {\"enabled\": true, \"soFiles\": ["
+                + Sandbox.soFile("liba.so") + "," + Sandbox.soFile("libb.so") + "]},"
+                + "\"" + other + "\": {\"enabled\": true, \"soFiles\": [" + Sandbox.soFile("libb.so") + "],"
+                + " \"useGlobalGadget\": false, \"gadgetConfig\": {\"gadgetName\": \"libgadget.so\"}}}}");
+
+        DeployMetrics metrics = new DeployMetrics();
+        ConfigManager manager = sandbox.newManager(metrics);
+        manager.deployForPackages(manager.getEnabledPackages());
+        assertEquals("liba.so\nliba.so" + SoPreflight.SIDECAR_SUFFIX + "\nlibb.so\nlibb.so"
+                + SoPreflight.SIDECAR_SUFFIX + "\n", sandbox.read(ConfigManager.DEPLOY_MANIFEST_DIR + "/" + PACKAGE));
+
+        // libb.so leaves the config before the app is disabled: the manifest still knows about it
+        sandbox.writeConfig("{\"perAppConfig\": {"
+                + "\"" + PACKAGE + "\": {\"enabled\": true, \"soFiles\": [" + Sandbox.soFile("liba.so") + "]},"
+                + "\"" + other + "\": {\"enabled\": true, \"soFiles\": []}}}");
+        manager.reloadConfig();
+        sandbox.write("/data/data/" + PACKAGE + "/files/app_own.txt", "kept");
+
+        long before = metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS);
+        assertTrue(manager.cleanupPackages(Arrays.asList(PACKAGE, other)).isEmpty());
+        assertEquals(1, metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS) - before);
+        for (String name : new String[]{"liba.so", "liba.so" + SoPreflight.SIDECAR_SUFFIX, "libb.so"}) {
+            assertFalse(name, sandbox.resolve("/data/data/" + PACKAGE + "/files/" + name).exists());
+        }
+        assertFalse(sandbox.resolve("/data/data/" + other + "/files/libb.so").exists());
+        assertFalse(sandbox.resolve("/data/data/" + other + "/files/libgadget.config.so").exists());
+        assertEquals("kept", sandbox.read("/data/data/" + PACKAGE + "/files/app_own.txt"));
+        assertFalse(sandbox.resolve(ConfigManager.DEPLOY_MANIFEST_DIR + "/" + PACKAGE).exists());
+        assertFalse(sandbox.resolve(ConfigManager.DEPLOY_MANIFEST_DIR + "/" + other).exists());
+    }
+
+    @Test
+    public void savedConfigIsPublishedAndReloaded() throws Exception {
+        ConfigManager manager = sandbox.newManager(new DeployMetrics());
+        assertNull(manager.getLoadedGeneration());
+
+        manager.setInjectionDelay(7);
+        ConfigGeneration saved = manager.getLoadedGeneration();
+        assertNotNull(saved);
+        assertEquals(1, saved.generation);
+        assertTrue(sandbox.read(ConfigManager.CONFIG_FILE).contains("\"injectionDelay\":7"));
+
+        ConfigManager reloaded = sandbox.newManager(new DeployMetrics());
+        assertEquals(7, reloaded.getInjectionDelay());
+        assertTrue(saved.isSameAs(reloaded.getLoadedGeneration()));
+        List<ConfigManager.SoFile> soFiles = reloaded.getAppSoFiles(PACKAGE);
+        assertEquals("libb.so", soFiles.get(1).name);
+    }
+
+    @Test
+    public void appInjectionSettingsAreSavedOnce() throws Exception {
+        ConfigManager manager = sandbox.newManager(new DeployMetrics());
+        manager.setInjectionDelay(2);
+        long generation = manager.getLoadedGeneration().generation;
+
+        manager.setAppInjection(PACKAGE, "custom_linker", ConfigManager.TRIGGER_LIBRARY_LOADED, "libil2cpp.so",
+                Integer.MAX_VALUE);
+        assertEquals(generation + 1, manager.getLoadedGeneration().generation);
+
+        ConfigManager reloaded = sandbox.newManager(new DeployMetrics());
+        assertEquals("custom_linker", reloaded.getAppInjectionMethod(PACKAGE));
+        assertEquals(ConfigManager.TRIGGER_LIBRARY_LOADED, reloaded.getAppInjectionTrigger(PACKAGE));
+        assertEquals("libil2cpp.so", reloaded.getAppTriggerLibrary(PACKAGE));
+        assertEquals(Integer.valueOf(ConfigManager.MAX_INJECTION_DELAY_MS), reloaded.getAppInjectionDelayMs(PACKAGE));
+
+        // Library only kept for the library trigger; null delay falls back to the global one
+        manager.setAppInjection(PACKAGE, "standard", ConfigManager.TRIGGER_DELAY, "libil2cpp.so", null);
+        assertNull(manager.getAppTriggerLibrary(PACKAGE));
+        assertEquals(2000, manager.getEffectiveInjectionDelayMs(PACKAGE));
+    }
+
+    @Test
+    public void staleCheckNeedsNoShell() throws Exception {
+        ConfigManager settings = sandbox.newManager(new DeployMetrics());
+        DeployMetrics metrics = new DeployMetrics();
+        ConfigManager appList = sandbox.newManager(metrics);
+        // Never loaded: nothing to be stale
+        assertFalse(appList.isStale());
+        assertNotEquals(5, appList.getInjectionDelay());
+        assertFalse(appList.isStale());
+
+        settings.setInjectionDelay(5);
+        assertFalse(settings.isStale());
+        long before = metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS);
+        assertTrue(appList.isStale());
+        assertEquals(before, metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS));
+
+        appList.reloadConfig();
+        assertFalse(appList.isStale());
+        assertEquals(5, appList.getInjectionDelay());
+        // Already current: still clears the flag
+        appList.setInjectionDelay(6);
+        assertTrue(settings.isStale());
+        settings.reloadConfig();
+        settings.reloadConfig();
+        assertFalse(settings.isStale());
+    }
+
+    @Test
+    public void directReadIsCheckedAgainstGenerationDigest() throws Exception {
+        sandbox.newManager(new DeployMetrics()).setInjectionDelay(3);
+
+        // Nothing is read until the config is first used; then config.json is read as a file stream
+        // and the generation read is the only shell round-trip
+        DeployMetrics metrics = new DeployMetrics();
+        ConfigManager verified = sandbox.newManager(metrics);
+        assertEquals(0, metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS));
+        assertEquals(3, verified.getInjectionDelay());
+        assertEquals(1, metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS));
+        assertNotNull(verified.getLoadedGeneration());
+
+        // A record whose digest does not match the content is dropped so the next reload re-reads
+        sandbox.write(ConfigGeneration.GEN_FILE, "generation=9\ndigest=00000000000000000000000000000000\n");
+        assertTrue(sandbox.resolve(ConfigGeneration.GEN_FILE).setLastModified(
+                sandbox.resolve(ConfigManager.CONFIG_FILE).lastModified() + 2000));
+        ConfigManager mismatched = sandbox.newManager(new DeployMetrics());
+        assertEquals(3, mismatched.getInjectionDelay());
+        assertNull(mismatched.getLoadedGeneration());
+    }
+}
@@ -0,0 +1,161 @@
+package com.jiqiu.configapp;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class ConfigSchemaTest {
+
+    private static String write(ConfigManager.ModuleConfig config) throws Exception {
+        StringWriter out = new StringWriter();
+        ConfigManager.writeConfig(new Gson(), config, out, false);
+        return out.toString();
+    }
+
+    @Test
+    public void appSectionsAreDecodedOnFirstAccess() throws Exception {
+        String json = "{\"schemaVersion\": 2, \"injectionDelay\": 4, \"perAppConfig\": {\n"
+                + "  \"com.a\": {\"enabled\": true, \"soFiles\": [{\"name\": \"lib a.so\"}]},\n"
+                + "  \"com.b\": {\"enabled\": false, \"injectionTrigger\": \"immediate\"}\n"
+                + "}}";
+        ConfigManager.ModuleConfig config = ConfigSchema.decode(new Gson(), json);
+        AppConfigMap apps = (AppConfigMap) config.perAppConfig;
+        assertEquals(4, config.injectionDelay);
+        assertEquals(2, apps.size());
+        assertTrue(apps.containsKey("com.b"));
+        assertFalse(apps.isDecoded("com.a"));
+        assertFalse(apps.isDecoded("com.b"));
+
+        assertEquals(ConfigManager.TRIGGER_IMMEDIATE, apps.get("com.b").injectionTrigger);
+        assertTrue(apps.isDecoded("com.b"));
+        assertFalse(apps.isDecoded("com.a"));
+
+        // The untouched section is written back as it was, minus whitespace (not inside strings)
+        assertEquals("{\"schemaVersion\":2,\"enabled\":true,\"hideInjection\":false,\"injectionDelay\":4,"
+                + "\"globalSoFiles\":[],\"perAppConfig\":{"
+                + "\"com.a\":{\"enabled\":true,\"soFiles\":[{\"name\":\"lib a.so\"}]},"
+                + "\"com.b\":{\"enabled\":false,\"soFiles\":[],\"injectionMethod\":\"standard\","
+                + "\"useGlobalGadget\":true,\"injectionTrigger\":\"immediate\"}}}", write(config));
+        assertFalse(apps.isDecoded("com.a"));
+    }
+
+    @Test
+    public void versionOneConfigIsMigrated() throws Exception {
+        // Written before schemaVersion existed: perAppConfig first, explicit nulls
+        String json = "{\"enabled\":true,\"globalSoFiles\":null,\"perAppConfig\":{"
+                + "\"com.a\":{\"enabled\":true,\"soFiles\":null,\"injectionMethod\":null}},\"injectionDelay\":3}";
+        ConfigManager.ModuleConfig config = ConfigSchema.decode(new Gson(), json);
+        assertEquals(ConfigSchema.CURRENT_VERSION, config.schemaVersion);
+        assertEquals(3, config.injectionDelay);
+        assertNotNull(config.globalSoFiles);
+
+        String written = write(config);
+        assertTrue(written.startsWith("{\"schemaVersion\":2,"));
+        // perAppConfig moves last and its sections are migrated on the way out
+        assertTrue(written.endsWith(",\"perAppConfig\":{\"com.a\":{\"enabled\":true,\"soFiles\":[],"
+                + "\"injectionMethod\":\"standard\",\"useGlobalGadget\":true,\"injectionTrigger\":\"delay\"}}}"));
+
+        ConfigManager.AppConfig app = config.perAppConfig.get("com.a");
+        assertTrue(app.soFiles.isEmpty());
+        assertEquals("standard", app.injectionMethod);
+    }
+
+    @Test
+    public void edgeCases() throws Exception {
+        Gson gson = new Gson();
+        assertNull(ConfigSchema.decode(gson, "  \n"));
+        assertTrue(ConfigSchema.decode(gson, "{}").perAppConfig.isEmpty());
+        assertTrue(ConfigSchema.decode(gson, "{\"perAppConfig\":null}").perAppConfig.isEmpty());
+
+        ConfigManager.ModuleConfig escaped = ConfigSchema.decode(gson,
+                "{\"perAppConfig\":{\"com.\\u0061\":{\"enabled\":true,\"triggerLibrary\":\"a}\\\"b\"}}}");
+        assertEquals("a}\"b", escaped.perAppConfig.get("com.a").triggerLibrary);
+
+        for (String bad : new String[]{"{\"perAppConfig\":{\"com.a\":{}", "{\"perAppConfig\":{\"com.a\" {}}}",
+                "{\"perAppConfig\":{\"com.a\":{\"x\":\"unterminated}}}"}) {
+            try {
+                ConfigSchema.decode(gson, bad);
+                fail(bad);
+            } catch (JsonParseException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void undecodableSectionIsSkippedAndKept() throws Exception {
+        String json = "{\"schemaVersion\": 2, \"perAppConfig\": {"
+                + "\"com.bad\": {\"enabled\": \"yes\", \"soFiles\": {}},"
+                + "\"com.a\": {\"enabled\": true},"
+                + "\"com.b\": {\"soFiles\": [], \"enabled\": false},"
+                + "\"com.c\": null}}";
+        ConfigManager.ModuleConfig config = ConfigSchema.decode(new Gson(), json);
+        AppConfigMap apps = (AppConfigMap) config.perAppConfig;
+
+        // Read from the raw slices: nothing is decoded and the bad section counts as disabled
+        assertEquals(Collections.singletonList("com.a"), apps.enabledPackages());
+        assertFalse(apps.isDecoded("com.a"));
+        assertFalse(apps.isDecoded("com.bad"));
+
+        assertNull(apps.get("com.bad"));
+        assertTrue(apps.containsKey("com.bad"));
+        int seen = 0;
+        for (Map.Entry<String, ConfigManager.AppConfig> entry : apps.entrySet()) {
+            if (entry.getValue() != null) {
+                seen++;
+            }
+        }
+        assertEquals(2, seen);
+        assertEquals(Collections.singletonList("com.a"), apps.enabledPackages());
+
+        // Still written back as it was, so a later fix by hand is not lost
+        assertTrue(write(config).contains("\"com.bad\":{\"enabled\":\"yes\",\"soFiles\":{}}"));
+    }
+
+    @Test
+    public void concurrentReadersShareOneDecodedSection() throws Exception {
+        String json = "{\"schemaVersion\": 2, \"perAppConfig\": {\"com.a\": {\"enabled\": true}}}";
+        // Decoded straight from a char buffer, as readConfig does
+        ConfigManager.ModuleConfig config = ConfigSchema.decode(new Gson(), CharBuffer.wrap(json.toCharArray()));
+        final AppConfigMap apps = (AppConfigMap) config.perAppConfig;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<ConfigManager.AppConfig> seen = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ConfigManager.AppConfig app = apps.get("com.a");
+                synchronized (seen) {
+                    seen.add(app);
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        start.countDown();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(8, seen.size());
+        for (ConfigManager.AppConfig app : seen) {
+            assertSame(seen.get(0), app);
+        }
+        // A toggle on any reader's instance is the one that gets saved
+        seen.get(3).enabled = false;
+        assertTrue(write(config).contains("\"com.a\":{\"enabled\":false"));
+    }
+}
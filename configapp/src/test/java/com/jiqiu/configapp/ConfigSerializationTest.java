@@ -0,0 +1,84 @@
+package com.jiqiu.configapp;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConfigSerializationTest {
+
+    private static ConfigManager.ModuleConfig sampleConfig() {
+        ConfigManager.ModuleConfig config = new ConfigManager.ModuleConfig();
+        config.injectionDelay = 5;
+        ConfigManager.AppConfig app = new ConfigManager.AppConfig();
+        app.enabled = true;
+        app.injectionTrigger = ConfigManager.TRIGGER_LIBRARY_LOADED;
+        app.triggerLibrary = "libil2cpp.so";
+        ConfigManager.SoFile so = new ConfigManager.SoFile();
+        so.name = "libhook.so";
+        so.storedPath = ConfigManager.SO_STORAGE_DIR + "/libhook.so";
+        so.loadGroup = 2;
+        app.soFiles.add(so);
+        app.gadgetConfig = new ConfigManager.GadgetConfig();
+        app.gadgetConfig.mode = "script";
+        config.perAppConfig.put("com.example.game", app);
+        return config;
+    }
+
+    private static String write(ConfigManager.ModuleConfig config, boolean pretty) throws Exception {
+        StringWriter out = new StringWriter();
+        ConfigManager.writeConfig(new Gson(), config, out, pretty);
+        return out.toString();
+    }
+
+    private static List<String> lines(String text) {
+        return new ArrayList<>(Arrays.asList(text.split("\n", -1)));
+    }
+
+    @Test
+    public void compactAndPrettyRoundTrip() throws Exception {
+        ConfigManager.ModuleConfig config = sampleConfig();
+        String compact = write(config, false);
+        String pretty = write(config, true);
+        assertFalse(compact.contains("\n"));
+        assertTrue(pretty.contains("\n  \"perAppConfig\": {"));
+
+        for (String json : new String[]{compact, pretty}) {
+            ConfigManager.ModuleConfig read = ConfigManager.readConfig(new Gson(), new LinesReader(lines(json)));
+            assertEquals(5, read.injectionDelay);
+            ConfigManager.AppConfig app = read.perAppConfig.get("com.example.game");
+            assertEquals("libil2cpp.so", app.triggerLibrary);
+            assertEquals(2, app.soFiles.get(0).loadGroup);
+            assertEquals("script", app.gadgetConfig.mode);
+        }
+        // Both forms describe the same document
+        assertEquals(compact, write(ConfigManager.readConfig(new Gson(), new LinesReader(lines(pretty))), false));
+    }
+
+    @Test
+    public void linesReaderMatchesJoin() throws Exception {
+        List<List<String>> cases = Arrays.asList(
+                Collections.<String>emptyList(),
+                Collections.singletonList(""),
+                Arrays.asList("a", "", "bc"),
+                Arrays.asList("{", "  \"x\": 1", "}"));
+        for (List<String> input : cases) {
+            LinesReader reader = new LinesReader(input);
+            StringBuilder out = new StringBuilder();
+            char[] buffer = new char[2];
+            int n;
+            while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+                out.append(buffer, 0, n);
+            }
+            assertEquals(String.join("\n", input), out.toString());
+        }
+        assertNull(ConfigManager.readConfig(new Gson(), new LinesReader(Collections.<String>emptyList())));
+    }
+}
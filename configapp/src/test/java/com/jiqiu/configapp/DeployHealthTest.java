@@ -0,0 +1,145 @@
+package com.jiqiu.configapp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scans a sandboxed deployment of many packages, breaks it in several ways and repairs only what drifted.
+ */
+public class DeployHealthTest {
+
+    private static final int PACKAGES = 120;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Sandbox sandbox;
+
+    @Before
+    public void setUp() throws Exception {
+        sandbox = new Sandbox(tmp);
+        sandbox.storeSo("liba.so", "ELF-a");
+        sandbox.storeSo("liba.so" + SoPreflight.SIDECAR_SUFFIX, "sidecar");
+        sandbox.storeSo("libb.so", "ELF-bb");
+        StringBuilder json = new StringBuilder("{\"perAppConfig\": {");
+        for (int i = 0; i < PACKAGES; i++) {
+            String packageName = packageName(i);
+            sandbox.installApp(packageName);
+            json.append('"').append(packageName).append("\": {\"enabled\": true, \"soFiles\": [")
+                    .append(Sandbox.soFile("liba.so")).append(',').append(Sandbox.soFile("libb.so")).append(']')
+                    .append(i % 10 == 0
+                            ? ", \"useGlobalGadget\": false, \"gadgetConfig\": {\"gadgetName\": \"libgadget.so\"}" : "")
+                    .append("},");
+        }
+        json.setLength(json.length() - 1);
+        sandbox.writeConfig(json.append("}}").toString());
+    }
+
+    private static String packageName(int i) {
+        return "com.example.app" + i;
+    }
+
+    private static String filesDir(int i) {
+        return Sandbox.filesDir(packageName(i));
+    }
+
+    private static Set<String> reasons(DeployHealth.Report report, String packageName, String name) {
+        Set<String> reasons = new HashSet<>();
+        for (DeployHealth.Drift drift : report.drifts) {
+            if (drift.packageName.equals(packageName) && drift.name.equals(name)) {
+                reasons.add(drift.reason);
+            }
+        }
+        return reasons;
+    }
+
+    @Test
+    public void healthyDeploymentIsOneRoundTrip() throws Exception {
+        DeployMetrics metrics = new DeployMetrics();
+        ConfigManager manager = sandbox.newManager(metrics);
+        assertTrue(manager.deployForPackages(manager.getEnabledPackages()).failedPackages.isEmpty());
+
+        long before = metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS);
+        DeployHealth.Report report = manager.scanDeployments(false);
+        assertEquals(1, metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS) - before);
+        assertTrue(report.drifts.toString(), report.isHealthy());
+        assertEquals(PACKAGES, report.packages);
+        // liba.so, its sidecar, libb.so, plus the gadget config of every tenth package
+        assertEquals(PACKAGES * 3 + PACKAGES / 10, report.checkedFiles);
+
+        DeployHealth.Report deep = manager.scanDeployments(true);
+        assertTrue(deep.drifts.toString(), deep.isHealthy());
+    }
+
+    @Test
+    public void reportsAndRepairsOnlyDrift() throws Exception {
+        ConfigManager manager = sandbox.newManager(new DeployMetrics());
+        manager.deployForPackages(manager.getEnabledPackages());
+
+        assertTrue(sandbox.resolve(filesDir(1) + "/liba.so").delete());
+        sandbox.write(filesDir(2) + "/libb.so", "ELF-b");
+        assertTrue(sandbox.resolve(filesDir(3) + "/liba.so").setExecutable(false, false));
+        sandbox.write(filesDir(10) + "/libgadget.config.so", "{}");
+        assertTrue(sandbox.resolve(filesDir(4) + "/liba.so" + SoPreflight.SIDECAR_SUFFIX).delete());
+        // Same size, different bytes: only a deep scan sees it
+        sandbox.write(filesDir(5) + "/libb.so", "ELF-BB");
+        assertTrue(sandbox.resolve(filesDir(5) + "/libb.so").setLastModified(System.currentTimeMillis() + 60_000));
+        assertTrue(sandbox.shell.run("rm -rf /data/data/" + packageName(6)).isSuccess());
+
+        DeployHealth.Report report = manager.scanDeployments(false);
+        assertEquals(Collections.singleton(DeployHealth.ABSENT), reasons(report, packageName(1), "liba.so"));
+        assertEquals(Collections.singleton(DeployHealth.SIZE), reasons(report, packageName(2), "libb.so"));
+        assertEquals(Collections.singleton(DeployHealth.MODE), reasons(report, packageName(3), "liba.so"));
+        assertEquals(Collections.singleton(DeployHealth.CONTENT),
+                reasons(report, packageName(10), "libgadget.config.so"));
+        assertEquals(Collections.singleton(DeployHealth.ABSENT),
+                reasons(report, packageName(4), "liba.so" + SoPreflight.SIDECAR_SUFFIX));
+        assertTrue(reasons(report, packageName(5), "libb.so").isEmpty());
+        assertEquals(Collections.singleton(DeployHealth.NO_APP), reasons(report, packageName(6), ""));
+        assertEquals(6, report.drifts.size());
+
+        DeployHealth.Report deep = manager.scanDeployments(true);
+        assertEquals(Collections.singleton(DeployHealth.CONTENT), reasons(deep, packageName(5), "libb.so"));
+
+        // Only the drifted files are redeployed; a sidecar brings back its SO
+        Map<String, Set<String>> plan = deep.getRepairPlan();
+        assertEquals(6, plan.size());
+        assertFalse(plan.containsKey(packageName(6)));
+        assertEquals(new HashSet<>(Arrays.asList("liba.so")), plan.get(packageName(4)));
+        assertEquals(Collections.singleton(DeployHealth.KIND_GADGET_CONFIG), plan.get(packageName(10)));
+        long untouched = sandbox.resolve(filesDir(7) + "/liba.so").lastModified();
+        assertTrue(sandbox.resolve(filesDir(7) + "/liba.so").setLastModified(untouched + 10_000));
+
+        assertTrue(manager.repairDrift(deep).failedPackages.isEmpty());
+        assertEquals(untouched + 10_000, sandbox.resolve(filesDir(7) + "/liba.so").lastModified());
+
+        DeployHealth.Report after = manager.scanDeployments(true);
+        assertEquals(after.drifts.toString(), 1, after.drifts.size());
+        assertFalse(after.drifts.get(0).isRepairable());
+    }
+
+    @Test
+    public void missingSourceIsNotRepairable() throws Exception {
+        ConfigManager manager = sandbox.newManager(new DeployMetrics());
+        manager.deployForPackages(manager.getEnabledPackages());
+        assertTrue(sandbox.resolve(ConfigManager.SO_STORAGE_DIR + "/libb.so").delete());
+
+        DeployHealth.Report report = manager.scanDeployments(false);
+        assertEquals(PACKAGES, report.drifts.size());
+        for (DeployHealth.Drift drift : report.drifts) {
+            assertEquals(DeployHealth.SOURCE_MISSING, drift.reason);
+            assertFalse(drift.isRepairable());
+        }
+        assertTrue(report.getRepairPlan().isEmpty());
+    }
+}
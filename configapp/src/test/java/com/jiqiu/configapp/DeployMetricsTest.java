@@ -0,0 +1,171 @@
+package com.jiqiu.configapp;
+
+import com.topjohnwu.superuser.Shell;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives ConfigManager's deploy path against a fake shell and checks the recorded spans
+ * against the commands the shell actually saw.
+ */
+public class DeployMetricsTest {
+
+    private static final String PACKAGE = "com.example.target";
+
+    private static final String CONFIG_JSON = "{\"perAppConfig\": {\"" + PACKAGE + "\": {\"enabled\": true,"
+            + " \"soFiles\": ["
+            + "{\"name\": \"liba.so\", \"storedPath\": \"" + ConfigManager.SO_STORAGE_DIR + "/liba.so\"},"
+            + "{\"name\": \"libb.so\", \"storedPath\": \"" + ConfigManager.SO_STORAGE_DIR + "/libb.so\"}"
+            + "]}}}";
+
+    static class FakeResult extends Shell.Result {
+        private final List<String> out;
+        private final int code;
+
+        FakeResult(int code, String... out) {
+            this.code = code;
+            this.out = new ArrayList<>();
+            Collections.addAll(this.out, out);
+        }
+
+        @Override
+        public List<String> getOut() {
+            return out;
+        }
+
+        @Override
+        public List<String> getErr() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public int getCode() {
+            return code;
+        }
+    }
+
+    static class FakeShell implements ShellExecutor {
+        final List<String> commands = new ArrayList<>();
+        String missing;
+        boolean gadgetFails;
+
+        @Override
+        public boolean isRoot() {
+            return true;
+        }
+
+        @Override
+        public Shell.Result run(String... batch) {
+            Collections.addAll(commands, batch);
+            String command = batch[0];
+            if (command.startsWith("cat " + ConfigManager.CONFIG_FILE)) {
+                return new FakeResult(0, CONFIG_JSON);
+            }
+            if (command.startsWith("deploy_so()")) {
+                // One batched script: report each SO the way deploy_so does
+                List<String> out = new ArrayList<>();
+                for (String name : new String[] {"liba.so", "libb.so"}) {
+                    if (name.equals(missing)) {
+                        out.add("MISSING " + PACKAGE + " " + name);
+                    } else {
+                        out.add("OK " + PACKAGE + " " + ("liba.so".equals(name) ? "1000" : "2345") + " " + name);
+                    }
+                }
+                if (gadgetFails) {
+                    out.add("GADGET_FAIL " + PACKAGE);
+                }
+                return new FakeResult(0, out.toArray(new String[0]));
+            }
+            return new FakeResult(0);
+        }
+    }
+
+    @Test
+    public void deploySpansMatchShellCommands() {
+        FakeShell shell = new FakeShell();
+        DeployMetrics metrics = new DeployMetrics();
+        ConfigManager manager = new ConfigManager(null, shell, metrics);
+        // Config is loaded on first use; keep its round-trips out of the deploy span
+        assertEquals(2, manager.getAppSoFiles(PACKAGE).size());
+        long loadTrips = metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS);
+
+        manager.deployForPackage(PACKAGE);
+
+        List<DeployMetrics.Span> spans = metrics.getRecentSpans();
+        assertEquals(1, spans.size());
+        DeployMetrics.Span deploy = spans.get(0);
+        assertEquals("deploy_batch", deploy.name);
+        assertEquals("1 packages", deploy.getLabel());
+        assertFalse(deploy.isFailed());
+
+        // The whole package, every SO included, is one round-trip attributed to the deploy span
+        assertEquals(1, deploy.getTotalShellCalls());
+        assertEquals(loadTrips + 1, metrics.getCounter(DeployMetrics.SHELL_ROUND_TRIPS));
+        assertEquals(3345, deploy.getBytes());
+        assertEquals(3345, metrics.getCounter(DeployMetrics.BYTES_COPIED));
+
+        assertNotNull(metrics.getHistogram("span.deploy_batch_ms"));
+        assertEquals(loadTrips + 1, metrics.getHistogram(DeployMetrics.SHELL_ROUND_TRIP_MS).getCount());
+    }
+
+    @Test
+    public void missingSourceMarksSpanFailed() {
+        FakeShell shell = new FakeShell();
+        shell.missing = "libb.so";
+        DeployMetrics metrics = new DeployMetrics();
+        ConfigManager manager = new ConfigManager(null, shell, metrics);
+        manager.getAppSoFiles(PACKAGE);
+
+        manager.deployForPackage(PACKAGE);
+
+        DeployMetrics.Span deploy = metrics.getRecentSpans().get(0);
+        assertTrue(deploy.isFailed());
+        assertEquals(1, deploy.getTotalShellCalls());
+        assertEquals(1000, metrics.getCounter(DeployMetrics.BYTES_COPIED));
+    }
+
+    @Test
+    public void failedGadgetConfigFailsThePackage() {
+        FakeShell shell = new FakeShell();
+        shell.gadgetFails = true;
+        ConfigManager manager = new ConfigManager(null, shell, new DeployMetrics());
+
+        ConfigManager.DeployReport report = manager.deployForPackages(Collections.singletonList(PACKAGE));
+        assertEquals(Collections.singletonList(PACKAGE), report.failedPackages);
+    }
+
+    @Test
+    public void dumpAggregatesRepeatedChildren() {
+        DeployMetrics metrics = new DeployMetrics();
+        try (DeployMetrics.Span root = metrics.start("deploy")) {
+            root.setLabel(PACKAGE);
+            for (int i = 0; i < 3; i++) {
+                try (DeployMetrics.Span copy = metrics.start("copy")) {
+                    copy.addBytes(10);
+                    metrics.recordShell(1, 1_000_000, true);
+                }
+            }
+        }
+        assertNull(metrics.current());
+
+        List<String> dump = metrics.dump();
+        assertTrue(dump.contains(DeployMetrics.BYTES_COPIED + " = 30"));
+        boolean found = false;
+        for (String line : dump) {
+            if (line.trim().startsWith("copy x3") && line.contains("shell=3") && line.contains("bytes=30")) {
+                found = true;
+            }
+        }
+        assertTrue(String.join("\n", dump), found);
+
+        metrics.reset();
+        assertEquals(0, metrics.getCounter(DeployMetrics.BYTES_COPIED));
+        assertTrue(metrics.getRecentSpans().isEmpty());
+    }
+}
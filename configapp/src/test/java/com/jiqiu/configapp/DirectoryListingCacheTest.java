@@ -0,0 +1,108 @@
+package com.jiqiu.configapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hit/miss and invalidation behaviour of {@link DirectoryListingCache} against an in-memory source.
+ */
+public class DirectoryListingCacheTest {
+
+    private static class FakeSource implements DirectoryListingCache.Source {
+        final Map<String, Long> mtimes = new HashMap<>();
+        int listCalls;
+        int statCalls;
+
+        @Override
+        public DirectoryListing.Listing list(String path) {
+            listCalls++;
+            Long mtime = mtimes.get(path);
+            String output = "d/4096/" + (mtime == null ? 0 : mtime) + ".0/755/.\0"
+                    + "f/100/1697712000.0/644/lib" + listCalls + ".so\0";
+            return DirectoryListing.parse(path, output, null);
+        }
+
+        @Override
+        public long getMtime(String path) {
+            statCalls++;
+            Long mtime = mtimes.get(path);
+            return mtime == null ? -1 : mtime;
+        }
+    }
+
+    private FakeSource source;
+    private DirectoryListingCache cache;
+
+    @Before
+    public void setUp() {
+        source = new FakeSource();
+        source.mtimes.put("/a", 100L);
+        source.mtimes.put("/b", 200L);
+        source.mtimes.put("/c", 300L);
+        cache = new DirectoryListingCache(2, source);
+    }
+
+    @Test
+    public void unchangedDirectoryIsServedFromCache() {
+        DirectoryListing.Listing first = cache.get("/a");
+        DirectoryListing.Listing second = cache.get("/a");
+
+        assertSame(first, second);
+        assertEquals(1, source.listCalls);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void changedMtimeForcesReload() {
+        DirectoryListing.Listing first = cache.get("/a");
+        source.mtimes.put("/a", 101L);
+        DirectoryListing.Listing second = cache.get("/a");
+
+        assertNotSame(first, second);
+        assertEquals(101L, second.mtime);
+        assertEquals(2, source.listCalls);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        cache.get("/a");
+        cache.get("/b");
+        cache.peek("/a"); // /b is now the eldest
+        cache.get("/c");
+
+        assertNotNull(cache.peek("/a"));
+        assertNull(cache.peek("/b"));
+        assertNotNull(cache.peek("/c"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void prefetchIsNotCountedAndMakesNextGetAHit() {
+        cache.prefetch("/b");
+        cache.prefetch("/b");
+        assertEquals(1, source.listCalls);
+        assertEquals(0, cache.getHitCount() + cache.getMissCount());
+
+        cache.get("/b");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, source.listCalls);
+    }
+
+    @Test
+    public void unknownMtimeIsNeverTrusted() {
+        source.mtimes.remove("/a");
+        cache.get("/a");
+        cache.get("/a");
+
+        assertEquals(2, source.listCalls);
+        assertEquals(0, cache.getHitCount());
+    }
+}
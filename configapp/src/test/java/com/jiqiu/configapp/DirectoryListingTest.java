@@ -0,0 +1,105 @@
+package com.jiqiu.configapp;
+
+import com.topjohnwu.superuser.Shell;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parser tests for {@link DirectoryListing}, run on the host.
+ */
+public class DirectoryListingTest {
+
+    @Test
+    public void parsesFindPrintfOutput() {
+        String output = "d/4096/1697712999.25/755/.\0"
+                + "d/4096/1697712345.1234567890/771/lib\0"
+                + "f/12345/1697712000.5/644/libtest.so\0"
+                + "f/10/1697712000.5/600/notes.txt\0"
+                + "l/7/1697712000.5/777/dangling\0"
+                + "f/99/1697712000.0/644/name with spaces.so\0";
+
+        DirectoryListing.Listing listing = DirectoryListing.parse("/data/local/tmp", output, ".so");
+        List<DirectoryListing.Entry> entries = listing.entries;
+
+        assertEquals(1697712999L, listing.mtime);
+        assertEquals(3, entries.size());
+        assertEquals("lib", entries.get(0).name);
+        assertTrue(entries.get(0).isDirectory);
+        assertEquals(0771, entries.get(0).mode);
+        assertEquals("libtest.so", entries.get(1).name);
+        assertFalse(entries.get(1).isDirectory);
+        assertEquals(12345, entries.get(1).size);
+        assertEquals(1697712000L, entries.get(1).mtime);
+        assertEquals("name with spaces.so", entries.get(2).name);
+    }
+
+    @Test
+    public void parsesStatFallbackOutput() {
+        String output = "directory/4096/1697712400/755/.\n"
+                + "directory/4096/1697712345/755/subdir\n"
+                + "regular file/2048/1697712345/644/libfoo.so\n"
+                + "regular empty file/0/1697712345/000/empty.so\n"
+                + "symbolic link/7/1697712345/777/link";
+
+        DirectoryListing.Listing listing = DirectoryListing.parse("/sdcard", output, ".so");
+        List<DirectoryListing.Entry> entries = listing.entries;
+
+        assertEquals(1697712400L, listing.mtime);
+        assertEquals(3, entries.size());
+        assertTrue(entries.get(0).isDirectory);
+        assertEquals(2048, entries.get(1).size);
+        assertTrue(entries.get(1).isReadable());
+        assertFalse(entries.get(2).isReadable());
+    }
+
+    @Test
+    public void listsFiftyThousandEntriesInOneRoundTrip() {
+        int count = 50_000;
+        StringBuilder sb = new StringBuilder(count * 48);
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 0) {
+                sb.append("d/4096/1697712345.0/755/dir_").append(i).append('\0');
+            } else {
+                sb.append("f/").append(i).append("/1697712345.0/644/lib_").append(i)
+                        .append(i % 2 == 0 ? ".so" : ".txt").append('\0');
+            }
+        }
+        String output = sb.toString();
+
+        // The whole directory comes back from a single shell round-trip
+        List<String> commands = new ArrayList<>();
+        ShellExecutor shell = new ShellExecutor() {
+            @Override
+            public boolean isRoot() {
+                return true;
+            }
+
+            @Override
+            public Shell.Result run(String... batch) {
+                Collections.addAll(commands, batch);
+                return new DeployMetricsTest.FakeResult(0, output);
+            }
+        };
+        List<DirectoryListing.Entry> entries = DirectoryListing.list(shell, "/big", ".so").entries;
+        assertEquals(Collections.singletonList(DirectoryListing.buildListCommand("/big")), commands);
+
+        // 5000 directories + every even, non-directory index as .so
+        assertEquals(5_000 + 20_000, entries.size());
+        assertEquals("dir_0", entries.get(0).name);
+        assertEquals("lib_2.so", entries.get(1).name);
+        assertEquals(2, entries.get(1).size);
+    }
+
+    @Test
+    public void emptyOutputYieldsNoEntries() {
+        assertTrue(DirectoryListing.parse("/", "", null).entries.isEmpty());
+        assertTrue(DirectoryListing.parse("/", null, null).entries.isEmpty());
+        assertEquals(-1, DirectoryListing.parse("/", null, null).mtime);
+    }
+}
@@ -0,0 +1,120 @@
+package com.jiqiu.configapp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Canonical gadget config content, and deployments that leave an identical file untouched.
+ */
+public class GadgetConfigRendererTest {
+
+    private static final String[] PACKAGES = {"com.example.one", "com.example.two"};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Sandbox sandbox;
+
+    @Before
+    public void setUp() throws Exception {
+        sandbox = new Sandbox(tmp);
+        sandbox.storeSo("liba.so", "ELF-a");
+        StringBuilder json = new StringBuilder("{\"perAppConfig\": {");
+        for (String packageName : PACKAGES) {
+            sandbox.installApp(packageName);
+            json.append('"').append(packageName).append("\": {\"enabled\": true, \"soFiles\": [")
+                    .append(Sandbox.soFile("liba.so")).append(']')
+                    .append(", \"useGlobalGadget\": false, \"gadgetConfig\": {\"gadgetName\": \"libgadget.so\"}},");
+        }
+        json.setLength(json.length() - 1);
+        sandbox.writeConfig(json.append("}}").toString());
+    }
+
+    @Test
+    public void rendersCanonicalContent() {
+        ConfigManager.GadgetConfig server = new ConfigManager.GadgetConfig();
+        // Same bytes the earlier String.format version wrote, so existing deployments count as unchanged
+        assertEquals("{\n  \"interaction\": {\n    \"type\": \"listen\",\n    \"address\": \"0.0.0.0\",\n"
+                + "    \"port\": 27042,\n    \"on_port_conflict\": \"fail\",\n    \"on_load\": \"wait\"\n  }\n}",
+                GadgetConfigRenderer.render(server).json);
+
+        ConfigManager.GadgetConfig same = new ConfigManager.GadgetConfig();
+        same.gadgetName = "libother.so";
+        same.scriptPath = "/ignored/in/listen/mode.js";
+        assertSame(GadgetConfigRenderer.render(server), GadgetConfigRenderer.render(same));
+
+        ConfigManager.GadgetConfig script = new ConfigManager.GadgetConfig();
+        script.mode = "script";
+        script.scriptPath = "/sdcard/it's \"quoted\"\\.js";
+        GadgetConfigRenderer.Rendered rendered = GadgetConfigRenderer.render(script);
+        assertTrue(rendered.json, rendered.json.contains("\"path\": \"/sdcard/it's \\\"quoted\\\"\\\\.js\""));
+        assertEquals(DeployHealth.md5Hex(rendered.json), rendered.md5);
+    }
+
+    @Test
+    public void parsesWhatItRenders() {
+        ConfigManager.GadgetConfig script = new ConfigManager.GadgetConfig();
+        script.mode = "script";
+        script.scriptPath = "/data/local/tmp/\"agent\".js";
+        script.gadgetName = "libfrida.so";
+        ConfigManager.GadgetConfig parsed = GadgetConfigRenderer.parse(
+                GadgetConfigRenderer.render(script).json, new ConfigManager.GadgetConfig());
+        assertEquals("script", parsed.mode);
+        assertEquals(script.scriptPath, parsed.scriptPath);
+        // Not part of the file: kept from the base
+        assertEquals("libgadget.so", parsed.gadgetName);
+
+        ConfigManager.GadgetConfig base = new ConfigManager.GadgetConfig();
+        String edited = "{\"interaction\": {\"type\": \"listen\", \"address\": \"10.0.0.2\", \"port\": 1234,"
+                + " \"on_port_conflict\": \"pick-next\", \"on_load\": \"resume\"}}";
+        parsed = GadgetConfigRenderer.parse(edited, base);
+        assertEquals("server", parsed.mode);
+        assertEquals("10.0.0.2", parsed.address);
+        assertEquals(1234, parsed.port);
+        assertEquals("pick-next", parsed.onPortConflict);
+        assertEquals("resume", parsed.onLoad);
+        assertEquals(27042, base.port);
+
+        // Half-typed edits leave the current values alone
+        assertNull(GadgetConfigRenderer.parse(edited.substring(0, 40), base));
+        assertNull(GadgetConfigRenderer.parse("{\"interaction\": {\"type\": \"listen\"}}", base));
+    }
+
+    @Test
+    public void unchangedConfigsAreNotWrittenAgain() throws Exception {
+        DeployMetrics metrics = new DeployMetrics();
+        ConfigManager manager = sandbox.newManager(metrics);
+        List<String> packages = Arrays.asList(PACKAGES);
+        manager.deployForPackages(packages);
+        assertEquals(2, metrics.getCounter(DeployMetrics.GADGET_CONFIG_WRITES));
+        String target = "/data/data/" + PACKAGES[0] + "/files/libgadget.config.so";
+        assertEquals(GadgetConfigRenderer.render(manager.getAppGadgetConfig(PACKAGES[0])).json, sandbox.read(target));
+        long written = sandbox.resolve(target).lastModified();
+        assertTrue(sandbox.resolve(target).setLastModified(written - 10_000));
+
+        // Batched and single-package deploys of the same config: zero writes
+        manager.deployForPackages(packages);
+        manager.deployForPackage(PACKAGES[0]);
+        assertEquals(2, metrics.getCounter(DeployMetrics.GADGET_CONFIG_WRITES));
+        assertEquals(written - 10_000, sandbox.resolve(target).lastModified());
+
+        // A changed file or a changed config is written again, and only for that package
+        sandbox.write(target, "{}");
+        manager.deployForPackages(packages);
+        assertEquals(3, metrics.getCounter(DeployMetrics.GADGET_CONFIG_WRITES));
+        ConfigManager.GadgetConfig changed = manager.getAppGadgetConfig(PACKAGES[1]);
+        changed.port = 27050;
+        manager.setAppGadgetConfig(PACKAGES[1], changed);
+        long before = metrics.getCounter(DeployMetrics.GADGET_CONFIG_WRITES);
+        manager.deployForPackages(packages);
+        assertEquals(before, metrics.getCounter(DeployMetrics.GADGET_CONFIG_WRITES));
+        assertTrue(sandbox.read("/data/data/" + PACKAGES[1] + "/files/libgadget.config.so").contains("27050"));
+    }
+}
@@ -0,0 +1,165 @@
+package com.jiqiu.configapp;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link ShellExecutor} running /bin/sh on a plain Linux machine, rooted in a sandbox directory
+ *
+ * 命令中的设备绝对路径（/data、/sdcard、/storage ...）被改写到沙盒目录下，输出中的沙盒前缀再去掉，
+ * 调用方看到的仍是设备路径。Android 特有的 chcon 和需要 root 的 chown 在沙盒里是空操作，
+ * 其余命令（cp、stat、test、find ...）由宿主系统执行。用于单元测试和部署路径的基准测试。
+ */
+public class LocalShellExecutor implements ShellExecutor {
+
+    // Device paths that live under the sandbox; anything else (/tmp, /dev/null) is left alone
+    private static final Pattern DEVICE_PATH = Pattern.compile(
+            "(?<=^|[\\s\"'=:;(|&<>])/(?:data|sdcard|storage|mnt|system|vendor|apex)(?=/|[\\s\"';)]|$)");
+
+    private static final String PRELUDE = String.join("\n",
+            "chcon() { return 0; }",
+            "chown() { return 0; }",
+            "");
+
+    private final File root;
+    private final String rootPath;
+
+    public LocalShellExecutor(File root) {
+        this.root = root;
+        this.rootPath = root.getAbsolutePath();
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Host file backing a device path, e.g. /data/adb/modules/... inside the sandbox
+     */
+    public File resolve(String devicePath) {
+        return new File(rewrite(devicePath));
+    }
+
+    @Override
+    public boolean isRoot() {
+        return true;
+    }
+
+    @Override
+    public Shell.Result run(String... commands) {
+        StringBuilder script = new StringBuilder(PRELUDE);
+        for (String command : commands) {
+            script.append(rewrite(command)).append('\n');
+        }
+
+        Process process = null;
+        File scriptFile = null;
+        try {
+            // 和 libsu 一样不经过命令行参数传递脚本，批量部署的长脚本不受单个参数 128 KB 的限制
+            scriptFile = File.createTempFile("local-shell", ".sh");
+            Files.write(scriptFile.toPath(), script.toString().getBytes(StandardCharsets.UTF_8));
+            process = new ProcessBuilder("/bin/sh", scriptFile.getAbsolutePath())
+                    .directory(root)
+                    .redirectErrorStream(true) // same as FLAG_REDIRECT_STDERR
+                    .start();
+            process.getOutputStream().close();
+            String output = readAll(process.getInputStream());
+            int code = process.waitFor();
+            return new LocalResult(code, splitLines(output.replace(rootPath + "/", "/")));
+        } catch (IOException e) {
+            return new LocalResult(-1, Collections.singletonList(e.toString()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new LocalResult(-1, Collections.emptyList());
+        } finally {
+            if (process != null) {
+                process.destroy();
+            }
+            if (scriptFile != null) {
+                scriptFile.delete();
+            }
+        }
+    }
+
+    @Override
+    public InputStream openInputStream(String path) throws IOException {
+        return new FileInputStream(resolve(path));
+    }
+
+    String rewrite(String command) {
+        Matcher matcher = DEVICE_PATH.matcher(command);
+        StringBuilder out = new StringBuilder(command.length() + 32);
+        int last = 0;
+        while (matcher.find()) {
+            // Paths that already point into the sandbox are kept as they are
+            if (command.startsWith(rootPath, matcher.start())) {
+                continue;
+            }
+            out.append(command, last, matcher.start()).append(rootPath);
+            last = matcher.start();
+        }
+        return out.append(command, last, command.length()).toString();
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            buffer.write(chunk, 0, n);
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // Like libsu: one entry per line, no trailing empty entry
+    private static List<String> splitLines(String output) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < output.length()) {
+            int end = output.indexOf('\n', start);
+            if (end < 0) {
+                end = output.length();
+            }
+            lines.add(output.substring(start, end));
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    private static class LocalResult extends Shell.Result {
+        private final int code;
+        private final List<String> out;
+
+        LocalResult(int code, List<String> out) {
+            this.code = code;
+            this.out = out;
+        }
+
+        @Override
+        public List<String> getOut() {
+            return out;
+        }
+
+        @Override
+        public List<String> getErr() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int getCode() {
+            return code;
+        }
+    }
+}
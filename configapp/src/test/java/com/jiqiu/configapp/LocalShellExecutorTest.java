@@ -0,0 +1,43 @@
+package com.jiqiu.configapp;
+
+import com.topjohnwu.superuser.Shell;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * The sandbox shell itself: device paths in commands and output are mapped to and from the
+ * sandbox directory, everything else is passed through to the host /bin/sh.
+ */
+public class LocalShellExecutorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private LocalShellExecutor shell;
+
+    @Before
+    public void setUp() throws Exception {
+        shell = new LocalShellExecutor(tmp.newFolder("root"));
+    }
+
+    @Test
+    public void rewritesDevicePathsOnly() {
+        String root = shell.getRoot().getAbsolutePath();
+        assertEquals("cp \"" + root + "/data/a\" " + root + "/sdcard/b 2>/dev/null",
+                shell.rewrite("cp \"/data/a\" /sdcard/b 2>/dev/null"));
+        assertEquals("test -f /tmp/x && echo /database", shell.rewrite("test -f /tmp/x && echo /database"));
+        assertEquals("ls " + root + "/data", shell.rewrite("ls " + root + "/data"));
+
+        // Output is mapped back to device paths, one entry per line like libsu
+        Shell.Result result = shell.run("mkdir -p /data/local/tmp", "cd /data/local/tmp && pwd", "echo two");
+        assertTrue(result.isSuccess());
+        assertEquals(2, result.getOut().size());
+        assertEquals("/data/local/tmp", result.getOut().get(0));
+        assertFalse(shell.run("test -f /data/missing").isSuccess());
+    }
+}
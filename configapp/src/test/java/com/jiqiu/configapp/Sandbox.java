@@ -0,0 +1,81 @@
+package com.jiqiu.configapp;
+
+import android.content.ContextWrapper;
+
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Device file system for tests that run ConfigManager's real shell commands: a {@link LocalShellExecutor}
+ * rooted in a temporary folder, a context whose cache dir lives next to it, and shortcuts for the
+ * stored SOs, app data dirs and config.json those tests set up.
+ */
+class Sandbox {
+    final LocalShellExecutor shell;
+    final ContextWrapper context;
+
+    Sandbox(TemporaryFolder tmp) throws IOException {
+        shell = new LocalShellExecutor(tmp.newFolder("root"));
+        final File cacheDir = tmp.newFolder("cache");
+        context = new ContextWrapper(null) {
+            @Override
+            public File getCacheDir() {
+                return cacheDir;
+            }
+        };
+        mkdirs(ConfigManager.SO_STORAGE_DIR);
+    }
+
+    File resolve(String devicePath) {
+        return shell.resolve(devicePath);
+    }
+
+    void mkdirs(String devicePath) throws IOException {
+        Files.createDirectories(resolve(devicePath).toPath());
+    }
+
+    void write(String devicePath, String content) throws IOException {
+        Files.write(resolve(devicePath).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    String read(String devicePath) throws IOException {
+        return new String(Files.readAllBytes(resolve(devicePath).toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * An SO imported into the module's storage
+     */
+    void storeSo(String name, String content) throws IOException {
+        write(ConfigManager.SO_STORAGE_DIR + "/" + name, content);
+    }
+
+    /**
+     * An installed app: its data dir exists, nothing deployed yet
+     */
+    void installApp(String packageName) throws IOException {
+        mkdirs("/data/data/" + packageName);
+    }
+
+    void writeConfig(String json) throws IOException {
+        write(ConfigManager.CONFIG_FILE, json);
+    }
+
+    ConfigManager newManager(DeployMetrics metrics) {
+        return new ConfigManager(context, shell, metrics);
+    }
+
+    static String filesDir(String packageName) {
+        return "/data/data/" + packageName + "/files";
+    }
+
+    /**
+     * soFiles entry for an SO stored with {@link #storeSo}
+     */
+    static String soFile(String name) {
+        return "{\"name\": \"" + name + "\", \"storedPath\": \"" + ConfigManager.SO_STORAGE_DIR + "/" + name + "\"}";
+    }
+}
@@ -0,0 +1,141 @@
+package com.jiqiu.configapp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parses a small hand-built ELF64 shared object and checks what ends up in the sidecar.
+ */
+public class SoPreflightTest {
+
+    private static final int SIZE = 0x600;
+    private static final int DYNAMIC = 0x100;
+    private static final int STRTAB = 0x200;
+    private static final int SYMTAB = 0x300;
+    private static final int RELA = 0x400;
+    private static final int JMPREL = 0x500;
+
+    // "\0libc.so\0malloc\0local_fn\0free\0": libc.so at 1, malloc at 9, local_fn at 16, free at 25
+    private static final String STRINGS = "\0libc.so\0malloc\0local_fn\0free\0";
+
+    /**
+     * One PT_LOAD mapping the whole file at vaddr 0, plus a PT_DYNAMIC with one needed library,
+     * two RELA entries (malloc undefined, local_fn defined) and one PLT entry (free)
+     */
+    private static ByteBuffer buildElf() {
+        ByteBuffer buf = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put(0, (byte) 0x7f).put(1, (byte) 'E').put(2, (byte) 'L').put(3, (byte) 'F');
+        buf.put(4, (byte) 2).put(5, (byte) 1).put(6, (byte) 1);
+        buf.putShort(0x10, (short) 3);      // ET_DYN
+        buf.putShort(0x12, (short) 0xb7);   // EM_AARCH64
+        buf.putInt(0x14, 1);
+        buf.putLong(0x20, 0x40);            // e_phoff
+        buf.putShort(0x34, (short) 64);
+        buf.putShort(0x36, (short) 56);
+        buf.putShort(0x38, (short) 2);
+
+        phdr(buf, 0x40, 1, 5, 0, 0, SIZE, 0x2345);
+        phdr(buf, 0x40 + 56, 2, 6, DYNAMIC, DYNAMIC, 8 * 16, 8 * 16);
+
+        long[][] dynamic = {{1, 1}, {5, STRTAB}, {6, SYMTAB}, {7, RELA}, {8, 2 * 24}, {23, JMPREL}, {2, 24}, {0, 0}};
+        for (int i = 0; i < dynamic.length; i++) {
+            buf.putLong(DYNAMIC + i * 16, dynamic[i][0]);
+            buf.putLong(DYNAMIC + i * 16 + 8, dynamic[i][1]);
+        }
+
+        byte[] strings = STRINGS.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < strings.length; i++) {
+            buf.put(STRTAB + i, strings[i]);
+        }
+
+        symbol(buf, 1, 9, 0);   // malloc, undefined
+        symbol(buf, 2, 16, 5);  // local_fn, defined in section 5
+        symbol(buf, 3, 25, 0);  // free, undefined
+
+        rela(buf, RELA, 1);
+        rela(buf, RELA + 24, 2);
+        rela(buf, JMPREL, 3);
+        return buf;
+    }
+
+    private static void phdr(ByteBuffer buf, int at, int type, int flags, long offset, long vaddr,
+                             long filesz, long memsz) {
+        buf.putInt(at, type);
+        buf.putInt(at + 4, flags);
+        buf.putLong(at + 8, offset);
+        buf.putLong(at + 16, vaddr);
+        buf.putLong(at + 32, filesz);
+        buf.putLong(at + 40, memsz);
+    }
+
+    private static void symbol(ByteBuffer buf, int index, int name, int shndx) {
+        int at = SYMTAB + index * 24;
+        buf.putInt(at, name);
+        buf.putShort(at + 6, (short) shndx);
+    }
+
+    private static void rela(ByteBuffer buf, int at, long symbol) {
+        buf.putLong(at + 8, symbol << 32 | 1027);
+    }
+
+    @Test
+    public void parsesLayoutRelocationsAndImports() {
+        SoPreflight info = SoPreflight.analyze(buildElf());
+        assertNotNull(info);
+        assertEquals(SIZE, info.fileSize);
+        assertEquals(1, info.segments.size());
+        assertEquals(0x2345, info.segments.get(0).memsz);
+        assertEquals(5, info.segments.get(0).flags);
+        assertEquals(0, info.minVaddr);
+        // Page rounded like MemoryManager::phdr_table_get_load_size
+        assertEquals(0x3000, info.loadSize);
+        assertEquals(2, info.relaCount);
+        assertEquals(1, info.pltRelaCount);
+        assertEquals(Collections.singletonList("libc.so"), info.neededLibs);
+        assertEquals(Arrays.asList("malloc", "free"), info.requiredSymbols);
+
+        String sidecar = info.toSidecar();
+        assertTrue(sidecar, sidecar.startsWith("version=" + SoPreflight.FORMAT_VERSION + "\n"));
+        assertTrue(sidecar, sidecar.contains(String.format("elf_crc32=%08x\n", info.elfCrc32)));
+        assertTrue(sidecar, sidecar.contains("load_size=12288\n"));
+        assertTrue(sidecar, sidecar.contains("segment=0,9029,1536,0,5\n"));
+    }
+
+    @Test
+    public void digestCoversLayoutButNotCode() {
+        long digest = SoPreflight.analyze(buildElf()).elfCrc32;
+
+        // Same size, different segment span: the sidecar must not be reused
+        ByteBuffer resized = buildElf();
+        resized.putLong(0x40 + 40, 0x5000);
+        assertNotEquals(digest, SoPreflight.analyze(resized).elfCrc32);
+
+        // Different relocation count lives in PT_DYNAMIC
+        ByteBuffer relocated = buildElf();
+        relocated.putLong(DYNAMIC + 4 * 16 + 8, 24);
+        assertNotEquals(digest, SoPreflight.analyze(relocated).elfCrc32);
+
+        // Bytes outside the header, phdrs and dynamic section do not change the layout
+        ByteBuffer patched = buildElf();
+        patched.put(SIZE - 1, (byte) 0x90);
+        assertEquals(digest, SoPreflight.analyze(patched).elfCrc32);
+    }
+
+    @Test
+    public void rejectsUnsupportedFiles() {
+        assertNull(SoPreflight.analyze(ByteBuffer.allocate(SIZE)));
+        ByteBuffer elf32 = buildElf();
+        elf32.put(4, (byte) 1);
+        assertNull(SoPreflight.analyze(elf32));
+        ByteBuffer noLoad = buildElf();
+        noLoad.putInt(0x40, 6);
+        assertNull(SoPreflight.analyze(noLoad));
+    }
+}
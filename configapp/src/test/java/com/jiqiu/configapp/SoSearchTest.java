@@ -0,0 +1,96 @@
+package com.jiqiu.configapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the generated walker command with the host /bin/sh against a temporary tree.
+ */
+public class SoSearchTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final byte[] ELF_HEADER = {0x7f, 'E', 'L', 'F', 2, 1, 1, 0};
+
+    private File write(String relative, byte[] content) throws IOException {
+        File file = new File(tmp.getRoot(), relative);
+        file.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    private List<String> run(String command) throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", command).redirectErrorStream(true).start();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line.substring(tmp.getRoot().getPath().length()));
+            }
+        }
+        process.waitFor();
+        Collections.sort(lines);
+        return lines;
+    }
+
+    @Test
+    public void findsElfLibrariesByNameAndMagic() throws Exception {
+        write("libfoo.so", ELF_HEADER);
+        write("a/b/libbar.so", ELF_HEADER);
+        write("a/libfake.so", "not an elf".getBytes(StandardCharsets.UTF_8));
+        write("a/libfoo.txt", ELF_HEADER);
+        write("it's here/libquote.so", ELF_HEADER);
+
+        String root = tmp.getRoot().getPath();
+        List<String> found = run(SoSearch.buildSearchCommand(root, "*", ".so", 8, true, null));
+
+        assertEquals(3, found.size());
+        assertEquals("/a/b/libbar.so", found.get(0));
+        assertEquals("/it's here/libquote.so", found.get(1));
+        assertEquals("/libfoo.so", found.get(2));
+    }
+
+    @Test
+    public void honoursDepthPruningAndPattern() throws Exception {
+        write("libtop.so", ELF_HEADER);
+        write("d1/d2/d3/libdeep.so", ELF_HEADER);
+        write("huge/libhidden.so", ELF_HEADER);
+        write("d1/libtarget.so", ELF_HEADER);
+
+        String root = tmp.getRoot().getPath();
+        String[] prune = {root + "/huge"};
+
+        List<String> shallow = run(SoSearch.buildSearchCommand(root, "*", ".so", 2, true, prune));
+        assertEquals(2, shallow.size());
+        assertEquals("/d1/libtarget.so", shallow.get(0));
+        assertEquals("/libtop.so", shallow.get(1));
+
+        List<String> byName = run(SoSearch.buildSearchCommand(root, SoSearch.toNamePattern("target"),
+                ".so", 8, true, prune));
+        assertEquals(Collections.singletonList("/d1/libtarget.so"), byName);
+    }
+
+    @Test
+    public void namePatternWrapsPlainText() {
+        assertEquals("*frida*", SoSearch.toNamePattern(" frida "));
+        assertEquals("lib*.so", SoSearch.toNamePattern("lib*.so"));
+        assertEquals("*", SoSearch.toNamePattern(""));
+    }
+}
@@ -0,0 +1,171 @@
+package com.jiqiu.configapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds a ring in the native layout and reads it back through the generated dd commands
+ * with the host /bin/sh.
+ */
+public class TelemetryReaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final int SLOTS = 4;
+    private static final int SLOT_SIZE = 128;
+
+    private static byte[] slot(String line) {
+        byte[] slot = new byte[SLOT_SIZE];
+        Arrays.fill(slot, (byte) ' ');
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, slot, 0, bytes.length);
+        slot[SLOT_SIZE - 1] = '\n';
+        return slot;
+    }
+
+    private static String record(long seq, String pkg, long totalMs, boolean ok) {
+        return "v1|" + seq + "|1700000000000|" + pkg + "|riru|delay|5|" + totalMs + "|" + (ok ? 1 : 0)
+                + "|libfoo.so:" + (totalMs - 5) + ":" + (ok ? 1 : 0);
+    }
+
+    // Mirrors Telemetry::commit: record slot first, then the header
+    private static void append(File ring, long seq, String pkg, long totalMs, boolean ok) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(ring, "rw")) {
+            file.seek((long) (1 + (seq - 1) % SLOTS) * SLOT_SIZE);
+            file.write(slot(record(seq, pkg, totalMs, ok)));
+            file.seek(0);
+            file.write(slot("RING|v1|slots=" + SLOTS + "|slot=" + SLOT_SIZE + "|seq=" + seq));
+        }
+    }
+
+    private static List<String> run(String command) throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", command).start();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        process.waitFor();
+        return lines;
+    }
+
+    private static List<TelemetryReader.Record> read(File ring, long lastSeq) throws Exception {
+        List<String> headerLines = run(TelemetryReader.buildHeaderCommand(ring.getPath()));
+        TelemetryReader.Header header = TelemetryReader.parseHeader(headerLines.get(0));
+        assertNotNull(header);
+        String command = TelemetryReader.buildReadCommand(ring.getPath(), header, lastSeq);
+        if (command == null) {
+            return new ArrayList<>();
+        }
+        return TelemetryReader.parseRecords(run(command), TelemetryReader.firstSeq(header, lastSeq), header.seq);
+    }
+
+    @Test
+    public void parsesRecordFields() {
+        TelemetryReader.Record record = TelemetryReader.parseRecord(
+                "v1|7|1700000000000|com.example|custom_linker|library_loaded|120|180|0|liba.so:30:1;libb.so:25:0   ");
+        assertNotNull(record);
+        assertEquals(7, record.seq);
+        assertEquals("com.example", record.packageName);
+        assertEquals("custom_linker", record.method);
+        assertEquals("library_loaded", record.trigger);
+        assertEquals(120, record.waitMs);
+        assertEquals(180, record.totalMs);
+        assertFalse(record.ok);
+        assertEquals(2, record.libraries.size());
+        assertEquals("libb.so", record.libraries.get(1).name);
+        assertFalse(record.libraries.get(1).ok);
+
+        assertNull(TelemetryReader.parseRecord("v2|7|0|a|b|c|1|2|1|"));
+        assertNull(TelemetryReader.parseRecord("garbage"));
+        assertNotNull(TelemetryReader.parseRecord("v1|8|0|a|standard|immediate|0|2|1|"));
+    }
+
+    @Test
+    public void readsOnlyNewRecordsAcrossWrap() throws Exception {
+        File ring = tmp.newFile("telemetry.ring");
+        for (long seq = 1; seq <= 3; seq++) {
+            append(ring, seq, "com.a", 10 * seq, true);
+        }
+        List<TelemetryReader.Record> first = read(ring, 0);
+        assertEquals(3, first.size());
+        assertEquals(1, first.get(0).seq);
+
+        // Six more records wrap the four-slot ring; only the last four survive
+        for (long seq = 4; seq <= 9; seq++) {
+            append(ring, seq, "com.b", 10 * seq, seq != 8);
+        }
+        List<TelemetryReader.Record> next = read(ring, 3);
+        assertEquals(4, next.size());
+        assertEquals(6, next.get(0).seq);
+        assertEquals(9, next.get(3).seq);
+
+        assertTrue(read(ring, 9).isEmpty());
+    }
+
+    @Test
+    public void wrappedReadUsesTwoRanges() {
+        TelemetryReader.Header header = TelemetryReader.parseHeader("RING|v1|slots=4|slot=128|seq=9   ");
+        assertNotNull(header);
+        String command = TelemetryReader.buildReadCommand("/r", header, 5);
+        assertEquals("dd if=\"/r\" bs=128 skip=2 count=3 2>/dev/null; dd if=\"/r\" bs=128 skip=1 count=1 2>/dev/null",
+                command);
+        assertNull(TelemetryReader.parseHeader("RING|v1|slots=x|slot=128|seq=9"));
+    }
+
+    @Test
+    public void statsComputePercentilesAndFailureRate() {
+        TelemetryStats stats = new TelemetryStats(100);
+        for (int i = 1; i <= 100; i++) {
+            stats.add(TelemetryReader.parseRecord(record(i, "com.a", i, i % 10 != 0)));
+        }
+        stats.add(TelemetryReader.parseRecord(record(101, "com.b", 42, true)));
+
+        List<TelemetryStats.AppStats> snapshot = stats.snapshot();
+        assertEquals(2, snapshot.size());
+        TelemetryStats.AppStats a = find(snapshot, "com.a");
+        assertEquals(100, a.count);
+        assertEquals(50, a.p50Ms);
+        assertEquals(90, a.p90Ms);
+        assertEquals(99, a.p99Ms);
+        // Every record waited 5 ms for its trigger
+        assertEquals(45, a.p50LoadMs);
+        assertEquals(85, a.p90LoadMs);
+        assertEquals(94, a.p99LoadMs);
+        assertEquals(5, a.p50WaitMs);
+        assertEquals(0.1, a.getFailureRate(), 1e-9);
+
+        // The window keeps only the most recent launches
+        stats.add(TelemetryReader.parseRecord(record(102, "com.a", 1000, true)));
+        a = find(stats.snapshot(), "com.a");
+        assertEquals(100, a.count);
+        assertEquals(51, a.p50Ms);
+        assertEquals(100, a.p99Ms);
+    }
+
+    private static TelemetryStats.AppStats find(List<TelemetryStats.AppStats> snapshot, String packageName) {
+        for (TelemetryStats.AppStats stats : snapshot) {
+            if (stats.packageName.equals(packageName)) {
+                return stats;
+            }
+        }
+        fail("no stats for " + packageName);
+        return null;
+    }
+}
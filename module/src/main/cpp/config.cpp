@@ -1,4 +1,5 @@
 #include "config.h"
+#include <cstdlib>
 #include <fstream>
 #include <sstream>
 #include <android/log.h>
@@ -9,6 +10,8 @@
 
 namespace Config {
     
+    static const char* kConfigPath = "/data/adb/modules/zygisk-myinjector/config.json";
+    
     static ModuleConfig g_config;
     static bool g_configLoaded = false;
     
@@ -60,6 +63,29 @@ namespace Config {
             appConfig.injectionMethod = InjectionMethod::STANDARD;
         }
         
+        // Parse injection trigger
+        std::string triggerStr = extractValue(appJson, "injectionTrigger");
+        if (triggerStr == "immediate") {
+            appConfig.injectionTrigger = InjectionTrigger::IMMEDIATE;
+        } else if (triggerStr == "library_loaded") {
+            appConfig.injectionTrigger = InjectionTrigger::LIBRARY_LOADED;
+            appConfig.triggerLibrary = extractValue(appJson, "triggerLibrary");
+        } else if (triggerStr == "first_activity") {
+            appConfig.injectionTrigger = InjectionTrigger::FIRST_ACTIVITY;
+        } else {
+            appConfig.injectionTrigger = InjectionTrigger::DELAY;
+        }
+        
+        // Parse per-app delay (absent or null uses the global delay)
+        std::string delayMsStr = extractValue(appJson, "injectionDelayMs");
+        if (!delayMsStr.empty() && delayMsStr != "null") {
+            char* end = nullptr;
+            long delayMs = strtol(delayMsStr.c_str(), &end, 10);
+            if (end != delayMsStr.c_str() && delayMs >= 0) {
+                appConfig.injectionDelayMs = static_cast<int>(delayMs);
+            }
+        }
+        
         // Parse soFiles array
         size_t soFilesPos = appJson.find("\"soFiles\"");
         if (soFilesPos != std::string::npos) {
@@ -81,10 +107,14 @@ namespace Config {
                     soFile.name = extractValue(soFileObj, "name");
                     soFile.storedPath = extractValue(soFileObj, "storedPath");
                     soFile.originalPath = extractValue(soFileObj, "originalPath");
+                    std::string groupStr = extractValue(soFileObj, "loadGroup");
+                    if (!groupStr.empty()) {
+                        soFile.loadGroup = static_cast<int>(strtol(groupStr.c_str(), nullptr, 10));
+                    }
                     
                     if (!soFile.storedPath.empty()) {
                         appConfig.soFiles.push_back(soFile);
-                        LOGD("Added SO file: %s at %s", soFile.name.c_str(), soFile.storedPath.c_str());
+                        LOGD("Added SO file: %s at %s (group %d)", soFile.name.c_str(), soFile.storedPath.c_str(), soFile.loadGroup);
                     }
                     
                     objStart = objEnd + 1;
@@ -101,7 +131,7 @@ namespace Config {
             if (gadgetObjStart != std::string::npos && gadgetObjEnd != std::string::npos) {
                 std::string gadgetObj = appJson.substr(gadgetObjStart, gadgetObjEnd - gadgetObjStart + 1);
                 
-                GadgetConfig* gadgetConfig = new GadgetConfig();
+                auto gadgetConfig = std::make_shared<GadgetConfig>();
                 
                 std::string address = extractValue(gadgetObj, "address");
                 if (!address.empty()) gadgetConfig->address = address;
@@ -137,11 +167,10 @@ namespace Config {
             return g_config;
         }
         
-        const char* configPath = "/data/adb/modules/zygisk-myinjector/config.json";
-        std::ifstream file(configPath);
+        std::ifstream file(kConfigPath);
         
         if (!file.is_open()) {
-            LOGE("Failed to open config file: %s", configPath);
+            LOGE("Failed to open config file: %s", kConfigPath);
             g_configLoaded = true;
             return g_config;
         }
@@ -259,10 +288,46 @@ namespace Config {
         return InjectionMethod::STANDARD;
     }
     
+    InjectionTrigger getAppInjectionTrigger(const std::string& packageName) {
+        if (!g_configLoaded) {
+            readConfig();
+        }
+        
+        auto it = g_config.perAppConfig.find(packageName);
+        if (it != g_config.perAppConfig.end()) {
+            return it->second.injectionTrigger;
+        }
+        return InjectionTrigger::DELAY;
+    }
+    
+    std::string getAppTriggerLibrary(const std::string& packageName) {
+        if (!g_configLoaded) {
+            readConfig();
+        }
+        
+        auto it = g_config.perAppConfig.find(packageName);
+        if (it != g_config.perAppConfig.end()) {
+            return it->second.triggerLibrary;
+        }
+        return "";
+    }
+    
     int getInjectionDelay() {
         if (!g_configLoaded) {
             readConfig();
         }
         return g_config.injectionDelay;
     }
+    
+    int getAppInjectionDelayMs(const std::string& packageName) {
+        if (!g_configLoaded) {
+            readConfig();
+        }
+        
+        auto it = g_config.perAppConfig.find(packageName);
+        if (it != g_config.perAppConfig.end() && it->second.injectionDelayMs >= 0) {
+            return it->second.injectionDelayMs;
+        }
+        return g_config.injectionDelay * 1000;
+    }
 }
\ No newline at end of file
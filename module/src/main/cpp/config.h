@@ -1,6 +1,7 @@
 #ifndef CONFIG_H
 #define CONFIG_H
 
+#include <memory>
 #include <string>
 #include <vector>
 #include <unordered_map>
@@ -11,6 +12,7 @@ namespace Config {
         std::string name;
         std::string storedPath;
         std::string originalPath;
+        int loadGroup = 0; // Same group loads in order, different groups load concurrently
     };
     
     enum class InjectionMethod {
@@ -19,6 +21,14 @@ namespace Config {
         CUSTOM_LINKER = 2
     };
     
+    // 注入时机，均在后台线程等待，不阻塞应用主线程
+    enum class InjectionTrigger {
+        IMMEDIATE = 0,
+        DELAY = 1,          // 等待全局 injectionDelay
+        LIBRARY_LOADED = 2, // 等待 triggerLibrary 被加载
+        FIRST_ACTIVITY = 3  // 等待首个 Activity 创建
+    };
+    
     struct GadgetConfig {
         std::string address = "0.0.0.0";
         int port = 27042;
@@ -30,8 +40,12 @@ namespace Config {
     struct AppConfig {
         bool enabled = false;
         InjectionMethod injectionMethod = InjectionMethod::STANDARD;
+        InjectionTrigger injectionTrigger = InjectionTrigger::DELAY;
+        std::string triggerLibrary;
+        int injectionDelayMs = -1; // Per-app override, -1 uses the global injectionDelay
         std::vector<SoFile> soFiles;
-        GadgetConfig* gadgetConfig = nullptr;
+        // Shared so copies of ModuleConfig returned by readConfig() stay valid
+        std::shared_ptr<GadgetConfig> gadgetConfig;
     };
     
     struct ModuleConfig {
@@ -56,8 +70,17 @@ namespace Config {
     // Get injection method for specific app
     InjectionMethod getAppInjectionMethod(const std::string& packageName);
     
+    // Get injection trigger for specific app
+    InjectionTrigger getAppInjectionTrigger(const std::string& packageName);
+    
+    // Get library name waited on by InjectionTrigger::LIBRARY_LOADED
+    std::string getAppTriggerLibrary(const std::string& packageName);
+    
     // Get injection delay in seconds
     int getInjectionDelay();
+    
+    // Get injection delay for specific app in milliseconds, falling back to the global delay
+    int getAppInjectionDelayMs(const std::string& packageName);
 }
 
 #endif // CONFIG_H
\ No newline at end of file
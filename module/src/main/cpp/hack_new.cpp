@@ -2,6 +2,8 @@
 #include "config.h"
 #include "log.h"
 #include "mylinker.h"
+#include "load_groups.h"
+#include "telemetry.h"
 #include <cstring>
 #include <thread>
 #include <dlfcn.h>
@@ -10,11 +12,15 @@
 #include <sys/stat.h>
 #include <errno.h>
 #include <jni.h>
+#include <link.h>
+#include <map>
+#include <mutex>
+#include <time.h>
 
 // External function from newriruhide.cpp
 extern "C" void riru_hide(const char *name);
 
-void load_so_file_standard(const char *game_data_dir, const Config::SoFile &soFile) {
+bool load_so_file_standard(const char *game_data_dir, const Config::SoFile &soFile) {
     // Use original filename
     char so_path[512];
     snprintf(so_path, sizeof(so_path), "%s/files/%s", game_data_dir, soFile.name.c_str());
@@ -22,19 +28,20 @@ void load_so_file_standard(const char *game_data_dir, const Config::SoFile &soFi
     // Check if file exists
     if (access(so_path, F_OK) != 0) {
         LOGE("SO file not found: %s", so_path);
-        return;
+        return false;
     }
     
     // Load the SO file using standard dlopen (no hiding)
     void *handle = dlopen(so_path, RTLD_NOW | RTLD_LOCAL);
     if (handle) {
         LOGI("Successfully loaded SO via standard dlopen: %s", soFile.name.c_str());
-    } else {
-        LOGE("Failed to load SO via standard dlopen: %s - %s", so_path, dlerror());
+        return true;
     }
+    LOGE("Failed to load SO via standard dlopen: %s - %s", so_path, dlerror());
+    return false;
 }
 
-void load_so_file_riru(const char *game_data_dir, const Config::SoFile &soFile) {
+bool load_so_file_riru(const char *game_data_dir, const Config::SoFile &soFile) {
     // Use original filename
     char so_path[512];
     snprintf(so_path, sizeof(so_path), "%s/files/%s", game_data_dir, soFile.name.c_str());
@@ -42,7 +49,7 @@ void load_so_file_riru(const char *game_data_dir, const Config::SoFile &soFile)
     // Check if file exists
     if (access(so_path, F_OK) != 0) {
         LOGE("SO file not found: %s", so_path);
-        return;
+        return false;
     }
     
     // Load the SO file using dlopen (Riru method)
@@ -52,16 +59,20 @@ void load_so_file_riru(const char *game_data_dir, const Config::SoFile &soFile)
         
         // Hide if configured
         if (Config::shouldHideInjection()) {
+            // riru_hide remaps /proc/self/maps entries, never run it concurrently across load groups
+            static std::mutex hide_mutex;
+            std::lock_guard<std::mutex> lock(hide_mutex);
             // Hide using the original name
             riru_hide(soFile.name.c_str());
             LOGI("Applied riru_hide to: %s", soFile.name.c_str());
         }
-    } else {
-        LOGE("Failed to load SO via Riru: %s - %s", so_path, dlerror());
+        return true;
     }
+    LOGE("Failed to load SO via Riru: %s - %s", so_path, dlerror());
+    return false;
 }
 
-void load_so_file_custom_linker(const char *game_data_dir, const Config::SoFile &soFile, JavaVM *vm) {
+bool load_so_file_custom_linker(const char *game_data_dir, const Config::SoFile &soFile, JavaVM *vm) {
     // Use original filename
     char so_path[512];
     snprintf(so_path, sizeof(so_path), "%s/files/%s", game_data_dir, soFile.name.c_str());
@@ -69,7 +80,7 @@ void load_so_file_custom_linker(const char *game_data_dir, const Config::SoFile
     // Check if file exists
     if (access(so_path, F_OK) != 0) {
         LOGE("SO file not found: %s", so_path);
-        return;
+        return false;
     }
     
     // Load the SO file using custom linker
@@ -80,45 +91,205 @@ void load_so_file_custom_linker(const char *game_data_dir, const Config::SoFile
         if (Config::shouldHideInjection()) {
             LOGI("Custom linker injection is inherently hidden");
         }
+        return true;
+    }
+    LOGE("Failed to load SO via custom linker: %s", so_path);
+    return false;
+}
+
+// 等待触发条件的上限，超时后仍然注入，避免条件永远不满足时静默丢失注入
+static const int kTriggerTimeoutMs = 30000;
+static const int kTriggerPollMs = 10;
+
+static long long now_ms() {
+    struct timespec ts{};
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1000LL + ts.tv_nsec / 1000000;
+}
+
+static int find_library_callback(struct dl_phdr_info *info, size_t, void *data) {
+    const char *wanted = static_cast<const char *>(data);
+    if (info->dlpi_name == nullptr) {
+        return 0;
+    }
+    const char *base = strrchr(info->dlpi_name, '/');
+    base = base ? base + 1 : info->dlpi_name;
+    return strcmp(base, wanted) == 0 ? 1 : 0;
+}
+
+static bool wait_for_library(const std::string &library) {
+    if (library.empty()) {
+        LOGW("Library trigger without library name, injecting now");
+        return true;
+    }
+    long long deadline = now_ms() + kTriggerTimeoutMs;
+    while (dl_iterate_phdr(find_library_callback, (void *) library.c_str()) == 0) {
+        if (now_ms() >= deadline) {
+            return false;
+        }
+        usleep(kTriggerPollMs * 1000);
+    }
+    return true;
+}
+
+// 轮询 ActivityThread.mActivities，非空即表示首个 Activity 已创建
+static bool wait_for_first_activity(JavaVM *vm) {
+    JNIEnv *env = nullptr;
+    bool attached = false;
+    if (vm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) == JNI_EDETACHED) {
+        if (vm->AttachCurrentThread(&env, nullptr) != JNI_OK) {
+            LOGE("Failed to attach thread for first Activity trigger");
+            return false;
+        }
+        attached = true;
+    }
+    
+    bool found = false;
+    jclass activityThreadClass = env->FindClass("android/app/ActivityThread");
+    jclass arrayMapClass = env->FindClass("android/util/ArrayMap");
+    jmethodID currentActivityThread = activityThreadClass ? env->GetStaticMethodID(
+            activityThreadClass, "currentActivityThread", "()Landroid/app/ActivityThread;") : nullptr;
+    jfieldID activitiesField = activityThreadClass ? env->GetFieldID(
+            activityThreadClass, "mActivities", "Landroid/util/ArrayMap;") : nullptr;
+    jmethodID sizeMethod = arrayMapClass ? env->GetMethodID(arrayMapClass, "size", "()I") : nullptr;
+    
+    if (env->ExceptionCheck() || !currentActivityThread || !activitiesField || !sizeMethod) {
+        env->ExceptionClear();
+        LOGE("ActivityThread.mActivities not accessible");
     } else {
-        LOGE("Failed to load SO via custom linker: %s", so_path);
+        long long deadline = now_ms() + kTriggerTimeoutMs;
+        while (!found && now_ms() < deadline) {
+            jobject thread = env->CallStaticObjectMethod(activityThreadClass, currentActivityThread);
+            if (thread != nullptr) {
+                jobject activities = env->GetObjectField(thread, activitiesField);
+                if (activities != nullptr) {
+                    found = env->CallIntMethod(activities, sizeMethod) > 0;
+                    env->DeleteLocalRef(activities);
+                }
+                env->DeleteLocalRef(thread);
+            }
+            if (env->ExceptionCheck()) {
+                env->ExceptionClear();
+                break;
+            }
+            if (!found) {
+                usleep(kTriggerPollMs * 1000);
+            }
+        }
+    }
+    
+    if (activityThreadClass) env->DeleteLocalRef(activityThreadClass);
+    if (arrayMapClass) env->DeleteLocalRef(arrayMapClass);
+    if (attached) {
+        vm->DetachCurrentThread();
+    }
+    return found;
+}
+
+static const char *trigger_name(Config::InjectionTrigger trigger) {
+    switch (trigger) {
+        case Config::InjectionTrigger::IMMEDIATE:
+            return "immediate";
+        case Config::InjectionTrigger::LIBRARY_LOADED:
+            return "library_loaded";
+        case Config::InjectionTrigger::FIRST_ACTIVITY:
+            return "first_activity";
+        case Config::InjectionTrigger::DELAY:
+        default:
+            return "delay";
     }
 }
 
+// Returns how long the hack thread waited before injecting
+static long long wait_for_trigger(const char *package_name, JavaVM *vm) {
+    long long start = now_ms();
+    switch (Config::getAppInjectionTrigger(package_name)) {
+        case Config::InjectionTrigger::IMMEDIATE:
+            LOGI("Trigger: immediate");
+            return 0;
+        case Config::InjectionTrigger::LIBRARY_LOADED: {
+            std::string library = Config::getAppTriggerLibrary(package_name);
+            LOGI("Trigger: waiting for library %s", library.c_str());
+            if (!wait_for_library(library)) {
+                LOGW("Library %s not loaded after %d ms, injecting anyway", library.c_str(), kTriggerTimeoutMs);
+            }
+            break;
+        }
+        case Config::InjectionTrigger::FIRST_ACTIVITY:
+            LOGI("Trigger: waiting for first Activity");
+            if (!wait_for_first_activity(vm)) {
+                LOGW("First Activity not detected, injecting anyway");
+            }
+            break;
+        case Config::InjectionTrigger::DELAY:
+        default: {
+            int delayMs = Config::getAppInjectionDelayMs(package_name);
+            LOGI("Trigger: waiting %d ms on hack thread", delayMs);
+            if (delayMs > 0) {
+                std::this_thread::sleep_for(std::chrono::milliseconds(delayMs));
+            }
+            break;
+        }
+    }
+    long long waited = now_ms() - start;
+    LOGI("Trigger fired after %lld ms", waited);
+    return waited;
+}
+
 void hack_thread_func(const char *game_data_dir, const char *package_name, JavaVM *vm) {
     LOGI("Hack thread started for package: %s", package_name);
-    
-    // Note: Delay is now handled in main thread before this thread is created
-    LOGI("Starting injection immediately (delay already applied in main thread)");
+    long long launchStart = now_ms();
     
     // Get injection method for this app
     Config::InjectionMethod method = Config::getAppInjectionMethod(package_name);
     const char* methodName = method == Config::InjectionMethod::CUSTOM_LINKER ? "Custom Linker" :
                              method == Config::InjectionMethod::RIRU ? "Riru" : "Standard";
+    const char* methodKey = method == Config::InjectionMethod::CUSTOM_LINKER ? "custom_linker" :
+                            method == Config::InjectionMethod::RIRU ? "riru" : "standard";
+    Telemetry::begin(package_name, methodKey, trigger_name(Config::getAppInjectionTrigger(package_name)));
+    
+    // Wait for the configured trigger off the app's main thread
+    Telemetry::setWaitMs(wait_for_trigger(package_name, vm));
+    
     LOGI("Using injection method: %s", methodName);
     
     // Get SO files for this app
     auto soFiles = Config::getAppSoFiles(package_name);
     LOGI("Found %zu SO files to load", soFiles.size());
     
-    // Load each SO file using the configured method
+    // Group by loadGroup, keeping the configured order inside each group
+    std::map<int, std::vector<Config::SoFile>> byGroup;
     for (const auto &soFile : soFiles) {
         // Skip config files
         if (soFile.name.find(".config.so") != std::string::npos) {
             LOGI("Skipping config file: %s", soFile.name.c_str());
             continue;
         }
+        byGroup[soFile.loadGroup].push_back(soFile);
+    }
+    std::vector<std::vector<Config::SoFile>> groups;
+    for (auto &entry : byGroup) {
+        groups.push_back(std::move(entry.second));
+    }
+    
+    long long start = now_ms();
+    load_in_groups(groups, [&](const Config::SoFile &soFile) {
+        LOGI("Loading SO: %s (stored as: %s, group %d)", soFile.name.c_str(), soFile.storedPath.c_str(),
+             soFile.loadGroup);
         
-        LOGI("Loading SO: %s (stored as: %s)", soFile.name.c_str(), soFile.storedPath.c_str());
-        
+        long long loadStart = now_ms();
+        bool ok;
         if (method == Config::InjectionMethod::CUSTOM_LINKER) {
-            load_so_file_custom_linker(game_data_dir, soFile, vm);
+            ok = load_so_file_custom_linker(game_data_dir, soFile, vm);
         } else if (method == Config::InjectionMethod::RIRU) {
-            load_so_file_riru(game_data_dir, soFile);
+            ok = load_so_file_riru(game_data_dir, soFile);
         } else {
-            load_so_file_standard(game_data_dir, soFile);
+            ok = load_so_file_standard(game_data_dir, soFile);
         }
-    }
+        Telemetry::addLibrary(soFile.name, now_ms() - loadStart, ok);
+    });
+    LOGI("Loaded %zu groups in %lld ms", groups.size(), now_ms() - start);
+    Telemetry::commit(now_ms() - launchStart);
     
     // Cleanup custom linker resources when done (if used)
     if (method == Config::InjectionMethod::CUSTOM_LINKER) {
@@ -130,6 +301,6 @@ void hack_thread_func(const char *game_data_dir, const char *package_name, JavaV
 void hack_prepare(const char *game_data_dir, const char *package_name, void *data, size_t length, JavaVM *vm) {
     LOGI("hack_prepare called for package: %s, dir: %s", package_name, game_data_dir);
     
-    std::thread hack_thread(hack_thread_func, game_data_dir, package_name, vm);
-    hack_thread.join();
+    // Already running on the detached thread started in postAppSpecialize
+    hack_thread_func(game_data_dir, package_name, vm);
 }
\ No newline at end of file
@@ -15,6 +15,7 @@
 #include "log.h"
 #include "dlfcn.h"
 #include "config.h"
+#include "telemetry.h"
 using zygisk::Api;
 using zygisk::AppSpecializeArgs;
 using zygisk::ServerSpecializeArgs;
@@ -45,14 +46,8 @@ public:
             // Get JavaVM
             JavaVM *vm = nullptr;
             if (env->GetJavaVM(&vm) == JNI_OK) {
-                // Get injection delay from config
-                int delay = Config::getInjectionDelay();
-                LOGI("Main thread blocking for %d seconds before injection", delay);
-                
-                // Block main thread for the delay period
-                sleep(delay);
-                
-                // Then start hack thread with JavaVM
+                // The injection trigger (delay, library, first Activity) is awaited on the
+                // hack thread so the app's main thread starts without any added latency
                 std::thread hack_thread(hack_prepare, _data_dir, _package_name, data, length, vm);
                 hack_thread.detach();
             } else {
@@ -83,6 +78,15 @@ private:
             _package_name = new char[strlen(package_name) + 1];
             strcpy(_package_name, package_name);
             
+            // The app's domain can no longer create files under /data/adb once specialized,
+            // so the telemetry ring is opened here and written by the hack thread. Writes are
+            // checked against the file's label in the app's domain: the companion relabels it first
+            int companion = api->connectCompanion();
+            Telemetry::open(companion);
+            if (companion >= 0) {
+                close(companion);
+            }
+            
             // ConfigApp is responsible for copying SO files
             // We just need to load them
 
@@ -111,4 +115,11 @@ private:
     }
 };
 
-REGISTER_ZYGISK_MODULE(MyModule)
\ No newline at end of file
+// Runs as root in the companion process, once per connectCompanion()
+static void companion_handler(int client) {
+    Telemetry::prepareRing(client);
+}
+
+REGISTER_ZYGISK_MODULE(MyModule)
+
+REGISTER_ZYGISK_COMPANION(companion_handler)
\ No newline at end of file
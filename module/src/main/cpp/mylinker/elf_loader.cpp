@@ -5,6 +5,7 @@ ElfLoader::ElfLoader() : loaded_si_(nullptr) {
     memory_manager_ = std::make_unique<MemoryManager>();
     soinfo_manager_ = std::make_unique<SoinfoManager>();
     relocator_ = std::make_unique<Relocator>();
+    preflight_ = std::make_unique<Preflight>();
 }
 
 ElfLoader::~ElfLoader() {
@@ -23,8 +24,18 @@ bool ElfLoader::LoadLibrary(const char* path) {
         return false;
     }
 
-    if (!memory_manager_->ReserveAddressSpace(reader_->GetProgramHeaders(),
-                                              reader_->GetProgramHeaderCount())) {
+    std::string sidecar_path = std::string(path) + PREFLIGHT_SUFFIX;
+    preflight_->Load(sidecar_path.c_str(), *reader_);
+
+    bool reserved;
+    if (preflight_->IsValid()) {
+        reserved = memory_manager_->ReserveAddressSpace(preflight_->GetLoadSize(),
+                                                        preflight_->GetMinVaddr());
+    } else {
+        reserved = memory_manager_->ReserveAddressSpace(reader_->GetProgramHeaders(),
+                                                        reader_->GetProgramHeaderCount());
+    }
+    if (!reserved) {
         LOGE("Failed to reserve address space");
         return false;
     }
@@ -63,6 +74,15 @@ bool ElfLoader::LoadLibrary(const char* path) {
         return false;
     }
 
+    if (preflight_->IsValid()) {
+        if (preflight_->GetRelaCount() == loaded_si_->rela_count &&
+            preflight_->GetPltRelaCount() == loaded_si_->plt_rela_count) {
+            relocator_->PreloadSymbols(loaded_si_, preflight_->GetRequiredSymbols());
+        } else {
+            LOGD("Preflight relocation counts mismatch, resolving symbols lazily");
+        }
+    }
+
     if (!relocator_->LinkImage(loaded_si_)) {
         LOGE("Failed to link image");
         return false;
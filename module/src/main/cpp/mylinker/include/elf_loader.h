@@ -5,6 +5,7 @@
 #include "memory_manager.h"
 #include "soinfo_manager.h"
 #include "relocator.h"
+#include "preflight.h"
 
 class ElfLoader {
 public:
@@ -22,6 +23,7 @@ private:
     std::unique_ptr<MemoryManager> memory_manager_;
     std::unique_ptr<SoinfoManager> soinfo_manager_;
     std::unique_ptr<Relocator> relocator_;
+    std::unique_ptr<Preflight> preflight_;
 
     soinfo* loaded_si_;
 };
\ No newline at end of file
@@ -0,0 +1,32 @@
+#pragma once
+
+#include <thread>
+#include <vector>
+
+// 按组加载：组内按顺序，组间并发。第一个组在当前线程执行，只有一个组时不创建额外线程。
+// load_one 会被多个线程同时调用，必须是线程安全的。
+template <typename T, typename LoadFn>
+void load_in_groups(const std::vector<std::vector<T>>& groups, LoadFn load_one) {
+    if (groups.empty()) {
+        return;
+    }
+
+    std::vector<std::thread> workers;
+    workers.reserve(groups.size() - 1);
+    for (size_t i = 1; i < groups.size(); i++) {
+        const std::vector<T>* group = &groups[i];
+        workers.emplace_back([group, &load_one]() {
+            for (const auto& item : *group) {
+                load_one(item);
+            }
+        });
+    }
+
+    for (const auto& item : groups[0]) {
+        load_one(item);
+    }
+
+    for (auto& worker : workers) {
+        worker.join();
+    }
+}
@@ -9,6 +9,9 @@ public:
 
     bool ReserveAddressSpace(const ElfW(Phdr)* phdr_table, size_t phdr_num);
 
+    // 使用 preflight 预先计算的映射大小，跳过 program header 扫描
+    bool ReserveAddressSpace(size_t load_size, ElfW(Addr) min_vaddr);
+
     bool LoadSegments(const ElfW(Phdr)* phdr_table, size_t phdr_num,
                       void* mapped_file, size_t file_size);
 
@@ -21,11 +24,13 @@ public:
     ElfW(Addr) GetLoadBias() const { return load_bias_; }
     const ElfW(Phdr)* GetLoadedPhdr() const { return loaded_phdr_; }
 
+    // Page-aligned span of the PT_LOAD segments, 0 if there are none
+    static size_t phdr_table_get_load_size(const ElfW(Phdr)* phdr_table,
+                                           size_t phdr_count,
+                                           ElfW(Addr)* min_vaddr);
+
 private:
     bool CheckPhdr(ElfW(Addr) loaded, const ElfW(Phdr)* phdr_table, size_t phdr_num);
-    size_t phdr_table_get_load_size(const ElfW(Phdr)* phdr_table,
-                                    size_t phdr_count,
-                                    ElfW(Addr)* min_vaddr);
 
     void* load_start_;
     size_t load_size_;
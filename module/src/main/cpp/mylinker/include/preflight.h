@@ -0,0 +1,55 @@
+#pragma once
+
+#include "common.h"
+#include "elf_reader.h"
+
+// 由 ConfigApp 导入 SO 时生成的 <so>.preflight，格式版本需与 SoPreflight.FORMAT_VERSION 一致
+#define PREFLIGHT_FORMAT_VERSION 2
+#define PREFLIGHT_SUFFIX ".preflight"
+
+struct PreflightSegment {
+    ElfW(Addr) vaddr;
+    ElfW(Addr) memsz;
+    ElfW(Addr) filesz;
+    ElfW(Addr) offset;
+    uint32_t flags;
+};
+
+class Preflight {
+public:
+    Preflight();
+    ~Preflight();
+
+    // 读取并校验 sidecar；版本、文件大小、ELF 摘要或映射范围与 reader 已映射的 SO 不一致时返回 false，
+    // 调用方走正常流程
+    bool Load(const char* sidecar_path, const ElfReader& reader);
+
+    // CRC32 of the ELF header, the program header table and the PT_DYNAMIC bytes; matches SoPreflight.elfDigest
+    static uint32_t ElfDigest(const ElfReader& reader);
+
+    bool IsValid() const { return valid_; }
+
+    ElfW(Addr) GetMinVaddr() const { return min_vaddr_; }
+    size_t GetLoadSize() const { return load_size_; }
+    size_t GetRelaCount() const { return rela_count_; }
+    size_t GetPltRelaCount() const { return plt_rela_count_; }
+    const std::vector<PreflightSegment>& GetSegments() const { return segments_; }
+    const std::vector<std::string>& GetNeededLibs() const { return needed_libs_; }
+    const std::vector<std::string>& GetRequiredSymbols() const { return required_symbols_; }
+
+private:
+    bool ParseLine(const std::string& key, const std::string& value);
+
+    bool valid_;
+    int version_;
+    size_t file_size_;
+    uint32_t elf_crc32_;
+    bool has_elf_crc32_;
+    ElfW(Addr) min_vaddr_;
+    size_t load_size_;
+    size_t rela_count_;
+    size_t plt_rela_count_;
+    std::vector<PreflightSegment> segments_;
+    std::vector<std::string> needed_libs_;
+    std::vector<std::string> required_symbols_;
+};
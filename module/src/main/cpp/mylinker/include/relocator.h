@@ -18,8 +18,13 @@ public:
     ElfW(Sym)* gnu_lookup(uint32_t hash, const char* name, soinfo* si);
     ElfW(Sym)* elf_lookup(unsigned hash, const char* name, soinfo* si);
 
+    // 按 preflight 给出的外部符号列表一次性解析，重定位时直接查表
+    void PreloadSymbols(soinfo* si, const std::vector<std::string>& names);
+
 private:
     bool ProcessRelaRelocation(soinfo* si, const ElfW(Rela)* rela);
 
     ElfW(Addr) FindSymbolAddress(const char* name, soinfo* si);
+
+    std::unordered_map<std::string, ElfW(Addr)> symbol_cache_;
 };
\ No newline at end of file
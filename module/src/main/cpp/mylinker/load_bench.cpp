@@ -0,0 +1,102 @@
+#include "elf_loader.h"
+#include "load_groups.h"
+#include <chrono>
+#include <mutex>
+
+// 加载耗时基准：把模板 SO 复制成 N 个独立的合成库，先在单组内顺序加载，
+// 再按 G 个组并发加载（与 hack_new.cpp 相同的 load_in_groups），输出两者总耗时。
+
+static bool copy_file(const char* src, const std::string& dst) {
+    int in = open(src, O_RDONLY);
+    if (in < 0) {
+        return false;
+    }
+    int out = open(dst.c_str(), O_WRONLY | O_CREAT | O_TRUNC, 0755);
+    if (out < 0) {
+        close(in);
+        return false;
+    }
+    char buf[64 * 1024];
+    ssize_t n;
+    bool ok = true;
+    while ((n = read(in, buf, sizeof(buf))) > 0) {
+        if (write(out, buf, n) != n) {
+            ok = false;
+            break;
+        }
+    }
+    close(in);
+    close(out);
+    return ok && n == 0;
+}
+
+static double run(const std::vector<std::vector<std::string>>& groups, int* failures) {
+    std::mutex mutex;
+    std::vector<std::unique_ptr<ElfLoader>> loaders; // keep everything mapped until the end
+    *failures = 0;
+
+    auto start = std::chrono::steady_clock::now();
+    load_in_groups(groups, [&](const std::string& path) {
+        auto loader = std::make_unique<ElfLoader>();
+        bool ok = loader->LoadLibrary(path.c_str());
+        std::lock_guard<std::mutex> lock(mutex);
+        if (ok) {
+            loaders.push_back(std::move(loader));
+        } else {
+            (*failures)++;
+        }
+    });
+    auto end = std::chrono::steady_clock::now();
+    return std::chrono::duration<double, std::milli>(end - start).count();
+}
+
+static std::vector<std::vector<std::string>> make_libraries(const char* tmpl, const std::string& dir,
+                                                            const char* prefix, int count, int group_count) {
+    std::vector<std::vector<std::string>> groups(group_count);
+    for (int i = 0; i < count; i++) {
+        std::string path = dir + "/" + prefix + std::to_string(i) + ".so";
+        if (!copy_file(tmpl, path)) {
+            printf("Failed to create %s\n", path.c_str());
+            return {};
+        }
+        groups[i % group_count].push_back(path);
+    }
+    return groups;
+}
+
+int main(int argc, char* argv[]) {
+    if (argc < 3) {
+        printf("Usage: %s <template.so> <count> [groups=4] [work_dir=/data/local/tmp/load_bench]\n", argv[0]);
+        return 1;
+    }
+
+    const char* tmpl = argv[1];
+    int count = atoi(argv[2]);
+    int group_count = argc > 3 ? atoi(argv[3]) : 4;
+    std::string dir = argc > 4 ? argv[4] : "/data/local/tmp/load_bench";
+    if (count <= 0 || group_count <= 0) {
+        printf("count and groups must be positive\n");
+        return 1;
+    }
+    mkdir(dir.c_str(), 0755);
+
+    // Separate copies per run so the second run doesn't hit page cache state of the first's mappings
+    auto sequential = make_libraries(tmpl, dir, "seq_", count, 1);
+    auto grouped = make_libraries(tmpl, dir, "par_", count, group_count);
+    if (sequential.empty() || grouped.empty()) {
+        return 1;
+    }
+
+    int seq_failures = 0;
+    int par_failures = 0;
+    double seq_ms = run(sequential, &seq_failures);
+    double par_ms = run(grouped, &par_failures);
+
+    printf("libraries: %d, groups: %d\n", count, group_count);
+    printf("sequential: %.2f ms (%d failed)\n", seq_ms, seq_failures);
+    printf("grouped:    %.2f ms (%d failed)\n", par_ms, par_failures);
+    if (par_ms > 0) {
+        printf("speedup:    %.2fx\n", seq_ms / par_ms);
+    }
+    return seq_failures + par_failures == 0 ? 0 : 1;
+}
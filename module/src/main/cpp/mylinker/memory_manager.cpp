@@ -9,13 +9,19 @@ MemoryManager::~MemoryManager() {
 
 bool MemoryManager::ReserveAddressSpace(const ElfW(Phdr)* phdr_table, size_t phdr_num) {
     ElfW(Addr) min_vaddr;
-    load_size_ = phdr_table_get_load_size(phdr_table, phdr_num, &min_vaddr);
+    size_t load_size = phdr_table_get_load_size(phdr_table, phdr_num, &min_vaddr);
 
-    if (load_size_ == 0) {
+    if (load_size == 0) {
         LOGE("No loadable segments");
         return false;
     }
 
+    return ReserveAddressSpace(load_size, min_vaddr);
+}
+
+bool MemoryManager::ReserveAddressSpace(size_t load_size, ElfW(Addr) min_vaddr) {
+    load_size_ = load_size;
+
     LOGD("Load size: 0x%zx, min_vaddr: 0x%llx", load_size_, (unsigned long long)min_vaddr);
 
     void* start = mmap(nullptr, load_size_, PROT_NONE,
@@ -3,8 +3,11 @@
 #include "common.h"
 #include <unordered_map>
 #include <memory>
+#include <mutex>
 #include <string>
 
+// 只保护注册表本身，加载过程不持锁，不同库可以并发加载
+static std::mutex loaded_libraries_mutex;
 static std::unordered_map<std::string, std::unique_ptr<ElfLoader>> loaded_libraries;
 
 bool mylinker_load_library(const char* library_path, JavaVM* vm) {
@@ -15,9 +18,12 @@ bool mylinker_load_library(const char* library_path, JavaVM* vm) {
 
     std::string path(library_path);
     
-    if (loaded_libraries.find(path) != loaded_libraries.end()) {
-        LOGI("Library already loaded: %s", library_path);
-        return true;
+    {
+        std::lock_guard<std::mutex> lock(loaded_libraries_mutex);
+        if (loaded_libraries.find(path) != loaded_libraries.end()) {
+            LOGI("Library already loaded: %s", library_path);
+            return true;
+        }
     }
 
     auto loader = std::make_unique<ElfLoader>();
@@ -36,7 +42,10 @@ bool mylinker_load_library(const char* library_path, JavaVM* vm) {
         }
     }
 
-    loaded_libraries[path] = std::move(loader);
+    {
+        std::lock_guard<std::mutex> lock(loaded_libraries_mutex);
+        loaded_libraries[path] = std::move(loader);
+    }
     LOGI("Successfully loaded library: %s", library_path);
     return true;
 }
@@ -46,6 +55,7 @@ void* mylinker_get_symbol(const char* library_path, const char* symbol_name) {
         return nullptr;
     }
 
+    std::lock_guard<std::mutex> lock(loaded_libraries_mutex);
     auto it = loaded_libraries.find(library_path);
     if (it == loaded_libraries.end()) {
         LOGE("Library not loaded: %s", library_path);
@@ -56,6 +66,7 @@ void* mylinker_get_symbol(const char* library_path, const char* symbol_name) {
 }
 
 void mylinker_cleanup() {
+    std::lock_guard<std::mutex> lock(loaded_libraries_mutex);
     loaded_libraries.clear();
     LOGI("Cleaned up all loaded libraries");
 }
\ No newline at end of file
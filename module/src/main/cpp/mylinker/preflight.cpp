@@ -0,0 +1,148 @@
+#include "preflight.h"
+#include "memory_manager.h"
+#include <fstream>
+
+Preflight::Preflight() : valid_(false), version_(0), file_size_(0), elf_crc32_(0), has_elf_crc32_(false),
+                         min_vaddr_(0), load_size_(0), rela_count_(0), plt_rela_count_(0) {
+}
+
+Preflight::~Preflight() {
+}
+
+// Same polynomial as java.util.zip.CRC32; only a few KB are hashed per load, no table needed
+static uint32_t Crc32Update(uint32_t crc, const uint8_t* data, size_t length) {
+    crc = ~crc;
+    for (size_t i = 0; i < length; i++) {
+        crc ^= data[i];
+        for (int bit = 0; bit < 8; bit++) {
+            crc = (crc >> 1) ^ (0xEDB88320u & (0u - (crc & 1u)));
+        }
+    }
+    return ~crc;
+}
+
+uint32_t Preflight::ElfDigest(const ElfReader& reader) {
+    const uint8_t* file = static_cast<const uint8_t*>(reader.GetMappedAddr());
+    const ElfW(Ehdr)* header = reader.GetHeader();
+    uint32_t crc = Crc32Update(0, file, sizeof(ElfW(Ehdr)));
+    crc = Crc32Update(crc, file + header->e_phoff, reader.GetProgramHeaderCount() * sizeof(ElfW(Phdr)));
+    const ElfW(Phdr)* phdrs = reader.GetProgramHeaders();
+    for (size_t i = 0; i < reader.GetProgramHeaderCount(); i++) {
+        if (phdrs[i].p_type != PT_DYNAMIC) {
+            continue;
+        }
+        // SoPreflight skips a PT_DYNAMIC that does not fit in the file the same way
+        if (phdrs[i].p_offset <= reader.GetFileSize() &&
+            phdrs[i].p_filesz <= reader.GetFileSize() - phdrs[i].p_offset) {
+            crc = Crc32Update(crc, file + phdrs[i].p_offset, phdrs[i].p_filesz);
+        }
+        break;
+    }
+    return crc;
+}
+
+bool Preflight::Load(const char* sidecar_path, const ElfReader& reader) {
+    valid_ = false;
+
+    std::ifstream file(sidecar_path);
+    if (!file.is_open()) {
+        LOGD("No preflight sidecar: %s", sidecar_path);
+        return false;
+    }
+
+    std::string line;
+    while (std::getline(file, line)) {
+        if (line.empty() || line[0] == '#') {
+            continue;
+        }
+        size_t eq = line.find('=');
+        if (eq == std::string::npos) {
+            continue;
+        }
+        if (!ParseLine(line.substr(0, eq), line.substr(eq + 1))) {
+            LOGE("Malformed preflight line: %s", line.c_str());
+            return false;
+        }
+    }
+    file.close();
+
+    if (version_ != PREFLIGHT_FORMAT_VERSION) {
+        LOGD("Preflight version %d unsupported (expected %d)", version_, PREFLIGHT_FORMAT_VERSION);
+        return false;
+    }
+
+    if (file_size_ != reader.GetFileSize()) {
+        LOGD("Preflight stale: file size %zu != %zu", file_size_, reader.GetFileSize());
+        return false;
+    }
+
+    // 摘要覆盖段布局和重定位数量的来源；大小和修改时间都可能在内容变了之后保持不变
+    if (!has_elf_crc32_ || elf_crc32_ != ElfDigest(reader)) {
+        LOGD("Preflight stale: ELF digest mismatch");
+        return false;
+    }
+
+    // 预留的地址空间必须正好覆盖实际要映射的段，否则 MAP_FIXED 会落在预留区之外
+    ElfW(Addr) min_vaddr = 0;
+    size_t load_size = MemoryManager::phdr_table_get_load_size(reader.GetProgramHeaders(),
+                                                               reader.GetProgramHeaderCount(), &min_vaddr);
+    if (load_size != load_size_ || min_vaddr != min_vaddr_) {
+        LOGE("Preflight load span 0x%zx@0x%llx does not match the phdrs (0x%zx@0x%llx)",
+             load_size_, (unsigned long long) min_vaddr_, load_size, (unsigned long long) min_vaddr);
+        return false;
+    }
+
+    if (load_size_ == 0 || segments_.empty()) {
+        LOGD("Preflight has no loadable segments");
+        return false;
+    }
+
+    valid_ = true;
+    LOGD("Preflight loaded: load_size=0x%zx, rela=%zu, plt_rela=%zu, symbols=%zu",
+         load_size_, rela_count_, plt_rela_count_, required_symbols_.size());
+    return true;
+}
+
+bool Preflight::ParseLine(const std::string& key, const std::string& value) {
+    char* end = nullptr;
+    if (key == "version") {
+        version_ = static_cast<int>(strtol(value.c_str(), &end, 10));
+    } else if (key == "elf_crc32") {
+        elf_crc32_ = static_cast<uint32_t>(strtoul(value.c_str(), &end, 16));
+        has_elf_crc32_ = end != value.c_str();
+    } else if (key == "file_size") {
+        file_size_ = static_cast<size_t>(strtoull(value.c_str(), &end, 10));
+    } else if (key == "min_vaddr") {
+        min_vaddr_ = static_cast<ElfW(Addr)>(strtoull(value.c_str(), &end, 10));
+    } else if (key == "load_size") {
+        load_size_ = static_cast<size_t>(strtoull(value.c_str(), &end, 10));
+    } else if (key == "rela_count") {
+        rela_count_ = static_cast<size_t>(strtoull(value.c_str(), &end, 10));
+    } else if (key == "plt_rela_count") {
+        plt_rela_count_ = static_cast<size_t>(strtoull(value.c_str(), &end, 10));
+    } else if (key == "segment") {
+        PreflightSegment seg{};
+        unsigned long long vaddr, memsz, filesz, offset;
+        unsigned int flags;
+        if (sscanf(value.c_str(), "%llu,%llu,%llu,%llu,%u", &vaddr, &memsz, &filesz, &offset, &flags) != 5) {
+            return false;
+        }
+        seg.vaddr = vaddr;
+        seg.memsz = memsz;
+        seg.filesz = filesz;
+        seg.offset = offset;
+        seg.flags = flags;
+        segments_.push_back(seg);
+        return true;
+    } else if (key == "needed") {
+        needed_libs_.push_back(value);
+        return true;
+    } else if (key == "symbol") {
+        required_symbols_.push_back(value);
+        return true;
+    } else {
+        // 未知字段，向前兼容
+        return true;
+    }
+    return end != nullptr && end != value.c_str();
+}
@@ -157,7 +157,12 @@ bool Relocator::ProcessRelaRelocation(soinfo* si, const ElfW(Rela)* rela) {
             sym_addr = s->st_value + si->load_bias;
             LOGD("Local symbol: addr=0x%llx", (unsigned long long)sym_addr);
         } else if (sym_name) {
-            sym_addr = FindSymbolAddress(sym_name, si);
+            auto cached = symbol_cache_.find(sym_name);
+            if (cached != symbol_cache_.end()) {
+                sym_addr = cached->second;
+            } else {
+                sym_addr = FindSymbolAddress(sym_name, si);
+            }
             if (sym_addr == 0) {
                 LOGD("Cannot find symbol: %s (may be optional)", sym_name);
             }
@@ -225,6 +230,14 @@ bool Relocator::ProcessRelaRelocation(soinfo* si, const ElfW(Rela)* rela) {
     return true;
 }
 
+void Relocator::PreloadSymbols(soinfo* si, const std::vector<std::string>& names) {
+    symbol_cache_.reserve(names.size());
+    for (const auto& name : names) {
+        symbol_cache_[name] = FindSymbolAddress(name.c_str(), si);
+    }
+    LOGD("Preloaded %zu symbols for %s", symbol_cache_.size(), si->name);
+}
+
 ElfW(Addr) Relocator::FindSymbolAddress(const char* name, soinfo* si) {
     if (!name || !si) {
         return 0;
@@ -0,0 +1,212 @@
+#include "telemetry.h"
+#include "log.h"
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <mutex>
+#include <vector>
+#include <fcntl.h>
+#include <unistd.h>
+#include <errno.h>
+#include <sys/file.h>
+#include <sys/stat.h>
+#include <sys/xattr.h>
+#include <time.h>
+
+namespace Telemetry {
+
+    static const char *kRingPath = "/data/adb/modules/zygisk-myinjector/telemetry.ring";
+    // Magisk lets every domain read and write magisk_file; adb_data_file is off limits to apps
+    static const char *kRingContext = "u:object_r:magisk_file:s0";
+    static const char *kSelinuxXattr = "security.selinux";
+
+    struct LibraryResult {
+        std::string name;
+        long long loadMs;
+        bool ok;
+    };
+
+    static int g_fd = -1;
+    static std::mutex g_mutex;
+    static bool g_active = false;
+    static std::string g_package;
+    static std::string g_method;
+    static std::string g_trigger;
+    static long long g_waitMs = 0;
+    static std::vector<LibraryResult> g_libraries;
+
+    // 字段分隔符不能出现在记录中
+    static std::string sanitize(const std::string &value) {
+        std::string out = value;
+        for (char &c : out) {
+            if (c == '|' || c == ';' || c == ':' || c == '\n' || c == '\r') {
+                c = '_';
+            }
+        }
+        return out;
+    }
+
+    static long long epoch_ms() {
+        struct timespec ts{};
+        clock_gettime(CLOCK_REALTIME, &ts);
+        return ts.tv_sec * 1000LL + ts.tv_nsec / 1000000;
+    }
+
+    // Pad to a full slot so every record stays at a fixed offset
+    static void fill_slot(char *slot, const char *line) {
+        memset(slot, ' ', kSlotSize);
+        size_t len = strnlen(line, kSlotSize - 1);
+        memcpy(slot, line, len);
+        slot[kSlotSize - 1] = '\n';
+    }
+
+    static int format_header(char *buf, size_t size, unsigned long long seq) {
+        return snprintf(buf, size, "RING|v1|slots=%d|slot=%d|seq=%llu", kSlotCount, kSlotSize, seq);
+    }
+
+    // Returns the record count stored in the header, 0 for a new or foreign file
+    static unsigned long long read_seq() {
+        char slot[kSlotSize + 1];
+        if (pread(g_fd, slot, kSlotSize, 0) != kSlotSize) {
+            return 0;
+        }
+        slot[kSlotSize] = '\0';
+        char prefix[64];
+        int prefixLen = format_header(prefix, sizeof(prefix), 0) - 1; // without the trailing "0"
+        if (strncmp(slot, prefix, prefixLen) != 0) {
+            LOGW("Telemetry ring header mismatch, starting over");
+            return 0;
+        }
+        return strtoull(slot + prefixLen, nullptr, 10);
+    }
+
+    static bool has_ring_context(int fd) {
+        char context[128] = {};
+        ssize_t len = fgetxattr(fd, kSelinuxXattr, context, sizeof(context) - 1);
+        return len > 0 && strcmp(context, kRingContext) == 0;
+    }
+
+    void prepareRing(int client) {
+        uint8_t ok = 0;
+        int fd = ::open(kRingPath, O_RDWR | O_CREAT | O_CLOEXEC, 0644);
+        if (fd >= 0) {
+            fchmod(fd, 0644);
+            if (has_ring_context(fd)
+                || fsetxattr(fd, kSelinuxXattr, kRingContext, strlen(kRingContext) + 1, 0) == 0) {
+                ok = 1;
+            } else {
+                LOGW("Failed to relabel telemetry ring: %s", strerror(errno));
+            }
+            close(fd);
+        } else {
+            LOGW("Failed to create telemetry ring %s: %s", kRingPath, strerror(errno));
+        }
+        write(client, &ok, sizeof(ok));
+    }
+
+    bool open(int companion) {
+        if (g_fd >= 0) {
+            return true;
+        }
+        // 记录在切换到应用的 SELinux 域之后才写入，写入时按文件标签重新检查权限，
+        // 所以文件必须带有应用域可写的标签；zygote 自己不能改标签，交给 root companion
+        if (companion >= 0) {
+            uint8_t ok = 0;
+            if (read(companion, &ok, sizeof(ok)) != sizeof(ok) || !ok) {
+                LOGW("Telemetry ring not relabeled, records from the app may be denied");
+            }
+        }
+        g_fd = ::open(kRingPath, O_RDWR | O_CREAT | O_CLOEXEC, 0644);
+        if (g_fd < 0) {
+            LOGW("Failed to open telemetry ring %s: %s", kRingPath, strerror(errno));
+            return false;
+        }
+        fchmod(g_fd, 0644);
+        if (!has_ring_context(g_fd)) {
+            LOGW("Telemetry ring has an unexpected SELinux context, records may be denied");
+        }
+        return true;
+    }
+
+    void begin(const std::string &packageName, const char *method, const char *trigger) {
+        std::lock_guard<std::mutex> lock(g_mutex);
+        g_active = g_fd >= 0;
+        g_package = sanitize(packageName);
+        g_method = method;
+        g_trigger = trigger;
+        g_waitMs = 0;
+        g_libraries.clear();
+    }
+
+    void setWaitMs(long long waitMs) {
+        std::lock_guard<std::mutex> lock(g_mutex);
+        g_waitMs = waitMs;
+    }
+
+    void addLibrary(const std::string &name, long long loadMs, bool ok) {
+        std::lock_guard<std::mutex> lock(g_mutex);
+        if (g_active) {
+            g_libraries.push_back({sanitize(name), loadMs, ok});
+        }
+    }
+
+    void commit(long long totalMs) {
+        std::lock_guard<std::mutex> lock(g_mutex);
+        if (!g_active) {
+            return;
+        }
+        g_active = false;
+
+        bool allOk = true;
+        for (const auto &lib : g_libraries) {
+            allOk = allOk && lib.ok;
+        }
+
+        // Several apps may launch at once, the header is updated under an exclusive lock
+        if (flock(g_fd, LOCK_EX) != 0) {
+            LOGW("Failed to lock telemetry ring: %s", strerror(errno));
+        }
+        unsigned long long seq = read_seq() + 1;
+
+        char line[kSlotSize];
+        int len = snprintf(line, sizeof(line), "v1|%llu|%lld|%s|%s|%s|%lld|%lld|%d|",
+                           seq, epoch_ms(), g_package.c_str(), g_method.c_str(), g_trigger.c_str(),
+                           g_waitMs, totalMs, allOk ? 1 : 0);
+        if (len < 0 || len >= kSlotSize - 1) {
+            len = kSlotSize - 2;
+        }
+        // Libraries that do not fit are dropped, the ok flag above still accounts for them
+        for (size_t i = 0; i < g_libraries.size(); i++) {
+            const auto &lib = g_libraries[i];
+            char entry[kSlotSize];
+            int n = snprintf(entry, sizeof(entry), "%s%s:%lld:%d", i == 0 ? "" : ";",
+                             lib.name.c_str(), lib.loadMs, lib.ok ? 1 : 0);
+            if (n < 0 || len + n >= kSlotSize - 1) {
+                break;
+            }
+            memcpy(line + len, entry, n);
+            len += n;
+        }
+        line[len] = '\0';
+
+        // Record first, header last: readers only trust slots up to the header's seq
+        char slot[kSlotSize];
+        fill_slot(slot, line);
+        off_t offset = (off_t) (1 + (seq - 1) % kSlotCount) * kSlotSize;
+        bool written = pwrite(g_fd, slot, kSlotSize, offset) == kSlotSize;
+        if (written) {
+            char header[64];
+            format_header(header, sizeof(header), seq);
+            fill_slot(slot, header);
+            written = pwrite(g_fd, slot, kSlotSize, 0) == kSlotSize;
+        }
+        if (!written) {
+            LOGW("Failed to write telemetry record: %s", strerror(errno));
+        }
+
+        flock(g_fd, LOCK_UN);
+        close(g_fd);
+        g_fd = -1;
+        LOGI("Telemetry record %llu: %s", seq, line);
+    }
+}
@@ -0,0 +1,35 @@
+#ifndef TELEMETRY_H
+#define TELEMETRY_H
+
+#include <string>
+
+// 每次注入记录一条定长文本，写入 MODULE_PATH/telemetry.ring 环形文件，供 ConfigApp 的 TelemetryActivity 增量读取
+//
+// 文件由 kSlotCount + 1 个 kSlotSize 字节的槽组成，每个槽以空格补齐并以 '\n' 结尾：
+//   slot 0:  RING|v1|slots=256|slot=512|seq=<已写入的记录总数>
+//   slot 1+((seq-1) % slots):  v1|seq|epoch_ms|package|method|trigger|wait_ms|total_ms|ok|lib:ms:ok;lib:ms:ok
+namespace Telemetry {
+
+    constexpr int kSlotCount = 256;
+    constexpr int kSlotSize = 512;
+
+    // Root companion side: create the ring and label it so that app domains may write to it
+    void prepareRing(int client);
+
+    // Open the ring file; must run in preAppSpecialize while the process still has zygote's context.
+    // companion is a connection to the module's companion (or -1), which relabels the file first
+    bool open(int companion);
+
+    // Start a record for this launch, later calls are ignored if open() failed
+    void begin(const std::string &packageName, const char *method, const char *trigger);
+
+    void setWaitMs(long long waitMs);
+
+    // Thread safe, load groups report concurrently
+    void addLibrary(const std::string &name, long long loadMs, bool ok);
+
+    // Append the record to the ring and close the file
+    void commit(long long totalMs);
+}
+
+#endif // TELEMETRY_H
@@ -36,6 +36,9 @@ import os
 import tempfile
 import shutil
 import argparse
+import re
+import time
+import uuid
 from typing import List, Dict, Optional
 from pathlib import Path
 
@@ -59,6 +62,13 @@ FRIDA_VERSION = "16.0.7"
 MODULE_PATH = "/data/adb/modules/zygisk-myinjector"
 SO_STORAGE_DIR = f"{MODULE_PATH}/so_files"
 
+# APPLY_CONFIG status records, one <request_id>.json per broadcast
+APPLY_STATUS_DIR = "/data/data/com.jiqiu.configapp/files/apply_status"
+
+# Broadcast result codes (ApplyQueue / ConfigApplyReceiver)
+RESULT_APPLIED = 1
+RESULT_QUEUED = 4
+
 # Default ports
 DEFAULT_PORTS = [27042, 65320]
 
@@ -142,8 +152,8 @@ class ADBHelper:
         result = self.run(['push', local_path, remote_path], check=False)
         return result.returncode == 0
     
-    def send_broadcast(self, action: str, component: str, extras: Dict[str, str]) -> bool:
-        """Send broadcast with extras"""
+    def send_broadcast(self, action: str, component: str, extras: Dict[str, str]) -> Optional[int]:
+        """Send broadcast with extras, return the result code (0 if the receiver set none, None on failure)"""
         args = ['shell', 'am', 'broadcast', '-n', component, '-a', action]
         
         for key, value in extras.items():
@@ -153,11 +163,23 @@ class ADBHelper:
         if result.returncode == 0:
             print(f"Broadcast sent successfully")
             print(result.stdout)
-            return True
+            # Broadcast completed: result=1, data="applied com.example.app id=..."
+            match = re.search(r'result=(-?\d+)', result.stdout)
+            return int(match.group(1)) if match else 0
         else:
             print(f"Failed to send broadcast")
             print(result.stderr)
-            return False
+            return None
+    
+    def read_apply_status(self, request_id: str) -> Optional[Dict]:
+        """Read the status record of an APPLY_CONFIG request, None if it does not exist (yet)"""
+        result = self.run(['shell', f'su -c "cat {APPLY_STATUS_DIR}/{request_id}.json"'], check=False)
+        if result.returncode != 0 or not result.stdout.strip():
+            return None
+        try:
+            return json.loads(result.stdout)
+        except json.JSONDecodeError:
+            return None
     
     def get_arch(self) -> str:
         """Get device CPU architecture"""
@@ -467,8 +489,8 @@ def ensure_gadget_installed(adb: ADBHelper, gadget_name: str = 'libgadget.so') -
             shutil.rmtree(temp_dir)
 
 
-def generate_config_files(package_name: str, gadget_config: Dict) -> tuple:
-    """Generate config.json and gadget config content"""
+def generate_config_files(package_names: List[str], gadget_config: Dict) -> tuple:
+    """Generate config.json (one entry per package, same gadget) and gadget config content"""
     
     # Prepare SO file reference for gadget
     gadget_name = gadget_config['gadgetName']
@@ -484,6 +506,8 @@ def generate_config_files(package_name: str, gadget_config: Dict) -> tuple:
         "hideInjection": False,
         "injectionDelay": 2,
         "globalSoFiles": [],
+        "globalGadgetConfig": None,
+        # perAppConfig stays last, the module's parser expects it to end the document
         "perAppConfig": {
             package_name: {
                 "enabled": True,
@@ -492,8 +516,8 @@ def generate_config_files(package_name: str, gadget_config: Dict) -> tuple:
                 "gadgetConfig": gadget_config,
                 "useGlobalGadget": False
             }
-        },
-        "globalGadgetConfig": None
+            for package_name in package_names
+        }
     }
     
     # Generate gadget config content based on mode
@@ -645,6 +669,33 @@ def check_and_set_selinux(adb: ADBHelper) -> bool:
         return True
 
 
+def wait_for_apply(adb: ADBHelper, request_id: str, timeout: float = 120.0) -> bool:
+    """Poll the status record until the request is done/failed/rejected"""
+    deadline = time.monotonic() + timeout
+    interval = 0.2
+    last_state = None
+    while time.monotonic() < deadline:
+        status = adb.read_apply_status(request_id)
+        state = status.get('state') if status else None
+        if state != last_state and state:
+            print(f"Apply {request_id}: {state}")
+            last_state = state
+        if state in ('done', 'failed', 'rejected'):
+            phases = ', '.join(f"{k} {v} ms" for k, v in status.get('phaseMs', {}).items())
+            if phases:
+                print(f"  {phases}")
+            for file in status.get('files', []):
+                if file.get('status') != 'ok':
+                    print(f"  {file.get('packageName')}/{file.get('name')}: {file.get('status')}")
+            if status.get('error'):
+                print(f"  Error: {status['error']}")
+            return state == 'done'
+        time.sleep(interval)
+        interval = min(interval * 2, 2.0)
+    print(f"Timed out waiting for apply {request_id}")
+    return False
+
+
 def restart_app(adb: ADBHelper, package_name: str):
     """Restart the target application"""
     print(f"\n=== Restarting Application ===")
@@ -688,6 +739,11 @@ def main():
         choices=DEFAULT_PORTS,
         help=f'Preset Gadget port (choices: {", ".join(map(str, DEFAULT_PORTS))})'
     )
+    parser.add_argument(
+        '--packages',
+        help='Comma separated package names to configure with one push and one broadcast '
+             '(skips interactive app selection)'
+    )
     args = parser.parse_args()
     
     print("=" * 60)
@@ -707,10 +763,15 @@ def main():
         print("The injection may fail. Please fix SELinux manually and try again.")
         sys.exit(1)
     
-    # Step 3: Select package
-    package_name = select_package(adb)
-    if not package_name:
+    # Step 3: Select package(s)
+    if args.packages:
+        package_names = [p.strip() for p in args.packages.split(',') if p.strip()]
+    else:
+        package_name = select_package(adb)
+        package_names = [package_name] if package_name else []
+    if not package_names:
         sys.exit(1)
+    package_name = package_names[0]
     
     # Step 4: Configure gadget
     gadget_config = configure_gadget(preset_port=args.port)
@@ -725,7 +786,7 @@ def main():
     
     # Step 6: Generate config files
     print("\n=== Generating Configuration Files ===")
-    config_json, gadget_config_json = generate_config_files(package_name, gadget_config)
+    config_json, gadget_config_json = generate_config_files(package_names, gadget_config)
     
     print("\nGenerated config.json:")
     print(config_json)
@@ -763,34 +824,52 @@ def main():
         sys.exit(1)
     print(f"✓ Pushed gadget config -> {remote_gadget_config}")
     
-    # Step 9: Send broadcast
+    # Step 9: Send broadcast (one for all packages: config published once, one batched deploy)
     print("\n=== Sending Broadcast to Apply Config ===")
     
-    success = adb.send_broadcast(
+    request_id = uuid.uuid4().hex
+    extras = {
+        'request_id': request_id,
+        'tmp_config_path': remote_config,
+        'tmp_gadget_config_path': remote_gadget_config
+    }
+    if len(package_names) == 1:
+        extras['package_name'] = package_name
+    else:
+        extras['package_names'] = ','.join(package_names)
+    result_code = adb.send_broadcast(
         action='com.jiqiu.configapp.APPLY_CONFIG',
         component='com.jiqiu.configapp/.ConfigApplyReceiver',
-        extras={
-            'package_name': package_name,
-            'tmp_config_path': remote_config,
-            'tmp_gadget_config_path': remote_gadget_config
-        }
+        extras=extras
     )
+    if result_code == RESULT_APPLIED:
+        success = True
+    elif result_code == RESULT_QUEUED:
+        # Still running past the broadcast deadline: wait for the status record instead of guessing
+        success = wait_for_apply(adb, request_id)
+    else:
+        if result_code == 0:
+            print("No receiver handled the broadcast, is the config app running?")
+        success = False
     
     if success:
         print("\n✓ Configuration applied successfully!")
-        print(f"\nThe app '{package_name}' has been configured.")
+        print(f"\nConfigured: {', '.join(package_names)}")
         
         # 自动完成工作流程
         print("\n=== Completing Workflow ===")
         
-        # Step 1: Restart app
-        restart_app(adb, package_name)
+        # Step 1: Restart app(s)
+        for name in package_names:
+            restart_app(adb, name)
+        if len(package_names) > 1 and gadget_config['mode'] == 'server':
+            print(f"\nNote: all {len(package_names)} apps listen on the same port, "
+                  f"only one can hold it at a time (on_port_conflict={gadget_config['onPortConflict']})")
         
         # Step 2: Setup port forwarding
         port = gadget_config.get('port', 27042)
         if setup_port_forward(adb, port):
             # Step 3: Quick test
-            import time
             print("\nWaiting 3 seconds for app to initialize...")
             time.sleep(3)
             
@@ -823,7 +902,8 @@ def main():
     else:
         print("\n✗ Failed to apply configuration")
         print("Please check logcat for details:")
-        print(f"  adb -s {device_id} logcat -s ConfigApplyReceiver:* ConfigManager:*")
+        print(f"  adb -s {device_id} logcat -s ConfigApplyReceiver:* ConfigApplier:* ConfigManager:*")
+        print(f"  adb -s {device_id} shell su -c cat {APPLY_STATUS_DIR}/{request_id}.json")
         sys.exit(1)
     
     # Clean up temp directory
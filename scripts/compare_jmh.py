@@ -0,0 +1,88 @@
+#!/usr/bin/env python3
+# -*- coding: utf-8 -*-
+"""
+Compare two JMH JSON result files (benchmark/build/results/jmh/results.json)
+
+用法:
+  git stash && ./gradlew :benchmark:jmh && cp benchmark/build/results/jmh/results.json /tmp/old.json
+  git stash pop && ./gradlew :benchmark:jmh
+  python3 scripts/compare_jmh.py /tmp/old.json benchmark/build/results/jmh/results.json
+
+每个 benchmark + 参数组合输出一行：旧分数、新分数、变化百分比，以及 gc profiler 记录的每次操作分配字节数变化；
+变化超过两次运行误差之和时标记为 faster / SLOWER（avgt 模式下分数越小越好）。
+"""
+
+import json
+import sys
+
+
+def load(path):
+    with open(path, 'r', encoding='utf-8') as f:
+        results = json.load(f)
+    scores = {}
+    for result in results:
+        name = result['benchmark'].rsplit('.', 2)
+        name = '.'.join(name[-2:])
+        params = result.get('params') or {}
+        if params:
+            name += ' [' + ', '.join('%s=%s' % (k, params[k]) for k in sorted(params)) + ']'
+        metric = result['primaryMetric']
+        error = metric.get('scoreError')
+        if not isinstance(error, (int, float)):  # "NaN" with a single fork
+            error = 0.0
+        alloc = None
+        for key, secondary in (result.get('secondaryMetrics') or {}).items():
+            if key.lstrip('\u00b7') == 'gc.alloc.rate.norm':  # "·gc.alloc.rate.norm" before JMH 1.36
+                alloc = secondary['score']
+        scores[name] = (result.get('mode'), metric['score'], error, metric['scoreUnit'], alloc)
+    return scores
+
+
+def format_alloc(old, new):
+    if old is None or new is None:
+        return ''
+    if old == 0:
+        return '  alloc %s -> %s B/op' % (int(old), int(new))
+    return '  alloc %+.1f%% (%s B/op)' % ((new - old) / old * 100, int(new))
+
+
+def verdict(mode, old, old_err, new, new_err):
+    if abs(new - old) <= old_err + new_err:
+        return ''
+    lower_is_better = mode in ('avgt', 'sample', 'ss')
+    if (new < old) == lower_is_better:
+        return 'faster'
+    return 'SLOWER'
+
+
+def main():
+    if len(sys.argv) != 3:
+        print('usage: %s old.json new.json' % sys.argv[0])
+        return 2
+    old = load(sys.argv[1])
+    new = load(sys.argv[2])
+
+    names = sorted(set(old) | set(new))
+    width = max([len(n) for n in names] + [9])
+    print('%-*s %14s %14s %9s' % (width, 'benchmark', 'old', 'new', 'delta'))
+    regressions = 0
+    for name in names:
+        if name not in old or name not in new:
+            only = 'new only' if name in new else 'old only'
+            print('%-*s %s' % (width, name, only))
+            continue
+        mode, old_score, old_err, unit, old_alloc = old[name]
+        _, new_score, new_err, _, new_alloc = new[name]
+        delta = (new_score - old_score) / old_score * 100 if old_score else 0.0
+        mark = verdict(mode, old_score, old_err, new_score, new_err)
+        regressions += mark == 'SLOWER'
+        print('%-*s %10.3f %-3s %10.3f %-3s %+8.1f%% %-6s%s' % (
+            width, name, old_score, unit.split('/')[0], new_score, unit.split('/')[0], delta, mark,
+            format_alloc(old_alloc, new_alloc)))
+
+    print('\n%d benchmark(s) slower beyond error' % regressions)
+    return 1 if regressions else 0
+
+
+if __name__ == '__main__':
+    sys.exit(main())